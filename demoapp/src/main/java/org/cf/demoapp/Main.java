@@ -6,7 +6,7 @@ import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
-import org.cf.smalivm.emulate.MethodEmulator;
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
@@ -24,8 +24,8 @@ public class Main {
         vm = vmFactory.build(SMALI_PATH);
 
         // Hook println with our own implementation
-        MethodEmulator.addMethod("Ljava/io/PrintStream;->println(Ljava/lang/String;)V",
-                        java_io_PrintStream_println.class);
+        vm.getMethodEmulator().addMethod("Ljava/io/PrintStream;->println(Ljava/lang/String;)V",
+                        new java_io_PrintStream_println());
 
         // Execute particular method
         vm.execute("Lorg/cf/demosmali/Main;->main([Ljava/lang/String;)V");
@@ -36,7 +36,8 @@ public class Main {
     }
 
     private static void executeParameterLogicWithKnownParameter(int parameterValue) throws MaxAddressVisitsExceeded,
-                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded,
+                    ExecutionBudgetExceeded {
         String methodDescriptor = "Lorg/cf/demosmali/Main;->parameterLogic(I)I";
 
         ExecutionContext ectx = vm.spawnExecutionContext(methodDescriptor);
@@ -51,7 +52,8 @@ public class Main {
     }
 
     private static void executeParameterLogicWithUnknownParameter() throws MaxAddressVisitsExceeded,
-                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded,
+                    ExecutionBudgetExceeded {
         String methodDescriptor = "Lorg/cf/demosmali/Main;->parameterLogic(I)I";
 
         // Execute with ambiguous / unknown parameters.
@@ -66,7 +68,8 @@ public class Main {
     }
 
     private static void executePrintParameter(int parameterValue) throws MaxAddressVisitsExceeded,
-                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded,
+                    ExecutionBudgetExceeded {
         String methodDescriptor = "Lorg/cf/demosmali/Main;->printParameter(I)V";
 
         // Execute method with some context
@@ -7,13 +7,11 @@ import gnu.trove.map.TIntObjectMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -25,20 +23,15 @@ import java.util.Set;
 
 import javax.annotation.Nullable;
 
-import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.MethodState;
 import org.cf.smalivm.opcode.FillArrayDataPayloadOp;
-import org.cf.smalivm.opcode.InvokeOp;
-import org.cf.smalivm.opcode.NewInstanceOp;
 import org.cf.smalivm.opcode.NopOp;
 import org.cf.smalivm.opcode.Op;
 import org.cf.smalivm.opcode.OpCreator;
-import org.cf.smalivm.opcode.ReturnOp;
-import org.cf.smalivm.opcode.ReturnVoidOp;
 import org.cf.smalivm.opcode.SwitchPayloadOp;
 import org.jf.dexlib2.builder.BuilderInstruction;
 import org.jf.dexlib2.builder.BuilderTryBlock;
@@ -62,8 +55,10 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
     private final VirtualMachine vm;
     private final Set<MethodLocation> recreateLocations;
     private final List<MethodLocation> reexecuteLocations;
+    private final Set<ExecutionNode> changedNodes;
     private OpCreator opCreator;
-    private boolean recreateOrReexecute;
+    private int transactionDepth;
+    private RegisterLiveness registerLiveness;
 
     public ExecutionGraphManipulator(ExecutionGraph graph, BuilderMethod method, VirtualMachine vm,
                     DexBuilder dexBuilder) {
@@ -79,7 +74,7 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         // When many ops are added, such as when unreflecting, need to execute in order to ensure
         // correct contexts for each op. Executing out of order may read registers that haven't been assigned yet.
         reexecuteLocations = new LinkedList<MethodLocation>();
-        recreateOrReexecute = true;
+        changedNodes = new HashSet<ExecutionNode>();
     }
 
     public void addInstruction(MethodLocation location, BuilderInstruction instruction) {
@@ -94,6 +89,7 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         } catch (Exception e) {
             log.error("Error invoking MethodLocation#mergeInto(). Wrong dexlib version?", e);
         }
+        addToNodePile(newLocation, oldLocation);
 
         rebuildGraph();
     }
@@ -102,57 +98,39 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         addInstruction(getLocation(address), newInstruction);
     }
 
-    public TIntList getAvailableRegisters(int address) {
-        Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>(getChildren(address));
-        ExecutionNode node = stack.peek();
-        if (null == node) {
-            // Edge case.
-            assert (getTemplateNode(address).getOp() instanceof ReturnOp) || (getTemplateNode(address).getOp() instanceof ReturnVoidOp);
-            MethodState mState = getNodePile(address).get(0).getContext().getMethodState();
-            TIntList available = new TIntLinkedList();
-            // They're all available!
-            for (int i = 0; i < mState.getRegisterCount(); i++) {
-                available.add(i);
-            }
-
-            return available;
-        }
-
-        int[] registers = new int[node.getContext().getMethodState().getRegisterCount()];
-        for (int i = 0; i < registers.length; i++) {
-            registers[i] = i;
-        }
-        TIntSet registersRead = new TIntHashSet();
-        TIntSet registersAssigned = new TIntHashSet();
-        while ((node = stack.poll()) != null) {
-            // TODO: easy - determine if dalvik allows you to overwrite the "this" register for instance methods
-            MethodState mState = node.getContext().getMethodState();
-            for (int register : registers) {
-                if (registersRead.contains(register) || registersAssigned.contains(register)) {
-                    continue;
-                }
+    /**
+     * Start a batch of edits. Until the matching {@link #commitTransaction()}, edits only move nodes around. Address
+     * mappings and ops are rebuilt and affected nodes are re-executed once at commit. Addresses after an edit are stale
+     * during the batch, so edit from the highest address to the lowest. Transactions may be nested.
+     */
+    public void beginTransaction() {
+        transactionDepth++;
+    }
 
-                if (node.getOp().getName().startsWith("move-result")) {
-                    // The target and result registers will always be identical. This makes it seem as if the register
-                    // has always been read since it was read when it was in the result register.
-                    continue;
-                }
+    /**
+     * Finish a batch of edits started with {@link #beginTransaction()}. If it's the outermost transaction, the graph
+     * is rebuilt and affected nodes are re-executed. Call this in a finally block so a failed edit doesn't leave the
+     * graph in a transaction, which would stop it from ever being rebuilt.
+     */
+    public void commitTransaction() {
+        assert transactionDepth > 0;
+        transactionDepth--;
+        rebuildGraph();
+    }
 
-                if (mState.wasRegisterRead(register)) {
-                    registersRead.add(register);
-                } else if (mState.wasRegisterAssigned(register)) {
-                    registersAssigned.add(register);
-                }
-            }
-            stack.addAll(node.getChildren());
-        }
+    public boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
 
+    public TIntList getAvailableRegisters(int address) {
+        BitSet usedRegisters = getRegisterLiveness().getUsedRegistersAfter(address);
+        MethodState mState = getNodePile(address).get(0).getContext().getMethodState();
         TIntList available = new TIntLinkedList();
-        for (int register : registers) {
-            if (registersRead.contains(register)) {
-                continue;
+        for (int register = 0; register < mState.getRegisterCount(); register++) {
+            // TODO: easy - determine if dalvik allows you to overwrite the "this" register for instance methods
+            if (!usedRegisters.get(register)) {
+                available.add(register);
             }
-            available.add(register);
         }
 
         return available;
@@ -192,6 +170,20 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         return parentAddresses;
     }
 
+    /**
+     * Built the first time it's needed and kept up to date as the graph is edited.
+     *
+     * @return which registers may be read after each address
+     */
+    public RegisterLiveness getRegisterLiveness() {
+        assert !isInTransaction();
+        if (registerLiveness == null) {
+            registerLiveness = new RegisterLiveness(this);
+        }
+
+        return registerLiveness;
+    }
+
     public List<BuilderTryBlock> getTryBlocks() {
         return implementation.getTryBlocks();
     }
@@ -204,6 +196,7 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         int index = location.getIndex();
         implementation.removeInstruction(index);
         removeEmptyTryCatchBlocks();
+        removeFromNodePile(location);
 
         rebuildGraph();
     }
@@ -216,8 +209,13 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         addresses.sort();
         addresses.reverse();
         log.debug("Removing instructions: " + addresses);
-        for (int address : addresses.toArray()) {
-            removeInstruction(address);
+        beginTransaction();
+        try {
+            for (int address : addresses.toArray()) {
+                removeInstruction(address);
+            }
+        } finally {
+            commitTransaction();
         }
     }
 
@@ -228,15 +226,17 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
     }
 
     public void replaceInstruction(int insertAddress, List<BuilderInstruction> instructions) {
-        recreateOrReexecute = false;
-        int address = insertAddress;
-        for (BuilderInstruction instruction : instructions) {
-            addInstruction(address, instruction);
-            address += instruction.getCodeUnits();
+        // Instructions are inserted before the replaced one, which keeps its location as it shifts down.
+        MethodLocation location = getLocation(insertAddress);
+        beginTransaction();
+        try {
+            for (BuilderInstruction instruction : instructions) {
+                addInstruction(location, instruction);
+            }
+            removeInstruction(location);
+        } finally {
+            commitTransaction();
         }
-        MethodLocation location = getLocation(address);
-        recreateOrReexecute = true;
-        removeInstruction(location);
     }
 
     public String toSmali() {
@@ -252,22 +252,13 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         return sb.toString();
     }
 
-    private void addToNodePile(MethodLocation newLocation) {
+    private void addToNodePile(MethodLocation newLocation, MethodLocation shiftedLocation) {
         // Returns node which need to be re-executed after graph / mappings are rebuilt
         // E.g. branch offset instructions can't be created without accurate mappings
-        int oldIndex = newLocation.getIndex() + 1;
-        MethodLocation shiftedLocation = null;
-        for (MethodLocation location : locationToNodePile.keySet()) {
-            if (location.getIndex() == oldIndex) {
-                shiftedLocation = location;
-                break;
-            }
-        }
-        assert shiftedLocation != null;
+        List<ExecutionNode> shiftedNodePile = getNodePile(shiftedLocation);
+        assert shiftedNodePile != null;
 
-        List<ExecutionNode> shiftedNodePile = locationToNodePile.get(shiftedLocation);
-        List<ExecutionNode> newNodePile = new ArrayList<ExecutionNode>();
-        locationToNodePile.put(newLocation, newNodePile);
+        List<ExecutionNode> newNodePile = insertNodePile(newLocation, shiftedLocation);
 
         Op shiftedOp = shiftedNodePile.get(0).getOp();
         Op op = opCreator.create(newLocation);
@@ -300,6 +291,7 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
                 String methodDescriptor = ReferenceUtil.getMethodDescriptor(method);
                 newContext = vm.spawnExecutionContext(methodDescriptor);
                 newNode.setContext(newContext);
+                changedNodes.add(newNode);
             }
             reparentNode(shiftedNode, newNode);
         }
@@ -310,46 +302,24 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         child.setContext(newContext);
         child.setParent(parent);
         reexecuteLocations.add(child.getOp().getLocation());
+        changedNodes.add(child);
+        changedNodes.add(parent);
 
         for (ExecutionNode grandChild : child.getChildren()) {
             grandChild.getContext().setShallowParent(newContext);
+            // Values of registers read may have changed
+            changedNodes.add(grandChild);
         }
     }
 
     private void recreateAndExecute() {
-        if (!recreateOrReexecute) {
-            return;
-        }
-
         // Was removed from implementation before getting here
         recreateLocations.removeIf(p -> p.getInstruction() == null);
         reexecuteLocations.removeIf(p -> p.getInstruction() == null);
 
         for (MethodLocation location : recreateLocations) {
             Op op = opCreator.create(location);
-            List<ExecutionNode> pile = locationToNodePile.get(location);
-
-            // TODO: move side effects out of ops and into nodes or graph
-            // This is a big ugly.
-            if (op instanceof NewInstanceOp || op instanceof InvokeOp) {
-                ExecutionNode node = pile.get(0);
-
-                try {
-                    SideEffect.Level originalLevel = node.getOp().getSideEffectLevel();
-                    Class<? extends Op> klazz;
-                    if (op instanceof NewInstanceOp) {
-                        klazz = NewInstanceOp.class;
-                    } else { // InvokeOp
-                        klazz = InvokeOp.class;
-                    }
-                    Field f = klazz.getDeclaredField("sideEffectLevel");
-                    f.setAccessible(true);
-                    f.set(op, originalLevel);
-                } catch (Exception e) {
-                    // Ugly.
-                    e.printStackTrace();
-                }
-            }
+            List<ExecutionNode> pile = getNodePile(location);
 
             for (int i = 0; i < pile.size(); i++) {
                 pile.get(i).setOp(op);
@@ -361,7 +331,7 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         Collections.sort(reexecuteLocations, (e1, e2) -> Integer.compare(e1.getCodeAddress(), e2.getCodeAddress()));
         Set<MethodLocation> reexecute = new LinkedHashSet<MethodLocation>(reexecuteLocations);
         for (MethodLocation location : reexecute) {
-            List<ExecutionNode> pile = locationToNodePile.get(location);
+            List<ExecutionNode> pile = getNodePile(location);
             for (int i = 0; i < pile.size(); i++) {
                 ExecutionNode node = pile.get(i);
                 if (i == TEMPLATE_NODE_INDEX) {
@@ -369,26 +339,41 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
                 }
 
                 node.execute();
+                changedNodes.add(node);
             }
         }
 
+        if (registerLiveness != null) {
+            changedNodes.removeIf(n -> n.getOp().getLocation().getInstruction() == null);
+            registerLiveness.update(changedNodes);
+        }
+
         recreateLocations.clear();
         reexecuteLocations.clear();
+        changedNodes.clear();
     }
 
     private void rebuildGraph() {
-        // This seems like overkill until you realize implementation may change from under us.
+        invalidateConsensus();
+        if (isInTransaction()) {
+            return;
+        }
+
+        // Added and removed instructions already have node piles updated, but implementation may change from under us.
         // Multiple new instructions may be added from adding or removing a single instruction.
-        Set<MethodLocation> staleLocations = locationToNodePile.keySet();
+        Set<MethodLocation> staleLocations = new HashSet<MethodLocation>(getNodePileLocations());
         Set<MethodLocation> implementationLocations = new HashSet<MethodLocation>();
         for (BuilderInstruction instruction : implementation.getInstructions()) {
             implementationLocations.add(instruction.getLocation());
         }
 
-        Set<MethodLocation> addedLocations = new HashSet<MethodLocation>(implementationLocations);
+        List<MethodLocation> addedLocations = new ArrayList<MethodLocation>(implementationLocations);
         addedLocations.removeAll(staleLocations);
+        // Dexlib may add several adjacent locations, e.g. padding. Each one takes nodes from the location after it.
+        Collections.sort(addedLocations, (e1, e2) -> Integer.compare(e2.getIndex(), e1.getIndex()));
         for (MethodLocation location : addedLocations) {
-            addToNodePile(location);
+            MethodLocation shiftedLocation = implementation.getInstructions().get(location.getIndex() + 1).getLocation();
+            addToNodePile(location, shiftedLocation);
         }
         Set<MethodLocation> removedLocations = new HashSet<MethodLocation>(staleLocations);
         removedLocations.removeAll(implementationLocations);
@@ -399,8 +384,10 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         TIntObjectMap<MethodLocation> newAddressToLocation = buildAddressToLocation(implementation);
         addressToLocation.clear();
         addressToLocation.putAll(newAddressToLocation);
+        reindexNodePiles();
 
         recreateAndExecute();
+        invalidateConsensus();
     }
 
     public MethodLocation getLocation(int address) {
@@ -451,9 +438,13 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
     }
 
     private void removeFromNodePile(MethodLocation location) {
-        List<ExecutionNode> nodePile = locationToNodePile.remove(location);
+        List<ExecutionNode> nodePile = removeNodePile(location);
         Map<MethodLocation, ExecutionNode> locationToChildNodeToRemove = new HashMap<MethodLocation, ExecutionNode>();
         for (ExecutionNode removedNode : nodePile) {
+            if (registerLiveness != null) {
+                registerLiveness.remove(removedNode);
+            }
+
             ExecutionNode parentNode = removedNode.getParent();
             if (parentNode == null) {
                 continue;
@@ -461,6 +452,7 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
 
             parentNode.removeChild(removedNode);
             recreateLocations.add(parentNode.getOp().getLocation());
+            changedNodes.add(parentNode);
             // reexecuteLocations.add(parentNode.getOp().getLocation());
 
             for (ExecutionNode childNode : removedNode.getChildren()) {
@@ -479,8 +471,11 @@ public class ExecutionGraphManipulator extends ExecutionGraph {
         }
 
         for (Entry<MethodLocation, ExecutionNode> entry : locationToChildNodeToRemove.entrySet()) {
-            List<ExecutionNode> pile = locationToNodePile.get(entry.getKey());
+            List<ExecutionNode> pile = getNodePile(entry.getKey());
             pile.remove(entry.getValue());
+            if (registerLiveness != null) {
+                registerLiveness.remove(entry.getValue());
+            }
         }
     }
 
@@ -9,11 +9,22 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
@@ -21,13 +32,13 @@ import org.cf.smalivm.ClassManager;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.VirtualMachineFactory;
 import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
 import org.cf.smalivm.exception.MaxMethodVisitsExceeded;
 import org.cf.smalivm.exception.UnhandledVirtualException;
 import org.jf.dexlib2.writer.builder.BuilderMethod;
-import org.jf.dexlib2.writer.builder.DexBuilder;
 import org.jf.dexlib2.writer.io.FileDataStore;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -43,10 +54,18 @@ public class Launcher {
     private static final Pattern SUPPORT_LIBRARY_PATTERN = Pattern.compile("Landroid/support/(annotation|v\\d{1,2})/");
 
     private final VirtualMachineFactory vmFactory;
+
+    /*
+     * Executing a method only reads method implementations, so any number of executions can happen at once. Optimizing
+     * a method changes its implementation and interns references into the shared DexBuilder, so it must happen alone.
+     * Fair ordering keeps optimizations from starving behind a steady stream of executions.
+     */
+    private final ReadWriteLock implementationLock;
     private Options opts;
 
     public Launcher(VirtualMachineFactory vmFactory) {
         this.vmFactory = vmFactory;
+        implementationLock = new ReentrantReadWriteLock(true);
     }
 
     public void run(String[] args) throws IOException, UnhandledVirtualException {
@@ -60,19 +79,42 @@ public class Launcher {
         long startTime = System.currentTimeMillis();
         VirtualMachine vm = vmFactory.build(opts.getInFile(), opts.getOutputAPILevel(), opts.getMaxAddressVisits(),
                         opts.getMaxCallDepth(), opts.getMaxMethodVisits(), opts.getMaxExecutionTime());
+        if (opts.isMergeStates()) {
+            vm.setStateMerging(true, opts.getWideningThreshold());
+        }
+        vm.getTemplateGraphCache().setMaxWeight(opts.getMaxTemplateSize());
+        vm.getTemplateGraphCache().setSoft(opts.isSoftTemplates());
+        vm.setRetainingOnlyResults(opts.isRetainOnlyResults());
         ClassManager classManager = vm.getClassManager();
+        if (opts.isPreload()) {
+            classManager.dexifyNonFrameworkClasses(Runtime.getRuntime().availableProcessors());
+        }
         Set<String> classNames = classManager.getNonFrameworkClassNames();
+        List<String> methodDescriptors = new LinkedList<String>();
         int classCount = 0;
-        int methodCount = 0;
         for (String className : classNames) {
-            int newCount = executeClass(vm, className);
-            classCount += newCount > 0 ? 1 : 0;
-            methodCount += newCount;
+            Set<String> classMethodDescriptors = getMethodDescriptorsToSimplify(classManager, className);
+            classCount += classMethodDescriptors.size() > 0 ? 1 : 0;
+            methodDescriptors.addAll(classMethodDescriptors);
         }
 
+        if (opts.getThreads() > 1) {
+            executeMethodsInParallel(vm, methodDescriptors, opts.getThreads());
+        } else {
+            for (String methodDescriptor : methodDescriptors) {
+                executeMethod(vm, methodDescriptor);
+            }
+        }
+        int methodCount = methodDescriptors.size();
+
         long totalTime = System.currentTimeMillis() - startTime;
         System.out.println("Simplified " + methodCount + " methods from " + classCount + " classes in " + totalTime + " ms.");
         System.out.println(Optimizer.getTotalOptimizationCounts());
+        if (log.isInfoEnabled()) {
+            log.info(vm.getMethodSummaryCache().toString());
+            log.info(vm.getStaticInitializerCache().toString());
+            log.info(vm.getTemplateGraphCache().toString());
+        }
 
         System.out.println("Writing output to " + opts.getOutFile());
         classManager.getDexBuilder().writeTo(new FileDataStore(opts.getOutDexFile()));
@@ -82,33 +124,76 @@ public class Launcher {
         }
     }
 
-    private int executeClass(VirtualMachine vm, String className) throws UnhandledVirtualException {
-        ClassManager classManager = vm.getClassManager();
-        DexBuilder dexBuilder = classManager.getDexBuilder();
+    private Set<String> getMethodDescriptorsToSimplify(ClassManager classManager, String className) {
         Set<String> methodDescriptors = classManager.getMethodDescriptors(className);
         filterMethods(methodDescriptors, opts.getIncludeFilter(), opts.getExcludeFilter());
         if (!opts.includeSupportLibrary()) {
             filterSupportLibrary(methodDescriptors);
         }
 
-        for (String methodDescriptor : methodDescriptors) {
-            boolean shouldReexecute = false;
-            do {
-                System.out.println("Executing: " + methodDescriptor);
-                ExecutionGraph graph = null;
-                try {
-                    graph = vm.execute(methodDescriptor);
-                } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded e) {
-                    System.err.println("Aborting execution: " + e);
-                }
+        return methodDescriptors;
+    }
 
-                if (null == graph) {
-                    System.out.println("Skipping " + methodDescriptor);
-                    break;
+    private void executeMethodsInParallel(final VirtualMachine vm, List<String> methodDescriptors, int threads)
+                    throws UnhandledVirtualException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(methodDescriptors.size());
+        for (final String methodDescriptor : methodDescriptors) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws UnhandledVirtualException {
+                    executeMethod(vm, methodDescriptor);
+                    return null;
                 }
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while simplifying methods", e);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof UnhandledVirtualException) {
+                throw (UnhandledVirtualException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
 
+    private void executeMethod(VirtualMachine vm, String methodDescriptor) throws UnhandledVirtualException {
+        ClassManager classManager = vm.getClassManager();
+        boolean shouldReexecute = false;
+        do {
+            System.out.println("Executing: " + methodDescriptor);
+            ExecutionGraph graph = null;
+            Lock readLock = implementationLock.readLock();
+            readLock.lock();
+            try {
+                graph = vm.execute(methodDescriptor);
+            } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded
+                            | ExecutionBudgetExceeded e) {
+                System.err.println("Aborting execution: " + e);
+            } finally {
+                readLock.unlock();
+            }
+
+            if (null == graph) {
+                System.out.println("Skipping " + methodDescriptor);
+                break;
+            }
+
+            Lock writeLock = implementationLock.writeLock();
+            writeLock.lock();
+            try {
                 BuilderMethod method = classManager.getMethod(methodDescriptor);
-                Optimizer optimizer = new Optimizer(graph, method, vm, dexBuilder, opts);
+                Optimizer optimizer = new Optimizer(graph, method, vm, classManager.getDexBuilder(), opts);
                 optimizer.simplify(opts.getMaxOptimizationPasses());
                 if (optimizer.madeChanges()) {
                     // Optimizer changed the implementation. Re-build graph to include changes.
@@ -117,10 +202,10 @@ public class Launcher {
                 System.out.println(optimizer.getOptimizationCounts());
 
                 shouldReexecute = optimizer.shouldReexecute();
-            } while (shouldReexecute);
-        }
-
-        return methodDescriptors.size();
+            } finally {
+                writeLock.unlock();
+            }
+        } while (shouldReexecute);
     }
 
     private static void filterMethods(Collection<String> methodDescriptors, Pattern positive, Pattern negative) {
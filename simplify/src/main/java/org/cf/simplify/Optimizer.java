@@ -98,17 +98,23 @@ public class Optimizer {
                 if (null == currentCount) {
                     currentCount = 0;
                 }
-                Integer totalCount = totalOptimizationCounts.get(key);
-                if (null == totalCount) {
-                    totalCount = 0;
-                }
 
                 int count = optimizations.get(key);
                 currentCount += count;
                 optimizationCounts.put(key, currentCount);
-                totalCount += count;
-                totalOptimizationCounts.put(key, totalCount);
+                addToTotalOptimizationCount(key, count);
+            }
+        }
+    }
+
+    private static void addToTotalOptimizationCount(String key, int count) {
+        // Methods may be optimized from several threads at once.
+        synchronized (totalOptimizationCounts) {
+            Integer totalCount = totalOptimizationCounts.get(key);
+            if (null == totalCount) {
+                totalCount = 0;
             }
+            totalOptimizationCounts.put(key, totalCount + count);
         }
     }
 
@@ -121,11 +127,22 @@ public class Optimizer {
 
     public static String getTotalOptimizationCounts() {
         StringBuilder sb = new StringBuilder("Total optimizations: ");
-        sb.append(buildOptimizationCounts(totalOptimizationCounts));
+        synchronized (totalOptimizationCounts) {
+            sb.append(buildOptimizationCounts(totalOptimizationCounts));
+        }
 
         return sb.toString();
     }
 
+    /*
+     * Totals are for every method optimized since the JVM started. Lets tests compare totals of separate runs.
+     */
+    static void resetTotalOptimizationCounts() {
+        synchronized (totalOptimizationCounts) {
+            totalOptimizationCounts.clear();
+        }
+    }
+
     private static StringBuilder buildOptimizationCounts(Map<String, Integer> counts) {
         List<String> keys = new LinkedList<String>(counts.keySet());
         Collections.sort(keys);
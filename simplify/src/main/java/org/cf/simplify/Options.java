@@ -36,12 +36,38 @@ public class Options implements Serializable {
                     usage = "Maximum visits over all addresses in method. Higher for longer methods + loops.")
     private int maxMethodVisits = 1_000_000;
 
+    @Option(name = "--merge-states",
+                    usage = "Merge execution paths which reach an address in the same state. Helps loops converge.")
+    private boolean mergeStates;
+
+    @Option(name = "--widen-after", metaVar = "N",
+                    usage = "With --merge-states, visits to an address before differing values become unknown.")
+    private int wideningThreshold = 100;
+
     @Option(name = "--max-passes", usage = "Limit optimization passes.")
     private int maxOptimizationPasses = 100;
 
     @Option(name = "--max-execution-time", usage = "Limit execution time (in seconds).")
     private int maxExecutionTime = 5 * 60;
 
+    @Option(name = "--threads", metaVar = "N",
+                    usage = "Execute and simplify up to N methods in parallel. Uses more memory.")
+    private int threads = 1;
+
+    @Option(name = "--preload", usage = "Load all input classes up front, in parallel, instead of as they're needed")
+    private boolean preload;
+
+    @Option(name = "--max-template-size", metaVar = "N",
+                    usage = "Keep execution graph templates for up to N instructions in total. Lower uses less memory.")
+    private int maxTemplateSize = 500_000;
+
+    @Option(name = "--soft-templates", usage = "Let execution graph templates be collected when memory is low")
+    private boolean softTemplates;
+
+    @Option(name = "--retain-only-results",
+                    usage = "Release execution graphs of called methods as they run, keeping only their results")
+    private boolean retainOnlyResults;
+
     @Option(name = "-o", aliases = { "--output" }, metaVar = "output", handler = FileOptionHandler.class,
                     usage = "Output DEX file, default is <infile>_simple.dex")
     private File outFile;
@@ -104,6 +130,18 @@ public class Options implements Serializable {
         return maxExecutionTime;
     }
 
+    public int getWideningThreshold() {
+        return wideningThreshold;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxTemplateSize() {
+        return maxTemplateSize;
+    }
+
     public File getOutDexFile() {
         return outDexFile;
     }
@@ -132,6 +170,22 @@ public class Options implements Serializable {
         return help;
     }
 
+    public boolean isMergeStates() {
+        return mergeStates;
+    }
+
+    public boolean isPreload() {
+        return preload;
+    }
+
+    public boolean isRetainOnlyResults() {
+        return retainOnlyResults;
+    }
+
+    public boolean isSoftTemplates() {
+        return softTemplates;
+    }
+
     public boolean isQuiet() {
         return quiet;
     }
@@ -160,6 +214,13 @@ public class Options implements Serializable {
         sb.append("Max call depth: ").append(getMaxCallDepth()).append('\n');
         sb.append("Max method visits: ").append(getMaxMethodVisits()).append('\n');
         sb.append("Max optimization passes: ").append(getMaxOptimizationPasses()).append('\n');
+        sb.append("Merge states: ").append(isMergeStates()).append('\n');
+        sb.append("Widening threshold: ").append(getWideningThreshold()).append('\n');
+        sb.append("Threads: ").append(getThreads()).append('\n');
+        sb.append("Preload: ").append(isPreload()).append('\n');
+        sb.append("Max template size: ").append(getMaxTemplateSize()).append('\n');
+        sb.append("Soft templates: ").append(isSoftTemplates()).append('\n');
+        sb.append("Retain only results: ").append(isRetainOnlyResults()).append('\n');
         sb.append("Output API level: ").append(getOutputAPILevel()).append('\n');
         sb.append("Exclude filter: ").append(getExcludeFilter()).append('\n');
         sb.append("Include filter: ").append(getIncludeFilter()).append('\n');
@@ -0,0 +1,252 @@
+package org.cf.simplify;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.ExecutionNode;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.opcode.APutOp;
+
+/**
+ * Which registers may be read after each address of a graph. It's found with one backwards pass over the executed
+ * nodes and updated as nodes are changed, rather than walking every execution path for each question.
+ *
+ * A register is live at a node if the node reads it, or if it's live at any child and the node doesn't assign it.
+ * Execution of merged nodes continued from another node, so the rest of their paths aren't in the graph and every
+ * register they don't assign is assumed to be live.
+ */
+public class RegisterLiveness {
+
+    private static final class NodeLiveness {
+
+        private final BitSet read;
+        private final BitSet assigned;
+        private final boolean isAPut;
+        private final boolean isMoveResult;
+        private final boolean isMerged;
+        private final int registerCount;
+
+        // Registers which may be read at or after the node
+        private BitSet live;
+        // Same as live, except move-result nodes are skipped. Their target register always looks read because it has
+        // the same value as the result register.
+        private BitSet used;
+
+        private NodeLiveness(ExecutionNode node) {
+            read = new BitSet();
+            assigned = new BitSet();
+            isAPut = node.getOp() instanceof APutOp;
+            isMoveResult = node.getOp().getName().startsWith("move-result");
+            isMerged = node.isMerged();
+
+            ExecutionContext ectx = node.getContext();
+            if (ectx == null) {
+                registerCount = 0;
+                return;
+            }
+
+            MethodState mState = ectx.getMethodState();
+            registerCount = mState.getRegisterCount();
+            boolean hasReads = !mState.getRegistersRead().isEmpty();
+            for (int register = 0; register < registerCount; register++) {
+                // Reads are checked for every register since registers with the same value count as read.
+                if (hasReads && mState.wasRegisterRead(register)) {
+                    read.set(register);
+                }
+                if (mState.wasRegisterAssigned(register)) {
+                    assigned.set(register);
+                }
+            }
+        }
+    }
+
+    private static final class AddressLiveness {
+
+        private final BitSet live;
+        private final BitSet used;
+
+        private AddressLiveness() {
+            live = new BitSet();
+            used = new BitSet();
+        }
+    }
+
+    private final ExecutionGraphManipulator graph;
+    private final Map<ExecutionNode, NodeLiveness> nodeToLiveness;
+    private final TIntObjectMap<AddressLiveness> addressToLivenessAfter;
+
+    RegisterLiveness(ExecutionGraphManipulator graph) {
+        this.graph = graph;
+        nodeToLiveness = new HashMap<ExecutionNode, NodeLiveness>();
+        addressToLivenessAfter = new TIntObjectHashMap<AddressLiveness>();
+
+        for (int address : graph.getAddresses()) {
+            for (ExecutionNode node : graph.getNodePile(address)) {
+                getLiveness(node);
+            }
+        }
+    }
+
+    /**
+     * @param address
+     * @param registers
+     * @return true if any of the registers may be read by any path after the address
+     */
+    public boolean isAnyRegisterLiveAfter(int address, TIntSet registers) {
+        BitSet live = getLivenessAfter(address).live;
+        for (int register : registers.toArray()) {
+            if (register >= 0 && live.get(register)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Same as {@link #isAnyRegisterLiveAfter(int, TIntSet)}, except assignments by move-result ops are ignored.
+     *
+     * @param address
+     * @return registers which may be read by any path after the address and can't be used for something else
+     */
+    public BitSet getUsedRegistersAfter(int address) {
+        return getLivenessAfter(address).used;
+    }
+
+    /**
+     * Update liveness of changed nodes and their ancestors.
+     *
+     * @param changedNodes
+     *            nodes which were executed again or had children added or removed
+     */
+    void update(Collection<ExecutionNode> changedNodes) {
+        addressToLivenessAfter.clear();
+        for (ExecutionNode node : changedNodes) {
+            nodeToLiveness.remove(node);
+        }
+        for (ExecutionNode node : changedNodes) {
+            getLiveness(node);
+
+            ExecutionNode parent = node.getParent();
+            while (parent != null) {
+                NodeLiveness parentLiveness = nodeToLiveness.get(parent);
+                if (parentLiveness == null) {
+                    // Changed and will be visited later
+                    break;
+                }
+
+                BitSet live = parentLiveness.live;
+                BitSet used = parentLiveness.used;
+                computeLiveness(parent, parentLiveness);
+                if (live.equals(parentLiveness.live) && used.equals(parentLiveness.used)) {
+                    break;
+                }
+                parent = parent.getParent();
+            }
+        }
+    }
+
+    void remove(ExecutionNode node) {
+        nodeToLiveness.remove(node);
+        addressToLivenessAfter.clear();
+    }
+
+    private AddressLiveness getLivenessAfter(int address) {
+        AddressLiveness result = addressToLivenessAfter.get(address);
+        if (result != null) {
+            return result;
+        }
+
+        result = new AddressLiveness();
+        for (ExecutionNode node : graph.getNodePile(address)) {
+            for (ExecutionNode child : node.getChildren()) {
+                NodeLiveness liveness = getLiveness(child);
+                result.live.or(liveness.live);
+                result.used.or(liveness.used);
+            }
+        }
+        addressToLivenessAfter.put(address, result);
+
+        return result;
+    }
+
+    /*
+     * Paths can be very long so children are visited with a stack rather than recursion.
+     */
+    private NodeLiveness getLiveness(ExecutionNode node) {
+        NodeLiveness liveness = nodeToLiveness.get(node);
+        if (liveness != null) {
+            return liveness;
+        }
+
+        Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            ExecutionNode current = stack.peek();
+            boolean isReady = true;
+            for (ExecutionNode child : current.getChildren()) {
+                if (!nodeToLiveness.containsKey(child)) {
+                    stack.push(child);
+                    isReady = false;
+                }
+            }
+            if (!isReady) {
+                continue;
+            }
+
+            stack.pop();
+            if (nodeToLiveness.containsKey(current)) {
+                continue;
+            }
+            NodeLiveness currentLiveness = new NodeLiveness(current);
+            computeLiveness(current, currentLiveness);
+            nodeToLiveness.put(current, currentLiveness);
+        }
+
+        return nodeToLiveness.get(node);
+    }
+
+    private void computeLiveness(ExecutionNode node, NodeLiveness liveness) {
+        BitSet liveAfter = new BitSet();
+        BitSet usedAfter = new BitSet();
+        if (liveness.isMerged) {
+            liveAfter.set(0, liveness.registerCount);
+            usedAfter.set(0, liveness.registerCount);
+        } else {
+            List<ExecutionNode> children = node.getChildren();
+            for (ExecutionNode child : children) {
+                // Already computed unless a changed sibling is being updated
+                NodeLiveness childLiveness = getLiveness(child);
+                liveAfter.or(childLiveness.live);
+                usedAfter.or(childLiveness.used);
+            }
+        }
+
+        // aput mutates an object. Assignment isn't "reassignment" like it is with other ops.
+        if (!liveness.isAPut) {
+            liveAfter.andNot(liveness.assigned);
+        }
+        liveAfter.or(liveness.read);
+        liveness.live = liveAfter;
+
+        if (liveness.isMoveResult) {
+            // Merged move-result nodes have no children, so nothing is used after them.
+            liveness.used = liveness.isMerged ? new BitSet() : usedAfter;
+        } else {
+            usedAfter.andNot(liveness.assigned);
+            usedAfter.or(liveness.read);
+            liveness.used = usedAfter;
+        }
+    }
+
+}
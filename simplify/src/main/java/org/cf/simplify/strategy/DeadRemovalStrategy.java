@@ -15,7 +15,6 @@ import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.MethodState;
-import org.cf.smalivm.opcode.APutOp;
 import org.cf.smalivm.opcode.GotoOp;
 import org.cf.smalivm.opcode.InvokeOp;
 import org.cf.smalivm.opcode.NopOp;
@@ -75,66 +74,6 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         return assigned;
     }
 
-    private static boolean isAnyRegisterUsed(int address, TIntSet registers, ExecutionGraphManipulator graph) {
-        List<ExecutionNode> children = graph.getChildren(address);
-        for (ExecutionNode child : children) {
-            TIntSet newRegisters = new TIntHashSet(registers);
-            if (isAnyRegisterUsed(address, newRegisters, graph, child)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private static boolean isAnyRegisterUsed(int address, TIntSet registers, ExecutionGraphManipulator graph, ExecutionNode node) {
-        ExecutionNode current = node;
-        for (;;) {
-            MethodState mState = current.getContext().getMethodState();
-            for (int register : registers.toArray()) {
-                // Some ops read from and assign to the same register, e.g add-int/2addr v0, v0
-                // Read check must come first because this still counts as a usage.
-                if (mState.wasRegisterRead(register)) {
-                    if (log.isTraceEnabled()) {
-                        log.trace("r{} read after {} @{}, {}", register, address, current.getAddress(), current.getOp());
-                    }
-
-                    return true;
-                }
-                // aput is mutates an object. Assignment isn't "reassignment" like it is with other ops
-                else if (mState.wasRegisterAssigned(register) && !(current.getOp() instanceof APutOp)) {
-                    if (log.isTraceEnabled()) {
-                        log.trace("r{} assigned after {} @{}, {}", register, address, current.getAddress(),
-                                        current.getOp());
-                    }
-
-                    registers.remove(register);
-                }
-            }
-
-            if (registers.isEmpty()) {
-                return false;
-            }
-
-            List<ExecutionNode> children = current.getChildren();
-            if (children.isEmpty()) {
-                return false;
-            }
-
-            if (children.size() == 1) {
-                current = children.get(0);
-            } else {
-                for (ExecutionNode child : children) {
-                    TIntSet newRegisters = new TIntHashSet(registers);
-                    if (isAnyRegisterUsed(address, newRegisters, graph, child)) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        }
-    }
-
     private TIntList addresses;
     private int unusedAssignmentCount;
     private int uselessBranchCount;
@@ -231,7 +170,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         }
 
         Op op = mbgraph.getOp(address);
-        if (isSideEffectAboveThreshold(op.getSideEffectLevel())) {
+        if (isSideEffectAboveThreshold(mbgraph.getHighestNodeSideEffectLevel(address))) {
             return false;
         }
 
@@ -247,7 +186,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
             log.debug("Dead assignments test @" + address + " for: " + op);
         }
 
-        if (isAnyRegisterUsed(address, assigned, mbgraph)) {
+        if (isAnyRegisterUsed(address, assigned)) {
             return false;
         }
 
@@ -268,7 +207,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
             log.debug("Dead result test @" + address + " for: " + op);
         }
 
-        if (isSideEffectAboveThreshold(op.getSideEffectLevel())) {
+        if (isSideEffectAboveThreshold(mbgraph.getHighestNodeSideEffectLevel(address))) {
             return false;
         }
 
@@ -294,7 +233,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         MethodState mState = ectx.getMethodState();
         TIntSet assigned = getNormalRegistersAssigned(mState);
         if (0 < assigned.size()) {
-            if (isAnyRegisterUsed(address, assigned, mbgraph)) {
+            if (isAnyRegisterUsed(address, assigned)) {
                 // Result may not be used, but assignments *are* used
                 return false;
             }
@@ -303,6 +242,10 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
         return true;
     }
 
+    private boolean isAnyRegisterUsed(int address, TIntSet registers) {
+        return mbgraph.getRegisterLiveness().isAnyRegisterLiveAfter(address, registers);
+    }
+
     private boolean isSideEffectAboveThreshold(SideEffect.Level level) {
         return (level.compareTo(sideEffectThreshold) > 0);
     }
@@ -415,7 +358,7 @@ public class DeadRemovalStrategy implements OptimizationStrategy {
             }
 
             Op op = mbgraph.getOp(address);
-            if (isSideEffectAboveThreshold(op.getSideEffectLevel())) {
+            if (isSideEffectAboveThreshold(mbgraph.getHighestNodeSideEffectLevel(address))) {
                 validAddresses.remove(address);
                 continue;
             }
@@ -145,19 +145,24 @@ public class PeepholeStrategy implements OptimizationStrategy {
 
         peepAddresses.sort();
         peepAddresses.reverse();
-        for (int address : peepAddresses.toArray()) {
-            BuilderInstruction original = mbgraph.getInstruction(address);
-            int nextAddress = address + original.getCodeUnits();
-            if (addresses.contains(nextAddress)) {
-                BuilderInstruction nextInstruction = mbgraph.getInstruction(nextAddress);
-                if (nextInstruction.getOpcode().name.startsWith("move-result")) {
-                    // There is a move-result after the instruction being replaced. "Deal" with it.
-                    mbgraph.removeInstruction(nextAddress);
+        mbgraph.beginTransaction();
+        try {
+            for (int address : peepAddresses.toArray()) {
+                BuilderInstruction original = mbgraph.getInstruction(address);
+                int nextAddress = address + original.getCodeUnits();
+                if (addresses.contains(nextAddress)) {
+                    BuilderInstruction nextInstruction = mbgraph.getInstruction(nextAddress);
+                    if (nextInstruction.getOpcode().name.startsWith("move-result")) {
+                        // There is a move-result after the instruction being replaced. "Deal" with it.
+                        mbgraph.removeInstruction(nextAddress);
+                    }
                 }
-            }
 
-            BuilderInstruction replacement = buildClassForNameReplacement(address);
-            mbgraph.replaceInstruction(address, replacement);
+                BuilderInstruction replacement = buildClassForNameReplacement(address);
+                mbgraph.replaceInstruction(address, replacement);
+            }
+        } finally {
+            mbgraph.commitTransaction();
         }
     }
 
@@ -198,20 +203,25 @@ public class PeepholeStrategy implements OptimizationStrategy {
 
         peepAddresses.sort();
         peepAddresses.reverse();
-        for (int address : peepAddresses.toArray()) {
-            BuilderInstruction replacement;
-            if (nextAddresses.contains(address)) {
-                replacement = new BuilderInstruction10x(Opcode.NOP);
-            } else {
-                BuilderOffsetInstruction original = (BuilderOffsetInstruction) mbgraph.getInstruction(address);
-                Label target = original.getTarget();
-                replacement = new BuilderInstruction30t(Opcode.GOTO_32, target);
-            }
+        mbgraph.beginTransaction();
+        try {
+            for (int address : peepAddresses.toArray()) {
+                BuilderInstruction replacement;
+                if (nextAddresses.contains(address)) {
+                    replacement = new BuilderInstruction10x(Opcode.NOP);
+                } else {
+                    BuilderOffsetInstruction original = (BuilderOffsetInstruction) mbgraph.getInstruction(address);
+                    Label target = original.getTarget();
+                    replacement = new BuilderInstruction30t(Opcode.GOTO_32, target);
+                }
 
-            if (log.isDebugEnabled()) {
-                log.debug("Peeping constant predicate @{} {}", address, mbgraph.getOp(address));
+                if (log.isDebugEnabled()) {
+                    log.debug("Peeping constant predicate @{} {}", address, mbgraph.getOp(address));
+                }
+                mbgraph.replaceInstruction(address, replacement);
             }
-            mbgraph.replaceInstruction(address, replacement);
+        } finally {
+            mbgraph.commitTransaction();
         }
     }
 
@@ -249,17 +259,22 @@ public class PeepholeStrategy implements OptimizationStrategy {
 
         peepAddresses.sort();
         peepAddresses.reverse();
-        for (int address : peepAddresses.toArray()) {
-            BuilderInstruction original = mbgraph.getInstruction(address);
-            Instruction35c instr = (Instruction35c) original;
-            int instanceRegister = instr.getRegisterC();
-            HeapItem item = mbgraph.getRegisterConsensus(address, instanceRegister);
-            BuilderInstruction replacement = ConstantBuilder.buildConstant(item.getValue(), item.getUnboxedValueType(),
-                            instanceRegister, mbgraph.getDexBuilder());
-            if (log.isDebugEnabled()) {
-                log.debug("Peeping string init @{} {}", address, mbgraph.getOp(address));
+        mbgraph.beginTransaction();
+        try {
+            for (int address : peepAddresses.toArray()) {
+                BuilderInstruction original = mbgraph.getInstruction(address);
+                Instruction35c instr = (Instruction35c) original;
+                int instanceRegister = instr.getRegisterC();
+                HeapItem item = mbgraph.getRegisterConsensus(address, instanceRegister);
+                BuilderInstruction replacement = ConstantBuilder.buildConstant(item.getValue(), item.getUnboxedValueType(),
+                                instanceRegister, mbgraph.getDexBuilder());
+                if (log.isDebugEnabled()) {
+                    log.debug("Peeping string init @{} {}", address, mbgraph.getOp(address));
+                }
+                mbgraph.replaceInstruction(address, replacement);
             }
-            mbgraph.replaceInstruction(address, replacement);
+        } finally {
+            mbgraph.commitTransaction();
         }
     }
 
@@ -2,8 +2,12 @@ package org.cf.simplify;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.linked.TIntLinkedList;
 
 import java.util.Arrays;
@@ -241,6 +245,38 @@ public class TestExecutionGraphManipulator {
         testHeritage(mbgraph, 0);
     }
 
+    @Test
+    public void testEditsInTransactionModifyStateCorrectly() {
+        //@formatter:off
+        Object[][] expected = new Object[][] {
+                        { 0, Opcode.CONST_4, new Object[][][] { { { 1, Opcode.CONST_16 } } } },
+                        { 1, Opcode.CONST_16, new Object[][][] { { { 3, Opcode.CONST_4 } } } },
+                        { 3, Opcode.CONST_4, new Object[][][] { { { 4, Opcode.CONST_4 } } } },
+                        { 4, Opcode.CONST_4, new Object[][][] { { { 5, Opcode.RETURN_VOID } } } },
+                        { 5, Opcode.RETURN_VOID, new Object[1][0][0] },
+        };
+        //@formatter:on
+
+        mbgraph = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+        mbgraph.beginTransaction();
+        mbgraph.removeInstruction(3);
+        mbgraph.replaceInstruction(1, new BuilderInstruction21s(Opcode.CONST_16, 1, 1));
+        assertTrue(mbgraph.isInTransaction());
+        mbgraph.commitTransaction();
+
+        assertFalse(mbgraph.isInTransaction());
+        test(expected, mbgraph);
+        testHeritage(mbgraph, 0);
+        testHeritage(mbgraph, 1);
+        testHeritage(mbgraph, 3);
+
+        MethodState replacedState = mbgraph.getNodePile(1).get(0).getContext().getMethodState();
+        assertArrayEquals(new int[] { 1 }, replacedState.getRegistersAssigned().toArray());
+
+        MethodState shiftedState = mbgraph.getNodePile(3).get(0).getContext().getMethodState();
+        assertArrayEquals(new int[] { 2 }, shiftedState.getRegistersAssigned().toArray());
+    }
+
     @Test
     public void testReplacingInstructionWithDifferentOpcodeWidthModifiesStateCorrectly() {
         //@formatter:off
@@ -299,6 +335,23 @@ public class TestExecutionGraphManipulator {
         assertEquals(2, consensus.getValue());
     }
 
+    @Test
+    public void testFailedEditEndsTransaction() {
+        mbgraph = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+        int unknownAddress = 99;
+        try {
+            mbgraph.removeInstructions(new TIntArrayList(new int[] { 4, unknownAddress }));
+            fail("Removing an unknown address should fail");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        assertFalse(mbgraph.isInTransaction());
+        // Graph is still rebuilt after later edits
+        mbgraph.removeInstruction(4);
+        assertEquals(Opcode.RETURN_VOID, mbgraph.getInstruction(4).getOpcode());
+    }
+
     @Test
     public void testReplacingInstructionGetsLabelsAtInsertionAddress() {
         mbgraph = OptimizerTester.getGraphManipulator(CLASS_NAME, "hasLabelOnConstantizableOp(I)I");
@@ -1,9 +1,12 @@
 package org.cf.simplify;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.cf.smalivm.VirtualMachineFactory;
 import org.cf.smalivm.exception.UnhandledVirtualException;
@@ -11,6 +14,17 @@ import org.junit.Test;
 
 public class TestLauncher {
 
+    private static File runWithSmaliFolder(int threads) throws IOException, UnhandledVirtualException {
+        Launcher launcher = new Launcher(new VirtualMachineFactory());
+        File outFile = File.createTempFile("simplify-test", ".tmp");
+        outFile.deleteOnExit();
+        launcher.run(new String[] {
+                        "-i", "obfuscated-example", "-it", "WhiteNoise", "--threads", String.valueOf(threads), "-o",
+                        outFile.getAbsolutePath() });
+
+        return outFile;
+    }
+
     @Test
     public void runsWithoutMajorFailureWithSmaliFolder() throws IOException, UnhandledVirtualException {
         Launcher launcher = new Launcher(new VirtualMachineFactory());
@@ -21,6 +35,32 @@ public class TestLauncher {
         assertTrue(outFile.exists());
     }
 
+    @Test
+    public void runsWithoutMajorFailureWithSmaliFolderAndThreads() throws IOException, UnhandledVirtualException {
+        Launcher launcher = new Launcher(new VirtualMachineFactory());
+        File outFile = File.createTempFile("simplify-test", ".tmp");
+        outFile.deleteOnExit();
+        launcher.run(new String[] {
+                        "-i", "obfuscated-example", "-it", "WhiteNoise", "--threads", "4", "-o",
+                        outFile.getAbsolutePath() });
+
+        assertTrue(outFile.exists());
+    }
+
+    @Test
+    public void producesSameOutputWithAndWithoutThreads() throws IOException, UnhandledVirtualException {
+        Optimizer.resetTotalOptimizationCounts();
+        File serialOutFile = runWithSmaliFolder(1);
+        String serialCounts = Optimizer.getTotalOptimizationCounts();
+
+        Optimizer.resetTotalOptimizationCounts();
+        File parallelOutFile = runWithSmaliFolder(4);
+        String parallelCounts = Optimizer.getTotalOptimizationCounts();
+
+        assertArrayEquals(Files.readAllBytes(serialOutFile.toPath()), Files.readAllBytes(parallelOutFile.toPath()));
+        assertEquals(serialCounts, parallelCounts);
+    }
+
     @Test
     public void runsWithoutMajorFailureWithDexFile() throws IOException, UnhandledVirtualException {
         Launcher launcher = new Launcher(new VirtualMachineFactory());
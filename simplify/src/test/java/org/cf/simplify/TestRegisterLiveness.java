@@ -0,0 +1,77 @@
+package org.cf.simplify;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.BitSet;
+
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction12x;
+import org.junit.Test;
+
+public class TestRegisterLiveness {
+
+    private static final String CLASS_NAME = "Lexecution_graph_manipulator_test;";
+
+    private static boolean isLiveAfter(ExecutionGraphManipulator mbgraph, int address, int register) {
+        return mbgraph.getRegisterLiveness().isAnyRegisterLiveAfter(address, new TIntHashSet(new int[] { register }));
+    }
+
+    @Test
+    public void testRegistersReadLaterAreLive() {
+        ExecutionGraphManipulator mbgraph = OptimizerTester.getGraphManipulator(CLASS_NAME,
+                        "hasLabelOnConstantizableOp(I)I");
+
+        // const/4 v0, 0x1 is read by if-eq, add-int/2addr and return
+        assertTrue(isLiveAfter(mbgraph, 0, 0));
+        assertTrue(isLiveAfter(mbgraph, 1, 0));
+        assertTrue(isLiveAfter(mbgraph, 3, 0));
+        assertFalse(isLiveAfter(mbgraph, 4, 0));
+
+        // p0 is only read by if-eq
+        assertTrue(isLiveAfter(mbgraph, 0, 1));
+        assertFalse(isLiveAfter(mbgraph, 1, 1));
+    }
+
+    @Test
+    public void testNoRegistersAreUsedWhenNothingIsRead() {
+        ExecutionGraphManipulator mbgraph = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+
+        for (int address : mbgraph.getAddresses()) {
+            assertTrue(mbgraph.getRegisterLiveness().getUsedRegistersAfter(address).isEmpty());
+        }
+    }
+
+    @Test
+    public void testLivenessIsUpdatedAfterAddingInstruction() {
+        ExecutionGraphManipulator mbgraph = OptimizerTester.getGraphManipulator(CLASS_NAME, "verySimple()V");
+        assertFalse(isLiveAfter(mbgraph, 1, 1));
+
+        // move v0, v1 before return-void
+        mbgraph.addInstruction(5, new BuilderInstruction12x(Opcode.MOVE, 0, 1));
+
+        assertTrue(isLiveAfter(mbgraph, 1, 1));
+        assertTrue(isLiveAfter(mbgraph, 4, 1));
+        assertFalse(isLiveAfter(mbgraph, 2, 2));
+        // v0 looks read since it has the same value as v1 after the move
+        BitSet expected = new BitSet();
+        expected.set(0, 2);
+        assertEquals(expected, mbgraph.getRegisterLiveness().getUsedRegistersAfter(4));
+    }
+
+    @Test
+    public void testLivenessIsUpdatedAfterRemovingInstruction() {
+        ExecutionGraphManipulator mbgraph = OptimizerTester.getGraphManipulator(CLASS_NAME,
+                        "hasLabelOnConstantizableOp(I)I");
+        assertTrue(isLiveAfter(mbgraph, 3, 0));
+
+        // return v0 is now the last read of v0
+        mbgraph.removeInstruction(3);
+
+        assertTrue(isLiveAfter(mbgraph, 1, 0));
+        assertFalse(isLiveAfter(mbgraph, 3, 0));
+    }
+
+}
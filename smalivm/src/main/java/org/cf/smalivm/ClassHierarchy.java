@@ -0,0 +1,152 @@
+package org.cf.smalivm;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cf.smalivm.exception.UnknownAncestors;
+import org.jf.dexlib2.writer.builder.BuilderClassDef;
+
+/**
+ * Index of the class hierarchy used to answer subtype queries. Each type gets a small integer id, and the first time a
+ * type is queried, the ids of all of its supertypes are collected into a bit set. After that, checking if a type is an
+ * instance of another is a single bit lookup, whether the answer is true or false.
+ *
+ * Supertypes of non-local classes come from reflection, which may fail. Those classes are remembered so they're never
+ * looked up again, and any type which inherits from them only has the supertypes which could be found.
+ */
+class ClassHierarchy {
+
+    private static class Supertypes {
+
+        private final BitSet typeIds;
+        // First class whose parents couldn't be found, or null if all supertypes are known.
+        private final String unknownClassName;
+
+        private Supertypes(BitSet typeIds, String unknownClassName) {
+            this.typeIds = typeIds;
+            this.unknownClassName = unknownClassName;
+        }
+    }
+
+    private final ClassManager classManager;
+    private final ConcurrentMap<String, Integer> typeNameToId;
+    private final AtomicInteger nextTypeId;
+    private final ConcurrentMap<String, Supertypes> typeNameToSupertypes;
+    private final ConcurrentMap<String, Set<String>> classNameToClassAncestors;
+
+    ClassHierarchy(ClassManager classManager) {
+        this.classManager = classManager;
+        typeNameToId = new ConcurrentHashMap<String, Integer>();
+        nextTypeId = new AtomicInteger();
+        typeNameToSupertypes = new ConcurrentHashMap<String, Supertypes>();
+        classNameToClassAncestors = new ConcurrentHashMap<String, Set<String>>();
+    }
+
+    /**
+     * Types must already be non-array, non-primitive base types.
+     *
+     * @param childType
+     * @param targetType
+     * @return true if child type is the target type or inherits from it
+     * @throws UnknownAncestors
+     *             if child type doesn't inherit from target type as far as is known, but some of its supertypes are
+     *             unknown
+     */
+    boolean isInstance(String childType, String targetType) throws UnknownAncestors {
+        if (childType.equals(targetType)) {
+            return true;
+        }
+
+        Supertypes supertypes = getSupertypes(childType, new HashSet<String>());
+        if (supertypes.typeIds.get(getTypeId(targetType))) {
+            return true;
+        }
+        if (supertypes.unknownClassName != null) {
+            throw new UnknownAncestors(supertypes.unknownClassName);
+        }
+
+        return false;
+    }
+
+    /**
+     * @param className
+     *            local class
+     * @return class and every super class, excluding interfaces
+     */
+    Set<String> getClassAncestors(String className) {
+        Set<String> ancestors = classNameToClassAncestors.get(className);
+        if (ancestors != null) {
+            return ancestors;
+        }
+
+        Set<String> newAncestors = new HashSet<String>();
+        newAncestors.add(className);
+        String superClass = className;
+        do {
+            BuilderClassDef classDef = classManager.getClass(superClass);
+            superClass = classDef.getSuperclass();
+            if (superClass != null) {
+                newAncestors.add(superClass);
+            }
+        } while (superClass != null);
+        ancestors = Collections.unmodifiableSet(newAncestors);
+        classNameToClassAncestors.putIfAbsent(className, ancestors);
+
+        return ancestors;
+    }
+
+    private int getTypeId(String typeName) {
+        Integer typeId = typeNameToId.get(typeName);
+        if (typeId != null) {
+            return typeId;
+        }
+
+        Integer newTypeId = nextTypeId.getAndIncrement();
+        typeId = typeNameToId.putIfAbsent(typeName, newTypeId);
+
+        return typeId != null ? typeId : newTypeId;
+    }
+
+    private Supertypes getSupertypes(String typeName, Set<String> visiting) {
+        Supertypes supertypes = typeNameToSupertypes.get(typeName);
+        if (supertypes != null) {
+            return supertypes;
+        }
+
+        BitSet typeIds = new BitSet();
+        typeIds.set(getTypeId(typeName));
+        String unknownClassName = null;
+        Set<String> parents;
+        try {
+            parents = classManager.getAncestors(typeName);
+        } catch (UnknownAncestors e) {
+            parents = Collections.emptySet();
+            unknownClassName = typeName;
+        }
+
+        // Hierarchies shouldn't have cycles, but input may be malformed. Cycles are cut at the first repeated type.
+        visiting.add(typeName);
+        for (String parent : parents) {
+            if (visiting.contains(parent)) {
+                continue;
+            }
+            Supertypes parentSupertypes = getSupertypes(parent, visiting);
+            typeIds.or(parentSupertypes.typeIds);
+            if (unknownClassName == null) {
+                unknownClassName = parentSupertypes.unknownClassName;
+            }
+        }
+        visiting.remove(typeName);
+
+        supertypes = new Supertypes(typeIds, unknownClassName);
+        typeNameToSupertypes.putIfAbsent(typeName, supertypes);
+
+        return supertypes;
+    }
+
+}
@@ -11,14 +11,26 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.cf.smalivm.exception.UnknownAncestors;
+import org.cf.smalivm.reference.FieldRef;
+import org.cf.smalivm.reference.MemberRef;
+import org.cf.smalivm.reference.MethodRef;
+import org.cf.smalivm.reference.TypeRef;
 import org.cf.util.Dexifier;
 import org.cf.util.SmaliClassUtils;
 import org.cf.util.SmaliFileFactory;
-import org.cf.util.Utils;
 import org.jf.dexlib2.builder.BuilderTryBlock;
 import org.jf.dexlib2.builder.MutableMethodImplementation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.util.ReferenceUtil;
 import org.jf.dexlib2.writer.builder.BuilderClassDef;
 import org.jf.dexlib2.writer.builder.BuilderField;
@@ -29,7 +41,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The class manager is responsible for loading Smali files into Dexlib2 objects and making them available.
+ * The class manager is responsible for loading Smali files or dex classes into Dexlib2 objects and making them
+ * available.
+ * Classes may be loaded from several threads at once. Each class is only loaded once, but different classes are loaded
+ * in parallel.
  *
  * @author cfenton
  *
@@ -40,8 +55,11 @@ public class ClassManager {
 
     // Use separate DexBuilder to intern framework classes so they're not included in output dex
     private final DexBuilder frameworkDexBuilder = DexBuilder.makeDexBuilder();
+    private final FrameworkDex frameworkDex;
 
     private final Map<String, SmaliFile> classNameToSmaliFile;
+    private final Map<String, ClassDef> classNameToInputClassDef;
+    private final Set<String> classNames;
     private final DexBuilder dexBuilder;
     private final Map<String, BuilderClassDef> classNameToClassDef;
     private final Map<String, BuilderMethod> methodDescriptorToMethod;
@@ -49,20 +67,56 @@ public class ClassManager {
     private final Map<String, List<BuilderTryBlock>> methodDescriptorToTryBlocks;
     private final Map<String, List<String>> classNameToFieldNameAndType;
     private final SmaliFileFactory smaliFileFactory;
+    private final ConcurrentMap<String, Object> classNameToLoadLock;
+    private final ClassHierarchy classHierarchy;
 
     ClassManager(File smaliPath, DexBuilder dexBuilder) throws IOException {
-        smaliFileFactory = new SmaliFileFactory();
+        this(smaliPath, dexBuilder, FrameworkDex.getDefault());
+    }
+
+    ClassManager(File smaliPath, DexBuilder dexBuilder, FrameworkDex frameworkDex) throws IOException {
+        this(dexBuilder, frameworkDex);
         Set<SmaliFile> smaliFiles = smaliFileFactory.getSmaliFiles(smaliPath);
-        classNameToSmaliFile = new HashMap<String, SmaliFile>();
         for (SmaliFile smaliFile : smaliFiles) {
             classNameToSmaliFile.put(smaliFile.getClassName(), smaliFile);
         }
+        classNames.addAll(classNameToSmaliFile.keySet());
+    }
+
+    ClassManager(DexFile inputDex, DexBuilder dexBuilder) throws IOException {
+        this(inputDex, dexBuilder, FrameworkDex.getDefault());
+    }
+
+    /**
+     * Input classes are interned straight from the dex, without disassembling them to Smali.
+     */
+    ClassManager(DexFile inputDex, DexBuilder dexBuilder, FrameworkDex frameworkDex) throws IOException {
+        this(dexBuilder, frameworkDex);
+        for (ClassDef classDef : inputDex.getClasses()) {
+            classNameToInputClassDef.put(classDef.getType(), classDef);
+        }
+        Set<SmaliFile> smaliFiles = smaliFileFactory.getFrameworkSmaliFiles(classNameToInputClassDef.keySet());
+        for (SmaliFile smaliFile : smaliFiles) {
+            classNameToSmaliFile.put(smaliFile.getClassName(), smaliFile);
+        }
+        classNames.addAll(classNameToInputClassDef.keySet());
+        classNames.addAll(classNameToSmaliFile.keySet());
+    }
+
+    private ClassManager(DexBuilder dexBuilder, FrameworkDex frameworkDex) {
         this.dexBuilder = dexBuilder;
-        classNameToClassDef = new HashMap<String, BuilderClassDef>();
-        methodDescriptorToMethod = new HashMap<String, BuilderMethod>();
-        methodDescriptorToParameterTypes = new HashMap<String, List<String>>();
-        methodDescriptorToTryBlocks = new HashMap<String, List<BuilderTryBlock>>();
-        classNameToFieldNameAndType = new HashMap<String, List<String>>();
+        this.frameworkDex = frameworkDex;
+        smaliFileFactory = new SmaliFileFactory();
+        classNameToSmaliFile = new HashMap<String, SmaliFile>();
+        classNameToInputClassDef = new HashMap<String, ClassDef>();
+        classNames = new HashSet<String>();
+        classNameToClassDef = new ConcurrentHashMap<String, BuilderClassDef>();
+        methodDescriptorToMethod = new ConcurrentHashMap<String, BuilderMethod>();
+        methodDescriptorToParameterTypes = new ConcurrentHashMap<String, List<String>>();
+        methodDescriptorToTryBlocks = new ConcurrentHashMap<String, List<BuilderTryBlock>>();
+        classNameToFieldNameAndType = new ConcurrentHashMap<String, List<String>>();
+        classNameToLoadLock = new ConcurrentHashMap<String, Object>();
+        classHierarchy = new ClassHierarchy(this);
     }
 
     /**
@@ -79,12 +133,55 @@ public class ClassManager {
     }
 
     /**
-     * Does not load any Smali files.
+     * Does not load any classes.
      *
      * @return all local class names, including framework
      */
     public Set<String> getClassNames() {
-        return classNameToSmaliFile.keySet();
+        return classNames;
+    }
+
+    /**
+     * Load every non-framework class now rather than when it's first needed. Parsing Smali is slow, and this spreads it
+     * over several threads. Framework classes are still loaded as needed since most are never used.
+     *
+     * @param threads
+     *            maximum number of classes to load at once
+     */
+    public void dexifyNonFrameworkClasses(int threads) {
+        long startTime = System.currentTimeMillis();
+        Set<String> nonFrameworkClassNames = getNonFrameworkClassNames();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new LinkedList<Future<Void>>();
+        for (final String className : nonFrameworkClassNames) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    dexifyClassIfNecessary(className);
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading classes", e);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            throw new RuntimeException(e.getCause());
+        }
+
+        if (log.isDebugEnabled()) {
+            long totalTime = System.currentTimeMillis() - startTime;
+            log.debug("Loaded {} classes with {} threads in {} ms.", nonFrameworkClassNames.size(), threads,
+                            totalTime);
+        }
     }
 
     /**
@@ -144,9 +241,18 @@ public class ClassManager {
      * @return BuilderMethod for methodDescriptor, or null if not found
      */
     public BuilderMethod getMethod(String methodDescriptor) {
-        dexifyClassIfNecessary(methodDescriptor);
+        return getMethod(MethodRef.of(methodDescriptor));
+    }
 
-        return methodDescriptorToMethod.get(methodDescriptor);
+    /**
+     *
+     * @param method
+     * @return BuilderMethod for method, or null if not found
+     */
+    public BuilderMethod getMethod(MethodRef method) {
+        dexifyClassIfNecessary(method.getClassName());
+
+        return methodDescriptorToMethod.get(method.getDescriptor());
     }
 
     /**
@@ -156,10 +262,7 @@ public class ClassManager {
      * @return BuilderMethod for className and methodSignature, or null if not found
      */
     public BuilderMethod getMethod(String className, String methodSignature) {
-        StringBuilder sb = new StringBuilder(className);
-        sb.append("->").append(methodSignature);
-
-        return getMethod(sb.toString());
+        return getMethod(MethodRef.of(className, methodSignature));
     }
 
     /**
@@ -181,19 +284,19 @@ public class ClassManager {
     }
 
     /**
-     * Does not load any Smali files.
+     * Does not load any classes.
      *
      * @return all local class names, excluding framework
      */
     public Set<String> getNonFrameworkClassNames() {
-        Set<String> classNames = new HashSet<String>();
-        for (String className : classNameToSmaliFile.keySet()) {
+        Set<String> nonFrameworkClassNames = new HashSet<String>();
+        for (String className : classNames) {
             if (!smaliFileFactory.isFrameworkClass(className)) {
-                classNames.add(className);
+                nonFrameworkClassNames.add(className);
             }
         }
 
-        return classNames;
+        return nonFrameworkClassNames;
     }
 
     /**
@@ -202,9 +305,18 @@ public class ClassManager {
      * @return list of Smali style parameter types
      */
     public List<String> getParameterTypes(String methodDescriptor) {
-        dexifyClassIfNecessary(methodDescriptor);
+        return getParameterTypes(MethodRef.of(methodDescriptor));
+    }
 
-        return methodDescriptorToParameterTypes.get(methodDescriptor);
+    /**
+     *
+     * @param method
+     * @return list of Smali style parameter types, including the instance reference for non-static methods
+     */
+    public List<String> getParameterTypes(MethodRef method) {
+        dexifyClassIfNecessary(method.getClassName());
+
+        return methodDescriptorToParameterTypes.get(method.getDescriptor());
     }
 
     /**
@@ -213,17 +325,30 @@ public class ClassManager {
      * @return try / catch blocks of given method
      */
     public List<BuilderTryBlock> getTryBlocks(String methodDescriptor) {
-        dexifyClassIfNecessary(methodDescriptor);
+        return getTryBlocks(MethodRef.of(methodDescriptor));
+    }
 
-        return methodDescriptorToTryBlocks.get(methodDescriptor);
+    /**
+     *
+     * @param method
+     * @return try / catch blocks of given method
+     */
+    public List<BuilderTryBlock> getTryBlocks(MethodRef method) {
+        dexifyClassIfNecessary(method.getClassName());
+
+        return methodDescriptorToTryBlocks.get(method.getDescriptor());
     }
 
     public boolean isFramework(String typeName) {
-        String className = typeName.split("->")[0];
+        String className = MemberRef.getClassName(typeName);
 
         return smaliFileFactory.isFrameworkClass(className);
     }
 
+    public boolean isFramework(MemberRef member) {
+        return smaliFileFactory.isFrameworkClass(member.getClassName());
+    }
+
     public boolean isInstance(Class<?> childClass, Class<?> targetClass) throws UnknownAncestors {
         if ((childClass == null) || (targetClass == null)) {
             return false;
@@ -236,32 +361,32 @@ public class ClassManager {
     }
 
     public boolean isInstance(String childType, String targetType) throws UnknownAncestors {
-        int childDimension = Utils.getDimensionCount(childType);
-        int targetDimension = Utils.getDimensionCount(targetType);
-        if (childDimension != targetDimension) {
+        TypeRef child = TypeRef.of(childType);
+        TypeRef target = TypeRef.of(targetType);
+        if (child.getDimensionCount() != target.getDimensionCount()) {
             return false;
         }
 
         // Already ensured if array type, has the same dimensions. Compare base types now.
-        String baseChild = SmaliClassUtils.getBaseClass(childType);
-        if (SmaliClassUtils.isPrimitiveType(baseChild)) {
+        String baseChild = child.getBaseType();
+        if (child.isPrimitive()) {
             baseChild = SmaliClassUtils.javaClassToSmali(SmaliClassUtils.smaliPrimitiveToJavaWrapper(baseChild));
         }
-        String baseTarget = SmaliClassUtils.getBaseClass(targetType);
-        if (SmaliClassUtils.isPrimitiveType(baseTarget)) {
+        String baseTarget = target.getBaseType();
+        if (target.isPrimitive()) {
             baseTarget = SmaliClassUtils.javaClassToSmali(SmaliClassUtils.smaliPrimitiveToJavaWrapper(baseTarget));
         }
 
-        return isInstance(baseChild, baseTarget, new HashSet<String>());
+        return classHierarchy.isInstance(baseChild, baseTarget);
     }
 
     /**
      *
      * @param className
-     * @return true if the Smali file for the className was available at runtime
+     * @return true if the Smali file or input dex class for the className was available at runtime
      */
     public boolean isLocalClass(String className) {
-        return classNameToSmaliFile.containsKey(className);
+        return classNames.contains(className);
     }
 
     /**
@@ -270,13 +395,20 @@ public class ClassManager {
      * @return true if {@link=isLocalClass} is true, and method is defined for class
      */
     public boolean isLocalMethod(String methodDescriptor) {
-        String[] parts = methodDescriptor.split("->");
-        String className = parts[0];
-        if (!isLocalClass(className)) {
+        return isLocalMethod(MethodRef.of(methodDescriptor));
+    }
+
+    /**
+     *
+     * @param method
+     * @return true if {@link=isLocalClass} is true, and method is defined for class
+     */
+    public boolean isLocalMethod(MethodRef method) {
+        if (!isLocalClass(method.getClassName())) {
             return false;
         }
 
-        return getMethod(methodDescriptor) != null;
+        return getMethod(method) != null;
     }
 
     /**
@@ -285,26 +417,34 @@ public class ClassManager {
      * @return true if method is native, false otherwise
      */
     public boolean isNativeMethod(String methodDescriptor) {
-        BuilderMethod method = getMethod(methodDescriptor);
+        return isNativeMethod(MethodRef.of(methodDescriptor));
+    }
 
-        return Modifier.isNative(method.getAccessFlags());
+    public boolean isNativeMethod(MethodRef method) {
+        return Modifier.isNative(getMethod(method).getAccessFlags());
     }
 
     public boolean isSafeFramework(String typeName) {
-        String className = typeName.split("->")[0];
+        String className = MemberRef.getClassName(typeName);
 
         return smaliFileFactory.isSafeFrameworkClass(className);
     }
 
+    public boolean isSafeFramework(MemberRef member) {
+        return smaliFileFactory.isSafeFrameworkClass(member.getClassName());
+    }
+
     /**
      *
      * @param methodDescriptor
      * @return true if method has implementation (not abstract or native), false otherwise
      */
     public boolean methodHasImplementation(String methodDescriptor) {
-        BuilderMethod method = getMethod(methodDescriptor);
+        return methodHasImplementation(MethodRef.of(methodDescriptor));
+    }
 
-        return null != method.getImplementation();
+    public boolean methodHasImplementation(MethodRef method) {
+        return null != getMethod(method).getImplementation();
     }
 
     private void addFieldNameAndTypes(BuilderClassDef classDef) {
@@ -313,8 +453,7 @@ public class ClassManager {
         List<String> fieldNameAndTypes = new LinkedList<String>();
         for (BuilderField field : fields) {
             String fieldDescriptor = ReferenceUtil.getFieldDescriptor(field);
-            String fieldNameAndType = fieldDescriptor.split("->")[1];
-            fieldNameAndTypes.add(fieldNameAndType);
+            fieldNameAndTypes.add(FieldRef.of(fieldDescriptor).getNameAndType());
         }
         classNameToFieldNameAndType.put(className, fieldNameAndTypes);
     }
@@ -356,20 +495,52 @@ public class ClassManager {
     }
 
     private void dexifyClassIfNecessary(String typeDescriptor) {
-        String[] parts = typeDescriptor.split("->");
-        String className = parts[0];
+        String className = MemberRef.getClassName(typeDescriptor);
         if (getLoadedClassNames().contains(className)) {
             return;
         }
 
-        SmaliFile smaliFile = classNameToSmaliFile.get(className);
-        BuilderClassDef classDef;
+        dexifyClass(className, typeDescriptor);
+    }
+
+    private void dexifyClass(String className, String typeDescriptor) {
+        Object lock = classNameToLoadLock.get(className);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = classNameToLoadLock.putIfAbsent(className, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        synchronized (lock) {
+            // Another thread may have loaded the class while this one was waiting.
+            if (getLoadedClassNames().contains(className)) {
+                return;
+            }
+
+            loadClass(className, typeDescriptor);
+        }
+    }
+
+    private void loadClass(String className, String typeDescriptor) {
+        BuilderClassDef classDef = null;
         try {
+            ClassDef inputClassDef = classNameToInputClassDef.get(className);
+            if (inputClassDef != null) {
+                classDef = Dexifier.internClassDef(inputClassDef, dexBuilder);
+            }
             boolean isFramework = smaliFileFactory.isFrameworkClass(className);
-            InputStream is = smaliFile.open();
-            classDef = Dexifier
-                            .dexifySmaliFile(smaliFile.getPath(), is, isFramework ? frameworkDexBuilder : dexBuilder);
-            is.close();
+            if (isFramework && (frameworkDex != null)) {
+                classDef = frameworkDex.internClass(className, frameworkDexBuilder);
+            }
+            if (classDef == null) {
+                SmaliFile smaliFile = classNameToSmaliFile.get(className);
+                InputStream is = smaliFile.open();
+                classDef = Dexifier.dexifySmaliFile(smaliFile.getPath(), is, isFramework ? frameworkDexBuilder
+                                : dexBuilder);
+                is.close();
+            }
         } catch (Exception e) {
             if (log.isErrorEnabled()) {
                 log.error("Error while loading class necessary for " + typeDescriptor, e);
@@ -378,9 +549,11 @@ public class ClassManager {
             return;
         }
 
-        classNameToClassDef.put(className, classDef);
         addMethods(classDef);
         addFieldNameAndTypes(classDef);
+
+        // Class is only considered loaded once everything about it is available.
+        classNameToClassDef.put(className, classDef);
     }
 
     Set<String> getAncestors(String className) throws UnknownAncestors {
@@ -411,41 +584,13 @@ public class ClassManager {
         return parents;
     }
 
+    /**
+     *
+     * @param className
+     * @return unmodifiable set of the class and every super class, excluding interfaces
+     */
     Set<String> getClassAncestors(String className) {
-        Set<String> ancestors = new HashSet<String>();
-        ancestors.add(className);
-        String superClass = className;
-        do {
-            BuilderClassDef classDef = getClass(superClass);
-            superClass = classDef.getSuperclass();
-            if (superClass != null) {
-                ancestors.add(superClass);
-            }
-        } while (superClass != null);
-
-        return ancestors;
-    }
-
-    private boolean isInstance(String childType, String targetType, Set<String> visited) throws UnknownAncestors {
-        if (childType.equals(targetType)) {
-            return true;
-        }
-
-        Set<String> parents = getAncestors(childType);
-        for (String parent : parents) {
-            if (visited.contains(parent)) {
-                continue;
-            }
-            visited.add(parent);
-
-            if (parent.equals(targetType)) {
-                return true;
-            } else if (isInstance(parent, targetType, visited)) {
-                return true;
-            }
-        }
-
-        return false;
+        return classHierarchy.getClassAncestors(className);
     }
 
 }
@@ -2,33 +2,33 @@ package org.cf.smalivm;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 
+import org.cf.util.Dexifier;
 import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.writer.builder.DexBuilder;
 
 public class ClassManagerFactory {
 
-    private static final String TEMP_DIR_NAME = "simplify";
+    private static final String SMALI_EXTENSION = ".smali";
 
     /**
-     * 
-     * @param smaliPath
-     *            Path to Smali file or folder
+     * Dex and APK files are loaded directly. They're never disassembled to Smali.
+     *
+     * @param inFile
+     *            Path to Smali file or folder, or to a dex or APK
      * @param dexBuilder
      * @return
      * @throws IOException
      */
     public ClassManager build(File inFile, DexBuilder dexBuilder) throws IOException {
-        File smaliPath;
-        if (inFile.isFile()) {
-            smaliPath = disassemble(inFile);
-        } else {
-            smaliPath = inFile;
+        if (inFile.isFile() && !inFile.getName().toLowerCase().endsWith(SMALI_EXTENSION)) {
+            DexBackedDexFile inputDex = Dexifier.loadDexFile(inFile);
+
+            return new ClassManager(inputDex, dexBuilder);
         }
 
-        return new ClassManager(smaliPath, dexBuilder);
+        return new ClassManager(inFile, dexBuilder);
     }
 
     /**
@@ -78,14 +78,4 @@ public class ClassManagerFactory {
         return build(new File(smaliPath), dexBuilder);
     }
 
-    private static File disassemble(File file) throws IOException {
-        Path tempDir = Files.createTempDirectory(TEMP_DIR_NAME);
-        String[] args = new String[] {
-                        "--use-locals", "--sequential-labels", "--code-offsets", file.getAbsolutePath(), "--output",
-                        tempDir.toString(), };
-        org.jf.baksmali.main.main(args);
-
-        return tempDir.toFile();
-    }
-
 }
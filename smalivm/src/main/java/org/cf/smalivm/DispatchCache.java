@@ -0,0 +1,160 @@
+package org.cf.smalivm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.cf.smalivm.emulate.MethodEmulator;
+import org.cf.smalivm.reference.MethodRef;
+
+/**
+ * Remembers how invoked methods are executed so each invocation doesn't have to decide again. For virtual calls, the
+ * target depends on the type of the receiver, so those are cached by receiver type and invoked method.
+ *
+ * Emulated methods may be added at any time, so the cache is cleared whenever they change. Each dispatch records the
+ * emulated methods it was decided with, so one decided before a change is never used after it, even if it was cached
+ * after the cache was cleared.
+ */
+public class DispatchCache {
+
+    public static enum Strategy {
+        EMULATE, REFLECT, LOCAL, UNSAFE_FRAMEWORK, NO_IMPLEMENTATION, NATIVE, UNKNOWN;
+
+        /**
+         * @return true if the method can't be executed and the caller must assume maximum ambiguity
+         */
+        public boolean isAmbiguous() {
+            return (this != EMULATE) && (this != REFLECT) && (this != LOCAL);
+        }
+    }
+
+    public static class Dispatch {
+
+        private final MethodRef target;
+        private final Strategy strategy;
+        private final int emulatorGeneration;
+
+        /**
+         * @param target
+         * @param strategy
+         * @param emulatorGeneration
+         *            from {@link DispatchCache#getGeneration()}, read before deciding the strategy
+         */
+        public Dispatch(MethodRef target, Strategy strategy, int emulatorGeneration) {
+            this.target = target;
+            this.strategy = strategy;
+            this.emulatorGeneration = emulatorGeneration;
+        }
+
+        int getEmulatorGeneration() {
+            return emulatorGeneration;
+        }
+
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        public MethodRef getTarget() {
+            return target;
+        }
+
+        @Override
+        public String toString() {
+            return strategy + " " + target;
+        }
+    }
+
+    private final ConcurrentMap<MethodRef, Dispatch> methodToDispatch;
+    private final ConcurrentMap<MethodRef, ConcurrentMap<String, Dispatch>> methodToVirtualDispatch;
+    private final MethodEmulator methodEmulator;
+    private volatile int emulatorGeneration;
+
+    DispatchCache(MethodEmulator methodEmulator) {
+        this.methodEmulator = methodEmulator;
+        methodToDispatch = new ConcurrentHashMap<MethodRef, Dispatch>();
+        methodToVirtualDispatch = new ConcurrentHashMap<MethodRef, ConcurrentMap<String, Dispatch>>();
+        emulatorGeneration = methodEmulator.getGeneration();
+    }
+
+    public void clear() {
+        methodToDispatch.clear();
+        methodToVirtualDispatch.clear();
+    }
+
+    /**
+     * @return current generation of emulated methods, which changes whenever they do
+     */
+    public int getGeneration() {
+        return methodEmulator.getGeneration();
+    }
+
+    /**
+     * @param receiverType
+     *            actual type of the instance for virtual calls, or null for calls which aren't virtual
+     * @param method
+     *            invoked method
+     * @return cached dispatch, or null if not cached
+     */
+    public Dispatch get(String receiverType, MethodRef method) {
+        int generation = methodEmulator.getGeneration();
+        if (generation != emulatorGeneration) {
+            clear();
+            emulatorGeneration = generation;
+
+            return null;
+        }
+
+        Dispatch dispatch;
+        if (receiverType == null) {
+            dispatch = methodToDispatch.get(method);
+        } else {
+            ConcurrentMap<String, Dispatch> receiverTypeToDispatch = methodToVirtualDispatch.get(method);
+            dispatch = receiverTypeToDispatch == null ? null : receiverTypeToDispatch.get(receiverType);
+        }
+
+        // May have been put by a thread which decided it before emulated methods changed
+        if ((dispatch != null) && (dispatch.getEmulatorGeneration() != generation)) {
+            return null;
+        }
+
+        return dispatch;
+    }
+
+    /**
+     * @param receiverType
+     *            actual type of the instance for virtual calls, or null for calls which aren't virtual
+     * @param method
+     *            invoked method
+     * @param dispatch
+     *            not cached if emulated methods changed since it was decided
+     */
+    public void put(String receiverType, MethodRef method, Dispatch dispatch) {
+        if (dispatch.getEmulatorGeneration() != methodEmulator.getGeneration()) {
+            return;
+        }
+
+        if (receiverType == null) {
+            methodToDispatch.put(method, dispatch);
+            return;
+        }
+
+        ConcurrentMap<String, Dispatch> receiverTypeToDispatch = methodToVirtualDispatch.get(method);
+        if (receiverTypeToDispatch == null) {
+            ConcurrentMap<String, Dispatch> newReceiverTypeToDispatch = new ConcurrentHashMap<String, Dispatch>();
+            receiverTypeToDispatch = methodToVirtualDispatch.putIfAbsent(method, newReceiverTypeToDispatch);
+            if (receiverTypeToDispatch == null) {
+                receiverTypeToDispatch = newReceiverTypeToDispatch;
+            }
+        }
+        receiverTypeToDispatch.put(receiverType, dispatch);
+    }
+
+    public int size() {
+        int size = methodToDispatch.size();
+        for (ConcurrentMap<String, Dispatch> receiverTypeToDispatch : methodToVirtualDispatch.values()) {
+            size += receiverTypeToDispatch.size();
+        }
+
+        return size;
+    }
+
+}
@@ -1,24 +1,105 @@
 package org.cf.smalivm;
 
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cf.util.SmaliClassUtils;
 import org.jf.dexlib2.builder.BuilderTryBlock;
 import org.jf.dexlib2.iface.ExceptionHandler;
 import org.jf.dexlib2.iface.TryBlock;
 
+/**
+ * Finds the handler address for an exception thrown at an address. Try blocks are split into ranges of addresses
+ * covered by the same blocks once, when the resolver is built, and the handler for each exception class is remembered
+ * for each range. Resolvers are kept with template graphs, so this is done once per method rather than per execution.
+ * Safe to use from several threads.
+ */
 public class ExceptionHandlerAddressResolver {
 
+    /*
+     * Handlers of every try block covering a range of addresses, in the order they're checked.
+     */
+    private static final class HandlerChain {
+
+        private final List<ExceptionHandler> handlers;
+        private final int catchAllAddress;
+        private final Map<String, Integer> exceptionClassToAddress;
+
+        private HandlerChain(List<BuilderTryBlock> tryBlocks) {
+            handlers = new ArrayList<ExceptionHandler>();
+            int catchAllAddress = -1;
+            for (TryBlock<? extends ExceptionHandler> tryBlock : tryBlocks) {
+                List<? extends ExceptionHandler> tryHandlers = tryBlock.getExceptionHandlers();
+                handlers.addAll(tryHandlers);
+
+                ExceptionHandler handler = tryHandlers.get(tryHandlers.size() - 1);
+                if ((catchAllAddress == -1) && (null == handler.getExceptionType())) {
+                    catchAllAddress = handler.getHandlerCodeAddress();
+                }
+            }
+            this.catchAllAddress = catchAllAddress;
+            exceptionClassToAddress = new ConcurrentHashMap<String, Integer>();
+        }
+
+        private int getHandlerAddress(String exceptionClass) {
+            for (ExceptionHandler handler : handlers) {
+                if (exceptionClass.equals(handler.getExceptionType())) {
+                    return handler.getHandlerCodeAddress();
+                }
+            }
+
+            return -1;
+        }
+    }
+
     private final ClassManager classManager;
-    private final List<BuilderTryBlock> tryBlocks;
+    // Sorted addresses where the covering try blocks change. Chain i covers boundaries i up to i + 1.
+    private final int[] boundaries;
+    private final HandlerChain[] chains;
 
-    ExceptionHandlerAddressResolver(ClassManager classManager, String methodDescriptor) {
+    public ExceptionHandlerAddressResolver(ClassManager classManager, String methodDescriptor) {
         this.classManager = classManager;
-        tryBlocks = classManager.getTryBlocks(methodDescriptor);
+        List<BuilderTryBlock> tryBlocks = classManager.getTryBlocks(methodDescriptor);
+        if (tryBlocks == null) {
+            tryBlocks = Collections.emptyList();
+        }
+
+        // Try blocks include the address just after their last code unit.
+        TIntSet boundarySet = new TIntHashSet();
+        for (TryBlock<? extends ExceptionHandler> tryBlock : tryBlocks) {
+            boundarySet.add(tryBlock.getStartCodeAddress());
+            boundarySet.add(tryBlock.getStartCodeAddress() + tryBlock.getCodeUnitCount() + 1);
+        }
+        boundaries = boundarySet.toArray();
+        Arrays.sort(boundaries);
+
+        chains = new HandlerChain[Math.max(boundaries.length - 1, 0)];
+        for (int i = 0; i < chains.length; i++) {
+            int address = boundaries[i];
+            List<BuilderTryBlock> coveringBlocks = new ArrayList<BuilderTryBlock>();
+            for (BuilderTryBlock tryBlock : tryBlocks) {
+                if ((address < tryBlock.getStartCodeAddress()) || (address > (tryBlock.getStartCodeAddress() + tryBlock
+                                .getCodeUnitCount()))) {
+                    // address is not inside of this try/catch
+                    continue;
+                }
+                coveringBlocks.add(tryBlock);
+            }
+            if (!coveringBlocks.isEmpty()) {
+                chains[i] = new HandlerChain(coveringBlocks);
+            }
+        }
     }
 
     @Deprecated
@@ -32,57 +113,56 @@ public class ExceptionHandlerAddressResolver {
         return resolve(vex.getExceptionClass(), address);
     }
 
+    private HandlerChain getHandlerChain(int address) {
+        int index = Arrays.binarySearch(boundaries, address);
+        if (index < 0) {
+            // Range starting before the address
+            index = -index - 2;
+        }
+        if ((index < 0) || (index >= chains.length)) {
+            return null;
+        }
+
+        return chains[index];
+    }
+
     private int resolve(String exceptionClass, int address) {
+        HandlerChain chain = getHandlerChain(address);
+        if (chain == null) {
+            return -1;
+        }
+
+        Integer handlerAddress = chain.exceptionClassToAddress.get(exceptionClass);
+        if (handlerAddress == null) {
+            handlerAddress = resolve(exceptionClass, chain);
+            chain.exceptionClassToAddress.put(exceptionClass, handlerAddress);
+        }
+
+        return handlerAddress;
+    }
+
+    private int resolve(String exceptionClass, HandlerChain chain) {
         Deque<String> classAncestors = new ArrayDeque<String>();
         classAncestors.add(exceptionClass);
         Set<String> visited = new HashSet<String>();
 
         String currentExceptionClass;
         while ((currentExceptionClass = classAncestors.poll()) != null) {
-            for (TryBlock<? extends ExceptionHandler> tryBlock : tryBlocks) {
-                if ((address < tryBlock.getStartCodeAddress()) || (address > (tryBlock.getStartCodeAddress() + tryBlock
-                                .getCodeUnitCount()))) {
-                    // address is not inside of this try/catch
-                    continue;
-                }
-
-                List<? extends ExceptionHandler> handlers = tryBlock.getExceptionHandlers();
-                for (ExceptionHandler handler : handlers) {
-                    String handlerType = handler.getExceptionType();
-                    if (currentExceptionClass.equals(handlerType)) {
-                        int handlerAddress = handler.getHandlerCodeAddress();
-
-                        return handlerAddress;
-                    }
-                }
+            int handlerAddress = chain.getHandlerAddress(currentExceptionClass);
+            if (handlerAddress != -1) {
+                return handlerAddress;
             }
 
             visited.add(currentExceptionClass);
-            Set<String> ancestors = classManager.getClassAncestors(currentExceptionClass);
-            ancestors.removeAll(visited);
-            classAncestors.addAll(ancestors);
-        }
-
-        // Not caught by anything. Look for a catch-all / finally.
-        for (TryBlock<? extends ExceptionHandler> tryBlock : tryBlocks) {
-            if ((address < tryBlock.getStartCodeAddress()) || (address > (tryBlock.getStartCodeAddress() + tryBlock
-                            .getCodeUnitCount()))) {
-                // address is not inside of this try/catch
-                continue;
-            }
-
-            List<? extends ExceptionHandler> handlers = tryBlock.getExceptionHandlers();
-            ExceptionHandler handler = handlers.get(handlers.size() - 1);
-            if (null == handler.getExceptionType()) {
-                // catch-all
-                int handlerAddress = handler.getHandlerCodeAddress();
-
-                return handlerAddress;
+            for (String ancestor : classManager.getClassAncestors(currentExceptionClass)) {
+                if (!visited.contains(ancestor)) {
+                    classAncestors.add(ancestor);
+                }
             }
-
         }
 
-        return -1;
+        // Not caught by anything. Look for a catch-all / finally.
+        return chain.catchAllAddress;
     }
 
 }
@@ -0,0 +1,98 @@
+package org.cf.smalivm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
+import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
+
+/**
+ * Limits the total work done by executions: the number of nodes executed, wall time, and heap in use. A budget may be
+ * shared by many executions, even on different threads, e.g. to limit the work spent on a whole class or APK. It may
+ * also be cancelled from any thread.
+ *
+ * Executions only check the budget every {@link #CHECK_INTERVAL} nodes and when they finish, so limits may be
+ * overshot slightly. Callees use the budget of the root method execution on the same thread.
+ */
+public class ExecutionBudget {
+
+    public static final long UNLIMITED = 0;
+
+    static final int CHECK_INTERVAL = 256;
+
+    private final long maxNodes;
+    private final long maxTimeNanos;
+    private final long maxMemory;
+    private final long startTime;
+    private final AtomicLong nodeCount;
+    private volatile boolean isCancelled;
+
+    /**
+     * @param maxNodes
+     *            maximum nodes executed, or {@link #UNLIMITED}
+     * @param maxTime
+     *            maximum wall time from now, or {@link #UNLIMITED}
+     * @param unit
+     *            unit of maxTime
+     * @param maxMemory
+     *            maximum bytes of heap in use by the whole JVM, or {@link #UNLIMITED}
+     */
+    public ExecutionBudget(long maxNodes, long maxTime, TimeUnit unit, long maxMemory) {
+        this.maxNodes = maxNodes;
+        maxTimeNanos = unit.toNanos(maxTime);
+        this.maxMemory = maxMemory;
+        startTime = System.nanoTime();
+        nodeCount = new AtomicLong();
+    }
+
+    public static ExecutionBudget unlimited() {
+        return new ExecutionBudget(UNLIMITED, UNLIMITED, TimeUnit.SECONDS, UNLIMITED);
+    }
+
+    /**
+     * Stop every execution using this budget at its next check.
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    public long getNodeCount() {
+        return nodeCount.get();
+    }
+
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Count executed nodes and check that the budget isn't exhausted.
+     *
+     * @param nodes
+     *            nodes executed since the last check
+     * @param methodDescriptor
+     *            method being executed
+     */
+    void spend(int nodes, String methodDescriptor) throws ExecutionBudgetExceeded, MaxExecutionTimeExceeded {
+        long count = nodeCount.addAndGet(nodes);
+        if (isCancelled) {
+            throw new ExecutionBudgetExceeded("Execution cancelled in " + methodDescriptor);
+        }
+        if ((maxNodes != UNLIMITED) && (count > maxNodes)) {
+            throw new ExecutionBudgetExceeded("Exceeded budget of " + maxNodes + " nodes in " + methodDescriptor);
+        }
+        if ((maxTimeNanos != UNLIMITED) && ((System.nanoTime() - startTime) >= maxTimeNanos)) {
+            throw new MaxExecutionTimeExceeded(methodDescriptor);
+        }
+        if ((maxMemory != UNLIMITED) && (getUsedMemory() > maxMemory)) {
+            throw new ExecutionBudgetExceeded("Exceeded budget of " + maxMemory + " bytes of memory in "
+                            + methodDescriptor);
+        }
+    }
+
+}
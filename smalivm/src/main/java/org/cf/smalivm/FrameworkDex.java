@@ -0,0 +1,214 @@
+package org.cf.smalivm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.cf.util.Dexifier;
+import org.cf.util.FrameworkCacheBuilder;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.builder.BuilderClassDef;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-built dex of the Android framework classes, written by {@link org.cf.util.FrameworkCacheBuilder}. Loading a
+ * class from here is much faster than lexing and parsing its Smali. Classes are only decoded when asked for.
+ *
+ * The file is at ~/.smalivm/android-17.dex unless the smalivm.frameworkDex system property says otherwise. If it
+ * doesn't exist, framework classes are loaded from Smali as before. If it was built from a different reflib.zip, it's
+ * rebuilt in the background and framework classes are loaded from Smali until the next start. Setting the
+ * smalivm.frameworkDex.rebuild system property to false skips the rebuild.
+ */
+class FrameworkDex {
+
+    private static final Logger log = LoggerFactory.getLogger(FrameworkDex.class.getSimpleName());
+
+    static final String FILE_PROPERTY = "smalivm.frameworkDex";
+    static final String REBUILD_PROPERTY = "smalivm.frameworkDex.rebuild";
+
+    private static FrameworkDex defaultInstance;
+    private static boolean isDefaultLoaded;
+
+    private final Map<String, DexBackedClassDef> classNameToClassDef;
+
+    FrameworkDex(DexBackedDexFile dexFile) {
+        classNameToClassDef = new HashMap<String, DexBackedClassDef>();
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            classNameToClassDef.put(classDef.getType(), classDef);
+        }
+    }
+
+    static File getDefaultFile() {
+        String path = System.getProperty(FILE_PROPERTY);
+        if (path != null) {
+            return new File(path);
+        }
+
+        return new File(System.getProperty("user.home"), ".smalivm" + File.separatorChar + "android-17.dex");
+    }
+
+    /**
+     * @return framework dex from {@link #getDefaultFile()}, or null if there isn't one
+     */
+    static synchronized FrameworkDex getDefault() {
+        if (!isDefaultLoaded) {
+            defaultInstance = loadCurrent(getDefaultFile());
+            isDefaultLoaded = true;
+        }
+
+        return defaultInstance;
+    }
+
+    /**
+     * @param file
+     * @param frameworkVersion
+     * @return true if the dex was built from the given framework version
+     */
+    static boolean isCurrent(File file, String frameworkVersion) {
+        List<String> lines = readVersionFile(file);
+
+        return (lines.size() > 0) && frameworkVersion.equals(lines.get(0).trim());
+    }
+
+    /**
+     * @param file
+     * @param frameworkStamp
+     * @return true if reflib.zip had the given stamp when the dex's version was last checked, so it hasn't changed
+     */
+    static boolean isStampCurrent(File file, String frameworkStamp) {
+        List<String> lines = readVersionFile(file);
+
+        return (lines.size() > 1) && frameworkStamp.equals(lines.get(1).trim());
+    }
+
+    private static List<String> readVersionFile(File file) {
+        File versionFile = FrameworkCacheBuilder.getVersionFile(file);
+        if (!versionFile.isFile()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return FileUtils.readLines(versionFile);
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static FrameworkDex loadCurrent(File file) {
+        if (!file.isFile()) {
+            return load(file);
+        }
+
+        try {
+            // Only hash reflib.zip if it looks like it changed
+            String frameworkStamp = FrameworkCacheBuilder.getFrameworkStamp();
+            if (!isStampCurrent(file, frameworkStamp)) {
+                String frameworkVersion = FrameworkCacheBuilder.getFrameworkVersion();
+                if (!isCurrent(file, frameworkVersion)) {
+                    rebuild(file, frameworkVersion, frameworkStamp);
+
+                    return null;
+                }
+                FrameworkCacheBuilder.writeVersionFile(file, frameworkVersion, frameworkStamp);
+            }
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to check framework dex " + file + ", will load framework classes from Smali", e);
+            }
+
+            return null;
+        }
+
+        return load(file);
+    }
+
+    /*
+     * Rebuilding takes minutes, so don't make the first class manager wait for it. The thread isn't a daemon so the JVM
+     * doesn't exit before the new dex is in place.
+     */
+    private static void rebuild(final File file, final String frameworkVersion, final String frameworkStamp) {
+        if ("false".equals(System.getProperty(REBUILD_PROPERTY))) {
+            if (log.isInfoEnabled()) {
+                log.info("Framework dex {} was built from a different reflib.zip, will load framework classes from "
+                                + "Smali", file);
+            }
+
+            return;
+        }
+
+        if (log.isInfoEnabled()) {
+            log.info("Framework dex {} was built from a different reflib.zip, rebuilding it in the background and "
+                            + "loading framework classes from Smali until then", file);
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                FrameworkCacheBuilder.buildFrameworkDex(file, frameworkVersion, frameworkStamp);
+            } catch (Exception e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Unable to rebuild framework dex " + file, e);
+                }
+            }
+        }, "framework-dex-rebuild");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @param file
+     * @return framework dex, or null if the file doesn't exist or can't be read
+     */
+    static FrameworkDex load(File file) {
+        if (!file.isFile()) {
+            if (log.isDebugEnabled()) {
+                log.debug("No framework dex at {}, will load framework classes from Smali", file);
+            }
+
+            return null;
+        }
+
+        long startTime = System.currentTimeMillis();
+        FrameworkDex frameworkDex;
+        try {
+            frameworkDex = new FrameworkDex(Dexifier.loadDexFile(file));
+        } catch (IOException | RuntimeException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to load framework dex " + file + ", will load framework classes from Smali", e);
+            }
+
+            return null;
+        }
+
+        if (log.isDebugEnabled()) {
+            long totalTime = System.currentTimeMillis() - startTime;
+            log.debug("Loaded framework dex with {} classes in {} ms.", frameworkDex.classNameToClassDef.size(),
+                            totalTime);
+        }
+
+        return frameworkDex;
+    }
+
+    /**
+     * Build the class with the given DexBuilder, the same as if it had been dexified from Smali.
+     *
+     * @param className
+     * @param dexBuilder
+     * @return class definition, or null if the class isn't in this dex
+     */
+    BuilderClassDef internClass(String className, DexBuilder dexBuilder) {
+        ClassDef classDef = classNameToClassDef.get(className);
+        if (classDef == null) {
+            return null;
+        }
+
+        return Dexifier.internClassDef(classDef, dexBuilder);
+    }
+
+}
@@ -5,9 +5,11 @@ import gnu.trove.map.hash.TIntIntHashMap;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.TimeUnit;
 
 import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
@@ -20,26 +22,38 @@ public class MethodExecutor {
 
     private static Logger log = LoggerFactory.getLogger(MethodExecutor.class.getSimpleName());
 
-    private final ClassManager classManager;
     private final int maxAddressVisits;
     private final int maxCallDepth;
     private final int maxMethodVisits;
     private final int maxExecutionTime;
-    private int totalVisits;
 
-    MethodExecutor(ClassManager classManager, int maxCallDepth, int maxAddressVisits, int maxMethodVisits,
-                    int maxExecutionTime) {
-        this.classManager = classManager;
+    // Visits are counted per root method execution. Different roots may be executing on different threads.
+    private final ThreadLocal<VisitCounter> totalVisits;
+    // Budget of the root method execution on this thread. Callees and static initializers share it.
+    private final ThreadLocal<ExecutionBudget> currentBudget;
+    private volatile StateMerger stateMerger;
+
+    private static class VisitCounter {
+        private int count;
+    }
+
+    MethodExecutor(int maxCallDepth, int maxAddressVisits, int maxMethodVisits, int maxExecutionTime) {
         this.maxCallDepth = maxCallDepth;
         this.maxAddressVisits = maxAddressVisits;
         this.maxMethodVisits = maxMethodVisits;
         this.maxExecutionTime = maxExecutionTime;
-        totalVisits = 0;
+        totalVisits = new ThreadLocal<VisitCounter>() {
+            @Override
+            protected VisitCounter initialValue() {
+                return new VisitCounter();
+            }
+        };
+        currentBudget = new ThreadLocal<ExecutionBudget>();
     }
 
-    private void checkMaxVisits(ExecutionNode node, String methodDescriptor, TIntIntMap addressToVisitCount)
-                    throws MaxAddressVisitsExceeded, MaxMethodVisitsExceeded {
-        if (totalVisits > getMaxMethodVisits()) {
+    private void checkMaxVisits(ExecutionNode node, String methodDescriptor, TIntIntMap addressToVisitCount,
+                    VisitCounter visits) throws MaxAddressVisitsExceeded, MaxMethodVisitsExceeded {
+        if (visits.count > getMaxMethodVisits()) {
             throw new MaxMethodVisitsExceeded(node, methodDescriptor);
         }
 
@@ -66,12 +80,44 @@ public class MethodExecutor {
         return maxMethodVisits;
     }
 
+    void setStateMerger(StateMerger stateMerger) {
+        this.stateMerger = stateMerger;
+    }
+
     private void resetTotalVisits() {
-        totalVisits = 0;
+        totalVisits.get().count = 0;
     }
 
     ExecutionGraph execute(ExecutionGraph graph) throws MaxAddressVisitsExceeded, MaxCallDepthExceeded,
-                    MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
+                    MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded,
+                    ExecutionBudgetExceeded {
+        return execute(graph, null);
+    }
+
+    /**
+     * @param graph
+     * @param budget
+     *            budget for this execution and any callees, or null to use the budget of the current root execution or,
+     *            failing that, one limited to the max execution time
+     */
+    ExecutionGraph execute(ExecutionGraph graph, ExecutionBudget budget) throws MaxAddressVisitsExceeded,
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
+        return execute(graph, budget, false);
+    }
+
+    /**
+     * @param graph
+     * @param budget
+     *            budget for this execution and any callees, or null to use the budget of the current root execution or,
+     *            failing that, one limited to the max execution time
+     * @param isResultsOnly
+     *            if true, release executed nodes which aren't needed for results of the method as soon as their
+     *            children are spawned; ignored when merging states, which needs earlier nodes
+     */
+    ExecutionGraph execute(ExecutionGraph graph, ExecutionBudget budget, boolean isResultsOnly)
+                    throws MaxAddressVisitsExceeded, MaxCallDepthExceeded, MaxMethodVisitsExceeded,
+                    UnhandledVirtualException, MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
         TIntIntMap addressToVisitCount = new TIntIntHashMap();
         String methodDescriptor = graph.getMethodDescriptor();
         ExecutionNode node = graph.getRoot();
@@ -86,26 +132,51 @@ public class MethodExecutor {
             resetTotalVisits();
         }
 
-        NodeExecutor nodeExecutor = new NodeExecutor(graph, classManager);
-        Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>();
-        stack.push(node);
-        long endTime = System.currentTimeMillis() + (maxExecutionTime * 1000);
-        while ((node = stack.poll()) != null) {
-            totalVisits += 1;
-            checkMaxVisits(node, methodDescriptor, addressToVisitCount);
-
-            nodeExecutor.execute(node);
-            stack.addAll(node.getChildren());
-            checkMaxExecutionTime(endTime, methodDescriptor);
+        ExecutionBudget previousBudget = currentBudget.get();
+        ExecutionBudget activeBudget = budget;
+        if (activeBudget == null) {
+            activeBudget = previousBudget != null ? previousBudget : getDefaultBudget();
+        }
+        currentBudget.set(activeBudget);
+        try {
+            VisitCounter visits = totalVisits.get();
+            StateMerger merger = stateMerger;
+            boolean isReleasingNodes = isResultsOnly && (merger == null);
+            ExecutionNode rootNode = node;
+            NodeExecutor nodeExecutor = new NodeExecutor(graph);
+            Deque<ExecutionNode> stack = new ArrayDeque<ExecutionNode>();
+            stack.push(node);
+            int uncheckedNodes = 0;
+            while ((node = stack.poll()) != null) {
+                visits.count += 1;
+                if (merger != null) {
+                    merger.merge(graph, node, addressToVisitCount.get(node.getAddress()));
+                }
+                checkMaxVisits(node, methodDescriptor, addressToVisitCount, visits);
+
+                nodeExecutor.execute(node);
+                stack.addAll(node.getChildren());
+                if (isReleasingNodes && (node != rootNode)) {
+                    graph.releaseNode(node);
+                }
+
+                uncheckedNodes += 1;
+                if (uncheckedNodes == ExecutionBudget.CHECK_INTERVAL) {
+                    activeBudget.spend(uncheckedNodes, methodDescriptor);
+                    uncheckedNodes = 0;
+                }
+            }
+            activeBudget.spend(uncheckedNodes, methodDescriptor);
+        } finally {
+            currentBudget.set(previousBudget);
         }
 
         return graph;
     }
 
-    private static void checkMaxExecutionTime(long endTime, String methodDescriptor) throws MaxExecutionTimeExceeded {
-        if (System.currentTimeMillis() >= endTime) {
-            throw new MaxExecutionTimeExceeded(methodDescriptor);
-        }
+    private ExecutionBudget getDefaultBudget() {
+        return new ExecutionBudget(ExecutionBudget.UNLIMITED, maxExecutionTime, TimeUnit.SECONDS,
+                        ExecutionBudget.UNLIMITED);
     }
 
 }
@@ -1,18 +1,27 @@
 package org.cf.smalivm;
 
 import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.beanutils.ConstructorUtils;
 import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.lang3.ClassUtils;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.MemberRef;
+import org.cf.smalivm.reference.MethodRef;
 import org.cf.smalivm.type.UnknownValue;
 import org.cf.util.ConfigLoader;
+import org.cf.util.SmaliClassUtils;
 import org.cf.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +38,14 @@ public class MethodReflector {
     private static Set<String> SafeMethods;
     private static Set<String> UnsafeMethods;
 
+    /*
+     * Resolved Method or Constructor for each reflected method, or UNRESOLVED if it couldn't be found by its declared
+     * types. Resolving by name and argument types is far slower than invoking, and hot methods like String.charAt may
+     * be reflected millions of times.
+     */
+    private static final ConcurrentMap<MethodRef, Object> methodToMember = new ConcurrentHashMap<MethodRef, Object>();
+    private static final Object UNRESOLVED = new Object();
+
     static {
         try {
             loadSafeClasses();
@@ -43,22 +60,25 @@ public class MethodReflector {
         return isSafe(typeDescriptor);
     }
 
+    public static boolean canReflect(MethodRef method) {
+        return isSafe(method);
+    }
+
     public static boolean isSafe(String typeDescriptor) {
-        String[] parts = typeDescriptor.split("->");
-        String className = parts[0];
+        return isSafe(MemberRef.getClassName(typeDescriptor), typeDescriptor);
+    }
 
+    public static boolean isSafe(MemberRef member) {
+        return isSafe(member.getClassName(), member.getDescriptor());
+    }
+
+    private static boolean isSafe(String className, String typeDescriptor) {
         if (SafeClasses.contains(className) && !UnsafeMethods.contains(typeDescriptor)) {
             return true;
         }
 
-        if (parts.length > 1) {
-            // It's a method name
-            if (SafeMethods.contains(typeDescriptor)) {
-                return true;
-            }
-        }
-
-        return false;
+        // Only method descriptors are in the safe methods, so there's no need to check if it's a class name.
+        return SafeMethods.contains(typeDescriptor);
     }
 
     private static void loadSafeClasses() throws IOException {
@@ -77,6 +97,7 @@ public class MethodReflector {
         UnsafeMethods = new HashSet<String>(lines);
     }
 
+    private final MethodRef method;
     private final String smaliClassName;
     private final String javaIshClassName;
     private final boolean isStatic;
@@ -86,16 +107,20 @@ public class MethodReflector {
     private final String returnType;
 
     public MethodReflector(String methodDescriptor, String returnType, List<String> parameterTypes, boolean isStatic) {
-        this.methodDescriptor = methodDescriptor;
+        this(MethodRef.of(methodDescriptor), returnType, parameterTypes, isStatic);
+    }
+
+    public MethodReflector(MethodRef method, String returnType, List<String> parameterTypes, boolean isStatic) {
+        this.method = method;
+        this.methodDescriptor = method.getDescriptor();
         this.returnType = returnType;
         this.parameterTypes = parameterTypes;
         this.isStatic = isStatic;
 
-        String[] parts = methodDescriptor.split("->");
         // ClassUtils expects "Ljava.lang.Class;"
-        smaliClassName = parts[0];
+        smaliClassName = method.getClassName();
         javaIshClassName = smaliClassName.replaceAll("/", ".");
-        methodName = parts[1].substring(0, parts[1].indexOf("("));
+        methodName = method.getName();
     }
 
     public void reflect(MethodState calleeContext) {
@@ -105,32 +130,17 @@ public class MethodReflector {
 
         Object resultValue = null;
         try {
-            // Class<?> clazz = ClassUtils.getClass(javaIshClassName, false);
-            // Strip leading 'L' and trailing ';' from smali type descriptor
-            Class<?> clazz = Class.forName(javaIshClassName.substring(1, javaIshClassName.length() - 1));
             Object[] args = getArguments(calleeContext);
-            if ("<init>".equals(methodName)) {
-                // This class is used by the JVM to do instance initialization, i.e. newInstance. Can't just reflect it.
-                if (log.isDebugEnabled()) {
-                    log.debug("Reflecting {}, clazz={} args={}", methodDescriptor, clazz, Arrays.toString(args));
+            Object member = getMember();
+            if (member != UNRESOLVED) {
+                try {
+                    resultValue = invoke(member, calleeContext, args);
+                } catch (IllegalArgumentException e) {
+                    // Argument values don't fit the declared types, e.g. an int given for a char. Match by value types.
+                    resultValue = invokeByName(calleeContext, args);
                 }
-                resultValue = ConstructorUtils.invokeConstructor(clazz, args);
-                // kind of a hack. store newly init'ed value here
-                calleeContext.assignParameter(0, new HeapItem(resultValue, smaliClassName));
             } else {
-                if (isStatic) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Reflecting {}, clazz={} args={}", methodDescriptor, clazz, Arrays.toString(args));
-                    }
-                    resultValue = MethodUtils.invokeStaticMethod(clazz, methodName, args);
-                } else {
-                    HeapItem targetItem = calleeContext.peekRegister(0);
-                    if (log.isDebugEnabled()) {
-                        log.debug("Reflecting {}, target={} args={}", methodDescriptor, targetItem,
-                                        Arrays.toString(args));
-                    }
-                    resultValue = MethodUtils.invokeMethod(targetItem.getValue(), methodName, args);
-                }
+                resultValue = invokeByName(calleeContext, args);
             }
         } catch (NullPointerException | ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
             resultValue = new UnknownValue();
@@ -150,6 +160,115 @@ public class MethodReflector {
         }
     }
 
+    private Object getMember() {
+        Object member = methodToMember.get(method);
+        if (member == null) {
+            member = resolveMember();
+            methodToMember.putIfAbsent(method, member);
+        }
+
+        return member;
+    }
+
+    private Object resolveMember() {
+        try {
+            Class<?> clazz = getReflectedClass();
+            List<String> declaredTypes = method.getParameterTypes();
+            Class<?>[] parameterClasses = new Class<?>[declaredTypes.size()];
+            for (int i = 0; i < parameterClasses.length; i++) {
+                parameterClasses[i] = ClassUtils.getClass(SmaliClassUtils.smaliClassToJava(declaredTypes.get(i)));
+            }
+
+            if (method.isConstructor()) {
+                Constructor<?> constructor = ConstructorUtils.getAccessibleConstructor(clazz, parameterClasses);
+                if (constructor != null) {
+                    return constructor;
+                }
+            } else {
+                Method reflectedMethod = MethodUtils.getAccessibleMethod(clazz, methodName, parameterClasses);
+                if ((reflectedMethod != null) && (Modifier.isStatic(reflectedMethod.getModifiers()) == isStatic)) {
+                    return reflectedMethod;
+                }
+            }
+        } catch (ClassNotFoundException | SecurityException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Couldn't resolve {}", methodDescriptor, e);
+            }
+        }
+
+        return UNRESOLVED;
+    }
+
+    private Class<?> getReflectedClass() throws ClassNotFoundException {
+        // Class<?> clazz = ClassUtils.getClass(javaIshClassName, false);
+        // Strip leading 'L' and trailing ';' from smali type descriptor
+        return Class.forName(javaIshClassName.substring(1, javaIshClassName.length() - 1));
+    }
+
+    private Object invoke(Object member, MethodState calleeContext, Object[] args) throws InstantiationException,
+                    IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+        Object resultValue;
+        if (member instanceof Constructor) {
+            if (log.isDebugEnabled()) {
+                log.debug("Reflecting {}, constructor={} args={}", methodDescriptor, member, Arrays.toString(args));
+            }
+            resultValue = ((Constructor<?>) member).newInstance(args);
+            // kind of a hack. store newly init'ed value here
+            calleeContext.assignParameter(0, new HeapItem(resultValue, smaliClassName));
+        } else if (isStatic) {
+            if (log.isDebugEnabled()) {
+                log.debug("Reflecting {}, method={} args={}", methodDescriptor, member, Arrays.toString(args));
+            }
+            resultValue = ((Method) member).invoke(null, args);
+        } else {
+            HeapItem targetItem = calleeContext.peekRegister(0);
+            if (log.isDebugEnabled()) {
+                log.debug("Reflecting {}, target={} args={}", methodDescriptor, targetItem, Arrays.toString(args));
+            }
+            Object target = targetItem.getValue();
+            if (target == null) {
+                throw new NullPointerException();
+            }
+            resultValue = ((Method) member).invoke(target, args);
+        }
+
+        return resultValue;
+    }
+
+    /*
+     * Fallback for methods which couldn't be resolved by their declared types. Finds a matching method by name and
+     * argument types each time.
+     */
+    private Object invokeByName(MethodState calleeContext, Object[] args) throws ClassNotFoundException,
+                    NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
+        Object resultValue;
+        Class<?> clazz = getReflectedClass();
+        if ("<init>".equals(methodName)) {
+            // This class is used by the JVM to do instance initialization, i.e. newInstance. Can't just reflect it.
+            if (log.isDebugEnabled()) {
+                log.debug("Reflecting {}, clazz={} args={}", methodDescriptor, clazz, Arrays.toString(args));
+            }
+            resultValue = ConstructorUtils.invokeConstructor(clazz, args);
+            // kind of a hack. store newly init'ed value here
+            calleeContext.assignParameter(0, new HeapItem(resultValue, smaliClassName));
+        } else {
+            if (isStatic) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Reflecting {}, clazz={} args={}", methodDescriptor, clazz, Arrays.toString(args));
+                }
+                resultValue = MethodUtils.invokeStaticMethod(clazz, methodName, args);
+            } else {
+                HeapItem targetItem = calleeContext.peekRegister(0);
+                if (log.isDebugEnabled()) {
+                    log.debug("Reflecting {}, target={} args={}", methodDescriptor, targetItem, Arrays.toString(args));
+                }
+                resultValue = MethodUtils.invokeMethod(targetItem.getValue(), methodName, args);
+            }
+        }
+
+        return resultValue;
+    }
+
     private Object[] getArguments(MethodState mState) {
         int offset = 0;
         if (!isStatic) {
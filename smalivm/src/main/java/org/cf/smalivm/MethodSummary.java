@@ -0,0 +1,96 @@
+package org.cf.smalivm;
+
+import java.util.List;
+
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.cf.util.ImmutableUtils;
+
+/**
+ * Everything a caller needs from executing a local method: the return value, the consensus of any mutable parameters,
+ * and the highest side effect level. A summary can be replayed into another caller in place of executing the method
+ * again. Every replay gets its own copy of mutable values, so callers don't share them.
+ */
+public class MethodSummary {
+
+    private final HeapItem returnItem;
+    private final int returnParameterIndex;
+    private final HeapItem[] parameterItems;
+    private final boolean[] isParameterUnchanged;
+    private final SideEffect.Level sideEffectLevel;
+
+    /**
+     * @param returnItem
+     *            return value consensus, or null for void methods
+     * @param returnParameterIndex
+     *            index of the parameter whose (mutable) value is returned as is, or -1
+     * @param parameterItems
+     *            consensus for each parameter, null for immutable types
+     * @param isParameterUnchanged
+     *            true for each parameter whose value wasn't replaced or mutated
+     * @param sideEffectLevel
+     */
+    MethodSummary(HeapItem returnItem, int returnParameterIndex, HeapItem[] parameterItems,
+                    boolean[] isParameterUnchanged, SideEffect.Level sideEffectLevel) {
+        this.returnItem = returnItem;
+        this.returnParameterIndex = returnParameterIndex;
+        this.parameterItems = parameterItems;
+        this.isParameterUnchanged = isParameterUnchanged;
+        this.sideEffectLevel = sideEffectLevel;
+    }
+
+    /**
+     * @param callerContext
+     *            context the parameters were taken from, after {@link #apply(ExecutionContext, List, int[])}
+     * @param parameterRegisters
+     * @return return value for the caller, or null for void methods
+     */
+    public HeapItem getReturnItem(ExecutionContext callerContext, int[] parameterRegisters) {
+        if (returnItem == null) {
+            return null;
+        }
+
+        if (returnParameterIndex >= 0) {
+            // The method returned one of its arguments. Keep the caller's identity for it.
+            HeapItem item = callerContext.getMethodState().peekRegister(parameterRegisters[returnParameterIndex]);
+
+            return new HeapItem(item, returnItem.getType());
+        }
+
+        return returnItem.deepCopy();
+    }
+
+    public SideEffect.Level getSideEffectLevel() {
+        return sideEffectLevel;
+    }
+
+    /**
+     * Merge the parameter consensus into the caller, the same way executing the method would.
+     *
+     * @param callerContext
+     * @param parameterTypes
+     * @param parameterRegisters
+     */
+    void apply(ExecutionContext callerContext, List<String> parameterTypes, int[] parameterRegisters) {
+        MethodState mState = callerContext.getMethodState();
+        for (int parameterIndex = 0; parameterIndex < parameterTypes.size(); parameterIndex++) {
+            String type = parameterTypes.get(parameterIndex);
+            if (ImmutableUtils.isImmutableClass(type)) {
+                continue;
+            }
+
+            int register = parameterRegisters[parameterIndex];
+            HeapItem consensus = parameterItems[parameterIndex];
+            HeapItem item;
+            if (isParameterUnchanged[parameterIndex]) {
+                // Keep the caller's identity for the value, just as if the method had executed.
+                item = new HeapItem(mState.peekRegister(register), consensus.getType());
+            } else {
+                item = consensus.deepCopy();
+            }
+            mState.assignRegister(register, item);
+        }
+    }
+
+}
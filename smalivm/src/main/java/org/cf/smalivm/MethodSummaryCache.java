@@ -0,0 +1,414 @@
+package org.cf.smalivm;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cf.smalivm.context.ClassState;
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.type.LocalInstance;
+import org.cf.util.ImmutableUtils;
+import org.cf.util.SmaliClassUtils;
+import org.cf.util.Utils;
+
+/**
+ * Memoizes {@link MethodSummary}s of local method calls. Small helpers, e.g. string decryption methods, are often
+ * called from many places with the same arguments. The summary of a call is keyed by the method, the arguments, and
+ * the state of each class the method looked up in its caller when it was executed, so a hit is exactly what executing
+ * the method would produce. Other classes aren't looked at, and class states are never copied to make a key.
+ *
+ * Only values which can be compared by content are part of keys: unknowns, nulls, immutable values, primitive and
+ * String arrays, and uninitialized local instances. Calls involving anything else aren't summarized. Neither are
+ * calls which change class state, since replaying those would mean merging every class.
+ *
+ * Least recently used calls are evicted once there are more summaries than the maximum size. Safe to use from several
+ * threads.
+ */
+public class MethodSummaryCache {
+
+    static final int DEFAULT_MAX_SIZE = 1000;
+
+    // Executions of a call which depend on different class states
+    private static final int MAX_SUMMARIES_PER_CALL = 8;
+
+    private static final Object UNKNOWN = new Object() {
+        @Override
+        public String toString() {
+            return "unknown";
+        }
+    };
+
+    private static final Object UNINITIALIZED = new Object() {
+        @Override
+        public String toString() {
+            return "uninitialized";
+        }
+    };
+
+    private static final class Key {
+
+        private final String methodDescriptor;
+        private final List<Object> argumentKeys;
+        private final int hashCode;
+
+        private Key(String methodDescriptor, List<Object> argumentKeys) {
+            this.methodDescriptor = methodDescriptor;
+            this.argumentKeys = argumentKeys;
+            hashCode = (31 * methodDescriptor.hashCode()) + argumentKeys.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key rhs = (Key) obj;
+
+            return (hashCode == rhs.hashCode) && methodDescriptor.equals(rhs.methodDescriptor)
+                            && argumentKeys.equals(rhs.argumentKeys);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+    /*
+     * A call about to be executed. Class keys continue numbering aliases from the arguments.
+     */
+    private static final class Call {
+
+        private final Key key;
+        private final Map<Object, Integer> valueToAlias;
+
+        private Call(Key key, Map<Object, Integer> valueToAlias) {
+            this.key = key;
+            this.valueToAlias = valueToAlias;
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final List<String> classNames;
+        private final List<Object> classKeys;
+        private final MethodSummary summary;
+
+        private Entry(List<String> classNames, List<Object> classKeys, MethodSummary summary) {
+            this.classNames = classNames;
+            this.classKeys = classKeys;
+            this.summary = summary;
+        }
+
+    }
+
+    /*
+     * Snapshot of an array's contents. The array itself may be mutated after the key is made.
+     */
+    private static final class ArrayKey {
+
+        private final Object[] array;
+
+        private ArrayKey(Object array) {
+            int length = Array.getLength(array);
+            Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+            System.arraycopy(array, 0, copy, 0, length);
+            this.array = new Object[] { copy };
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof ArrayKey) && Arrays.deepEquals(array, ((ArrayKey) obj).array);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(array);
+        }
+
+    }
+
+    private final ClassManager classManager;
+    private final LinkedHashMap<Key, List<Entry>> keyToEntries;
+    private int maxSize;
+    private int size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    MethodSummaryCache(ClassManager classManager) {
+        this(classManager, DEFAULT_MAX_SIZE);
+    }
+
+    MethodSummaryCache(ClassManager classManager, int maxSize) {
+        this.classManager = classManager;
+        this.maxSize = maxSize;
+        keyToEntries = new LinkedHashMap<Key, List<Entry>>(16, 0.75f, true);
+    }
+
+    /*
+     * Mutable values are keyed by content, so also key which of them are the same object. Otherwise, a call with two
+     * equal arrays would be replayed for a call with one array passed twice.
+     */
+    private static Object getAliasKey(Object value, Map<Object, Integer> valueToAlias) {
+        Integer alias = valueToAlias.get(value);
+        if (alias == null) {
+            alias = valueToAlias.size();
+            valueToAlias.put(value, alias);
+        }
+
+        return alias;
+    }
+
+    private static Object getValueKey(HeapItem item, Map<Object, Integer> valueToAlias) {
+        if (item.isUnknown()) {
+            return Arrays.asList(UNKNOWN, item.getType());
+        }
+
+        Object value = item.getValue();
+        if (value == null) {
+            return Arrays.asList(null, item.getType());
+        }
+
+        Object valueKey;
+        Class<?> valueClass = value.getClass();
+        if (valueClass.isArray()) {
+            Class<?> componentType = valueClass.getComponentType();
+            if (!componentType.isPrimitive() && (componentType != String.class)) {
+                return null;
+            }
+            valueKey = Arrays.asList(new ArrayKey(value), getAliasKey(value, valueToAlias));
+        } else if (value instanceof LocalInstance) {
+            LocalInstance instance = (LocalInstance) value;
+            if (instance.getState() != null) {
+                return null;
+            }
+            valueKey = Arrays.asList(instance.getName(), getAliasKey(value, valueToAlias));
+        } else if (ImmutableUtils.isImmutableClass(SmaliClassUtils.javaClassToSmali(valueClass))) {
+            valueKey = value;
+        } else {
+            return null;
+        }
+
+        // Type matters, e.g. 0 may be an int, a boolean, or null
+        return Arrays.asList(valueKey, item.getType());
+    }
+
+    /**
+     * @param methodDescriptor
+     * @param calleeContext
+     *            callee context with parameters assigned
+     * @return the call, or null if it can't be summarized
+     */
+    Object getCall(String methodDescriptor, ExecutionContext calleeContext) {
+        if (getMaxSize() <= 0) {
+            return null;
+        }
+
+        if (methodDescriptor.contains(";-><init>(") || methodDescriptor.contains(";-><clinit>(")) {
+            // Initializers change their instance or class state
+            return null;
+        }
+
+        Map<Object, Integer> valueToAlias = new IdentityHashMap<Object, Integer>();
+        MethodState mState = calleeContext.getMethodState();
+        List<Object> argumentKeys = new ArrayList<Object>();
+        for (int register = mState.getParameterStart(); register < mState.getRegisterCount();) {
+            HeapItem item = mState.peekParameter(register);
+            Object valueKey = getValueKey(item, valueToAlias);
+            if (valueKey == null) {
+                return null;
+            }
+            argumentKeys.add(valueKey);
+            register += Utils.getRegisterSize(item.getType());
+        }
+
+        return new Call(new Key(methodDescriptor, argumentKeys), valueToAlias);
+    }
+
+    /*
+     * Returns null if a class state can't be part of a key.
+     */
+    private List<Object> getClassKeys(Call call, List<String> classNames, ExecutionContext callerContext) {
+        Map<Object, Integer> valueToAlias = new IdentityHashMap<Object, Integer>(call.valueToAlias);
+        List<Object> classKeys = new ArrayList<Object>(classNames.size());
+        for (String className : classNames) {
+            ClassState cState = callerContext.findClassState(className);
+            if (cState == null) {
+                classKeys.add(UNINITIALIZED);
+                continue;
+            }
+
+            // Classes without definitions, e.g. ones only initialized by tests, have no fields to key.
+            List<String> fieldNameAndTypes = classManager.getClassNames().contains(className) ? classManager
+                            .getFieldNameAndTypes(className) : Collections.<String> emptyList();
+            List<Object> fieldKeys = new ArrayList<Object>(fieldNameAndTypes.size());
+            for (String fieldNameAndType : fieldNameAndTypes) {
+                Object valueKey = getValueKey(cState.peekField(fieldNameAndType), valueToAlias);
+                if (valueKey == null) {
+                    return null;
+                }
+                fieldKeys.add(valueKey);
+            }
+            classKeys.add(fieldKeys);
+        }
+
+        return classKeys;
+    }
+
+    /**
+     * @param call
+     *            from {@link #getCall(String, ExecutionContext)}
+     * @param callerContext
+     * @return summary of an execution of the call which looked up the same class states as the caller has, or null
+     */
+    MethodSummary get(Object call, ExecutionContext callerContext) {
+        Call theCall = (Call) call;
+        List<Entry> entries;
+        synchronized (this) {
+            entries = keyToEntries.get(theCall.key);
+            entries = entries == null ? Collections.<Entry> emptyList() : new ArrayList<Entry>(entries);
+        }
+
+        // Class states are per thread, so don't hold the lock while looking at them.
+        MethodSummary summary = null;
+        for (Entry entry : entries) {
+            if (entry.classKeys.equals(getClassKeys(theCall, entry.classNames, callerContext))) {
+                summary = entry.summary;
+                break;
+            }
+        }
+
+        synchronized (this) {
+            if (summary == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+
+        return summary;
+    }
+
+    /**
+     * @param call
+     *            from {@link #getCall(String, ExecutionContext)}
+     * @param callerContext
+     *            caller context, with the same state as before the call for each class name
+     * @param classNames
+     *            names of classes the execution looked up in the caller
+     * @param summary
+     */
+    void put(Object call, ExecutionContext callerContext, Set<String> classNames, MethodSummary summary) {
+        Call theCall = (Call) call;
+        List<String> sortedClassNames = new ArrayList<String>(classNames);
+        // Aliases are numbered in order
+        Collections.sort(sortedClassNames);
+        List<Object> classKeys = getClassKeys(theCall, sortedClassNames, callerContext);
+        if (classKeys == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (maxSize <= 0) {
+                return;
+            }
+
+            List<Entry> entries = keyToEntries.get(theCall.key);
+            if (entries == null) {
+                entries = new ArrayList<Entry>(1);
+                keyToEntries.put(theCall.key, entries);
+            } else if (entries.size() >= MAX_SUMMARIES_PER_CALL) {
+                entries.remove(0);
+                size--;
+                evictions++;
+            }
+            entries.add(new Entry(sortedClassNames, classKeys, summary));
+            size++;
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<List<Entry>> it = keyToEntries.values().iterator();
+        while ((size > maxSize) && it.hasNext()) {
+            int count = it.next().size();
+            it.remove();
+            size -= count;
+            evictions += count;
+        }
+    }
+
+    /**
+     * Drop summaries of a method, e.g. because its implementation changed.
+     *
+     * @param methodDescriptor
+     */
+    public synchronized void invalidate(String methodDescriptor) {
+        for (Iterator<Map.Entry<Key, List<Entry>>> it = keyToEntries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, List<Entry>> entry = it.next();
+            if (entry.getKey().methodDescriptor.equals(methodDescriptor)) {
+                size -= entry.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        keyToEntries.clear();
+        size = 0;
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize
+     *            maximum number of summaries to keep, 0 to disable summaries
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evictLeastRecentlyUsed();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Method summaries: ");
+        sb.append("size=").append(size).append(", hits=").append(hits).append(", misses=")
+                        .append(misses).append(", evictions=").append(evictions);
+
+        return sb.toString();
+    }
+
+}
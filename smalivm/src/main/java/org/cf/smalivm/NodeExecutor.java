@@ -15,10 +15,9 @@ public class NodeExecutor {
     private final ExecutionGraph graph;
     private final ExceptionHandlerAddressResolver exceptionResolver;
 
-    public NodeExecutor(ExecutionGraph graph, ClassManager classManager) {
+    public NodeExecutor(ExecutionGraph graph) {
         this.graph = graph;
-        String methodDescriptor = graph.getMethodDescriptor();
-        exceptionResolver = new ExceptionHandlerAddressResolver(classManager, methodDescriptor);
+        exceptionResolver = graph.getExceptionResolver();
     }
 
     public void execute(ExecutionNode node) throws UnhandledVirtualException {
@@ -35,12 +34,17 @@ public class NodeExecutor {
             if (log.isWarnEnabled()) {
                 log.warn("{} generated a real exception:", node, e);
             }
-            int childAddress = exceptionResolver.resolve(e, node.getAddress());
-            spawnChild(graph, node, childAddress);
+            if (!node.isMerged()) {
+                int childAddress = exceptionResolver.resolve(e, node.getAddress());
+                spawnChild(graph, node, childAddress);
+            }
         }
 
-        spawnChildren(graph, node);
-        spawnExceptionChildren(graph, node, exceptionResolver);
+        if (!node.isMerged()) {
+            // Merged nodes would have the same children as the node they were merged with
+            spawnChildren(graph, node);
+            spawnExceptionChildren(graph, node, exceptionResolver);
+        }
 
         if (log.isDebugEnabled()) {
             log.debug("Context after:\n{}", node.getContext());
@@ -0,0 +1,226 @@
+package org.cf.smalivm;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.cf.smalivm.context.ClassState;
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.ExecutionNode;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges execution paths which reach the same address in the same state. A merged node is still executed, so it has
+ * the same consensus as any other node, but its children aren't spawned because they would be identical to those of
+ * the node it was merged with.
+ *
+ * Loops with unknown conditions never reach the same state since some register, e.g. a counter, differs each visit.
+ * Once an address has been visited enough times, any value which differs from the previous visit is widened to
+ * unknown. The next visit then usually has the same state and is merged, so execution converges.
+ */
+class StateMerger {
+
+    private static final Logger log = LoggerFactory.getLogger(StateMerger.class.getSimpleName());
+
+    private final ClassManager classManager;
+    private final int wideningThreshold;
+
+    StateMerger(ClassManager classManager, int wideningThreshold) {
+        this.classManager = classManager;
+        this.wideningThreshold = wideningThreshold;
+    }
+
+    /*
+     * Contexts are copy-on-write, so an identical mutable value hasn't been changed since the other context saw it.
+     */
+    private static boolean isSameValue(HeapItem item, HeapItem otherItem) {
+        if (item == otherItem) {
+            return true;
+        }
+        if ((item == null) || (otherItem == null)) {
+            return false;
+        }
+        if (!item.getType().equals(otherItem.getType())) {
+            return false;
+        }
+        if (item.isUnknown() || otherItem.isUnknown()) {
+            return item.isUnknown() && otherItem.isUnknown();
+        }
+
+        Object value = item.getValue();
+        Object otherValue = otherItem.getValue();
+        if (value == otherValue) {
+            return true;
+        }
+
+        return (value != null) && item.isImmutable() && value.equals(otherValue);
+    }
+
+    /*
+     * Class states are only changed in the context which holds them, so two contexts can only differ for classes held
+     * by the contexts between them and their closest common ancestor. Both chains are walked up together so only
+     * about as many contexts as are between them are visited, rather than every ancestor.
+     */
+    private static Set<String> getPossiblyDifferentClassNames(ExecutionContext ectx, ExecutionContext otherContext) {
+        Set<ExecutionContext> seen = Collections.newSetFromMap(new IdentityHashMap<ExecutionContext, Boolean>());
+        Set<ExecutionContext> otherSeen = Collections.newSetFromMap(new IdentityHashMap<ExecutionContext, Boolean>());
+        ExecutionContext current = ectx;
+        ExecutionContext otherCurrent = otherContext;
+        ExecutionContext commonAncestor = null;
+        while ((current != null) || (otherCurrent != null)) {
+            if (current != null) {
+                if (otherSeen.contains(current)) {
+                    commonAncestor = current;
+                    break;
+                }
+                seen.add(current);
+                current = current.getParent();
+            }
+            if (otherCurrent != null) {
+                if (seen.contains(otherCurrent)) {
+                    commonAncestor = otherCurrent;
+                    break;
+                }
+                otherSeen.add(otherCurrent);
+                otherCurrent = otherCurrent.getParent();
+            }
+        }
+
+        Set<String> classNames = new HashSet<String>();
+        for (ExecutionContext context = ectx; context != commonAncestor; context = context.getParent()) {
+            classNames.addAll(context.getLocalClassNames());
+        }
+        for (ExecutionContext context = otherContext; context != commonAncestor; context = context.getParent()) {
+            classNames.addAll(context.getLocalClassNames());
+        }
+
+        return classNames;
+    }
+
+    private static boolean isExecuted(ExecutionNode node) {
+        return (node.getChildLocations() != null) && (node.getParent() != null);
+    }
+
+    /*
+     * Context of the node as it was before executing. Children share the context of their parent until they execute.
+     */
+    private static ExecutionContext getIncomingContext(ExecutionNode node) {
+        return node.getParent().getContext();
+    }
+
+    /**
+     * Mark the node as merged if it reaches its address in the same state as a node which already executed there.
+     * Values are widened first if the address has been visited enough times.
+     *
+     * @param graph
+     * @param node
+     *            node about to be executed
+     * @param visitCount
+     *            visits to the node's address before this one
+     */
+    void merge(ExecutionGraph graph, ExecutionNode node, int visitCount) {
+        if ((visitCount == 0) || (node.getParent() == null)) {
+            return;
+        }
+
+        List<ExecutionNode> pile = graph.getNodePile(node.getAddress());
+        ExecutionContext ectx = node.getContext();
+        if (visitCount >= wideningThreshold) {
+            for (int i = pile.size() - 1; i >= 0; i--) {
+                ExecutionNode previous = pile.get(i);
+                if ((previous != node) && isExecuted(previous)) {
+                    widen(ectx, getIncomingContext(previous));
+                    break;
+                }
+            }
+        }
+
+        for (ExecutionNode other : pile) {
+            if ((other == node) || other.isMerged() || !isExecuted(other)) {
+                continue;
+            }
+
+            if (isSameState(ectx, getIncomingContext(other))) {
+                if (log.isTraceEnabled()) {
+                    log.trace("Merging {} @{}", node, node.getAddress());
+                }
+                node.setMerged(true);
+
+                return;
+            }
+        }
+    }
+
+    private boolean isSameState(ExecutionContext ectx, ExecutionContext otherContext) {
+        MethodState mState = ectx.getMethodState();
+        MethodState otherState = otherContext.getMethodState();
+        if (!isSameValue(mState.peekRegister(MethodState.ResultRegister),
+                        otherState.peekRegister(MethodState.ResultRegister))) {
+            return false;
+        }
+        for (int register = 0; register < mState.getRegisterCount(); register++) {
+            if (!isSameValue(mState.peekRegister(register), otherState.peekRegister(register))) {
+                return false;
+            }
+        }
+        for (int register = mState.getParameterStart(); register < mState.getRegisterCount(); register++) {
+            if (!isSameValue(mState.peekParameter(register), otherState.peekParameter(register))) {
+                return false;
+            }
+        }
+
+        // Most paths differ in method state. Check classes last, since walking contexts to find them costs more.
+        for (String className : getPossiblyDifferentClassNames(ectx, otherContext)) {
+            boolean isInitialized = ectx.isClassInitialized(className);
+            if (isInitialized != otherContext.isClassInitialized(className)) {
+                return false;
+            }
+            if (!isInitialized) {
+                continue;
+            }
+
+            ClassState cState = ectx.peekClassState(className);
+            ClassState otherClassState = otherContext.peekClassState(className);
+            for (String fieldNameAndType : classManager.getFieldNameAndTypes(className)) {
+                if (!isSameValue(cState.peekField(fieldNameAndType), otherClassState.peekField(fieldNameAndType))) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void widen(ExecutionContext ectx, ExecutionContext otherContext) {
+        MethodState mState = ectx.getMethodState();
+        MethodState otherState = otherContext.getMethodState();
+        for (int register = 0; register < mState.getRegisterCount(); register++) {
+            HeapItem item = mState.peekRegister(register);
+            if ((item != null) && !isSameValue(item, otherState.peekRegister(register))) {
+                mState.pokeRegister(register, HeapItem.newUnknown(item.getType()));
+            }
+        }
+
+        for (String className : getPossiblyDifferentClassNames(ectx, otherContext)) {
+            if (!ectx.isClassInitialized(className) || !otherContext.isClassInitialized(className)) {
+                continue;
+            }
+
+            ClassState cState = ectx.peekClassState(className);
+            ClassState otherClassState = otherContext.peekClassState(className);
+            for (String fieldNameAndType : classManager.getFieldNameAndTypes(className)) {
+                HeapItem item = cState.peekField(fieldNameAndType);
+                if (!isSameValue(item, otherClassState.peekField(fieldNameAndType))) {
+                    cState.pokeField(fieldNameAndType, HeapItem.newUnknown(item.getType()));
+                }
+            }
+        }
+    }
+
+}
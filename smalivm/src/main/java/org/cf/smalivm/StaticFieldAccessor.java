@@ -6,6 +6,7 @@ import org.apache.commons.lang3.reflect.FieldUtils;
 import org.cf.smalivm.context.ClassState;
 import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.reference.FieldRef;
 import org.cf.util.SmaliClassUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,29 +22,30 @@ public class StaticFieldAccessor {
     }
 
     public HeapItem getField(ExecutionContext ectx, String fieldDescriptor) {
-        String[] parts = fieldDescriptor.split("->");
-        String className = parts[0];
-        String fieldNameAndType = parts[1];
-        parts = fieldNameAndType.split(":");
-        String fieldName = parts[0];
-        String fieldType = parts[1];
+        return getField(ectx, FieldRef.of(fieldDescriptor));
+    }
+
+    public HeapItem getField(ExecutionContext ectx, FieldRef field) {
+        String className = field.getClassName();
+        String fieldName = field.getName();
+        String fieldType = field.getType();
 
         HeapItem fieldItem;
         if (vm.isLocalClass(className)) {
             ClassState cState = ectx.readClassState(className);
-            fieldItem = cState.peekField(fieldNameAndType);
+            fieldItem = cState.peekField(field.getNameAndType());
         } else if (MethodReflector.isSafe(className)) {
             // Use reflection
             try {
                 String javaClassName = SmaliClassUtils.smaliClassToJava(className);
                 Class<?> klazz = Class.forName(javaClassName);
-                Field field = FieldUtils.getField(klazz, fieldName);
-                Object fieldValue = field.get(null);
+                Field javaField = FieldUtils.getField(klazz, fieldName);
+                Object fieldValue = javaField.get(null);
                 fieldItem = new HeapItem(fieldValue, fieldType);
             } catch (ClassNotFoundException | IllegalArgumentException | IllegalAccessException e) {
                 fieldItem = HeapItem.newUnknown(fieldType);
                 if (log.isWarnEnabled()) {
-                    log.warn("Couldn't access field: " + fieldDescriptor);
+                    log.warn("Couldn't access field: " + field);
                 }
                 if (log.isDebugEnabled()) {
                     log.debug("Stack trace:", e);
@@ -58,15 +60,17 @@ public class StaticFieldAccessor {
     }
 
     public void putField(ExecutionContext ectx, String fieldDescriptor, HeapItem putItem) {
-        String[] parts = fieldDescriptor.split("->");
-        String className = parts[0];
-        String fieldNameAndType = parts[1];
+        putField(ectx, FieldRef.of(fieldDescriptor), putItem);
+    }
+
+    public void putField(ExecutionContext ectx, FieldRef field, HeapItem putItem) {
+        String className = field.getClassName();
         if (vm.isLocalClass(className)) {
             ClassState cState = ectx.readClassState(className);
-            cState.assignField(fieldNameAndType, putItem);
+            cState.assignField(field.getNameAndType(), putItem);
         } else {
             if (log.isWarnEnabled()) {
-                log.warn("Ignoring non-local static assignment: " + fieldDescriptor + " = " + putItem);
+                log.warn("Ignoring non-local static assignment: " + field + " = " + putItem);
             }
         }
     }
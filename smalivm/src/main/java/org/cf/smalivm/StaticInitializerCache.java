@@ -0,0 +1,139 @@
+package org.cf.smalivm;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cf.smalivm.context.ClassState;
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+
+/**
+ * Keeps the class state and side effect level left by executing a class's static initializer. Each root execution
+ * initializes classes on first use, so without this, large static initializers, e.g. string tables, are executed again
+ * for every method.
+ *
+ * Only initializers which don't use any class state except their own class's are kept, since the result of anything
+ * else depends on what else was initialized first. Mutable field values are shared copy-on-write. Safe to use from
+ * several threads.
+ */
+public class StaticInitializerCache {
+
+    private static final class Initialization {
+
+        private final Map<String, HeapItem> fieldNameAndTypeToItem;
+        private final SideEffect.Level level;
+
+        private Initialization(Map<String, HeapItem> fieldNameAndTypeToItem, SideEffect.Level level) {
+            this.fieldNameAndTypeToItem = fieldNameAndTypeToItem;
+            this.level = level;
+        }
+
+    }
+
+    private final ClassManager classManager;
+    private final Map<String, Initialization> classNameToInitialization;
+    private long hits;
+    private long misses;
+
+    StaticInitializerCache(ClassManager classManager) {
+        this.classManager = classManager;
+        classNameToInitialization = new HashMap<String, Initialization>();
+    }
+
+    /**
+     * Initialize a class with the result of a previous execution of its static initializer, if there is one.
+     *
+     * @param ectx
+     * @param className
+     * @return true if the class was initialized
+     */
+    public synchronized boolean apply(ExecutionContext ectx, String className) {
+        Initialization initialization = classNameToInitialization.get(className);
+        if (initialization == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+
+        Map<String, HeapItem> fieldNameAndTypeToItem = initialization.fieldNameAndTypeToItem;
+        ClassState cState = new ClassState(ectx, className, fieldNameAndTypeToItem.size());
+        for (Map.Entry<String, HeapItem> entry : fieldNameAndTypeToItem.entrySet()) {
+            HeapItem item = entry.getValue();
+            cState.pokeField(entry.getKey(), new HeapItem(item, item.getType()));
+        }
+        ectx.initializeClass(className, cState, initialization.level);
+
+        return true;
+    }
+
+    /**
+     * Keep the result of initializing a class if the static initializer didn't depend on any other class.
+     *
+     * @param ectx
+     *            context the class was initialized in
+     * @param className
+     * @param initContext
+     *            root context the static initializer was executed with
+     * @param graph
+     *            execution of the static initializer
+     */
+    public synchronized void put(ExecutionContext ectx, String className, ExecutionContext initContext,
+                    ExecutionGraph graph) {
+        if (initContext.isInheritedClassStateUsed()) {
+            return;
+        }
+        for (String touchedClassName : graph.getTouchedClassNames()) {
+            if (!touchedClassName.equals(className)) {
+                return;
+            }
+        }
+
+        List<String> fieldNameAndTypes = classManager.getFieldNameAndTypes(className);
+        Map<String, HeapItem> fieldNameAndTypeToItem = new LinkedHashMap<String, HeapItem>(fieldNameAndTypes.size());
+        ClassState cState = ectx.peekClassState(className);
+        for (String fieldNameAndType : fieldNameAndTypes) {
+            HeapItem item = cState.peekField(fieldNameAndType);
+            fieldNameAndTypeToItem.put(fieldNameAndType, new HeapItem(item, item.getType()));
+        }
+        SideEffect.Level level = ectx.getClassSideEffectLevel(className);
+        classNameToInitialization.put(className, new Initialization(fieldNameAndTypeToItem, level));
+    }
+
+    /**
+     * Drop the initialization of a class, e.g. because one of its methods changed.
+     *
+     * @param className
+     */
+    public synchronized void invalidate(String className) {
+        classNameToInitialization.remove(className);
+    }
+
+    public synchronized void clear() {
+        classNameToInitialization.clear();
+    }
+
+    public synchronized int size() {
+        return classNameToInitialization.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Static initializers: ");
+        sb.append("size=").append(classNameToInitialization.size()).append(", hits=").append(hits)
+                        .append(", misses=").append(misses);
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,202 @@
+package org.cf.smalivm;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+
+/**
+ * Template execution graphs of methods, which are copied each time a method is executed. A template has a node and an
+ * op for every instruction, so keeping one for every method ever executed, including framework methods, takes a lot
+ * of memory for large inputs.
+ *
+ * Templates are weighed by instruction count and least recently used templates are evicted once the total weight is
+ * more than the maximum. Optionally, templates are only softly referenced so the garbage collector may also take them
+ * when memory is low. An evicted or collected template is rebuilt from the method's current implementation the next
+ * time it's needed. Safe to use from several threads.
+ */
+public class TemplateGraphCache {
+
+    static final int DEFAULT_MAX_WEIGHT = 500_000;
+
+    private static final class Entry {
+
+        private final ExecutionGraph graph;
+        private final SoftReference<ExecutionGraph> graphReference;
+        private final int weight;
+
+        private Entry(ExecutionGraph graph, int weight, boolean isSoft) {
+            if (isSoft) {
+                this.graph = null;
+                graphReference = new SoftReference<ExecutionGraph>(graph);
+            } else {
+                this.graph = graph;
+                graphReference = null;
+            }
+            this.weight = weight;
+        }
+
+        private ExecutionGraph getGraph() {
+            return graph != null ? graph : graphReference.get();
+        }
+    }
+
+    private final VirtualMachine vm;
+    private final LinkedHashMap<BuilderMethod, Entry> methodToEntry;
+    private int maxWeight;
+    private int weight;
+    private boolean isSoft;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long collections;
+
+    TemplateGraphCache(VirtualMachine vm) {
+        this(vm, DEFAULT_MAX_WEIGHT);
+    }
+
+    TemplateGraphCache(VirtualMachine vm, int maxWeight) {
+        this.vm = vm;
+        this.maxWeight = maxWeight;
+        methodToEntry = new LinkedHashMap<BuilderMethod, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * @param method
+     * @return template graph for the method, built if it's not cached
+     */
+    ExecutionGraph get(BuilderMethod method) {
+        synchronized (this) {
+            Entry entry = methodToEntry.get(method);
+            if (entry != null) {
+                ExecutionGraph graph = entry.getGraph();
+                if (graph != null) {
+                    hits++;
+                    return graph;
+                }
+                remove(method, entry);
+                collections++;
+            }
+            misses++;
+        }
+
+        // Building takes a while so don't hold the lock. Several threads may build the same template. They're
+        // equivalent, so the last one wins.
+        return rebuild(method);
+    }
+
+    /**
+     * Build the template graph from the method's current implementation, replacing any cached template.
+     *
+     * @param method
+     * @return new template graph
+     */
+    ExecutionGraph rebuild(BuilderMethod method) {
+        ExecutionGraph graph = new ExecutionGraph(vm, method);
+        put(method, graph);
+
+        return graph;
+    }
+
+    private synchronized void put(BuilderMethod method, ExecutionGraph graph) {
+        Entry entry = new Entry(graph, graph.getLocations().size(), isSoft);
+        Entry oldEntry = methodToEntry.put(method, entry);
+        if (oldEntry != null) {
+            weight -= oldEntry.weight;
+        }
+        weight += entry.weight;
+        evictIfNecessary(method);
+    }
+
+    private void remove(BuilderMethod method, Entry entry) {
+        methodToEntry.remove(method);
+        weight -= entry.weight;
+    }
+
+    /*
+     * The newest template is kept even if it alone weighs more than the maximum. It's about to be used.
+     */
+    private void evictIfNecessary(BuilderMethod newestMethod) {
+        Iterator<Map.Entry<BuilderMethod, Entry>> it = methodToEntry.entrySet().iterator();
+        while ((weight > maxWeight) && it.hasNext()) {
+            Map.Entry<BuilderMethod, Entry> eldest = it.next();
+            if (eldest.getKey() == newestMethod) {
+                continue;
+            }
+            it.remove();
+            weight -= eldest.getValue().weight;
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        methodToEntry.clear();
+        weight = 0;
+    }
+
+    public synchronized int getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @param maxWeight
+     *            maximum total number of instructions of cached templates
+     */
+    public synchronized void setMaxWeight(int maxWeight) {
+        this.maxWeight = maxWeight;
+        evictIfNecessary(null);
+    }
+
+    public synchronized boolean isSoft() {
+        return isSoft;
+    }
+
+    /**
+     * @param isSoft
+     *            if true, templates cached from now on may also be collected when memory is low
+     */
+    public synchronized void setSoft(boolean isSoft) {
+        this.isSoft = isSoft;
+    }
+
+    public synchronized int size() {
+        return methodToEntry.size();
+    }
+
+    public synchronized int getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of softly referenced templates found to be collected
+     */
+    public synchronized long getCollections() {
+        return collections;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Template graphs: ");
+        sb.append("size=").append(methodToEntry.size()).append(", weight=").append(weight).append(", hits=")
+                        .append(hits).append(", misses=").append(misses).append(", evictions=").append(evictions)
+                        .append(", collections=").append(collections);
+
+        return sb.toString();
+    }
+
+}
@@ -3,9 +3,7 @@ package org.cf.smalivm;
 import gnu.trove.list.TIntList;
 
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.cf.smalivm.context.ClassState;
 import org.cf.smalivm.context.ExecutionContext;
@@ -13,11 +11,15 @@ import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.emulate.MethodEmulator;
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
 import org.cf.smalivm.exception.MaxMethodVisitsExceeded;
 import org.cf.smalivm.exception.UnhandledVirtualException;
+import org.cf.smalivm.reference.FieldRef;
+import org.cf.smalivm.reference.MethodRef;
 import org.cf.smalivm.type.LocalInstance;
 import org.cf.util.ImmutableUtils;
 import org.cf.util.Utils;
@@ -29,7 +31,7 @@ import org.slf4j.LoggerFactory;
 public class VirtualMachine {
 
     private static String getClassNameFromMethodDescriptor(String methodDescriptor) {
-        return methodDescriptor.split("->", 2)[0];
+        return MethodRef.of(methodDescriptor).getClassName();
     }
 
     private static HeapItem getMutableParameterConsensus(TIntList addressList, ExecutionGraph graph,
@@ -55,42 +57,102 @@ public class VirtualMachine {
         return item;
     }
 
+    private static boolean isSameValue(HeapItem item, HeapItem otherItem) {
+        if (!item.getType().equals(otherItem.getType())) {
+            return false;
+        }
+
+        return (item.getValue() == otherItem.getValue()) || (item.isUnknown() && otherItem.isUnknown());
+    }
+
     private static final Logger log = LoggerFactory.getLogger(VirtualMachine.class.getSimpleName());
 
     private final MethodExecutor methodExecutor;
     private final ClassManager classManager;
-    private final Map<BuilderMethod, ExecutionGraph> methodToTemplateExecutionGraph;
+    private final TemplateGraphCache templateGraphCache;
     private final StaticFieldAccessor staticFieldAccessor;
+    private final MethodSummaryCache methodSummaryCache;
+    private final StaticInitializerCache staticInitializerCache;
+    private final MethodEmulator methodEmulator;
+    private final DispatchCache dispatchCache;
+    private volatile boolean isRetainingOnlyResults;
 
     VirtualMachine(ClassManager manager, int maxAddressVisits, int maxCallDepth, int maxMethodVisits,
                     int maxExecutionTime) {
         this.classManager = manager;
-        methodExecutor = new MethodExecutor(classManager, maxCallDepth, maxAddressVisits, maxMethodVisits,
-                        maxExecutionTime);
-        methodToTemplateExecutionGraph = new HashMap<BuilderMethod, ExecutionGraph>();
+        methodExecutor = new MethodExecutor(maxCallDepth, maxAddressVisits, maxMethodVisits, maxExecutionTime);
+        templateGraphCache = new TemplateGraphCache(this);
         staticFieldAccessor = new StaticFieldAccessor(this);
+        methodSummaryCache = new MethodSummaryCache(classManager);
+        staticInitializerCache = new StaticInitializerCache(classManager);
+        methodEmulator = new MethodEmulator(this);
+        dispatchCache = new DispatchCache(methodEmulator);
     }
 
     public ExecutionGraph execute(String methodDescriptor) throws MaxAddressVisitsExceeded, MaxCallDepthExceeded,
-                    MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
+                    MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded,
+                    ExecutionBudgetExceeded {
+        return execute(methodDescriptor, (ExecutionBudget) null);
+    }
+
+    /**
+     * @param methodDescriptor
+     * @param budget
+     *            limits for this execution and any callees, possibly shared with other executions
+     * @return execution graph, or null if the method has no implementation
+     */
+    public ExecutionGraph execute(String methodDescriptor, ExecutionBudget budget) throws MaxAddressVisitsExceeded,
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
         if (!classManager.methodHasImplementation(methodDescriptor)) {
             return null;
         }
         ExecutionContext ectx = spawnExecutionContext(methodDescriptor);
 
-        return execute(methodDescriptor, ectx);
+        return execute(methodDescriptor, ectx, budget);
     }
 
     public ExecutionGraph execute(String methodDescriptor, ExecutionContext ectx) throws MaxAddressVisitsExceeded,
-                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
-        return execute(methodDescriptor, ectx, null, null);
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
+        return execute(methodDescriptor, ectx, (ExecutionBudget) null);
+    }
+
+    public ExecutionGraph execute(String methodDescriptor, ExecutionContext ectx, ExecutionBudget budget)
+                    throws MaxAddressVisitsExceeded, MaxCallDepthExceeded, MaxMethodVisitsExceeded,
+                    UnhandledVirtualException, MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
+        return execute(methodDescriptor, ectx, null, null, budget);
     }
 
     public ExecutionGraph execute(String methodDescriptor, ExecutionContext calleeContext,
                     ExecutionContext callerContext, int[] parameterRegisters) throws MaxAddressVisitsExceeded,
-                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException, MaxExecutionTimeExceeded {
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
+        return execute(methodDescriptor, calleeContext, callerContext, parameterRegisters, null);
+    }
+
+    private ExecutionGraph execute(String methodDescriptor, ExecutionContext calleeContext,
+                    ExecutionContext callerContext, int[] parameterRegisters, ExecutionBudget budget)
+                    throws MaxAddressVisitsExceeded, MaxCallDepthExceeded, MaxMethodVisitsExceeded,
+                    UnhandledVirtualException, MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
+        ExecutionGraph graph = executeGraph(methodDescriptor, calleeContext, callerContext, budget);
+        if ((graph != null) && (callerContext != null)) {
+            collapseMultiverse(methodDescriptor, graph, callerContext, parameterRegisters);
+        }
+
+        return graph;
+    }
+
+    /*
+     * Execute a method's graph from the callee context, which shares the caller's class states if there is a caller.
+     * Nothing is merged into the caller.
+     */
+    private ExecutionGraph executeGraph(String methodDescriptor, ExecutionContext calleeContext,
+                    ExecutionContext callerContext, ExecutionBudget budget) throws MaxAddressVisitsExceeded,
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
         if (callerContext != null) {
-            inheritClassStates(callerContext, calleeContext);
+            calleeContext.inheritClassStates(callerContext);
         }
 
         String className = getClassNameFromMethodDescriptor(methodDescriptor);
@@ -101,28 +163,149 @@ public class VirtualMachine {
         rootNode.setContext(calleeContext);
         graph.addNode(rootNode);
 
-        ExecutionGraph execution = methodExecutor.execute(graph);
-        if ((execution != null) && (callerContext != null)) {
-            collapseMultiverse(methodDescriptor, graph, callerContext, parameterRegisters);
+        boolean isResultsOnly = isRetainingOnlyResults && (callerContext != null);
+
+        return methodExecutor.execute(graph, budget, isResultsOnly);
+    }
+
+    /**
+     * Execute a method called from a local method and merge the results into the caller. If the same call was already
+     * executed with the same arguments and class states, the cached summary is replayed instead.
+     *
+     * @param methodDescriptor
+     * @param calleeContext
+     *            callee context with parameters assigned
+     * @param callerContext
+     * @param parameterRegisters
+     *            caller registers for each parameter
+     * @return summary of the call, or null if the method couldn't be executed
+     */
+    public MethodSummary executeCallee(String methodDescriptor, ExecutionContext calleeContext,
+                    ExecutionContext callerContext, int[] parameterRegisters) throws MaxAddressVisitsExceeded,
+                    MaxCallDepthExceeded, MaxMethodVisitsExceeded, UnhandledVirtualException,
+                    MaxExecutionTimeExceeded, ExecutionBudgetExceeded {
+        List<String> parameterTypes = classManager.getParameterTypes(methodDescriptor);
+        Object call = methodSummaryCache.getCall(methodDescriptor, calleeContext);
+        if (call != null) {
+            MethodSummary summary = methodSummaryCache.get(call, callerContext);
+            if (summary != null) {
+                summary.apply(callerContext, parameterTypes, parameterRegisters);
+
+                return summary;
+            }
+        }
+
+        MethodState mState = callerContext.getMethodState();
+        Object[] inputValues = new Object[parameterTypes.size()];
+        for (int parameterIndex = 0; parameterIndex < inputValues.length; parameterIndex++) {
+            inputValues[parameterIndex] = mState.peekRegister(parameterRegisters[parameterIndex]).getValue();
+        }
+
+        ExecutionGraph graph = executeGraph(methodDescriptor, calleeContext, callerContext, null);
+        if (graph == null) {
+            return null;
+        }
+        boolean isClassStateChanged = collapseMultiverse(methodDescriptor, graph, callerContext, parameterRegisters);
+
+        HeapItem returnItem = null;
+        int returnParameterIndex = -1;
+        if (!methodDescriptor.endsWith(")V")) {
+            HeapItem consensus = graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister);
+            returnItem = new HeapItem(consensus, consensus.getType());
+            if (consensus.isMutable()) {
+                for (int parameterIndex = 0; parameterIndex < inputValues.length; parameterIndex++) {
+                    Object value = mState.peekRegister(parameterRegisters[parameterIndex]).getValue();
+                    if ((consensus.getValue() == inputValues[parameterIndex]) || (consensus.getValue() == value)) {
+                        returnParameterIndex = parameterIndex;
+                        break;
+                    }
+                }
+            }
         }
 
-        return execution;
+        HeapItem[] parameterItems = new HeapItem[parameterTypes.size()];
+        boolean[] isParameterUnchanged = new boolean[parameterTypes.size()];
+        for (int parameterIndex = 0; parameterIndex < parameterItems.length; parameterIndex++) {
+            if (ImmutableUtils.isImmutableClass(parameterTypes.get(parameterIndex))) {
+                continue;
+            }
+            HeapItem item = mState.peekRegister(parameterRegisters[parameterIndex]);
+            parameterItems[parameterIndex] = new HeapItem(item, item.getType());
+            isParameterUnchanged[parameterIndex] = item.getValue() == inputValues[parameterIndex];
+        }
+
+        MethodSummary summary = new MethodSummary(returnItem, returnParameterIndex, parameterItems,
+                        isParameterUnchanged, graph.getHighestSideEffectLevel());
+        if ((call != null) && !isClassStateChanged) {
+            // Replaying class state changes would mean merging every class, which is most of the cost of a call.
+            // Without changes, the caller still has the class states the callee looked up.
+            methodSummaryCache.put(call, callerContext, calleeContext.getInheritedClassNames(), summary);
+        }
+
+        return summary;
+    }
+
+    /**
+     * Merge execution paths which reach the same address in the same state instead of executing each one. Once an
+     * address has been visited wideningThreshold times, values which differ from the previous visit become unknown so
+     * loops with unknown conditions converge instead of hitting visit limits. Off by default.
+     *
+     * @param isStateMerging
+     * @param wideningThreshold
+     *            visits to an address before widening
+     */
+    public void setStateMerging(boolean isStateMerging, int wideningThreshold) {
+        StateMerger stateMerger = isStateMerging ? new StateMerger(classManager, wideningThreshold) : null;
+        methodExecutor.setStateMerger(stateMerger);
+    }
+
+    /**
+     * Only keep what's needed for the results of methods called from other methods. Nodes of a callee's graph are
+     * released as soon as they're executed unless they end an execution path, and kept nodes get contexts detached
+     * from their ancestors, so deep call trees hold less of each callee while it's executing. Graphs of callees are then only good for consensus and side effect levels, and
+     * can't be iterated. Has no effect while merging states. Off by default.
+     *
+     * @param isRetainingOnlyResults
+     */
+    public void setRetainingOnlyResults(boolean isRetainingOnlyResults) {
+        this.isRetainingOnlyResults = isRetainingOnlyResults;
+    }
+
+    public boolean isRetainingOnlyResults() {
+        return isRetainingOnlyResults;
     }
 
     public ClassManager getClassManager() {
         return classManager;
     }
 
+    public DispatchCache getDispatchCache() {
+        return dispatchCache;
+    }
+
+    public MethodEmulator getMethodEmulator() {
+        return methodEmulator;
+    }
+
+    public MethodSummaryCache getMethodSummaryCache() {
+        return methodSummaryCache;
+    }
+
+    public StaticInitializerCache getStaticInitializerCache() {
+        return staticInitializerCache;
+    }
+
+    public TemplateGraphCache getTemplateGraphCache() {
+        return templateGraphCache;
+    }
+
     public StaticFieldAccessor getStaticFieldAccessor() {
         return staticFieldAccessor;
     }
 
     public ExecutionGraph spawnInstructionGraph(String methodDescriptor) {
         BuilderMethod method = classManager.getMethod(methodDescriptor);
-        if (!methodToTemplateExecutionGraph.containsKey(method)) {
-            updateInstructionGraph(methodDescriptor);
-        }
-        ExecutionGraph graph = methodToTemplateExecutionGraph.get(method);
+        ExecutionGraph graph = templateGraphCache.get(method);
         ExecutionGraph spawn = new ExecutionGraph(graph);
 
         return spawn;
@@ -190,15 +373,17 @@ public class VirtualMachine {
 
     public void updateInstructionGraph(String methodDescriptor) {
         BuilderMethod method = classManager.getMethod(methodDescriptor);
-        ExecutionGraph graph = new ExecutionGraph(this, method);
-        methodToTemplateExecutionGraph.put(method, graph);
+        templateGraphCache.rebuild(method);
+        methodSummaryCache.invalidate(methodDescriptor);
+        // Any method of the class may be called by its static initializer
+        staticInitializerCache.invalidate(getClassNameFromMethodDescriptor(methodDescriptor));
     }
 
     public ClassState getTemplateClassState(ExecutionContext ectx, String className) {
         List<String> fieldNameAndTypes = classManager.getFieldNameAndTypes(className);
         ClassState cState = new ClassState(ectx, className, fieldNameAndTypes.size());
         for (String fieldNameAndType : fieldNameAndTypes) {
-            String type = fieldNameAndType.split(":")[1];
+            String type = FieldRef.of(className, fieldNameAndType).getType();
             cState.pokeField(fieldNameAndType, HeapItem.newUnknown(type));
         }
 
@@ -206,9 +391,10 @@ public class VirtualMachine {
     }
 
     /*
-     * Get consensus for method and class states and merge them into callerContext.
+     * Get consensus for method and class states and merge them into callerContext. Returns true if any class was
+     * initialized or any field value changed.
      */
-    private void collapseMultiverse(String methodDescriptor, ExecutionGraph graph, ExecutionContext callerContext,
+    private boolean collapseMultiverse(String methodDescriptor, ExecutionGraph graph, ExecutionContext callerContext,
                     int[] parameterRegisters) {
         TIntList terminatingAddresses = graph.getConnectedTerminatingAddresses();
         if (parameterRegisters != null) {
@@ -229,8 +415,14 @@ public class VirtualMachine {
             }
         }
 
-        for (String className : classManager.getClassNames()) {
-            List<ExecutionContext> terminatingContexts = graph.getTerminatingContexts();
+        boolean isClassStateChanged = false;
+        List<ExecutionContext> terminatingContexts = graph.getTerminatingContexts();
+        // Classes which weren't touched have the same state as the caller and don't need merging.
+        for (String className : graph.getTouchedClassNames()) {
+            if (!classManager.getClassNames().contains(className)) {
+                continue;
+            }
+
             hasOneInitialization: if (!callerContext.isClassInitialized(className)) {
                 // Was initialized in caller. Maybe was initialized in callee multiverse.
                 for (ExecutionContext ectx : terminatingContexts) {
@@ -251,30 +443,20 @@ public class VirtualMachine {
                 cState = new ClassState(callerContext, className, fieldNameAndTypes.size());
                 SideEffect.Level level = graph.getHighestClassSideEffectLevel(className);
                 callerContext.initializeClass(className, cState, level);
+                isClassStateChanged = true;
             }
 
             for (String fieldNameAndType : fieldNameAndTypes) {
                 HeapItem item = graph.getFieldConsensus(terminatingAddresses, className, fieldNameAndType);
+                if (!isClassStateChanged) {
+                    HeapItem oldItem = cState.peekField(fieldNameAndType);
+                    isClassStateChanged = (oldItem == null) || !isSameValue(oldItem, item);
+                }
                 cState.pokeField(fieldNameAndType, item);
             }
         }
-    }
-
-    private void inheritClassStates(ExecutionContext parent, ExecutionContext child) {
-        for (String className : classManager.getLoadedClassNames()) {
-            if (!parent.isClassInitialized(className)) {
-                continue;
-            }
 
-            ClassState fromClassState = parent.peekClassState(className);
-            ClassState toClassState = new ClassState(fromClassState, child);
-            for (String fieldNameAndType : classManager.getFieldNameAndTypes(className)) {
-                HeapItem item = fromClassState.peekField(fieldNameAndType);
-                toClassState.pokeField(fieldNameAndType, item);
-            }
-            SideEffect.Level level = parent.getClassSideEffectLevel(className);
-            child.initializeClass(className, toClassState, level);
-        }
+        return isClassStateChanged;
     }
 
 }
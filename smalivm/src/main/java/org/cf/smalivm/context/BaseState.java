@@ -54,13 +54,13 @@ class BaseState {
         return getRegistersAssigned().contains(register);
     }
 
-    void assignRegister(int register, HeapItem item, String heapId) {
+    void assignRegister(int register, HeapItem item, int heapId) {
         getRegistersAssigned().add(register);
 
         pokeRegister(register, item, heapId);
     }
 
-    void assignRegisterAndUpdateIdentities(int register, HeapItem item, String heapId) {
+    void assignRegisterAndUpdateIdentities(int register, HeapItem item, int heapId) {
         getRegistersAssigned().add(register);
         ectx.getHeap().update(heapId, register, item);
     }
@@ -79,18 +79,18 @@ class BaseState {
         return parent;
     }
 
-    boolean hasRegister(int register, String heapId) {
+    boolean hasRegister(int register, int heapId) {
         return ectx.getHeap().hasRegister(heapId, register);
     }
 
-    HeapItem peekRegister(int register, String heapId) {
+    HeapItem peekRegister(int register, int heapId) {
         return ectx.getHeap().get(heapId, register);
     }
 
-    void pokeRegister(int register, HeapItem item, String heapId) {
+    void pokeRegister(int register, HeapItem item, int heapId) {
         if (log.isTraceEnabled()) {
             StringBuilder sb = new StringBuilder();
-            sb.append("Setting ").append(heapId).append(':').append(register).append(" = ").append(item);
+            sb.append("Setting ").append(Heap.getHeapName(heapId)).append(':').append(register).append(" = ").append(item);
             // VERY noisy
             // StackTraceElement[] ste = Thread.currentThread().getStackTrace();
             // for (int i = 2; i < ste.length; i++) {
@@ -102,17 +102,17 @@ class BaseState {
         ectx.getHeap().set(heapId, register, item);
     }
 
-    HeapItem readRegister(int register, String heapId) {
+    HeapItem readRegister(int register, int heapId) {
         getRegistersRead().add(register);
 
         return peekRegister(register, heapId);
     }
 
-    void removeRegister(int register, String heapId) {
+    void removeRegister(int register, int heapId) {
         ectx.getHeap().remove(heapId, register);
     }
 
-    boolean wasRegisterRead(int register, String heapId) {
+    boolean wasRegisterRead(int register, int heapId) {
         if (getRegistersRead().contains(register)) {
             return true;
         }
@@ -125,7 +125,8 @@ class BaseState {
         // Don't just examine registersRead. v0 and v1 may contain the same object reference, but v0 is never read.
         for (int currentRegister : getRegistersRead().toArray()) {
             HeapItem currentItem = peekRegister(currentRegister, heapId);
-            if (item.getValue() == currentItem.getValue()) {
+            // Register may have been read without ever being assigned, e.g. by a bad instruction
+            if (currentItem != null && item.getValue() == currentItem.getValue()) {
                 return true;
             }
         }
@@ -2,6 +2,7 @@ package org.cf.smalivm.context;
 
 import gnu.trove.set.hash.THashSet;
 
+import org.cf.smalivm.reference.FieldRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,15 +36,15 @@ public class ClassState extends BaseState {
 
     public void assignField(String fieldNameAndType, Object value) {
         int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        String type = fieldNameAndType.split(":")[1];
-        assignRegister(register, new HeapItem(value, type), heapKey);
+        int heapId = getHeapId(fieldNameAndType);
+        String type = FieldRef.of(className, fieldNameAndType).getType();
+        assignRegister(register, new HeapItem(value, type), heapId);
     }
 
     public void assignField(String fieldNameAndType, HeapItem item) {
         int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        assignRegister(register, item, heapKey);
+        int heapId = getHeapId(fieldNameAndType);
+        assignRegister(register, item, heapId);
     }
 
     @Override
@@ -62,12 +63,12 @@ public class ClassState extends BaseState {
 
     public HeapItem peekField(String fieldNameAndType) {
         int register = 0;
-        String heapKey = getKey(fieldNameAndType);
+        int heapId = getHeapId(fieldNameAndType);
 
-        HeapItem fieldItem = peekRegister(register, heapKey);
+        HeapItem fieldItem = peekRegister(register, heapId);
         if (fieldItem == null) {
             log.error("Undefined field: " + className + ";->" + fieldNameAndType + ". Returning unknown.");
-            fieldItem = HeapItem.newUnknown(fieldNameAndType.split(":")[1]);
+            fieldItem = HeapItem.newUnknown(FieldRef.of(className, fieldNameAndType).getType());
         }
 
         return fieldItem;
@@ -75,23 +76,21 @@ public class ClassState extends BaseState {
 
     public void pokeField(String fieldNameAndType, Object value) {
         int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        String type = fieldNameAndType.split(":")[1];
-        pokeRegister(register, new HeapItem(value, type), heapKey);
+        int heapId = getHeapId(fieldNameAndType);
+        String type = FieldRef.of(className, fieldNameAndType).getType();
+        pokeRegister(register, new HeapItem(value, type), heapId);
     }
 
     public void pokeField(String fieldNameAndType, HeapItem item) {
         int register = 0;
-        String heapKey = getKey(fieldNameAndType);
-        pokeRegister(register, item, heapKey);
+        int heapId = getHeapId(fieldNameAndType);
+        pokeRegister(register, item, heapId);
     }
 
-    private String getKey(String fieldNameAndType) {
+    private int getHeapId(String fieldNameAndType) {
         fieldNameAndTypes.add(fieldNameAndType);
-        StringBuilder sb = new StringBuilder(className);
-        sb.append("->").append(fieldNameAndType);
 
-        return sb.toString();
+        return Heap.getFieldHeapId(className, fieldNameAndType);
     }
 
     @Override
@@ -0,0 +1,156 @@
+package org.cf.smalivm.context;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Consensus of register and field items at each address of a graph, found the first time it's asked for and kept
+ * until the graph changes.
+ *
+ * Items are compared with the first item at the address instead of being hashed into a set. Most items are the same
+ * instance or hold the same value instance, which is cheap to check. Otherwise, they're compared with
+ * {@link HeapItem#equals(Object)}, so unknown values only agree with themselves.
+ */
+class ConsensusIndex {
+
+    static final class Consensus {
+
+        private static final Consensus NO_ITEMS = new Consensus(null, false, true);
+        private static final Consensus UNINITIALIZED = new Consensus(null, false, false);
+
+        private final HeapItem item;
+        private final boolean hasItems;
+        private final boolean isConsensus;
+
+        private Consensus(HeapItem item, boolean hasItems, boolean isConsensus) {
+            this.item = item;
+            this.hasItems = hasItems;
+            this.isConsensus = isConsensus;
+        }
+
+        /**
+         * @return the agreed item, or the first item if there's no consensus
+         */
+        HeapItem getItem() {
+            return item;
+        }
+
+        boolean hasItems() {
+            return hasItems;
+        }
+
+        boolean isConsensus() {
+            return isConsensus;
+        }
+    }
+
+    static boolean isSame(HeapItem item, HeapItem other) {
+        if (item == other) {
+            return true;
+        }
+        if (item == null || other == null) {
+            return false;
+        }
+        if (item.valueIdentity(other) && Objects.equals(item.getType(), other.getType())) {
+            return true;
+        }
+
+        return item.equals(other);
+    }
+
+    private final ExecutionGraph graph;
+    private final TIntObjectMap<TIntObjectMap<Consensus>> addressToRegisterConsensus;
+    private final TIntObjectMap<Map<String, Consensus>> addressToFieldConsensus;
+
+    ConsensusIndex(ExecutionGraph graph) {
+        this.graph = graph;
+        addressToRegisterConsensus = new TIntObjectHashMap<TIntObjectMap<Consensus>>();
+        addressToFieldConsensus = new TIntObjectHashMap<Map<String, Consensus>>();
+    }
+
+    void clear() {
+        if (!addressToRegisterConsensus.isEmpty()) {
+            addressToRegisterConsensus.clear();
+        }
+        if (!addressToFieldConsensus.isEmpty()) {
+            addressToFieldConsensus.clear();
+        }
+    }
+
+    Consensus getRegisterConsensus(int address, int register) {
+        TIntObjectMap<Consensus> registerToConsensus = addressToRegisterConsensus.get(address);
+        if (registerToConsensus == null) {
+            registerToConsensus = new TIntObjectHashMap<Consensus>();
+            addressToRegisterConsensus.put(address, registerToConsensus);
+        }
+        Consensus consensus = registerToConsensus.get(register);
+        if (consensus == null) {
+            consensus = buildRegisterConsensus(address, register);
+            registerToConsensus.put(register, consensus);
+        }
+
+        return consensus;
+    }
+
+    Consensus getFieldConsensus(int address, String className, String fieldNameAndType) {
+        Map<String, Consensus> fieldToConsensus = addressToFieldConsensus.get(address);
+        if (fieldToConsensus == null) {
+            fieldToConsensus = new HashMap<String, Consensus>();
+            addressToFieldConsensus.put(address, fieldToConsensus);
+        }
+        String fieldDescriptor = className + "->" + fieldNameAndType;
+        Consensus consensus = fieldToConsensus.get(fieldDescriptor);
+        if (consensus == null) {
+            consensus = buildFieldConsensus(address, className, fieldNameAndType);
+            fieldToConsensus.put(fieldDescriptor, consensus);
+        }
+
+        return consensus;
+    }
+
+    private Consensus buildRegisterConsensus(int address, int register) {
+        HeapItem first = null;
+        for (ExecutionNode node : graph.getNodePile(address)) {
+            // May be null for throw, return-void, or if there was an exception
+            HeapItem item = node.getContext().getMethodState().peekRegister(register);
+            if (item == null) {
+                continue;
+            }
+
+            if (first == null) {
+                first = item;
+            } else if (!isSame(first, item)) {
+                return new Consensus(first, true, false);
+            }
+        }
+
+        return first == null ? Consensus.NO_ITEMS : new Consensus(first, true, true);
+    }
+
+    private Consensus buildFieldConsensus(int address, String className, String fieldNameAndType) {
+        HeapItem first = null;
+        boolean hasItems = false;
+        for (ExecutionNode node : graph.getNodePile(address)) {
+            ExecutionContext ectx = node.getContext();
+            if (!ectx.isClassInitialized(className)) {
+                return Consensus.UNINITIALIZED;
+            }
+        }
+        for (ExecutionNode node : graph.getNodePile(address)) {
+            HeapItem item = node.getContext().peekClassState(className).peekField(fieldNameAndType);
+            if (!hasItems) {
+                first = item;
+                hasItems = true;
+            } else if (!isSame(first, item)) {
+                return new Consensus(first, true, false);
+            }
+        }
+
+        return hasItems ? new Consensus(first, true, true) : Consensus.NO_ITEMS;
+    }
+
+}
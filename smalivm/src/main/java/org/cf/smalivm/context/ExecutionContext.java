@@ -2,18 +2,24 @@ package org.cf.smalivm.context;
 
 import gnu.trove.map.TMap;
 import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.StaticInitializerCache;
 import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
 import org.cf.smalivm.exception.MaxMethodVisitsExceeded;
 import org.cf.smalivm.exception.UnhandledVirtualException;
+import org.cf.smalivm.reference.MethodRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,13 +34,23 @@ public class ExecutionContext {
 
     private MethodState mState;
     private ExecutionContext parent;
+    private ExecutionContext classStateParent;
+    // Statuses found in ancestors and the root, remembered for the generation of the heap tree they were found in
+    private TMap<String, ClassStatus> classNameToFoundStatus;
+    private int foundStatusGeneration;
+    private ExecutionContext root;
+    private int rootGeneration;
+    private boolean isInheritedClassStateUsed;
+    private Set<String> inheritedClassNames;
+    // Classes a detached context copied from its former ancestors
+    private Set<String> ancestorClassNames;
     private String methodDescriptor;
 
     private ExecutionContext callerContext;
     private int callerAddress;
     private int callDepth;
 
-    private class ClassStatus {
+    private static class ClassStatus {
 
         private boolean isInitialized;
         private ClassState cState;
@@ -62,10 +78,17 @@ public class ExecutionContext {
         }
     }
 
+    // Found when no context of the tree has a status for the class, so only the inherited context might
+    private static final ClassStatus NOT_IN_TREE = new ClassStatus(null);
+
     public ExecutionContext(VirtualMachine vm, String methodDescriptor) {
+        this(vm, methodDescriptor, new Heap());
+    }
+
+    private ExecutionContext(VirtualMachine vm, String methodDescriptor, Heap heap) {
         this.vm = vm;
         this.methodDescriptor = methodDescriptor;
-        heap = new Heap();
+        this.heap = heap;
         callDepth = 0;
 
         // Since there's a context per execution for each address, these maps are
@@ -86,21 +109,56 @@ public class ExecutionContext {
     }
 
     public SideEffect.Level getClassSideEffectLevel(String className) {
-        ExecutionContext ancestor = getAncestorWithClassName(className);
-        if (ancestor == null) {
-            return null;
+        ClassStatus status = findClassStatus(className);
+        if (status == NOT_IN_TREE) {
+            ExecutionContext root = getRoot();
+            return root.isInheritedClassInitialized(className) ? root.classStateParent.getClassSideEffectLevel(
+                            className) : null;
+        }
+
+        return status.getSideEffectLevel();
+    }
+
+    /**
+     * Look at the state of a class without copying it into this context, e.g. to compare it with another state.
+     * Unlike {@link #peekClassState(String)}, the state may be held by an ancestor or the inherited context, so it must
+     * not be changed.
+     *
+     * @param className
+     * @return state of the class, or null if it isn't initialized
+     */
+    public ClassState findClassState(String className) {
+        ClassStatus status = findClassStatus(className);
+        if (status == NOT_IN_TREE) {
+            ExecutionContext root = getRoot();
+            return root.isInheritedClassInitialized(className) ? root.classStateParent.findClassState(className) : null;
         }
 
-        return ancestor.classNameToStatus.get(className).getSideEffectLevel();
+        return status.isInitialized() ? status.getClassState() : null;
     }
 
     Heap getHeap() {
         return heap;
     }
 
+    /**
+     * Besides its parameters and the classes it initializes itself, a root context's execution only depends on the
+     * state of these classes in the inherited context.
+     *
+     * @return names of classes this context or its children looked up in the inherited context
+     */
+    public Set<String> getInheritedClassNames() {
+        Set<String> classNames = getRoot().inheritedClassNames;
+
+        return classNames == null ? Collections.<String> emptySet() : Collections.unmodifiableSet(classNames);
+    }
+
     public Set<String> getInitializedClasses() {
         Set<String> classes = new HashSet<String>();
         for (Entry<String, ClassStatus> entry : classNameToStatus.entrySet()) {
+            if ((ancestorClassNames != null) && ancestorClassNames.contains(entry.getKey())) {
+                continue;
+            }
             if (entry.getValue().isInitialized()) {
                 classes.add(entry.getKey());
             }
@@ -109,6 +167,16 @@ public class ExecutionContext {
         return classes;
     }
 
+    /**
+     * Class states are only changed in the context which holds them, so these are the only classes which may differ
+     * from this context's ancestors.
+     *
+     * @return names of classes with state held by this context rather than an ancestor
+     */
+    public Set<String> getLocalClassNames() {
+        return Collections.unmodifiableSet(classNameToStatus.keySet());
+    }
+
     public String getMethodDescriptor() {
         return methodDescriptor;
     }
@@ -117,38 +185,81 @@ public class ExecutionContext {
         return mState;
     }
 
+    /**
+     * Share the class states of another context, such as a caller, instead of copying them. A class state is only
+     * copied when it's first used by this context or its children. This should be called on the root context of an
+     * execution before it starts.
+     *
+     * @param parent
+     */
+    public void inheritClassStates(ExecutionContext parent) {
+        assert getParent() == null;
+
+        classStateParent = parent;
+        classNameToFoundStatus = null;
+
+        // Parent states replace any template states this context was created with
+        Iterator<String> iterator = classNameToStatus.keySet().iterator();
+        while (iterator.hasNext()) {
+            String className = iterator.next();
+            addInheritedClassName(className);
+            if (parent.isClassInitialized(className)) {
+                iterator.remove();
+            }
+        }
+    }
+
     public void initializeClass(String className, ClassState cState, SideEffect.Level level) {
         setClassState(className, cState);
         setClassInitialized(className, level);
     }
 
     public boolean isClassInitialized(String className) {
-        ExecutionContext ancestor = getAncestorWithClassName(className);
-        if (ancestor == null) {
-            return false;
+        ClassStatus status = findClassStatus(className);
+        if (status == NOT_IN_TREE) {
+            return getRoot().isInheritedClassInitialized(className);
         }
 
-        return ancestor.classNameToStatus.get(className).isInitialized();
+        return status.isInitialized();
+    }
+
+    /**
+     * A root context's execution only depends on its own class states if this is false, e.g. when a class static
+     * initializer doesn't look at any class it didn't initialize itself.
+     *
+     * @return true if an initialized class of the inherited context was used by this context or its children
+     */
+    public boolean isInheritedClassStateUsed() {
+        return getRoot().isInheritedClassStateUsed;
     }
 
     public ClassState peekClassState(String className) {
-        ExecutionContext ancestor = getAncestorWithClassName(className);
-        if (ancestor == null) {
-            ClassState templateClassState = vm.getTemplateClassState(this, className);
-            setClassState(className, templateClassState);
-
-            return templateClassState;
-        } else if (ancestor != this) {
-            ClassState ancestorClassState = ancestor.peekClassState(className);
-            ClassState cState = ancestorClassState.getChild(this);
-            SideEffect.Level level = ancestor.getClassSideEffectLevel(className);
-            // Must initialize, because the ancestor probably just has the template class state.
-            initializeClass(className, cState, level);
+        ClassStatus status = classNameToStatus.get(className);
+        if (status != null) {
+            return status.getClassState();
+        }
 
-            return cState;
+        status = findClassStatus(className);
+        if (status == NOT_IN_TREE) {
+            ExecutionContext root = getRoot();
+            if (!root.copyInheritedClassState(className)) {
+                ClassState templateClassState = vm.getTemplateClassState(this, className);
+                setClassState(className, templateClassState);
+
+                return templateClassState;
+            }
+
+            status = root.classNameToStatus.get(className);
+            if (root == this) {
+                return status.getClassState();
+            }
         }
 
-        return classNameToStatus.get(className).getClassState();
+        ClassState cState = status.getClassState().getChild(this);
+        // Must initialize, because the ancestor probably just has the template class state.
+        initializeClass(className, cState, status.getSideEffectLevel());
+
+        return cState;
     }
 
     public ClassState readClassState(String className) {
@@ -171,6 +282,57 @@ public class ExecutionContext {
         this.mState = mState;
     }
 
+    /**
+     * Copy this context so it no longer needs its ancestors, e.g. to keep the end of an execution path once the nodes
+     * before it are released. The copy has every register and class state this context can see, and holds the class
+     * states itself. Classes only initialized in the inherited context are still looked up there.
+     *
+     * @return copy without a parent
+     */
+    public ExecutionContext spawnDetached() {
+        ExecutionContext detached = new ExecutionContext(vm, methodDescriptor, heap.getDetachedCopy());
+        ExecutionContext root = getRoot();
+        detached.classStateParent = root.classStateParent;
+        detached.isInheritedClassStateUsed = root.isInheritedClassStateUsed;
+        detached.inheritedClassNames = root.inheritedClassNames;
+        detached.callerContext = callerContext;
+        detached.callerAddress = callerAddress;
+        detached.callDepth = callDepth;
+
+        MethodState detachedState = new MethodState(mState, detached);
+        detachedState.getRegistersAssigned().addAll(mState.getRegistersAssigned());
+        detachedState.getRegistersRead().addAll(mState.getRegistersRead());
+        detached.setMethodState(detachedState);
+        if (mState.peekRegister(MethodState.ResultRegister) == null) {
+            // Only readable right after it's set, so don't let it come back from an ancestor.
+            detached.heap.remove(MethodState.METHOD_HEAP_ID, MethodState.ResultRegister);
+        }
+
+        for (ExecutionContext current = this; current != null; current = current.parent) {
+            for (Entry<String, ClassStatus> entry : current.classNameToStatus.entrySet()) {
+                String className = entry.getKey();
+                if (detached.classNameToStatus.containsKey(className)) {
+                    // A descendant's state replaces its ancestors'
+                    continue;
+                }
+
+                ClassStatus status = entry.getValue();
+                ClassStatus detachedStatus = new ClassStatus(new ClassState(status.getClassState(), detached));
+                detachedStatus.isInitialized = status.isInitialized();
+                detachedStatus.level = status.getSideEffectLevel();
+                detached.classNameToStatus.put(className, detachedStatus);
+                if (current != this) {
+                    if (detached.ancestorClassNames == null) {
+                        detached.ancestorClassNames = new THashSet<String>();
+                    }
+                    detached.ancestorClassNames.add(className);
+                }
+            }
+        }
+
+        return detached;
+    }
+
     public ExecutionContext spawnChild() {
         ExecutionContext child = new ExecutionContext(vm, getMethodDescriptor());
         child.setParent(this);
@@ -188,8 +350,13 @@ public class ExecutionContext {
             return;
         }
 
-        String clinitDescriptor = className + "-><clinit>()V";
+        String clinitDescriptor = MethodRef.of(className, "<clinit>()V").getDescriptor();
         if (vm.getClassManager().isLocalMethod(clinitDescriptor)) {
+            StaticInitializerCache staticInitializerCache = vm.getStaticInitializerCache();
+            if (staticInitializerCache.apply(this, className)) {
+                return;
+            }
+
             // TODO: determine what the call stack actually is when the vm clinit's a class
             // this assumes the call stack is empty
             ExecutionContext initContext = vm.spawnExecutionContext(clinitDescriptor);
@@ -200,7 +367,8 @@ public class ExecutionContext {
             ExecutionGraph graph = null;
             try {
                 graph = vm.execute(clinitDescriptor, initContext, this, null);
-            } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded e) {
+            } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded
+                        | ExecutionBudgetExceeded e) {
                 log.warn(e.toString());
             } catch (UnhandledVirtualException e) {
                 // TODO: handle this properly by bubbling up the exception
@@ -217,6 +385,9 @@ public class ExecutionContext {
                 sideEffectLevel = graph.getHighestSideEffectLevel();
             }
             setClassSideEffectLevel(className, sideEffectLevel);
+            if (graph != null) {
+                staticInitializerCache.put(this, className, initContext, graph);
+            }
         } else {
             // No static initializer for this class.
             setClassInitialized(className, SideEffect.Level.NONE);
@@ -245,18 +416,75 @@ public class ExecutionContext {
         return sb.toString();
     }
 
-    private ExecutionContext getAncestorWithClassName(String className) {
-        ExecutionContext ancestor = this;
-        do {
-            ClassStatus status = ancestor.classNameToStatus.get(className);
-            if (status != null) {
-                return ancestor;
+    /*
+     * Copy the state of a class initialized in the inherited context into this one. Returns false if there isn't one.
+     */
+    private boolean copyInheritedClassState(String className) {
+        if (!isInheritedClassInitialized(className)) {
+            return false;
+        }
+
+        ClassState fromClassState = classStateParent.peekClassState(className);
+        ClassState toClassState = new ClassState(fromClassState, this);
+        for (String fieldNameAndType : vm.getClassManager().getFieldNameAndTypes(className)) {
+            HeapItem item = fromClassState.peekField(fieldNameAndType);
+            toClassState.pokeField(fieldNameAndType, item);
+        }
+        SideEffect.Level level = classStateParent.getClassSideEffectLevel(className);
+        initializeClass(className, toClassState, level);
+
+        return true;
+    }
+
+    /*
+     * Status held by this context or its nearest ancestor with one, or NOT_IN_TREE. Ancestors don't replace statuses
+     * once they have children, except the root when it copies an inherited class state, so statuses found in ancestors
+     * are remembered until the tree is rearranged. Asking again, or asking from a child, doesn't walk up every ancestor.
+     */
+    private ClassStatus findClassStatus(String className) {
+        ClassStatus status = classNameToStatus.get(className);
+        if (status != null) {
+            return status;
+        }
+
+        int generation = heap.getTreeGeneration();
+        status = getFoundStatus(className, generation);
+        if (status == null) {
+            status = NOT_IN_TREE;
+            for (ExecutionContext ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+                ClassStatus ancestorStatus = ancestor.classNameToStatus.get(className);
+                if (ancestorStatus == null) {
+                    ancestorStatus = ancestor.getFoundStatus(className, generation);
+                }
+                if (ancestorStatus != null) {
+                    status = ancestorStatus;
+                    break;
+                }
+            }
+
+            if ((classNameToFoundStatus == null) || (foundStatusGeneration != generation)) {
+                classNameToFoundStatus = new THashMap<String, ClassStatus>(0);
+                foundStatusGeneration = generation;
+            }
+            classNameToFoundStatus.put(className, status);
+        }
+
+        if (status == NOT_IN_TREE) {
+            ClassStatus rootStatus = getRoot().classNameToStatus.get(className);
+            if (rootStatus != null) {
+                return rootStatus;
             }
+        }
+
+        return status;
+    }
 
-            ancestor = ancestor.getParent();
-        } while (ancestor != null);
+    private ClassStatus getFoundStatus(String className, int generation) {
+        if ((classNameToFoundStatus == null) || (foundStatusGeneration != generation)) {
+            return null;
+        }
 
-        return null;
+        return classNameToFoundStatus.get(className);
     }
 
     private void setClassInitialized(String className, SideEffect.Level level) {
@@ -283,6 +511,47 @@ public class ExecutionContext {
         return parent;
     }
 
+    private ExecutionContext getRoot() {
+        if (parent == null) {
+            return this;
+        }
+
+        // Like found statuses, the root is remembered and asking from a child stops at the first ancestor which knows.
+        int generation = heap.getTreeGeneration();
+        if ((root == null) || (rootGeneration != generation)) {
+            ExecutionContext ancestor = parent;
+            while ((ancestor.parent != null) && ((ancestor.root == null) || (ancestor.rootGeneration != generation))) {
+                ancestor = ancestor.parent;
+            }
+            root = ancestor.parent == null ? ancestor : ancestor.root;
+            rootGeneration = generation;
+        }
+
+        return root;
+    }
+
+    private void addInheritedClassName(String className) {
+        if (inheritedClassNames == null) {
+            inheritedClassNames = new THashSet<String>();
+        }
+        inheritedClassNames.add(className);
+    }
+
+    private boolean isInheritedClassInitialized(String className) {
+        if (classStateParent == null) {
+            return false;
+        }
+
+        // Even if it isn't initialized, execution may depend on that, e.g. by initializing it.
+        addInheritedClassName(className);
+        if (!classStateParent.isClassInitialized(className)) {
+            return false;
+        }
+        isInheritedClassStateUsed = true;
+
+        return true;
+    }
+
     void setClassSideEffectLevel(String className, SideEffect.Level level) {
         peekClassState(className);
         classNameToStatus.get(className).setSideEffectLevel(level);
@@ -7,8 +7,10 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -18,10 +20,12 @@ import java.util.Set;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.cf.smalivm.ExceptionHandlerAddressResolver;
 import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.opcode.Op;
 import org.cf.smalivm.opcode.OpCreator;
+import org.cf.smalivm.reference.FieldRef;
 import org.jf.dexlib2.Opcode;
 import org.jf.dexlib2.builder.BuilderInstruction;
 import org.jf.dexlib2.builder.MethodLocation;
@@ -42,21 +46,18 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return new OpCreator(vm, addressToLocation);
     }
 
-    private static Map<MethodLocation, List<ExecutionNode>> buildLocationToNodePile(VirtualMachine vm,
+    private static NodePiles buildNodePiles(VirtualMachine vm, List<BuilderInstruction> instructions,
                     TIntObjectMap<MethodLocation> addressToLocation) {
         OpCreator opCreator = getOpCreator(vm, addressToLocation);
-        Map<MethodLocation, List<ExecutionNode>> locationToNodePile = new HashMap<MethodLocation, List<ExecutionNode>>();
-        for (MethodLocation location : addressToLocation.values(new MethodLocation[addressToLocation.size()])) {
+        NodePiles nodePiles = new NodePiles(instructions.size());
+        for (BuilderInstruction instruction : instructions) {
+            MethodLocation location = instruction.getLocation();
             Op op = opCreator.create(location);
-            ExecutionNode node = new ExecutionNode(op);
-
-            // Most node piles will be a template node and 1+ ExecutionNodes.
-            List<ExecutionNode> pile = new ArrayList<ExecutionNode>(2);
-            pile.add(node);
-            locationToNodePile.put(location, pile);
+            nodePiles.add(location, new ExecutionNode(op));
         }
+        nodePiles.reindex();
 
-        return locationToNodePile;
+        return nodePiles;
     }
 
     private static TIntList buildTerminatingAddresses(List<BuilderInstruction> instructions) {
@@ -80,38 +81,44 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
 
     private final String methodDescriptor;
     private final TIntList terminatingAddresses;
-    protected final Map<MethodLocation, List<ExecutionNode>> locationToNodePile;
+    private final NodePiles nodePiles;
     protected final TIntObjectMap<MethodLocation> addressToLocation;
+    // Set once executed nodes are released, after which the graph can't be walked from the root.
+    private boolean isResultsOnly;
+    // Highest side effect level of released nodes
+    private SideEffect.Level releasedSideEffectLevel = SideEffect.Level.NONE;
+    private final ConsensusIndex consensusIndex;
+    private final ExceptionHandlerAddressResolver exceptionResolver;
 
     public ExecutionGraph(ExecutionGraph other) {
         methodDescriptor = other.methodDescriptor;
-        locationToNodePile = new HashMap<MethodLocation, List<ExecutionNode>>();
-        for (MethodLocation location : other.locationToNodePile.keySet()) {
-            List<ExecutionNode> otherNodePile = other.locationToNodePile.get(location);
-            List<ExecutionNode> nodePile = new ArrayList<ExecutionNode>(otherNodePile.size());
-            for (ExecutionNode otherNode : otherNodePile) {
-                nodePile.add(new ExecutionNode(otherNode));
-            }
-            locationToNodePile.put(location, nodePile);
-        }
+        nodePiles = new NodePiles(other.nodePiles);
         terminatingAddresses = other.terminatingAddresses;
         addressToLocation = other.addressToLocation;
+        consensusIndex = new ConsensusIndex(this);
+        exceptionResolver = other.exceptionResolver;
     }
 
     public ExecutionGraph(ExecutionGraph other, boolean wrap) {
-        locationToNodePile = other.locationToNodePile;
+        nodePiles = other.nodePiles;
+        isResultsOnly = other.isResultsOnly;
+        releasedSideEffectLevel = other.releasedSideEffectLevel;
         methodDescriptor = other.methodDescriptor;
         terminatingAddresses = other.terminatingAddresses;
         addressToLocation = other.addressToLocation;
+        consensusIndex = new ConsensusIndex(this);
+        exceptionResolver = other.exceptionResolver;
     }
 
     public ExecutionGraph(VirtualMachine vm, BuilderMethod method) {
         methodDescriptor = ReferenceUtil.getMethodDescriptor(method);
         MutableMethodImplementation implementation = (MutableMethodImplementation) method.getImplementation();
         addressToLocation = buildAddressToLocation(implementation);
-        locationToNodePile = buildLocationToNodePile(vm, addressToLocation);
         List<BuilderInstruction> instructions = implementation.getInstructions();
+        nodePiles = buildNodePiles(vm, instructions, addressToLocation);
         terminatingAddresses = buildTerminatingAddresses(instructions);
+        consensusIndex = new ConsensusIndex(this);
+        exceptionResolver = new ExceptionHandlerAddressResolver(vm.getClassManager(), methodDescriptor);
     }
 
     protected static TIntObjectMap<MethodLocation> buildAddressToLocation(MutableMethodImplementation implementation) {
@@ -127,8 +134,15 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
     }
 
     public void addNode(ExecutionNode node) {
-        MethodLocation location = node.getOp().getInstruction().getLocation();
-        locationToNodePile.get(location).add(node);
+        nodePiles.get(node.getAddress()).add(node);
+        consensusIndex.clear();
+    }
+
+    /**
+     * @return exception handler resolver shared by every graph copied from the same template
+     */
+    public ExceptionHandlerAddressResolver getExceptionResolver() {
+        return exceptionResolver;
     }
 
     public int[] getAddresses() {
@@ -164,37 +178,43 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
     }
 
     public HeapItem getFieldConsensus(TIntList addressList, String fieldDescriptor) {
-        String[] parts = fieldDescriptor.split("->");
-        String className = parts[0];
-        String fieldNameAndType = parts[1];
+        FieldRef field = FieldRef.of(fieldDescriptor);
 
-        return getFieldConsensus(addressList, className, fieldNameAndType);
+        return getFieldConsensus(addressList, field.getClassName(), field.getNameAndType());
     }
 
     public HeapItem getFieldConsensus(TIntList addressList, String className, String fieldNameAndType) {
-        String[] parts = fieldNameAndType.split(":");
-        String type = parts[1];
-        Set<HeapItem> items = new HashSet<HeapItem>();
+        String type = FieldRef.of(className, fieldNameAndType).getType();
+        HeapItem result = null;
+        boolean hasItems = false;
         for (int address : addressList.toArray()) {
+            ConsensusIndex.Consensus consensus = consensusIndex.getFieldConsensus(address, className,
+                            fieldNameAndType);
             // If the class wasn't initialized in one path, it's unknown
-            for (ExecutionNode node : getNodePile(address)) {
-                if (!node.getContext().isClassInitialized(className)) {
-                    return HeapItem.newUnknown(type);
-                }
+            if (!consensus.isConsensus() || (!consensus.hasItems() && !hasItems)) {
+                return getUnknownFieldConsensus(className, fieldNameAndType, type);
+            }
+            if (!consensus.hasItems()) {
+                continue;
             }
 
-            items.addAll(getFieldItems(address, className, fieldNameAndType));
-            if (1 != items.size()) {
-                // since set, size == 1 -> consensus
-                if (log.isTraceEnabled()) {
-                    log.trace("No conensus for " + className + "->" + fieldNameAndType + ", returning unknown");
-                }
-
-                return HeapItem.newUnknown(type);
+            if (!hasItems) {
+                result = consensus.getItem();
+                hasItems = true;
+            } else if (!ConsensusIndex.isSame(result, consensus.getItem())) {
+                return getUnknownFieldConsensus(className, fieldNameAndType, type);
             }
         }
 
-        return items.toArray(new HeapItem[items.size()])[0];
+        return hasItems ? result : HeapItem.newUnknown(type);
+    }
+
+    private HeapItem getUnknownFieldConsensus(String className, String fieldNameAndType, String type) {
+        if (log.isTraceEnabled()) {
+            log.trace("No conensus for " + className + "->" + fieldNameAndType + ", returning unknown");
+        }
+
+        return HeapItem.newUnknown(type);
     }
 
     public Set<HeapItem> getFieldItems(int address, String className, String fieldNameAndType) {
@@ -237,10 +257,41 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
     }
 
     public SideEffect.Level getHighestMethodSideEffectLevel() {
+        SideEffect.Level result = releasedSideEffectLevel;
+        if (result == SideEffect.Level.STRONG) {
+            return result;
+        }
+
+        for (ExecutionNode node : isResultsOnly ? getKeptNodes() : this) {
+            SideEffect.Level level = node.getSideEffectLevel();
+            switch (level) {
+            case STRONG:
+                return level;
+            case WEAK:
+                result = level;
+                break;
+            case NONE:
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param address
+     * @return highest side effect level of any execution of the op at the address, or the op's level if it wasn't
+     *         executed
+     */
+    public SideEffect.Level getHighestNodeSideEffectLevel(int address) {
+        List<ExecutionNode> nodePile = getNodePileByAddress(address);
+        if (nodePile.size() == 1) {
+            return nodePile.get(TEMPLATE_NODE_INDEX).getSideEffectLevel();
+        }
+
         SideEffect.Level result = SideEffect.Level.NONE;
-        for (ExecutionNode node : this) {
-            Op op = node.getOp();
-            SideEffect.Level level = op.getSideEffectLevel();
+        for (int i = TEMPLATE_NODE_INDEX + 1; i < nodePile.size(); i++) {
+            SideEffect.Level level = nodePile.get(i).getSideEffectLevel();
             switch (level) {
             case STRONG:
                 return level;
@@ -283,24 +334,84 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return methodDescriptor;
     }
 
+    /*
+     * Nodes which weren't released. Side effects of released nodes are in releasedSideEffectLevel.
+     */
+    private List<ExecutionNode> getKeptNodes() {
+        List<ExecutionNode> keptNodes = new ArrayList<ExecutionNode>();
+        for (int index = 0; index < nodePiles.size(); index++) {
+            List<ExecutionNode> nodePile = nodePiles.getByIndex(index);
+            keptNodes.addAll(nodePile.subList(TEMPLATE_NODE_INDEX + 1, nodePile.size()));
+        }
+
+        return keptNodes;
+    }
+
     public int getNodeCount() {
-        int totalSize = locationToNodePile.size();
-        int templateCount = locationToNodePile.keySet().size();
+        int nodeCount = 0;
+        for (int index = 0; index < nodePiles.size(); index++) {
+            // Exclude template
+            nodeCount += nodePiles.getByIndex(index).size() - 1;
+        }
 
-        return totalSize - templateCount;
+        return nodeCount;
     }
 
     private @Nullable List<ExecutionNode> getNodePileByAddress(int address) {
-        MethodLocation location = addressToLocation.get(address);
-
-        return locationToNodePile.get(location);
+        return nodePiles.get(address);
     }
 
+    /**
+     * @param address
+     * @return executed nodes at the address, without the template node
+     */
     public List<ExecutionNode> getNodePile(int address) {
-        List<ExecutionNode> nodePile = getNodePileByAddress(address);
-        nodePile = nodePile.subList(1, nodePile.size()); // exclude template
+        return nodePiles.getExecuted(address);
+    }
 
-        return nodePile;
+    /**
+     * @param location
+     * @return template node followed by executed nodes, or null if the location has no pile
+     */
+    protected @Nullable List<ExecutionNode> getNodePile(MethodLocation location) {
+        return nodePiles.get(location);
+    }
+
+    /**
+     * @return locations with node piles, in the order of their instructions when the piles were last changed
+     */
+    protected List<MethodLocation> getNodePileLocations() {
+        return nodePiles.getLocations();
+    }
+
+    /**
+     * Add an empty node pile for an instruction added just before another one. Node piles can't be found by address
+     * until {@link #reindexNodePiles()}.
+     *
+     * @param location
+     * @param nextLocation
+     * @return the new pile
+     */
+    protected List<ExecutionNode> insertNodePile(MethodLocation location, MethodLocation nextLocation) {
+        return nodePiles.insert(location, nextLocation);
+    }
+
+    /**
+     * Node piles can't be found by address until {@link #reindexNodePiles()}.
+     *
+     * @param location
+     * @return removed pile, or null if the location has no pile
+     */
+    protected @Nullable List<ExecutionNode> removeNodePile(MethodLocation location) {
+        return nodePiles.remove(location);
+    }
+
+    /**
+     * Rebuild node pile addresses. Must be called after node piles are inserted or removed, once they match the
+     * implementation's instructions.
+     */
+    protected void reindexNodePiles() {
+        nodePiles.reindex();
     }
 
     public @Nullable Op getOp(int address) {
@@ -315,26 +426,27 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
     }
 
     public @Nonnull HeapItem getRegisterConsensus(TIntList addressList, int register) {
-        Set<HeapItem> items = new HashSet<HeapItem>();
+        HeapItem result = null;
         for (int address : addressList.toArray()) {
-            items.addAll(getRegisterItems(address, register));
-            if (items.size() == 0) {
+            ConsensusIndex.Consensus consensus = consensusIndex.getRegisterConsensus(address, register);
+            if (!consensus.hasItems()) {
                 // TODO: hack for throw not implemented correctly
                 continue;
             }
 
-            // Size may be 0 if there was an exception
-            if (items.size() != 1) {
+            if (result == null) {
+                result = consensus.getItem();
+            }
+            if (!consensus.isConsensus() || !ConsensusIndex.isSame(result, consensus.getItem())) {
                 if (log.isTraceEnabled()) {
                     log.trace("No conensus for register #" + register + ", returning unknown");
                 }
-                HeapItem item = items.toArray(new HeapItem[items.size()])[0];
 
-                return HeapItem.newUnknown(item.getType());
+                return HeapItem.newUnknown(result.getType());
             }
         }
 
-        return items.toArray(new HeapItem[1])[0];
+        return result;
     }
 
     public Object getRegisterConsensusValue(int address, int register) {
@@ -388,6 +500,14 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         }
     }
 
+    /**
+     * Forget register and field consensus found so far. Must be called whenever node piles or contexts change outside
+     * of execution.
+     */
+    protected void invalidateConsensus() {
+        consensusIndex.clear();
+    }
+
     public @Nullable ExecutionNode getTemplateNode(int address) {
         List<ExecutionNode> nodePile = getNodePileByAddress(address);
 
@@ -406,6 +526,27 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return contexts;
     }
 
+    /**
+     * A class state can only change in a context which holds its own state for the class, so only the contexts between
+     * the terminating contexts and the root need to be checked.
+     *
+     * @return names of classes which may have been initialized or changed by the execution
+     */
+    public Set<String> getTouchedClassNames() {
+        Set<String> classNames = new HashSet<String>();
+        Set<ExecutionContext> visited = Collections.newSetFromMap(new IdentityHashMap<ExecutionContext, Boolean>());
+        for (ExecutionContext ectx : getTerminatingContexts()) {
+            ExecutionContext current = ectx;
+            // Paths share ancestors, so stop at the first context seen before
+            while (current != null && visited.add(current)) {
+                classNames.addAll(current.getLocalClassNames());
+                current = current.getParent();
+            }
+        }
+
+        return classNames;
+    }
+
     public int getNodeIndex(ExecutionNode node) {
         return getNodePile(node.getAddress()).indexOf(node);
     }
@@ -444,8 +585,46 @@ public class ExecutionGraph implements Iterable<ExecutionNode> {
         return result;
     }
 
+    /**
+     * Whether executed nodes were released, so only results of execution are available. The graph can't be iterated.
+     */
+    public boolean isResultsOnly() {
+        return isResultsOnly;
+    }
+
+    /**
+     * Release an executed node which is only needed to spawn its children. It's unlinked from its children and, unless
+     * it's the last node at its address, removed from the graph. Nodes without children end an execution path and are
+     * kept since method results are taken from them.
+     *
+     * Any node which is kept gets a detached copy of its context, so it doesn't keep the contexts of released nodes.
+     * Children still have the original context.
+     *
+     * @param node
+     */
+    public void releaseNode(ExecutionNode node) {
+        consensusIndex.clear();
+        if (!node.getChildren().isEmpty()) {
+            isResultsOnly = true;
+            node.releaseChildren();
+            List<ExecutionNode> nodePile = getNodePileByAddress(node.getAddress());
+            // Keep one node so the address still counts as reached
+            if (nodePile.size() > 2) {
+                nodePile.remove(node);
+                if (node.getSideEffectLevel().getValue() > releasedSideEffectLevel.getValue()) {
+                    releasedSideEffectLevel = node.getSideEffectLevel();
+                }
+                return;
+            }
+        }
+
+        node.setContext(node.getContext().spawnDetached());
+    }
+
     @Override
     public Iterator<ExecutionNode> iterator() {
+        assert !isResultsOnly;
+
         return new ExecutionGraphIterator(this);
     }
 
@@ -5,6 +5,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.VirtualException;
 import org.cf.smalivm.opcode.ExecutionContextOp;
 import org.cf.smalivm.opcode.MethodStateOp;
@@ -24,6 +25,8 @@ public class ExecutionNode {
     private ExecutionNode parent;
     private Set<VirtualException> exceptions;
     private MethodLocation[] childLocations;
+    private SideEffect.Level sideEffectLevel;
+    private boolean isMerged;
 
     public ExecutionNode(ExecutionNode other) {
         op = other.op;
@@ -48,6 +51,8 @@ public class ExecutionNode {
     }
 
     public void execute() {
+        // Ops which know the side effects of this execution set them, others use the op's level.
+        sideEffectLevel = null;
         ExecutionContext ectx = getContext();
         if (op instanceof MethodStateOp) {
             MethodState mState = ectx.getMethodState();
@@ -103,6 +108,22 @@ public class ExecutionNode {
         return parent;
     }
 
+    /**
+     * Ops are shared by every graph of a method, so the side effects of a particular execution are kept by its node.
+     *
+     * @return side effect level of the last execution of this node, or the op's level if it doesn't set one
+     */
+    public SideEffect.Level getSideEffectLevel() {
+        return sideEffectLevel != null ? sideEffectLevel : op.getSideEffectLevel();
+    }
+
+    /**
+     * @return true if this node reached its address in the same state as another node, so its children weren't spawned
+     */
+    public boolean isMerged() {
+        return isMerged;
+    }
+
     public boolean mayThrowException() {
         return exceptions != null && exceptions.size() > 0;
     }
@@ -113,6 +134,17 @@ public class ExecutionNode {
         rebuildChildLocationsFromChildren();
     }
 
+    /**
+     * Unlink children so they don't keep this node reachable, and it doesn't keep them reachable. Child locations are
+     * kept.
+     */
+    public void releaseChildren() {
+        for (ExecutionNode child : children) {
+            child.parent = null;
+        }
+        children.clear();
+    }
+
     private void rebuildChildLocationsFromChildren() {
         childLocations = new MethodLocation[children.size()];
         for (int i = 0; i < childLocations.length; i++) {
@@ -138,6 +170,14 @@ public class ExecutionNode {
         this.exceptions = exceptions;
     }
 
+    public void setSideEffectLevel(SideEffect.Level level) {
+        sideEffectLevel = level;
+    }
+
+    public void setMerged(boolean isMerged) {
+        this.isMerged = isMerged;
+    }
+
     public void setMethodState(MethodState mState) {
         ectx.setMethodState(mState);
     }
@@ -1,11 +1,15 @@
 package org.cf.smalivm.context;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,152 +18,353 @@ class Heap {
 
     private static final Logger log = LoggerFactory.getLogger(Heap.class.getSimpleName());
 
-    private final Map<String, HeapItem> keyToHeapItem;
+    /*
+     * Every register read and write goes through the heap, so keys must be cheap. Heap names (e.g. "method" or a class
+     * field like "Lsome/Class;->someField:I") are interned to small integers once, and a key is the heap id and the
+     * register packed into a long.
+     */
+    private static final ConcurrentMap<String, Integer> heapNameToId = new ConcurrentHashMap<String, Integer>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, Integer>> classNameToFieldHeapIds = new ConcurrentHashMap<String, ConcurrentMap<String, Integer>>();
+    private static final List<String> heapIdToName = new ArrayList<String>();
+
+    /*
+     * Every heap keeps a persistent snapshot of everything its parent can see, so reads never walk up the ancestors.
+     * Snapshots are built lazily and share structure with the parent's. If a heap is written to or reparented after a
+     * child has taken its snapshot, which only happens when a graph is being modified, the generation of its tree of
+     * heaps is bumped and every snapshot in the tree is rebuilt the next time it's used. Other trees, e.g. executions
+     * of other methods, keep their snapshots.
+     */
+    private static final class Generation {
+
+        private int value;
+        // Set once every heap of this tree has been moved into another tree
+        private Generation forward;
+
+        private Generation resolve() {
+            Generation current = this;
+            while (current.forward != null) {
+                current = current.forward;
+            }
+
+            // Point everything on the way at the current generation so the next lookup is quick.
+            Generation generation = this;
+            while ((generation.forward != null) && (generation.forward != current)) {
+                Generation next = generation.forward;
+                generation.forward = current;
+                generation = next;
+            }
+
+            return current;
+        }
+
+        private void forwardTo(Generation generation) {
+            // Snapshots from either tree may have any value up to now, so none of them can be current.
+            generation.value = Math.max(value, generation.value) + 1;
+            forward = generation;
+        }
+    }
+
+    private final TLongObjectMap<HeapItem> keyToHeapItem;
 
     private Heap parent;
+    // Shared by every heap in the same tree. Created when first needed, since there can be a lot of heaps.
+    private Generation generation;
+    private PersistentRegisterMap inherited;
+    private PersistentRegisterMap view;
+    private int snapshotGeneration;
 
     Heap() {
-        keyToHeapItem = new HashMap<String, HeapItem>();
+        keyToHeapItem = new TLongObjectHashMap<HeapItem>();
     }
 
-    Heap(Heap other) {
-        keyToHeapItem = new HashMap<String, HeapItem>(other.keyToHeapItem);
+    /**
+     * @param heapName
+     * @return small integer which uniquely identifies the heap name
+     */
+    static int getHeapId(String heapName) {
+        Integer heapId = heapNameToId.get(heapName);
+        if (heapId != null) {
+            return heapId;
+        }
+
+        synchronized (heapIdToName) {
+            heapId = heapNameToId.get(heapName);
+            if (heapId == null) {
+                heapId = heapIdToName.size();
+                heapIdToName.add(heapName);
+                heapNameToId.put(heapName, heapId);
+            }
+        }
+
+        return heapId;
     }
 
-    private static Set<String> getReassignedKeysBetweenChildAndAncestor(Heap child, Heap ancestor) {
-        Heap current = child;
-        List<String> reassigned = new LinkedList<String>();
-        while (current != ancestor) {
-            reassigned.addAll(current.keySet());
-            current = current.getParent();
+    /**
+     * Equivalent to {@link #getHeapId(String)} with className + "->" + fieldNameAndType, but doesn't build the string
+     * unless the field has never been seen before.
+     *
+     * @param className
+     * @param fieldNameAndType
+     * @return small integer which uniquely identifies the field heap
+     */
+    static int getFieldHeapId(String className, String fieldNameAndType) {
+        ConcurrentMap<String, Integer> fieldHeapIds = classNameToFieldHeapIds.get(className);
+        if (fieldHeapIds == null) {
+            ConcurrentMap<String, Integer> newFieldHeapIds = new ConcurrentHashMap<String, Integer>();
+            fieldHeapIds = classNameToFieldHeapIds.putIfAbsent(className, newFieldHeapIds);
+            if (fieldHeapIds == null) {
+                fieldHeapIds = newFieldHeapIds;
+            }
+        }
+
+        Integer heapId = fieldHeapIds.get(fieldNameAndType);
+        if (heapId == null) {
+            StringBuilder sb = new StringBuilder(className);
+            sb.append("->").append(fieldNameAndType);
+            heapId = getHeapId(sb.toString());
+            fieldHeapIds.put(fieldNameAndType, heapId);
         }
-        Set<String> result = new HashSet<String>(reassigned);
 
-        return result;
+        return heapId;
     }
 
-    private Set<String> keySet() {
+    static String getHeapName(int heapId) {
+        synchronized (heapIdToName) {
+            return heapIdToName.get(heapId);
+        }
+    }
+
+    private static long buildKey(int heapId, int register) {
+        // Registers may be negative, e.g. MethodState.ResultRegister
+        return ((long) heapId << 32) | (register & 0xFFFFFFFFL);
+    }
+
+    private long[] keys() {
         // It's not that I don't trust you to mutate the keys, but I don't trust you.
-        return new HashSet<String>(keyToHeapItem.keySet());
+        return keyToHeapItem.keys();
     }
 
     void setParent(Heap parent) {
+        invalidateView();
+        Generation parentGeneration = parent.getGeneration();
+        if (generation != null) {
+            // Children may still point at this heap's old generation.
+            Generation oldGeneration = getGeneration();
+            if (oldGeneration != parentGeneration) {
+                oldGeneration.forwardTo(parentGeneration);
+            } else if ((this.parent != null) && (this.parent != parent)) {
+                // Moved within the tree, so anything remembered about the old ancestors is out of date.
+                parentGeneration.value++;
+            }
+        }
+        generation = parentGeneration;
         this.parent = parent;
+        inherited = null;
+    }
+
+    /**
+     * Aliases are kept, i.e. registers which share an item here share a copy of it.
+     *
+     * @return heap without a parent which has a copy-on-write copy of every register this heap can see
+     */
+    Heap getDetachedCopy() {
+        Heap copy = new Heap();
+        PersistentRegisterMap view = getView();
+        Map<HeapItem, HeapItem> itemToCopy = new IdentityHashMap<HeapItem, HeapItem>();
+        for (long key : view.keys()) {
+            HeapItem item = view.get(key);
+            HeapItem itemCopy = null;
+            if (item != null) {
+                itemCopy = itemToCopy.get(item);
+                if (itemCopy == null) {
+                    itemCopy = new HeapItem(item);
+                    itemToCopy.put(item, itemCopy);
+                }
+            }
+            copy.keyToHeapItem.put(key, itemCopy);
+        }
+
+        return copy;
     }
 
     protected Heap getParent() {
         return parent;
     }
 
-    HeapItem get(String heapId, int register) {
-        String key = buildKey(heapId, register);
+    HeapItem get(int heapId, int register) {
+        long key = buildKey(heapId, register);
 
         return get(key);
     }
 
-    private Heap getAncestorWithKey(String key) {
-        Heap ancestor = this;
-        do {
-            if (ancestor.hasKey(key)) {
-                break;
-            }
-
-            ancestor = ancestor.getParent();
-        } while (ancestor != null);
-
-        return ancestor;
-    }
-
-    HeapItem get(String key) {
-        if (hasKey(key)) {
-            return keyToHeapItem.get(key);
+    private HeapItem get(long key) {
+        HeapItem item = keyToHeapItem.get(key);
+        if ((item != null) || hasKey(key)) {
+            return item;
         }
 
         /*
          * To save space, only registers that are accessed are contained in any given heap.
          */
-        Heap ancestor = getAncestorWithKey(key);
-        if (ancestor == null) {
+        PersistentRegisterMap inherited = getInherited();
+        HeapItem targetItem = inherited.get(key);
+        if (targetItem == null) {
             if (log.isTraceEnabled()) {
-                log.trace("Undefined value for " + key + " Possibly a mistake!", new Exception());
+                log.trace("Undefined value for " + keyToString(key) + " Possibly a mistake!", new Exception());
             }
 
             return null;
         }
 
         /*
-         * Store *clone* of target value to preserve history. Also, pull down any mappings to the target value,
-         * excluding mappings which are no longer valid. E.g. peeking v0, and v0 and v1 both point to same object, pull
-         * down both mappings, but only if v1 was not reassigned between now and then.
+         * Store a copy-on-write *clone* of target value to preserve history. Also, pull down any mappings to the target
+         * value, excluding mappings which are no longer valid. E.g. peeking v0, and v0 and v1 both point to same
+         * object, pull down both mappings, but only if v1 was not reassigned here. Since they share one item, a private
+         * copy made for a mutation is seen by both. Clones are equal to what any child already sees, so they don't
+         * invalidate the view.
          */
-        HeapItem targetItem = ancestor.get(key);
         HeapItem cloneItem = new HeapItem(targetItem);
-        Set<String> reassigned = getReassignedKeysBetweenChildAndAncestor(this, ancestor);
-        Set<String> potential = ancestor.keySet();
-        for (String currentKey : potential) {
-            if (reassigned.contains(currentKey)) {
-                continue;
+        keyToHeapItem.put(key, cloneItem);
+        if (targetItem.isMutable()) {
+            for (long currentKey : inherited.keys()) {
+                if (hasKey(currentKey)) {
+                    continue;
+                }
+
+                HeapItem currentItem = inherited.get(currentKey);
+                if (targetItem.getValue() == currentItem.getValue()) {
+                    keyToHeapItem.put(currentKey, cloneItem);
+                }
             }
+        }
 
-            HeapItem currentItem = ancestor.get(currentKey);
-            if (targetItem.getValue() == currentItem.getValue()) {
-                set(currentKey, cloneItem);
+        return cloneItem;
+    }
+
+    private PersistentRegisterMap getInherited() {
+        int currentGeneration = getGeneration().value;
+        if (hasCurrentSnapshot(currentGeneration)) {
+            return inherited;
+        }
+
+        // Walk up iteratively; paths can be much deeper than the stack.
+        List<Heap> stale = new ArrayList<Heap>();
+        Heap heap = this;
+        while ((heap != null) && !heap.hasCurrentSnapshot(currentGeneration)) {
+            stale.add(heap);
+            heap = heap.getParent();
+        }
+
+        PersistentRegisterMap parentView = heap == null ? PersistentRegisterMap.EMPTY : heap.getView();
+        for (int i = stale.size() - 1; i >= 0; i--) {
+            heap = stale.get(i);
+            heap.inherited = parentView;
+            heap.view = null;
+            heap.snapshotGeneration = currentGeneration;
+            if (i > 0) {
+                parentView = heap.getView();
             }
         }
 
-        return cloneItem;
+        return inherited;
     }
 
-    private String buildKey(String heapId, int register) {
-        StringBuilder sb = new StringBuilder(heapId);
-        sb.append(':').append(register);
+    private Generation getGeneration() {
+        if (generation == null) {
+            generation = new Generation();
+        } else if (generation.forward != null) {
+            generation = generation.resolve();
+        }
 
-        return sb.toString();
+        return generation;
+    }
+
+    /**
+     * Changes whenever a heap in this tree is reparented or changed under a child's snapshot, so anything cached about
+     * the ancestors of a heap, or of its context, is only good while this stays the same.
+     *
+     * @return generation of this heap's tree
+     */
+    int getTreeGeneration() {
+        return getGeneration().value;
+    }
+
+    private boolean hasCurrentSnapshot(int currentGeneration) {
+        return (inherited != null) && (snapshotGeneration == currentGeneration);
+    }
+
+    /**
+     * @return true if the snapshot of the parent's registers is still up to date
+     */
+    boolean hasCurrentSnapshot() {
+        return hasCurrentSnapshot(getGeneration().value);
     }
 
-    boolean hasRegister(String heapId, int register) {
-        String key = buildKey(heapId, register);
+    private PersistentRegisterMap getView() {
+        if (view == null) {
+            PersistentRegisterMap newView = getInherited();
+            for (TLongObjectIterator<HeapItem> it = keyToHeapItem.iterator(); it.hasNext();) {
+                it.advance();
+                newView = newView.put(it.key(), it.value());
+            }
+            view = newView;
+        }
+
+        return view;
+    }
+
+    private void invalidateView() {
+        if (view != null) {
+            Generation currentGeneration = getGeneration();
+            if (snapshotGeneration == currentGeneration.value) {
+                // A child may have a snapshot which includes the old view.
+                currentGeneration.value++;
+            }
+        }
+        view = null;
+    }
+
+    boolean hasRegister(int heapId, int register) {
+        long key = buildKey(heapId, register);
 
         return hasKey(key);
     }
 
-    boolean hasKey(String key) {
+    private boolean hasKey(long key) {
         return keyToHeapItem.containsKey(key);
     }
 
-    void remove(String heapId, int register) {
-        String key = buildKey(heapId, register);
+    void remove(int heapId, int register) {
+        long key = buildKey(heapId, register);
 
         remove(key);
     }
 
-    private void remove(String key) {
+    private void remove(long key) {
+        invalidateView();
         keyToHeapItem.remove(key);
     }
 
-    void set(String heapId, int register, Object value, String type) {
+    void set(int heapId, int register, Object value, String type) {
         set(heapId, register, new HeapItem(value, type));
     }
 
-    void set(String heapId, int register, HeapItem item) {
-        String key = buildKey(heapId, register);
+    void set(int heapId, int register, HeapItem item) {
+        long key = buildKey(heapId, register);
         set(key, item);
     }
 
-    private void set(String key, HeapItem item) {
+    private void set(long key, HeapItem item) {
+        invalidateView();
         keyToHeapItem.put(key, item);
     }
 
-    Map<String, HeapItem> getKeyToItem() {
-        return keyToHeapItem;
-    }
-
-    void update(String heapId, int register, HeapItem item) {
-        String key = buildKey(heapId, register);
+    void update(int heapId, int register, HeapItem item) {
+        long key = buildKey(heapId, register);
         update(key, item);
     }
 
-    void update(String key, HeapItem item) {
+    private void update(long key, HeapItem item) {
         /*
          * When replacing an uninitialized instance with a new instance (e.g. when executing new-instance), need to
          * update all registers that reference the uninitialized instance. This would be a lot easier if Dalvik's
@@ -167,7 +372,7 @@ class Heap {
          */
 
         HeapItem oldItem = get(key);
-        for (String currentKey : keySet()) {
+        for (long currentKey : keys()) {
             HeapItem currentValue = get(currentKey);
             if (oldItem.getValue() == currentValue.getValue()) {
                 set(currentKey, item);
@@ -175,4 +380,13 @@ class Heap {
         }
     }
 
+    private static String keyToString(long key) {
+        int heapId = (int) (key >>> 32);
+        int register = (int) key;
+        StringBuilder sb = new StringBuilder(getHeapName(heapId));
+        sb.append(':').append(register);
+
+        return sb.toString();
+    }
+
 }
@@ -19,20 +19,69 @@ public class HeapItem {
     private Object value;
     private String type;
 
+    /*
+     * Set when the value is also referenced by another item, e.g. a copy in a descendant heap. Copying is deferred until
+     * something actually mutates the value.
+     */
+    private boolean isShared;
+
     public HeapItem(Object value, String type) {
         this.value = value;
         this.type = type;
     }
 
+    /**
+     * Copy-on-write copy of another item. The value is shared until either item is mutated.
+     *
+     * @param other
+     * @param type
+     */
+    public HeapItem(HeapItem other, String type) {
+        value = other.getValue();
+        this.type = type;
+        isShared = true;
+        other.isShared = true;
+    }
+
     HeapItem(HeapItem other) {
-        value = cloner.deepClone(other.getValue());
-        type = other.getType();
+        this(other, other.getType());
     }
 
     public Object getValue() {
         return value;
     }
 
+    /**
+     * Use this instead of {@link #getValue()} before changing the value in place, e.g. setting an array element. If
+     * the value is shared with another item, it's replaced with a private copy first.
+     *
+     * @return value which is safe to mutate
+     */
+    public Object getMutableValue() {
+        if (isShared) {
+            value = cloner.deepClone(value);
+            isShared = false;
+        }
+
+        return value;
+    }
+
+    /**
+     * Unlike a copy-on-write copy, the new item never shares a mutable value with this one, e.g. for handing out a value
+     * which is kept and handed out again later.
+     *
+     * @return item with a private deep copy of a mutable value
+     */
+    public HeapItem deepCopy() {
+        Object copy = isMutable() ? cloner.deepClone(value) : value;
+
+        return new HeapItem(copy, type);
+    }
+
+    public boolean isMutable() {
+        return (value != null) && !isUnknown() && !isImmutable();
+    }
+
     public double getDoubleValue() {
         return Utils.getDoubleValue(getValue());
     }
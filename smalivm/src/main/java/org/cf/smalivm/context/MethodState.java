@@ -20,6 +20,9 @@ public class MethodState extends BaseState {
     // TODO: refactor ExecutionContext's method descriptor here, it saves having an extra string * n ops
     public static final String METHOD_HEAP = "method";
 
+    static final int MUTABLE_PARAMETER_HEAP_ID = Heap.getHeapId(MUTABLE_PARAMETER_HEAP);
+    static final int METHOD_HEAP_ID = Heap.getHeapId(METHOD_HEAP);
+
     private final int parameterCount;
     private final int parameterSize;
     private final TIntSet mutableParameters;
@@ -53,11 +56,11 @@ public class MethodState extends BaseState {
     }
 
     public void assignParameter(int parameterRegister, HeapItem item) {
-        assignRegister(parameterRegister, item, METHOD_HEAP);
+        assignRegister(parameterRegister, item, METHOD_HEAP_ID);
 
         boolean mutable = !item.isImmutable();
         if (mutable) {
-            pokeRegister(parameterRegister, item, MUTABLE_PARAMETER_HEAP);
+            pokeRegister(parameterRegister, item, MUTABLE_PARAMETER_HEAP_ID);
             mutableParameters.add(parameterRegister);
         }
     }
@@ -67,7 +70,7 @@ public class MethodState extends BaseState {
     }
 
     public void assignRegister(int register, HeapItem item) {
-        super.assignRegister(register, item, METHOD_HEAP);
+        super.assignRegister(register, item, METHOD_HEAP_ID);
     }
 
     public void assignRegister(int register, Object value, String type) {
@@ -82,11 +85,11 @@ public class MethodState extends BaseState {
      * @param item
      */
     public void assignRegisterAndUpdateIdentities(int register, HeapItem item) {
-        super.assignRegisterAndUpdateIdentities(register, item, METHOD_HEAP);
+        super.assignRegisterAndUpdateIdentities(register, item, METHOD_HEAP_ID);
     }
 
     public void assignResultRegister(HeapItem item) {
-        assignRegister(ResultRegister, item, METHOD_HEAP);
+        assignRegister(ResultRegister, item, METHOD_HEAP_ID);
     }
 
     public void assignResultRegister(Object value, String type) {
@@ -94,11 +97,11 @@ public class MethodState extends BaseState {
     }
 
     public void assignReturnRegister(HeapItem item) {
-        pokeRegister(ReturnRegister, item, METHOD_HEAP);
+        pokeRegister(ReturnRegister, item, METHOD_HEAP_ID);
     }
 
     public void assignReturnRegister(Object value, String type) {
-        pokeRegister(ReturnRegister, new HeapItem(value, type), METHOD_HEAP);
+        pokeRegister(ReturnRegister, new HeapItem(value, type), METHOD_HEAP_ID);
     }
 
     public int getParameterCount() {
@@ -121,7 +124,7 @@ public class MethodState extends BaseState {
     public HeapItem peekParameter(int parameterRegister) {
         HeapItem item;
         if (mutableParameters.contains(parameterRegister)) {
-            item = peekRegister(parameterRegister, MUTABLE_PARAMETER_HEAP);
+            item = peekRegister(parameterRegister, MUTABLE_PARAMETER_HEAP_ID);
         } else {
             item = peekRegister(parameterRegister);
         }
@@ -131,8 +134,8 @@ public class MethodState extends BaseState {
 
     public HeapItem peekRegister(int register) {
         if (register == MethodState.ResultRegister) {
-            if (!hasRegister(register, METHOD_HEAP)) {
-                if (getParent() != null && !getParent().hasRegister(register, METHOD_HEAP)) {
+            if (!hasRegister(register, METHOD_HEAP_ID)) {
+                if (getParent() != null && !getParent().hasRegister(register, METHOD_HEAP_ID)) {
                     // ResultRegister can only be read by the instruction immediately after it's set.
                     // It's not in this instruction or its parent, so it effectively doesn't exist.
                     // log.warn("Attempting to read result register but it's not in current or parent context! Returning null.");
@@ -141,11 +144,11 @@ public class MethodState extends BaseState {
 
             }
         }
-        return super.peekRegister(register, METHOD_HEAP);
+        return super.peekRegister(register, METHOD_HEAP_ID);
     }
 
     public void pokeRegister(int register, HeapItem item) {
-        super.pokeRegister(register, item, METHOD_HEAP);
+        super.pokeRegister(register, item, METHOD_HEAP_ID);
     }
 
     public void pokeRegister(int register, Object value, String type) {
@@ -153,11 +156,11 @@ public class MethodState extends BaseState {
     }
 
     public HeapItem readRegister(int register) {
-        return readRegister(register, METHOD_HEAP);
+        return readRegister(register, METHOD_HEAP_ID);
     }
 
     public HeapItem readResultRegister() {
-        HeapItem item = readRegister(ResultRegister, METHOD_HEAP);
+        HeapItem item = readRegister(ResultRegister, METHOD_HEAP_ID);
 
         return item;
     }
@@ -172,7 +175,7 @@ public class MethodState extends BaseState {
     }
 
     boolean hasRegister(int register) {
-        return hasRegister(register, METHOD_HEAP);
+        return hasRegister(register, METHOD_HEAP_ID);
     }
 
     @Override
@@ -218,7 +221,7 @@ public class MethodState extends BaseState {
     }
 
     public boolean wasRegisterRead(int register) {
-        return wasRegisterRead(register, METHOD_HEAP);
+        return wasRegisterRead(register, METHOD_HEAP_ID);
     }
 
     MethodState getChild(ExecutionContext childContext) {
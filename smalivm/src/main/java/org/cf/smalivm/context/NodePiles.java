@@ -0,0 +1,215 @@
+package org.cf.smalivm.context;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.jf.dexlib2.builder.MethodLocation;
+
+/**
+ * Node piles of a graph in instruction order. Each pile is the template node of an instruction followed by every node
+ * executed at it. Piles are found by address with a table indexed by code address, so spawning a node or getting a
+ * pile doesn't hash anything.
+ *
+ * Piles may be inserted and removed while the implementation is edited, but the address table is only correct again
+ * after {@link #reindex()}.
+ */
+class NodePiles {
+
+    /*
+     * Executed nodes of a pile, without the template. Kept with the pile so getting them doesn't allocate.
+     */
+    private static final class ExecutedNodes extends AbstractList<ExecutionNode> implements RandomAccess {
+
+        private final List<ExecutionNode> nodes;
+
+        private ExecutedNodes(List<ExecutionNode> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public ExecutionNode get(int index) {
+            if ((index < 0) || (index >= size())) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+
+            return nodes.get(index + 1);
+        }
+
+        @Override
+        public int size() {
+            return nodes.size() - 1;
+        }
+    }
+
+    private static final class NodePile {
+
+        private final MethodLocation location;
+        private final List<ExecutionNode> nodes;
+        private final List<ExecutionNode> executedNodes;
+
+        private NodePile(MethodLocation location, List<ExecutionNode> nodes) {
+            this.location = location;
+            this.nodes = nodes;
+            executedNodes = new ExecutedNodes(nodes);
+        }
+    }
+
+    private static final int[] NO_ADDRESSES = new int[0];
+
+    private final List<NodePile> piles;
+    // Never changed once built, so copies can share it until they're reindexed
+    private int[] addressToIndex;
+
+    NodePiles(int instructionCount) {
+        piles = new ArrayList<NodePile>(instructionCount);
+        addressToIndex = NO_ADDRESSES;
+    }
+
+    NodePiles(NodePiles other) {
+        piles = new ArrayList<NodePile>(other.piles.size());
+        for (NodePile otherPile : other.piles) {
+            List<ExecutionNode> nodes = new ArrayList<ExecutionNode>(otherPile.nodes.size());
+            for (ExecutionNode otherNode : otherPile.nodes) {
+                nodes.add(new ExecutionNode(otherNode));
+            }
+            piles.add(new NodePile(otherPile.location, nodes));
+        }
+        addressToIndex = other.addressToIndex;
+    }
+
+    /**
+     * Add a pile after every other pile.
+     *
+     * @param location
+     * @param templateNode
+     */
+    void add(MethodLocation location, ExecutionNode templateNode) {
+        // Most node piles will be a template node and 1+ ExecutionNodes.
+        List<ExecutionNode> nodes = new ArrayList<ExecutionNode>(2);
+        nodes.add(templateNode);
+        piles.add(new NodePile(location, nodes));
+    }
+
+    /**
+     * @param address
+     * @return template node followed by executed nodes, or null if no instruction starts at the address
+     */
+    List<ExecutionNode> get(int address) {
+        int index = getIndex(address);
+
+        return index < 0 ? null : piles.get(index).nodes;
+    }
+
+    /**
+     * @param location
+     * @return template node followed by executed nodes, or null if the location has no pile
+     */
+    List<ExecutionNode> get(MethodLocation location) {
+        int index = indexOf(location);
+
+        return index < 0 ? null : piles.get(index).nodes;
+    }
+
+    List<ExecutionNode> getExecuted(int address) {
+        return piles.get(getIndex(address)).executedNodes;
+    }
+
+    List<ExecutionNode> getByIndex(int index) {
+        return piles.get(index).nodes;
+    }
+
+    List<MethodLocation> getLocations() {
+        List<MethodLocation> locations = new ArrayList<MethodLocation>(piles.size());
+        for (NodePile pile : piles) {
+            locations.add(pile.location);
+        }
+
+        return locations;
+    }
+
+    /**
+     * Insert an empty pile just before the pile of another location, e.g. for an instruction added before it.
+     *
+     * @param location
+     * @param nextLocation
+     * @return the new pile
+     */
+    List<ExecutionNode> insert(MethodLocation location, MethodLocation nextLocation) {
+        int index = indexOf(nextLocation);
+        assert index >= 0;
+
+        List<ExecutionNode> nodes = new ArrayList<ExecutionNode>();
+        piles.add(index, new NodePile(location, nodes));
+
+        return nodes;
+    }
+
+    /**
+     * Rebuild the address table. Must be called once piles are in the same order as the implementation's instructions.
+     */
+    void reindex() {
+        int lastAddress = -1;
+        for (NodePile pile : piles) {
+            lastAddress = Math.max(lastAddress, pile.location.getCodeAddress());
+        }
+
+        int[] newAddressToIndex = new int[lastAddress + 1];
+        Arrays.fill(newAddressToIndex, -1);
+        for (int index = 0; index < piles.size(); index++) {
+            MethodLocation location = piles.get(index).location;
+            assert location.getIndex() == index;
+            newAddressToIndex[location.getCodeAddress()] = index;
+        }
+        addressToIndex = newAddressToIndex;
+    }
+
+    List<ExecutionNode> remove(MethodLocation location) {
+        int index = indexOf(location);
+
+        return index < 0 ? null : piles.remove(index).nodes;
+    }
+
+    int size() {
+        return piles.size();
+    }
+
+    private int getIndex(int address) {
+        if ((address < 0) || (address >= addressToIndex.length)) {
+            return -1;
+        }
+
+        return addressToIndex[address];
+    }
+
+    private int indexOf(MethodLocation location) {
+        /*
+         * Unless the implementation changed since the piles did, the pile is at the instruction's index. While editing,
+         * an instruction was just added or removed in front of it, so look one slot either side before scanning.
+         */
+        int instructionIndex = location.getIndex();
+        if (isAt(location, instructionIndex)) {
+            return instructionIndex;
+        }
+        if (isAt(location, instructionIndex - 1)) {
+            return instructionIndex - 1;
+        }
+        if (isAt(location, instructionIndex + 1)) {
+            return instructionIndex + 1;
+        }
+        for (int index = 0; index < piles.size(); index++) {
+            if (piles.get(index).location == location) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean isAt(MethodLocation location, int index) {
+        return (index >= 0) && (index < piles.size()) && (piles.get(index).location == location);
+    }
+
+}
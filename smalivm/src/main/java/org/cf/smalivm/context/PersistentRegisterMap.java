@@ -0,0 +1,262 @@
+package org.cf.smalivm.context;
+
+/**
+ * Immutable map of heap keys to heap items. Updates return a new map which shares all unchanged structure with the
+ * original, so keeping a snapshot for every heap in an execution path is cheap, and lookups take the same time no
+ * matter how long the path is.
+ *
+ * This is a hash array mapped trie with 32 way branching. Keys are mixed with a bijective function so two different
+ * keys always diverge before the hash runs out, and there are no collision nodes.
+ */
+final class PersistentRegisterMap {
+
+    static final PersistentRegisterMap EMPTY = new PersistentRegisterMap(new Node(0, new Object[0]), 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+    private final int size;
+
+    private PersistentRegisterMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    private static long mix(long key) {
+        // Murmur3 finalizer, which is invertible
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+
+        return key;
+    }
+
+    private static int bit(long hash, int shift) {
+        return 1 << ((int) (hash >>> shift) & MASK);
+    }
+
+    HeapItem get(long key) {
+        long hash = mix(key);
+        Node node = root;
+        int shift = 0;
+        while (true) {
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+
+            Object slot = node.slots[node.index(bit)];
+            if (slot instanceof Leaf) {
+                Leaf leaf = (Leaf) slot;
+
+                return leaf.key == key ? leaf.item : null;
+            }
+
+            node = (Node) slot;
+            shift += BITS;
+        }
+    }
+
+    PersistentRegisterMap put(long key, HeapItem item) {
+        if (item == null) {
+            return remove(key);
+        }
+
+        Leaf leaf = new Leaf(key, mix(key), item);
+        Node newRoot = root.put(leaf, 0);
+        if (newRoot == root) {
+            return this;
+        }
+        int newSize = newRoot.added ? size + 1 : size;
+        newRoot.added = false;
+
+        return new PersistentRegisterMap(newRoot, newSize);
+    }
+
+    PersistentRegisterMap remove(long key) {
+        Object newRoot = root.remove(key, mix(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return EMPTY;
+        }
+        if (newRoot instanceof Leaf) {
+            Leaf leaf = (Leaf) newRoot;
+            newRoot = new Node(bit(leaf.hash, 0), new Object[] { leaf });
+        }
+
+        return new PersistentRegisterMap((Node) newRoot, size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long[] keys() {
+        long[] keys = new long[size];
+        root.collectKeys(keys, 0);
+
+        return keys;
+    }
+
+    private static final class Leaf {
+
+        private final long key;
+        private final long hash;
+        private final HeapItem item;
+
+        private Leaf(long key, long hash, HeapItem item) {
+            this.key = key;
+            this.hash = hash;
+            this.item = item;
+        }
+
+    }
+
+    private static final class Node {
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        // Set on a freshly built path when put() adds a key instead of replacing one
+        private boolean added;
+
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private static Node of(Leaf leaf1, Leaf leaf2, int shift) {
+            int bit1 = bit(leaf1.hash, shift);
+            int bit2 = bit(leaf2.hash, shift);
+            if (bit1 == bit2) {
+                return new Node(bit1, new Object[] { of(leaf1, leaf2, shift + BITS) });
+            }
+
+            // Unsigned, since the bit for the last slot is the sign bit
+            boolean inOrder = Integer.compareUnsigned(bit1, bit2) < 0;
+            Object[] slots = inOrder ? new Object[] { leaf1, leaf2 } : new Object[] { leaf2, leaf1 };
+
+            return new Node(bit1 | bit2, slots);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Node put(Leaf leaf, int shift) {
+            int bit = bit(leaf.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = leaf;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                Node node = new Node(bitmap | bit, newSlots);
+                node.added = true;
+
+                return node;
+            }
+
+            Object slot = slots[index];
+            Object newSlot;
+            boolean added;
+            if (slot instanceof Leaf) {
+                Leaf current = (Leaf) slot;
+                if (current.key == leaf.key) {
+                    if (current.item == leaf.item) {
+                        return this;
+                    }
+                    newSlot = leaf;
+                    added = false;
+                } else {
+                    newSlot = of(current, leaf, shift + BITS);
+                    added = true;
+                }
+            } else {
+                Node child = (Node) slot;
+                Node newChild = child.put(leaf, shift + BITS);
+                if (newChild == child) {
+                    return this;
+                }
+                added = newChild.added;
+                newChild.added = false;
+                newSlot = newChild;
+            }
+
+            Object[] newSlots = slots.clone();
+            newSlots[index] = newSlot;
+            Node node = new Node(bitmap, newSlots);
+            node.added = added;
+
+            return node;
+        }
+
+        /*
+         * Returns this if nothing changed, null if the node became empty, and a lone Leaf if only one remains so it can
+         * be pulled up into the parent.
+         */
+        private Object remove(long key, long hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+
+            int index = index(bit);
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Leaf) {
+                if (((Leaf) slot).key != key) {
+                    return this;
+                }
+                newSlot = null;
+            } else {
+                newSlot = ((Node) slot).remove(key, hash, shift + BITS);
+                if (newSlot == slot) {
+                    return this;
+                }
+            }
+
+            if (newSlot != null) {
+                Object[] newSlots = slots.clone();
+                newSlots[index] = newSlot;
+                if ((newSlots.length == 1) && (newSlot instanceof Leaf)) {
+                    return newSlot;
+                }
+
+                return new Node(bitmap, newSlots);
+            }
+
+            if (slots.length == 1) {
+                return null;
+            }
+            if ((slots.length == 2) && (slots[1 - index] instanceof Leaf)) {
+                return slots[1 - index];
+            }
+
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, newSlots.length - index);
+
+            return new Node(bitmap & ~bit, newSlots);
+        }
+
+        private int collectKeys(long[] keys, int offset) {
+            for (Object slot : slots) {
+                if (slot instanceof Leaf) {
+                    keys[offset++] = ((Leaf) slot).key;
+                } else {
+                    offset = ((Node) slot).collectKeys(keys, offset);
+                }
+            }
+
+            return offset;
+        }
+
+    }
+
+}
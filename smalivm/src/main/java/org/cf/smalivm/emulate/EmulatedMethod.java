@@ -1,14 +1,16 @@
 package org.cf.smalivm.emulate;
 
-import java.util.Set;
-
 import org.cf.smalivm.SideEffect.Level;
-import org.cf.smalivm.VirtualException;
 
+/**
+ * A method whose behavior is emulated rather than executed. One instance is shared by every call, so implementations
+ * must not keep per-call state. Use the {@link EmulationResult} given to execute instead.
+ */
 public interface EmulatedMethod {
 
+    /**
+     * @return side effect level of calling this method, unless changed while executing
+     */
     public Level getSideEffectLevel();
 
-    public Set<VirtualException> getExceptions();
-
 }
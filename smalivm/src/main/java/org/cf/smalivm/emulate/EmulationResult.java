@@ -0,0 +1,46 @@
+package org.cf.smalivm.emulate;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.VirtualException;
+
+/**
+ * State of a single emulated call. Emulated methods are shared by every call, so anything they learn while executing,
+ * like thrown exceptions or side effects of initializing classes, goes here instead of in the method.
+ */
+public class EmulationResult {
+
+    private Set<VirtualException> exceptions;
+    private SideEffect.Level level;
+
+    public EmulationResult(SideEffect.Level level) {
+        this.level = level;
+    }
+
+    public void addException(VirtualException exception) {
+        if (exceptions == null) {
+            exceptions = new HashSet<VirtualException>();
+        }
+        exceptions.add(exception);
+    }
+
+    public Set<VirtualException> getExceptions() {
+        if (exceptions == null) {
+            return Collections.emptySet();
+        }
+
+        return exceptions;
+    }
+
+    public SideEffect.Level getSideEffectLevel() {
+        return level;
+    }
+
+    public void setSideEffectLevel(SideEffect.Level level) {
+        this.level = level;
+    }
+
+}
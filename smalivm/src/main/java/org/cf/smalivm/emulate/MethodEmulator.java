@@ -1,100 +1,109 @@
 package org.cf.smalivm.emulate;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.cf.smalivm.SideEffect;
-import org.cf.smalivm.VirtualException;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.ExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Emulated methods for one virtual machine. Each method is created once and shared by every call, so the methods may
+ * be looked up and executed by several threads at once.
+ */
 public class MethodEmulator {
 
     private static final Logger log = LoggerFactory.getLogger(MethodEmulator.class.getSimpleName());
 
     private final VirtualMachine vm;
-    private final ExecutionContext ectx;
-    private final String methodDescriptor;
-    private final EmulatedMethod method;
+    private final ConcurrentMap<String, EmulatedMethod> methodDescriptorToMethod;
+    // Bumped whenever emulated methods change so anything which remembers what can be emulated knows to forget.
+    private volatile int generation;
 
-    public MethodEmulator(VirtualMachine vm, ExecutionContext ectx, String methodDescriptor) {
+    public MethodEmulator(VirtualMachine vm) {
         this.vm = vm;
-        this.ectx = ectx;
-        this.methodDescriptor = methodDescriptor;
-        method = getMethod(methodDescriptor);
+        methodDescriptorToMethod = new ConcurrentHashMap<String, EmulatedMethod>();
+        addDefaultMethods();
     }
 
-    private static EmulatedMethod getMethod(String methodDescriptor) {
-        Class<? extends EmulatedMethod> methodClass = emulatedMethods.get(methodDescriptor);
-        EmulatedMethod em = null;
-        try {
-            em = methodClass.newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
-            e.printStackTrace();
-        }
-
-        return em;
-    }
-
-    private static Map<String, Class<? extends EmulatedMethod>> emulatedMethods = new HashMap<String, Class<? extends EmulatedMethod>>();
-    static {
-        addMethod("Lorg/cf/simplify/Utils;->breakpoint()V", org_cf_simplify_Utils_breakpoint.class);
-        addMethod("Ljava/lang/Class;->getPackage()Ljava/lang/Package;", java_lang_Class_getPackage.class);
-        addMethod("Ljava/lang/Package;->getName()Ljava/lang/String;", java_lang_Package_getName.class);
-        addMethod("Ljava/lang/Class;->forName(Ljava/lang/String;)Ljava/lang/Class;", java_lang_Class_forName.class);
+    private void addDefaultMethods() {
+        addMethod("Lorg/cf/simplify/Utils;->breakpoint()V", new org_cf_simplify_Utils_breakpoint());
+        addMethod("Ljava/lang/Class;->getPackage()Ljava/lang/Package;", new java_lang_Class_getPackage());
+        addMethod("Ljava/lang/Package;->getName()Ljava/lang/String;", new java_lang_Package_getName());
+        addMethod("Ljava/lang/Class;->forName(Ljava/lang/String;)Ljava/lang/Class;", new java_lang_Class_forName());
+        EmulatedMethod getMethod = new java_lang_Class_getMethod();
         addMethod("Ljava/lang/Class;->getMethod(Ljava/lang/String;[Ljava/lang/Class;)Ljava/lang/reflect/Method;",
-                        java_lang_Class_getMethod.class);
+                        getMethod);
         addMethod("Ljava/lang/Class;->getDeclaredMethod(Ljava/lang/String;[Ljava/lang/Class;)Ljava/lang/reflect/Method;",
-                        java_lang_Class_getMethod.class);
-        addMethod("Ljava/lang/Class;->getField(Ljava/lang/String;)Ljava/lang/reflect/Field;",
-                        java_lang_Class_getField.class);
-        addMethod("Ljava/lang/Class;->getDeclaredField(Ljava/lang/String;)Ljava/lang/reflect/Field;",
-                        java_lang_Class_getField.class);
+                        getMethod);
+        EmulatedMethod getField = new java_lang_Class_getField();
+        addMethod("Ljava/lang/Class;->getField(Ljava/lang/String;)Ljava/lang/reflect/Field;", getField);
+        addMethod("Ljava/lang/Class;->getDeclaredField(Ljava/lang/String;)Ljava/lang/reflect/Field;", getField);
         addMethod("Ljava/lang/reflect/Field;->get(Ljava/lang/Object;)Ljava/lang/Object;",
-                        java_lang_reflect_Field_get.class);
+                        new java_lang_reflect_Field_get());
     }
 
-    public static void addMethod(String methodDescriptor, Class<? extends EmulatedMethod> methodClass) {
-        emulatedMethods.put(methodDescriptor, methodClass);
+    /**
+     * @param methodDescriptor
+     * @param method
+     *            shared by every call, must not keep any per-call state
+     */
+    public void addMethod(String methodDescriptor, EmulatedMethod method) {
+        methodDescriptorToMethod.put(methodDescriptor, method);
+        generation++;
     }
 
-    public static boolean canEmulate(String methodDescriptor) {
-        return emulatedMethods.containsKey(methodDescriptor);
+    public boolean canEmulate(String methodDescriptor) {
+        return methodDescriptorToMethod.containsKey(methodDescriptor);
     }
 
-    public static boolean canHandleUnknownValues(String methodDescriptor) {
-        Class<? extends EmulatedMethod> methodClass = emulatedMethods.get(methodDescriptor);
+    public boolean canHandleUnknownValues(String methodDescriptor) {
+        return methodDescriptorToMethod.get(methodDescriptor) instanceof UnknownValuesMethod;
+    }
 
-        return (methodClass != null) && (UnknownValuesMethod.class.isAssignableFrom(methodClass));
+    public void clearMethods() {
+        methodDescriptorToMethod.clear();
+        generation++;
     }
 
-    public static void clearMethods() {
-        emulatedMethods.clear();
+    public int getGeneration() {
+        return generation;
     }
 
-    public void emulate() {
+    /**
+     * @param ectx
+     *            callee context
+     * @param methodDescriptor
+     *            emulated method
+     * @return exceptions and side effect level of the call
+     */
+    public EmulationResult emulate(ExecutionContext ectx, String methodDescriptor) {
+        EmulatedMethod method = methodDescriptorToMethod.get(methodDescriptor);
+        if (method == null) {
+            // Emulated methods were changed since this call was dispatched.
+            if (log.isWarnEnabled()) {
+                log.warn("No emulated method for {}", methodDescriptor);
+            }
+
+            return new EmulationResult(SideEffect.Level.STRONG);
+        }
+
+        EmulationResult result = new EmulationResult(method.getSideEffectLevel());
         try {
             if (method instanceof MethodStateMethod) {
-                ((MethodStateMethod) method).execute(vm, ectx.getMethodState());
+                ((MethodStateMethod) method).execute(vm, ectx.getMethodState(), result);
             } else {
-                ((ExecutionContextMethod) method).execute(vm, ectx);
+                ((ExecutionContextMethod) method).execute(vm, ectx, result);
             }
         } catch (Exception e) {
             if (log.isWarnEnabled()) {
                 log.warn("Unexpected real exception emulating " + methodDescriptor, e);
             }
         }
-    }
-
-    public SideEffect.Level getSideEffectLevel() {
-        return method.getSideEffectLevel();
-    }
 
-    public Set<VirtualException> getExceptions() {
-        return method.getExceptions();
+        return result;
     }
 
 }
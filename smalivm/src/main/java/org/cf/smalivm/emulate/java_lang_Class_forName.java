@@ -1,8 +1,5 @@
 package org.cf.smalivm.emulate;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.cf.smalivm.ClassManager;
 import org.cf.smalivm.MethodReflector;
 import org.cf.smalivm.SideEffect;
@@ -22,19 +19,6 @@ public class java_lang_Class_forName implements ExecutionContextMethod {
 
     private static final String RETURN_TYPE = "Ljava/lang/Class;";
 
-    private final Set<VirtualException> exceptions;
-    private SideEffect.Level level;
-
-    java_lang_Class_forName() {
-        exceptions = new HashSet<VirtualException>();
-        level = SideEffect.Level.NONE;
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
-    }
-
     private void reflectRealMethod(MethodState mState, String javaClassName) throws ClassNotFoundException {
         try {
             Class<?> value = Class.forName(javaClassName);
@@ -45,12 +29,9 @@ public class java_lang_Class_forName implements ExecutionContextMethod {
         }
     }
 
-    private void setException(VirtualException exception) {
-        exceptions.add(exception);
-    }
-
     @Override
-    public void execute(VirtualMachine vm, ExecutionContext ectx) throws ClassNotFoundException {
+    public void execute(VirtualMachine vm, ExecutionContext ectx, EmulationResult result)
+                    throws ClassNotFoundException {
         MethodState mState = ectx.getMethodState();
         String javaClassName = (String) mState.peekParameter(0).getValue();
         String className = SmaliClassUtils.javaClassToSmali(javaClassName);
@@ -66,18 +47,18 @@ public class java_lang_Class_forName implements ExecutionContextMethod {
                 // Class.forName will statically initialize a class
                 if (!ectx.isClassInitialized(className)) {
                     ectx.staticallyInitializeClassIfNecessary(className);
-                    level = ectx.getClassSideEffectLevel(className);
+                    result.setSideEffectLevel(ectx.getClassSideEffectLevel(className));
                 }
                 mState.assignReturnRegister(new LocalClass(className), RETURN_TYPE);
             } else {
-                setException(new VirtualException(ClassNotFoundException.class, className));
+                result.addException(new VirtualException(ClassNotFoundException.class, className));
             }
         }
     }
 
     @Override
     public SideEffect.Level getSideEffectLevel() {
-        return level;
+        return SideEffect.Level.NONE;
     }
 
 }
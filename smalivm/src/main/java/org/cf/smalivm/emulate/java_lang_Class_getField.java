@@ -1,9 +1,7 @@
 package org.cf.smalivm.emulate;
 
 import java.lang.reflect.Field;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.cf.smalivm.ClassManager;
 import org.cf.smalivm.SideEffect;
@@ -23,25 +21,8 @@ public class java_lang_Class_getField implements MethodStateMethod {
 
     private static final String RETURN_TYPE = "Ljava/lang/reflect/Field;";
 
-    private final Set<VirtualException> exceptions;
-    private SideEffect.Level level;
-
-    java_lang_Class_getField() {
-        exceptions = new HashSet<VirtualException>();
-        level = SideEffect.Level.NONE;
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
-    }
-
-    private void setException(VirtualException exception) {
-        exceptions.add(exception);
-    }
-
     @Override
-    public void execute(VirtualMachine vm, MethodState mState) throws Exception {
+    public void execute(VirtualMachine vm, MethodState mState, EmulationResult result) throws Exception {
         // TODO: getDeclared for fields and methods should be handled differently
         // can look at method descriptor to figure out which one we are
         HeapItem classItem = mState.peekParameter(0);
@@ -54,14 +35,14 @@ public class java_lang_Class_getField implements MethodStateMethod {
             try {
                 fieldValue = getNonLocalField((Class<?>) classValue, fieldName);
             } catch (NoSuchFieldException | SecurityException e) {
-                setException(new VirtualException(e));
+                result.addException(new VirtualException(e));
                 return;
             }
         } else if (classValue instanceof LocalClass) {
             LocalClass localClass = (LocalClass) classValue;
             fieldValue = getLocalField(vm.getClassManager(), localClass, fieldName);
             if (fieldValue == null) {
-                setException(new VirtualException(NoSuchFieldException.class, fieldName));
+                result.addException(new VirtualException(NoSuchFieldException.class, fieldName));
                 return;
             }
         } else {
@@ -100,7 +81,7 @@ public class java_lang_Class_getField implements MethodStateMethod {
 
     @Override
     public SideEffect.Level getSideEffectLevel() {
-        return level;
+        return SideEffect.Level.NONE;
     }
 
 }
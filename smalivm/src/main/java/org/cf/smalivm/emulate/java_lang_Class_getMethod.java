@@ -2,7 +2,6 @@ package org.cf.smalivm.emulate;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
-import java.util.HashSet;
 import java.util.Set;
 
 import org.cf.smalivm.SideEffect;
@@ -25,19 +24,8 @@ public class java_lang_Class_getMethod implements MethodStateMethod {
 
     private static final String RETURN_TYPE = "Ljava/lang/reflect/Method;";
 
-    private final Set<VirtualException> exceptions;
-
-    java_lang_Class_getMethod() {
-        exceptions = new HashSet<VirtualException>();
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
-    }
-
     @Override
-    public void execute(VirtualMachine vm, MethodState mState) throws Exception {
+    public void execute(VirtualMachine vm, MethodState mState, EmulationResult result) throws Exception {
         HeapItem classItem = mState.peekParameter(0);
         Object classValue = classItem.getValue();
         String methodName = (String) mState.peekParameter(1).getValue();
@@ -51,7 +39,7 @@ public class java_lang_Class_getMethod implements MethodStateMethod {
                 methodValue = getNonLocalMethod((Class<?>) classValue, methodName, parameterTypes);
             } catch (NoSuchMethodException | SecurityException e) {
                 // Assuming Android doesn't have this method since our JVM doesn't.
-                setException(new VirtualException(e));
+                result.addException(new VirtualException(e));
                 return;
             }
         } else if (classValue instanceof LocalClass) {
@@ -61,7 +49,7 @@ public class java_lang_Class_getMethod implements MethodStateMethod {
                 StringBuilder sb = new StringBuilder();
                 sb.append(SmaliClassUtils.smaliClassToJava(localClass.getName()));
                 sb.append('.').append(methodName).append("()");
-                setException(new VirtualException(NoSuchMethodException.class, sb.toString()));
+                result.addException(new VirtualException(NoSuchMethodException.class, sb.toString()));
                 return;
             }
         } else {
@@ -74,10 +62,6 @@ public class java_lang_Class_getMethod implements MethodStateMethod {
         mState.assignReturnRegister(methodValue, RETURN_TYPE);
     }
 
-    private void setException(VirtualException exception) {
-        exceptions.add(exception);
-    }
-
     private static LocalMethod getLocalMethod(ClassManager classManager, LocalClass localClass, String methodName,
                     Object[] parameterTypesValue) {
         String className = localClass.getName();
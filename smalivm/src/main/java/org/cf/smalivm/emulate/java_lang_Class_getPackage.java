@@ -1,10 +1,6 @@
 package org.cf.smalivm.emulate;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.cf.smalivm.SideEffect;
-import org.cf.smalivm.VirtualException;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.MethodState;
 import org.cf.smalivm.type.EmulatedType;
@@ -21,19 +17,8 @@ public class java_lang_Class_getPackage implements MethodStateMethod {
 
     private static final String RETURN_TYPE = "Ljava/lang/Package;";
 
-    private final Set<VirtualException> exceptions;
-
-    java_lang_Class_getPackage() {
-        exceptions = new HashSet<VirtualException>();
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
-    }
-
     @Override
-    public void execute(VirtualMachine vm, MethodState mState) throws Exception {
+    public void execute(VirtualMachine vm, MethodState mState, EmulationResult result) throws Exception {
         Object classValue = mState.peekParameter(0).getValue();
         Object packageValue;
         if (classValue instanceof LocalClass) {
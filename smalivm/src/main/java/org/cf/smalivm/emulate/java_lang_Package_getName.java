@@ -1,10 +1,6 @@
 package org.cf.smalivm.emulate;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.cf.smalivm.SideEffect;
-import org.cf.smalivm.VirtualException;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
@@ -20,19 +16,8 @@ public class java_lang_Package_getName implements MethodStateMethod {
 
     private static final String RETURN_TYPE = "Ljava/lang/String;";
 
-    private final Set<VirtualException> exceptions;
-
-    java_lang_Package_getName() {
-        exceptions = new HashSet<VirtualException>();
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
-    }
-
     @Override
-    public void execute(VirtualMachine vm, MethodState mState) throws Exception {
+    public void execute(VirtualMachine vm, MethodState mState, EmulationResult result) throws Exception {
         HeapItem instanceItem = mState.peekParameter(0);
         Object instance = instanceItem.getValue();
         Object name;
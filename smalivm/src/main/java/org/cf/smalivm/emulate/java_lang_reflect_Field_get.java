@@ -3,8 +3,6 @@ package org.cf.smalivm.emulate;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 import org.cf.smalivm.ClassManager;
 import org.cf.smalivm.SideEffect;
@@ -27,21 +25,8 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
 
     private static final String RETURN_TYPE = "Ljava/lang/Object;";
 
-    private final Set<VirtualException> exceptions;
-    private SideEffect.Level level;
-
-    java_lang_reflect_Field_get() {
-        exceptions = new HashSet<VirtualException>();
-        level = SideEffect.Level.NONE;
-    }
-
-    @Override
-    public Set<VirtualException> getExceptions() {
-        return exceptions;
-    }
-
     @Override
-    public void execute(VirtualMachine vm, ExecutionContext ectx) throws Exception {
+    public void execute(VirtualMachine vm, ExecutionContext ectx, EmulationResult result) throws Exception {
         MethodState mState = ectx.getMethodState();
         HeapItem fieldItem = mState.peekParameter(0);
         HeapItem instanceItem = mState.peekParameter(1);
@@ -50,9 +35,9 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
         HeapItem getItem;
         if (fieldValue instanceof Field) {
             Object instance = instanceItem.getValue();
-            getItem = getNonLocalField((Field) fieldValue, instance, ectx);
+            getItem = getNonLocalField((Field) fieldValue, instance, ectx, result);
         } else if (fieldValue instanceof LocalField) {
-            getItem = getLocalField((LocalField) fieldValue, vm, ectx);
+            getItem = getLocalField((LocalField) fieldValue, vm, ectx, result);
         } else {
             if (log.isErrorEnabled()) {
                 log.error("Field.get with {} has unexpected type and confuses me.", fieldItem);
@@ -67,12 +52,8 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
         mState.assignReturnRegister(getItem);
     }
 
-    private void setException(VirtualException exception) {
-        exceptions.add(exception);
-    }
-
     private boolean checkAccess(String callingClassSmali, String definingClassSmali, int accessFlags,
-                    ClassManager classManager) {
+                    ClassManager classManager, EmulationResult result) {
         if (Modifier.isPublic(accessFlags)) {
             return true;
         }
@@ -89,7 +70,7 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
                         .append(definingClassJava).append(" with modifiers \"").append(modifiers).append("\"");
 
         if (Modifier.isPrivate(accessFlags)) {
-            setException(new VirtualException(IllegalAccessException.class, sb.toString()));
+            result.addException(new VirtualException(IllegalAccessException.class, sb.toString()));
             return false;
         }
 
@@ -105,15 +86,16 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
                 return true;
             }
 
-            setException(new VirtualException(IllegalAccessException.class, sb.toString()));
+            result.addException(new VirtualException(IllegalAccessException.class, sb.toString()));
             return false;
         }
 
         return true;
     }
 
-    private HeapItem getLocalField(LocalField localField, VirtualMachine vm, ExecutionContext ectx) {
-        BuilderField field = getBuilderField(vm, ectx, localField);
+    private HeapItem getLocalField(LocalField localField, VirtualMachine vm, ExecutionContext ectx,
+                    EmulationResult result) {
+        BuilderField field = getBuilderField(vm, ectx, localField, result);
         int accessFlags = field.getAccessFlags();
         HeapItem item = null;
 
@@ -121,7 +103,8 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
             String callingMethodDescriptor = ectx.getCallerContext().getMethodDescriptor();
             String callingClassSmali = callingMethodDescriptor.split("->")[0];
             String definingClassSmali = field.getDefiningClass();
-            boolean hasAccess = checkAccess(callingClassSmali, definingClassSmali, accessFlags, vm.getClassManager());
+            boolean hasAccess = checkAccess(callingClassSmali, definingClassSmali, accessFlags, vm.getClassManager(),
+                            result);
             if (!hasAccess) {
                 return null;
             }
@@ -138,7 +121,8 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
         return item;
     }
 
-    private HeapItem getNonLocalField(Field field, Object instance, ExecutionContext ectx) {
+    private HeapItem getNonLocalField(Field field, Object instance, ExecutionContext ectx,
+                    EmulationResult result) {
         HeapItem item = null;
         try {
             Object getObject = field.get(instance);
@@ -150,13 +134,14 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
             String callingClass = callingMethodDescriptor.split("->")[0];
             String callingClassJava = SmaliClassUtils.smaliClassToJava(callingClass);
             message = message.replace(java_lang_reflect_Field_get.class.getName(), callingClassJava);
-            setException(new VirtualException(e.getClass(), message));
+            result.addException(new VirtualException(e.getClass(), message));
         }
 
         return item;
     }
 
-    private BuilderField getBuilderField(VirtualMachine vm, ExecutionContext ectx, LocalField localField) {
+    private BuilderField getBuilderField(VirtualMachine vm, ExecutionContext ectx, LocalField localField,
+                    EmulationResult result) {
         ClassManager classManager = vm.getClassManager();
         String[] parts = localField.getName().split("->");
         String className = parts[0];
@@ -169,7 +154,7 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
         // Accessing a field causes class static initialization
         if (!ectx.isClassInitialized(className)) {
             ectx.staticallyInitializeClassIfNecessary(className);
-            level = ectx.getClassSideEffectLevel(className);
+            result.setSideEffectLevel(ectx.getClassSideEffectLevel(className));
         }
 
         Collection<BuilderField> fields = classManager.getFields(className);
@@ -185,7 +170,7 @@ public class java_lang_reflect_Field_get implements ExecutionContextMethod {
 
     @Override
     public SideEffect.Level getSideEffectLevel() {
-        return level;
+        return SideEffect.Level.NONE;
     }
 
 }
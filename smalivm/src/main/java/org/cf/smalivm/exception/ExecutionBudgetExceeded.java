@@ -0,0 +1,11 @@
+package org.cf.smalivm.exception;
+
+public class ExecutionBudgetExceeded extends VirtualMachineException {
+
+    private static final long serialVersionUID = 4617398315029441718L;
+
+    public ExecutionBudgetExceeded(String message) {
+        super(message);
+    }
+
+}
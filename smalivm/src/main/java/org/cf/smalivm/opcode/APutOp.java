@@ -110,7 +110,7 @@ public class APutOp extends MethodStateOp {
                 String type = arrayItem.getType();
                 arrayItem = HeapItem.newUnknown(type);
             } else {
-                Object array = arrayItem.getValue();
+                Object array = arrayItem.getMutableValue();
                 if (null == array) {
                     node.setException(new VirtualException(NullPointerException.class));
                     node.clearChildren();
@@ -3,7 +3,6 @@ package org.cf.smalivm.opcode;
 import java.lang.reflect.Array;
 import java.util.List;
 
-import org.apache.commons.lang3.ClassUtils;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
@@ -16,28 +15,30 @@ public class FillArrayDataPayloadOp extends MethodStateOp {
     @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(FillArrayDataPayloadOp.class.getSimpleName());
 
-    private static Object getProperValue(Number number, Class<?> expectedClass) {
-        Class<?> klazz = ClassUtils.wrapperToPrimitive(number.getClass());
+    private static Object getProperValue(Number number, int elementWidth, Class<?> expectedClass) {
         Object value = null;
 
-        // Dexlib will only ever make byte (t), int, long (l), or short (s)
-        if (klazz == byte.class) {
+        /*
+         * Go by element width rather than number class. Smali makes byte (t), int, long (l), or short (s) numbers, but
+         * payloads read straight from a dex are all ints or longs.
+         */
+        if (elementWidth == 1) {
             value = number.byteValue();
             if (expectedClass == boolean.class) {
                 value = (byte) value == 1 ? true : false;
             }
-        } else if (klazz == short.class) {
+        } else if (elementWidth == 2) {
             value = number.shortValue();
             if (expectedClass == char.class) {
                 value = (char) number.shortValue();
             }
-        } else if (klazz == int.class) {
+        } else if (elementWidth == 4) {
             if (expectedClass == int.class) {
                 value = number.intValue();
             } else if (expectedClass == float.class) {
                 value = Float.intBitsToFloat(number.intValue());
             }
-        } else if (klazz == long.class) {
+        } else if (elementWidth == 8) {
             value = number.longValue();
             if (expectedClass == long.class) {
                 value = number.longValue();
@@ -67,11 +68,11 @@ public class FillArrayDataPayloadOp extends MethodStateOp {
         // Peek rather than read. This pseudo-instruction shouldn't count as an actual usage for the optimizer.
         HeapItem arrayItem = mState.peekRegister(targetRegister);
         if (!arrayItem.isUnknown()) {
-            Object array = arrayItem.getValue();
+            Object array = arrayItem.getMutableValue();
             Class<?> expectedClass = array.getClass().getComponentType();
             for (int i = 0; i < arrayElements.size(); i++) {
                 Number number = arrayElements.get(i);
-                Object value = getProperValue(number, expectedClass);
+                Object value = getProperValue(number, elementWidth, expectedClass);
                 Array.set(array, i, value);
             }
             // Poke rather than assign for the optimizer.
@@ -5,6 +5,7 @@ import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.FieldRef;
 import org.jf.dexlib2.builder.MethodLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,16 +17,16 @@ public class IGetOp extends ExecutionContextOp {
 
     private final int destRegister;
     private final int instanceRegister;
-    private final String fieldDescriptor;
+    private final FieldRef field;
     private final VirtualMachine vm;
 
     public IGetOp(MethodLocation location, MethodLocation child, int destRegister, int instanceRegister,
-                    String fieldDescriptor, VirtualMachine vm) {
+                    FieldRef field, VirtualMachine vm) {
         super(location, child);
 
         this.destRegister = destRegister;
         this.instanceRegister = instanceRegister;
-        this.fieldDescriptor = fieldDescriptor;
+        this.field = field;
         this.vm = vm;
     }
 
@@ -35,7 +36,7 @@ public class IGetOp extends ExecutionContextOp {
         MethodState mState = ectx.getMethodState();
         HeapItem instanceItem = mState.readRegister(instanceRegister);
 
-        String type = fieldDescriptor.split(":")[1];
+        String type = field.getType();
         mState.assignRegister(destRegister, HeapItem.newUnknown(type));
     }
 
@@ -43,7 +44,7 @@ public class IGetOp extends ExecutionContextOp {
     public String toString() {
         StringBuilder sb = new StringBuilder(getName());
         sb.append(" r").append(destRegister).append(", r").append(instanceRegister).append(", ")
-                        .append(fieldDescriptor);
+                        .append(field);
 
         return sb.toString();
     }
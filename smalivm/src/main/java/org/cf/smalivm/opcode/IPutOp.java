@@ -6,6 +6,7 @@ import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.FieldRef;
 import org.jf.dexlib2.builder.MethodLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,18 +16,18 @@ public class IPutOp extends ExecutionContextOp {
     @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(IPutOp.class.getSimpleName());
 
-    private final String fieldDescriptor;
+    private final FieldRef field;
     private final int valueRegister;
     private final int instanceRegister;
     private final VirtualMachine vm;
 
     IPutOp(MethodLocation location, MethodLocation child, int valueRegister, int instanceRegister,
-                    String fieldDescriptor, VirtualMachine vm) {
+                    FieldRef field, VirtualMachine vm) {
         super(location, child);
 
         this.valueRegister = valueRegister;
         this.instanceRegister = instanceRegister;
-        this.fieldDescriptor = fieldDescriptor;
+        this.field = field;
         this.vm = vm;
     }
 
@@ -48,7 +49,7 @@ public class IPutOp extends ExecutionContextOp {
     public String toString() {
         StringBuilder sb = new StringBuilder(getName());
         sb.append(" r").append(valueRegister).append(", r").append(instanceRegister).append(", ")
-                        .append(fieldDescriptor);
+                        .append(field);
 
         return sb.toString();
     }
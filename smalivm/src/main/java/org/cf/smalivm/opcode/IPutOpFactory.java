@@ -3,6 +3,7 @@ package org.cf.smalivm.opcode;
 import gnu.trove.map.TIntObjectMap;
 
 import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.reference.FieldRef;
 import org.cf.util.Utils;
 import org.jf.dexlib2.builder.MethodLocation;
 import org.jf.dexlib2.iface.instruction.formats.Instruction22c;
@@ -18,9 +19,9 @@ public class IPutOpFactory implements OpFactory {
         int valueRegister = instr.getRegisterA();
         int instanceRegister = instr.getRegisterB();
         FieldReference reference = (FieldReference) instr.getReference();
-        String fieldDescriptor = ReferenceUtil.getFieldDescriptor(reference);
+        FieldRef field = FieldRef.of(ReferenceUtil.getFieldDescriptor(reference));
 
-        return new IPutOp(location, child, valueRegister, instanceRegister, fieldDescriptor, vm);
+        return new IPutOp(location, child, valueRegister, instanceRegister, field, vm);
     }
 
 }
@@ -5,20 +5,25 @@ import java.util.List;
 import java.util.Set;
 
 import org.cf.smalivm.ClassManager;
+import org.cf.smalivm.DispatchCache;
+import org.cf.smalivm.DispatchCache.Dispatch;
+import org.cf.smalivm.DispatchCache.Strategy;
 import org.cf.smalivm.MethodReflector;
+import org.cf.smalivm.MethodSummary;
 import org.cf.smalivm.SideEffect;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.ExecutionContext;
-import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
-import org.cf.smalivm.emulate.MethodEmulator;
+import org.cf.smalivm.emulate.EmulationResult;
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
 import org.cf.smalivm.exception.MaxAddressVisitsExceeded;
 import org.cf.smalivm.exception.MaxCallDepthExceeded;
 import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
 import org.cf.smalivm.exception.MaxMethodVisitsExceeded;
 import org.cf.smalivm.exception.UnhandledVirtualException;
+import org.cf.smalivm.reference.MethodRef;
 import org.cf.smalivm.type.LocalType;
 import org.cf.util.ImmutableUtils;
 import org.cf.util.SmaliClassUtils;
@@ -32,17 +37,15 @@ public class InvokeOp extends ExecutionContextOp {
 
     private static final Logger log = LoggerFactory.getLogger(InvokeOp.class.getSimpleName());
 
-    private static boolean doesNonLocalMethodExist(String className, String methodSignature) {
+    private static boolean doesNonLocalMethodExist(MethodRef method) {
         Class<?> klazz = null;
         try {
-            klazz = Class.forName(SmaliClassUtils.smaliClassToJava(className));
+            klazz = Class.forName(SmaliClassUtils.smaliClassToJava(method.getClassName()));
         } catch (ClassNotFoundException e) {
             return false;
         }
 
-        StringBuilder sb = new StringBuilder(className);
-        sb.append("->").append(methodSignature);
-        List<String> paramList = Utils.getParameterTypes(sb.toString());
+        List<String> paramList = method.getParameterTypes();
         Class<?>[] params = new Class<?>[paramList.size()];
         for (int i = 0; i < paramList.size(); i++) {
             String paramName = paramList.get(i);
@@ -57,9 +60,8 @@ public class InvokeOp extends ExecutionContextOp {
             }
         }
 
-        String methodName = methodSignature.split("\\(")[0];
         try {
-            klazz.getMethod(methodName, params);
+            klazz.getMethod(method.getName(), params);
         } catch (NoSuchMethodException e) {
             return false;
         } catch (SecurityException e) {
@@ -70,25 +72,23 @@ public class InvokeOp extends ExecutionContextOp {
     }
 
     private final boolean isStatic;
-    private final String methodDescriptor;
+    private final MethodRef method;
     private final int[] parameterRegisters;
     private final List<String> parameterTypes;
     private final String returnType;
-    private SideEffect.Level sideEffectLevel;
 
     private final VirtualMachine vm;
 
-    InvokeOp(MethodLocation location, MethodLocation child, String methodDescriptor, String returnType,
+    InvokeOp(MethodLocation location, MethodLocation child, MethodRef method, String returnType,
                     int[] parameterRegisters, List<String> parameterTypes, VirtualMachine vm, boolean isStatic) {
         super(location, child);
 
-        this.methodDescriptor = methodDescriptor;
+        this.method = method;
         this.returnType = returnType;
         this.parameterRegisters = parameterRegisters;
         this.parameterTypes = parameterTypes;
         this.vm = vm;
         this.isStatic = isStatic;
-        sideEffectLevel = SideEffect.Level.STRONG;
     }
 
     @Override
@@ -98,60 +98,51 @@ public class InvokeOp extends ExecutionContextOp {
         // It also keeps things clear with method execution delegated to the class with the same name.
         // MethodExecutor can maintain a mapping such that calleeContext -> (callerContext, caller address)
         // With this mapping, stack traces can be reconstructed.
-        String targetMethod = methodDescriptor;
-        if (getName().contains("-virtual")) { // -virtual/range
-            // Resolve what the actual virtual target is because method call may be to interface or abstract class.
-            int targetRegister = parameterRegisters[0];
-            HeapItem item = ectx.getMethodState().peekRegister(targetRegister);
-            targetMethod = getLocalTargetForVirtualMethod(item.getValue());
-        }
-
+        Dispatch dispatch = getDispatch(ectx);
+        MethodRef targetMethod = dispatch.getTarget();
         MethodState callerMethodState = ectx.getMethodState();
-        // Try to reflect or emulate before using local class.
-        if (MethodReflector.canReflect(targetMethod) || MethodEmulator.canEmulate(targetMethod)) {
-            ExecutionContext calleeContext = buildNonLocalCalleeContext(ectx);
-            boolean allArgumentsKnown = allArgumentsKnown(calleeContext.getMethodState());
-            if (allArgumentsKnown || MethodEmulator.canHandleUnknownValues(targetMethod)) {
-                executeNonLocalMethod(targetMethod, callerMethodState, calleeContext, node);
-                return;
+        switch (dispatch.getStrategy()) {
+        case EMULATE:
+        case REFLECT:
+            ExecutionContext nonLocalCalleeContext = buildNonLocalCalleeContext(ectx);
+            boolean allArgumentsKnown = allArgumentsKnown(nonLocalCalleeContext.getMethodState());
+            if (allArgumentsKnown || vm.getMethodEmulator().canHandleUnknownValues(targetMethod.getDescriptor())) {
+                executeNonLocalMethod(dispatch, callerMethodState, nonLocalCalleeContext, node);
             } else {
                 if (log.isTraceEnabled()) {
                     log.trace("Not emulating / reflecting " + targetMethod + " because all args not known.");
                 }
                 assumeMaximumUnknown(callerMethodState);
             }
-        } else {
-            // This assumes if reflection or emulation fails, not worth it to try possibly cached framework classes.
-            ClassManager classManager = vm.getClassManager();
-            if (classManager.isLocalMethod(targetMethod)) {
-                if (classManager.isFramework(targetMethod) && !classManager.isSafeFramework(targetMethod)) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Not executing unsafe local method: " + targetMethod + ". Assuming maxiumum ambiguity.");
-                    }
-                    assumeMaximumUnknown(callerMethodState);
-                    return;
-                }
-
-                if (!classManager.methodHasImplementation(targetMethod)) {
-                    if (log.isWarnEnabled()) {
-                        if (!classManager.isNativeMethod(targetMethod)) {
-                            log.warn("Attempting to execute local method without implementation: " + targetMethod + ". Assuming maxiumum ambiguity.");
-                        } else {
-                            log.warn("Cannot execute local native method: " + targetMethod + ". Assuming maxiumum ambiguity.");
-                        }
-                    }
-                    assumeMaximumUnknown(callerMethodState);
-                    return;
-                }
-
-                ExecutionContext calleeContext = buildLocalCalleeContext(targetMethod, ectx);
-                executeLocalMethod(targetMethod, ectx, calleeContext);
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("Unknown method: " + targetMethod + ". Assuming maximum ambiguity.");
-                }
-                assumeMaximumUnknown(callerMethodState);
+            break;
+        case LOCAL:
+            ExecutionContext calleeContext = buildLocalCalleeContext(targetMethod, ectx);
+            executeLocalMethod(targetMethod, ectx, calleeContext, node);
+            break;
+        case UNSAFE_FRAMEWORK:
+            if (log.isDebugEnabled()) {
+                log.debug("Not executing unsafe local method: " + targetMethod + ". Assuming maxiumum ambiguity.");
+            }
+            assumeMaximumUnknown(callerMethodState);
+            break;
+        case NO_IMPLEMENTATION:
+            if (log.isWarnEnabled()) {
+                log.warn("Attempting to execute local method without implementation: " + targetMethod + ". Assuming maxiumum ambiguity.");
+            }
+            assumeMaximumUnknown(callerMethodState);
+            break;
+        case NATIVE:
+            if (log.isWarnEnabled()) {
+                log.warn("Cannot execute local native method: " + targetMethod + ". Assuming maxiumum ambiguity.");
             }
+            assumeMaximumUnknown(callerMethodState);
+            break;
+        case UNKNOWN:
+            if (log.isDebugEnabled()) {
+                log.debug("Unknown method: " + targetMethod + ". Assuming maximum ambiguity.");
+            }
+            assumeMaximumUnknown(callerMethodState);
+            break;
         }
 
         return;
@@ -167,7 +158,8 @@ public class InvokeOp extends ExecutionContextOp {
 
     @Override
     public SideEffect.Level getSideEffectLevel() {
-        return sideEffectLevel;
+        // Until a call is executed successfully, assume the worst
+        return SideEffect.Level.STRONG;
     }
 
     @Override
@@ -185,7 +177,7 @@ public class InvokeOp extends ExecutionContextOp {
                 sb.setLength(sb.length() - 2);
             }
         }
-        sb.append("}, ").append(methodDescriptor);
+        sb.append("}, ").append(method);
 
         return sb.toString();
     }
@@ -203,15 +195,20 @@ public class InvokeOp extends ExecutionContextOp {
         return true;
     }
 
-    private void assignCalleeMethodStateParameters(MethodState callerState, MethodState calleeState) {
+    private void assignCalleeMethodStateParameters(MethodState callerState, MethodState calleeState,
+                    boolean isMutatedInPlace) {
         int parameterRegister = calleeState.getParameterStart();
         for (int i = 0; i < parameterRegisters.length; i++) {
             int callerRegister = parameterRegisters[i];
             HeapItem item = callerState.readRegister(callerRegister);
+            if (isMutatedInPlace && item.isMutable()) {
+                // Reflected and emulated methods change arguments directly, so the caller needs its own copy.
+                item.getMutableValue();
+            }
             // Since we have explicit type, over ride any implied type as it may be inaccurate.
             // For example, might think it's an int when really it's a short or boolean.
             String type = parameterTypes.get(i);
-            calleeState.assignParameter(parameterRegister, new HeapItem(item.getValue(), type));
+            calleeState.assignParameter(parameterRegister, new HeapItem(item, type));
             parameterRegister += Utils.getRegisterSize(type);
         }
     }
@@ -230,7 +227,7 @@ public class InvokeOp extends ExecutionContextOp {
                 continue;
             }
 
-            boolean isInitializing = methodDescriptor.contains(";-><init>(");
+            boolean isInitializing = method.isConstructor();
             if (!isInitializing) {
                 // May be immutable type, but if this is the initializer, internal state would be changing.
                 if (ImmutableUtils.isImmutableClass(type)) {
@@ -263,11 +260,11 @@ public class InvokeOp extends ExecutionContextOp {
         }
     }
 
-    private ExecutionContext buildLocalCalleeContext(String methodDescriptor, ExecutionContext callerContext) {
-        ExecutionContext calleeContext = vm.spawnExecutionContext(methodDescriptor, callerContext, getAddress());
+    private ExecutionContext buildLocalCalleeContext(MethodRef method, ExecutionContext callerContext) {
+        ExecutionContext calleeContext = vm.spawnExecutionContext(method.getDescriptor(), callerContext, getAddress());
         MethodState callerMethodState = callerContext.getMethodState();
         MethodState calleeMethodState = calleeContext.getMethodState();
-        assignCalleeMethodStateParameters(callerMethodState, calleeMethodState);
+        assignCalleeMethodStateParameters(callerMethodState, calleeMethodState, false);
 
         // Class state merging is handled by the VM.
 
@@ -275,23 +272,25 @@ public class InvokeOp extends ExecutionContextOp {
     }
 
     private ExecutionContext buildNonLocalCalleeContext(ExecutionContext callerContext) {
-        ExecutionContext ectx = new ExecutionContext(vm, methodDescriptor);
+        ExecutionContext ectx = new ExecutionContext(vm, method.getDescriptor());
         int parameterSize = Utils.getRegisterSize(parameterTypes);
         int registerCount = parameterSize;
         MethodState calleeMethodState = new MethodState(ectx, registerCount, parameterTypes.size(), parameterSize);
-        assignCalleeMethodStateParameters(callerContext.getMethodState(), calleeMethodState);
+        assignCalleeMethodStateParameters(callerContext.getMethodState(), calleeMethodState, true);
         ectx.setMethodState(calleeMethodState);
         ectx.registerCaller(callerContext, getAddress());
 
         return ectx;
     }
 
-    private void executeLocalMethod(String methodDescriptor, ExecutionContext callerContext,
-                    ExecutionContext calleeContext) {
-        ExecutionGraph graph = null;
+    private void executeLocalMethod(MethodRef method, ExecutionContext callerContext,
+                    ExecutionContext calleeContext, ExecutionNode node) {
+        MethodSummary summary = null;
         try {
-            graph = vm.execute(methodDescriptor, calleeContext, callerContext, parameterRegisters);
-        } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded e) {
+            summary = vm.executeCallee(method.getDescriptor(), calleeContext, callerContext, parameterRegisters);
+        } catch (MaxAddressVisitsExceeded | MaxCallDepthExceeded | MaxMethodVisitsExceeded | MaxExecutionTimeExceeded
+                        | ExecutionBudgetExceeded e) {
+            // An exhausted budget stays exhausted, so the caller stops at its next check.
             if (log.isWarnEnabled()) {
                 log.warn(e.toString());
             }
@@ -302,41 +301,41 @@ public class InvokeOp extends ExecutionContextOp {
             }
         }
 
-        if (graph == null) {
+        if (summary == null) {
             // Problem executing the method. Maybe node visits or call depth exceeded?
-            log.info("Problem executing {}, propagating ambiguity.", methodDescriptor);
+            log.info("Problem executing {}, propagating ambiguity.", method);
             assumeMaximumUnknown(callerContext.getMethodState());
 
             return;
         }
 
         if (!returnType.equals("V")) {
-            HeapItem consensus = graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister);
+            HeapItem consensus = summary.getReturnItem(callerContext, parameterRegisters);
             callerContext.getMethodState().assignResultRegister(consensus);
         }
 
-        sideEffectLevel = graph.getHighestSideEffectLevel();
+        node.setSideEffectLevel(summary.getSideEffectLevel());
     }
 
-    private void executeNonLocalMethod(String methodDescriptor, MethodState callerContext,
+    private void executeNonLocalMethod(Dispatch dispatch, MethodState callerContext,
                     ExecutionContext calleeContext, ExecutionNode node) {
-        if (MethodEmulator.canEmulate(methodDescriptor)) {
-            MethodEmulator emulator = new MethodEmulator(vm, calleeContext, methodDescriptor);
-            emulator.emulate();
-            sideEffectLevel = emulator.getSideEffectLevel();
-            if (emulator.getExceptions().size() > 0) {
+        MethodRef method = dispatch.getTarget();
+        if (dispatch.getStrategy() == Strategy.EMULATE) {
+            EmulationResult result = vm.getMethodEmulator().emulate(calleeContext, method.getDescriptor());
+            node.setSideEffectLevel(result.getSideEffectLevel());
+            if (result.getExceptions().size() > 0) {
                 node.clearChildren();
-                node.setExceptions(emulator.getExceptions());
+                node.setExceptions(result.getExceptions());
                 return;
             }
-        } else if (MethodReflector.canReflect(methodDescriptor)) {
+        } else {
             assert allArgumentsKnown(calleeContext.getMethodState());
 
-            MethodReflector reflector = new MethodReflector(methodDescriptor, returnType, parameterTypes, isStatic);
+            MethodReflector reflector = new MethodReflector(method, returnType, parameterTypes, isStatic);
             reflector.reflect(calleeContext.getMethodState()); // playa play
 
             // Only safe, non-side-effect methods are allowed to be reflected.
-            sideEffectLevel = SideEffect.Level.NONE;
+            node.setSideEffectLevel(SideEffect.Level.NONE);
         }
 
         if (!isStatic) {
@@ -360,7 +359,58 @@ public class InvokeOp extends ExecutionContextOp {
         }
     }
 
-    private String getLocalTargetForVirtualMethod(Object value) {
+    /*
+     * Which method is called and how it's executed only depends on the invoked method and, for virtual calls, the
+     * receiver type, so it's decided once per VM.
+     */
+    private Dispatch getDispatch(ExecutionContext ectx) {
+        String receiverType = null;
+        if (getName().contains("-virtual")) { // -virtual/range
+            // Resolve what the actual virtual target is because method call may be to interface or abstract class.
+            int targetRegister = parameterRegisters[0];
+            HeapItem item = ectx.getMethodState().peekRegister(targetRegister);
+            receiverType = getReceiverType(item.getValue());
+        }
+
+        DispatchCache dispatchCache = vm.getDispatchCache();
+        Dispatch dispatch = dispatchCache.get(receiverType, method);
+        if (dispatch == null) {
+            int generation = dispatchCache.getGeneration();
+            MethodRef targetMethod = method;
+            if (receiverType != null) {
+                targetMethod = getLocalTargetForVirtualMethod(receiverType);
+            }
+            dispatch = new Dispatch(targetMethod, getStrategy(targetMethod), generation);
+            dispatchCache.put(receiverType, method, dispatch);
+        }
+
+        return dispatch;
+    }
+
+    private Strategy getStrategy(MethodRef targetMethod) {
+        // Try to emulate or reflect before using local class.
+        if (vm.getMethodEmulator().canEmulate(targetMethod.getDescriptor())) {
+            return Strategy.EMULATE;
+        } else if (MethodReflector.canReflect(targetMethod)) {
+            return Strategy.REFLECT;
+        }
+
+        // This assumes if reflection or emulation fails, not worth it to try possibly cached framework classes.
+        ClassManager classManager = vm.getClassManager();
+        if (!classManager.isLocalMethod(targetMethod)) {
+            return Strategy.UNKNOWN;
+        }
+        if (classManager.isFramework(targetMethod) && !classManager.isSafeFramework(targetMethod)) {
+            return Strategy.UNSAFE_FRAMEWORK;
+        }
+        if (!classManager.methodHasImplementation(targetMethod)) {
+            return classManager.isNativeMethod(targetMethod) ? Strategy.NATIVE : Strategy.NO_IMPLEMENTATION;
+        }
+
+        return Strategy.LOCAL;
+    }
+
+    private static String getReceiverType(Object value) {
         String actualType;
         if (value instanceof LocalType) {
             actualType = ((LocalType) value).getName();
@@ -371,28 +421,28 @@ public class InvokeOp extends ExecutionContextOp {
         if (SmaliClassUtils.isPrimitiveType(actualType)) {
             actualType = SmaliClassUtils.smaliPrimitiveToJavaWrapper(actualType);
         }
-        String methodSignature = methodDescriptor.split("->")[1];
+
+        return actualType;
+    }
+
+    private MethodRef getLocalTargetForVirtualMethod(String actualType) {
         ClassManager classManager = vm.getClassManager();
-        String targetMethod = getLocalTargetForVirtualMethod(actualType, methodSignature, classManager,
-                        new HashSet<String>());
+        MethodRef targetMethod = getLocalTargetForVirtualMethod(actualType, classManager, new HashSet<String>());
 
-        return targetMethod != null ? targetMethod : methodDescriptor;
+        return targetMethod != null ? targetMethod : method;
     }
 
-    private String getLocalTargetForVirtualMethod(String className, String methodSignature, ClassManager classManager,
-                    Set<String> visited) {
+    private MethodRef getLocalTargetForVirtualMethod(String className, ClassManager classManager, Set<String> visited) {
         visited.add(className);
-        StringBuilder sb = new StringBuilder(className);
-        sb.append("->").append(methodSignature);
-        String methodDescriptor = sb.toString();
+        MethodRef classMethod = method.withClassName(className);
 
-        boolean isLocalMethod = classManager.isLocalMethod(methodDescriptor);
-        if (isLocalMethod && classManager.methodHasImplementation(methodDescriptor)) {
-            return methodDescriptor;
+        boolean isLocalMethod = classManager.isLocalMethod(classMethod);
+        if (isLocalMethod && classManager.methodHasImplementation(classMethod)) {
+            return classMethod;
         }
 
-        if (MethodReflector.isSafe(methodDescriptor) && doesNonLocalMethodExist(className, methodSignature)) {
-            return methodDescriptor;
+        if (MethodReflector.isSafe(classMethod) && doesNonLocalMethodExist(classMethod)) {
+            return classMethod;
         }
 
         if (!classManager.isLocalClass(className)) {
@@ -412,7 +462,7 @@ public class InvokeOp extends ExecutionContextOp {
             if (visited.contains(parent)) {
                 continue;
             }
-            String target = getLocalTargetForVirtualMethod(parent, methodSignature, classManager, visited);
+            MethodRef target = getLocalTargetForVirtualMethod(parent, classManager, visited);
             if (null != target) {
                 return target;
             }
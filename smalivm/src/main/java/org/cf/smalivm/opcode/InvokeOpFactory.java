@@ -4,10 +4,12 @@ import gnu.trove.list.TIntList;
 import gnu.trove.list.linked.TIntLinkedList;
 import gnu.trove.map.TIntObjectMap;
 
+import java.util.LinkedList;
 import java.util.List;
 
 import org.cf.smalivm.ClassManager;
 import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.reference.MethodRef;
 import org.cf.util.Utils;
 import org.jf.dexlib2.builder.BuilderInstruction;
 import org.jf.dexlib2.builder.MethodLocation;
@@ -27,16 +29,16 @@ public class InvokeOpFactory implements OpFactory {
         String opName = instruction.getOpcode().name;
 
         MethodReference methodReference = (MethodReference) ((ReferenceInstruction) instruction).getReference();
-        String methodDescriptor = ReferenceUtil.getMethodDescriptor(methodReference);
+        MethodRef method = MethodRef.of(ReferenceUtil.getMethodDescriptor(methodReference));
 
         int[] registers = buildRegisters(location.getInstruction());
         String returnType = methodReference.getReturnType();
         boolean isStatic = opName.contains("-static");
         ClassManager classManager = vm.getClassManager();
-        List<String> parameterTypes = getParameterTypes(methodDescriptor, isStatic, classManager);
+        List<String> parameterTypes = getParameterTypes(method, isStatic, classManager);
         int[] parameterRegisters = buildParameterRegisters(parameterTypes, registers);
 
-        return new InvokeOp(location, child, methodDescriptor, returnType, parameterRegisters, parameterTypes, vm,
+        return new InvokeOp(location, child, method, returnType, parameterRegisters, parameterTypes, vm,
                         isStatic);
     }
 
@@ -54,15 +56,15 @@ public class InvokeOpFactory implements OpFactory {
         return parameterRegisters.toArray();
     }
 
-    private static List<String> getParameterTypes(String methodDescriptor, boolean isStatic, ClassManager classManager) {
+    private static List<String> getParameterTypes(MethodRef method, boolean isStatic, ClassManager classManager) {
         List<String> parameterTypes;
-        if (classManager.isLocalMethod(methodDescriptor) && !classManager.isFramework(methodDescriptor) || classManager
-                        .isSafeFramework(methodDescriptor)) {
-            parameterTypes = classManager.getParameterTypes(methodDescriptor);
+        if (classManager.isLocalMethod(method) && !classManager.isFramework(method) || classManager
+                        .isSafeFramework(method)) {
+            parameterTypes = classManager.getParameterTypes(method);
         } else {
-            parameterTypes = Utils.getParameterTypes(methodDescriptor);
+            parameterTypes = new LinkedList<String>(method.getParameterTypes());
             if (!isStatic) {
-                parameterTypes.add(0, methodDescriptor.split("->")[0]);
+                parameterTypes.add(0, method.getClassName());
             }
         }
 
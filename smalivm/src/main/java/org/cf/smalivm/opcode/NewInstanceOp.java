@@ -15,7 +15,6 @@ public class NewInstanceOp extends ExecutionContextOp {
 
     private final String className;
     private final int destRegister;
-    private SideEffect.Level sideEffectLevel;
     private final VirtualMachine vm;
 
     NewInstanceOp(MethodLocation location, MethodLocation child, int destRegister, String className, VirtualMachine vm) {
@@ -24,7 +23,6 @@ public class NewInstanceOp extends ExecutionContextOp {
         this.destRegister = destRegister;
         this.className = className;
         this.vm = vm;
-        sideEffectLevel = SideEffect.Level.STRONG;
     }
 
     @Override
@@ -33,11 +31,11 @@ public class NewInstanceOp extends ExecutionContextOp {
         if (vm.isLocalClass(className)) {
             // New-instance causes static initialization (but not new-array!)
             ectx.readClassState(className); // access will initialize if necessary
-            sideEffectLevel = ectx.getClassSideEffectLevel(className);
+            node.setSideEffectLevel(ectx.getClassSideEffectLevel(className));
             instance = new LocalInstance(className);
         } else {
             if (MethodReflector.isSafe(className)) {
-                sideEffectLevel = SideEffect.Level.NONE;
+                node.setSideEffectLevel(SideEffect.Level.NONE);
             }
             instance = new UninitializedInstance(className);
         }
@@ -49,7 +47,8 @@ public class NewInstanceOp extends ExecutionContextOp {
 
     @Override
     public SideEffect.Level getSideEffectLevel() {
-        return sideEffectLevel;
+        // Until executed, assume the class's static initializer has side effects
+        return SideEffect.Level.STRONG;
     }
 
     @Override
@@ -5,6 +5,7 @@ import org.cf.smalivm.context.ExecutionContext;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.reference.FieldRef;
 import org.jf.dexlib2.builder.MethodLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,20 +16,20 @@ public class SGetOp extends ExecutionContextOp {
     private static final Logger log = LoggerFactory.getLogger(SGetOp.class.getSimpleName());
 
     private final int destRegister;
-    private final String fieldDescriptor;
+    private final FieldRef field;
     private final VirtualMachine vm;
 
-    SGetOp(MethodLocation location, MethodLocation child, int destRegister, String fieldDescriptor, VirtualMachine vm) {
+    SGetOp(MethodLocation location, MethodLocation child, int destRegister, FieldRef field, VirtualMachine vm) {
         super(location, child);
 
         this.destRegister = destRegister;
-        this.fieldDescriptor = fieldDescriptor;
+        this.field = field;
         this.vm = vm;
     }
 
     @Override
     public void execute(ExecutionNode node, ExecutionContext ectx) {
-        HeapItem item = vm.getStaticFieldAccessor().getField(ectx, fieldDescriptor);
+        HeapItem item = vm.getStaticFieldAccessor().getField(ectx, field);
         MethodState mState = ectx.getMethodState();
         mState.assignRegister(destRegister, item);
     }
@@ -36,7 +37,7 @@ public class SGetOp extends ExecutionContextOp {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(getName());
-        sb.append(" r").append(destRegister).append(", ").append(fieldDescriptor);
+        sb.append(" r").append(destRegister).append(", ").append(field);
 
         return sb.toString();
     }
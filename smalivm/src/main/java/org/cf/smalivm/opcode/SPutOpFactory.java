@@ -3,6 +3,7 @@ package org.cf.smalivm.opcode;
 import gnu.trove.map.TIntObjectMap;
 
 import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.reference.FieldRef;
 import org.cf.util.Utils;
 import org.jf.dexlib2.builder.BuilderInstruction;
 import org.jf.dexlib2.builder.MethodLocation;
@@ -18,9 +19,9 @@ public class SPutOpFactory implements OpFactory {
         Instruction21c instr = (Instruction21c) (BuilderInstruction) location.getInstruction();
         int destRegister = instr.getRegisterA();
         FieldReference reference = (FieldReference) instr.getReference();
-        String fieldDescriptor = ReferenceUtil.getFieldDescriptor(reference);
+        FieldRef field = FieldRef.of(ReferenceUtil.getFieldDescriptor(reference));
 
-        return new SPutOp(location, child, destRegister, fieldDescriptor, vm);
+        return new SPutOp(location, child, destRegister, field, vm);
     }
 
 }
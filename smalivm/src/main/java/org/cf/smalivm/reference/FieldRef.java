@@ -0,0 +1,80 @@
+package org.cf.smalivm.reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An interned field reference, e.g. "Lsome/Class;->someField:I".
+ */
+public final class FieldRef extends MemberRef {
+
+    private static final ConcurrentMap<String, FieldRef> descriptorToField = new ConcurrentHashMap<String, FieldRef>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, FieldRef>> classNameToFields = new ConcurrentHashMap<String, ConcurrentMap<String, FieldRef>>();
+
+    /**
+     * @param fieldDescriptor
+     *            full field descriptor, e.g. "Lsome/Class;->someField:I"
+     * @return the one field reference for the descriptor
+     */
+    public static FieldRef of(String fieldDescriptor) {
+        FieldRef field = descriptorToField.get(fieldDescriptor);
+        if (field != null) {
+            return field;
+        }
+
+        int separator = fieldDescriptor.indexOf(CLASS_SEPARATOR);
+        if ((separator < 0) || (fieldDescriptor.indexOf(':', separator) < 0)) {
+            throw new IllegalArgumentException("Not a field descriptor: " + fieldDescriptor);
+        }
+        String className = fieldDescriptor.substring(0, separator);
+        String fieldNameAndType = fieldDescriptor.substring(separator + CLASS_SEPARATOR.length());
+        field = of(className, fieldNameAndType);
+        descriptorToField.putIfAbsent(fieldDescriptor, field);
+
+        return field;
+    }
+
+    /**
+     * @param className
+     * @param fieldNameAndType
+     *            field name and type, e.g. "someField:I"
+     * @return the one field reference for the class, name and type
+     */
+    public static FieldRef of(String className, String fieldNameAndType) {
+        ConcurrentMap<String, FieldRef> fields = classNameToFields.get(className);
+        if (fields != null) {
+            FieldRef field = fields.get(fieldNameAndType);
+            if (field != null) {
+                return field;
+            }
+        }
+
+        FieldRef field = intern(classNameToFields, className, fieldNameAndType, new FieldRef(className,
+                        fieldNameAndType));
+        descriptorToField.putIfAbsent(field.getDescriptor(), field);
+
+        return field;
+    }
+
+    private final String nameAndType;
+    private final String type;
+
+    private FieldRef(String className, String nameAndType) {
+        super(className, nameAndType.substring(0, nameAndType.indexOf(':')), className + CLASS_SEPARATOR
+                        + nameAndType);
+        this.nameAndType = nameAndType;
+        type = nameAndType.substring(nameAndType.indexOf(':') + 1);
+    }
+
+    /**
+     * @return field name and type, e.g. "someField:I"
+     */
+    public String getNameAndType() {
+        return nameAndType;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.cf.smalivm.reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A method or field of a class. References are interned, so each descriptor is only ever parsed once, and they're
+ * cheap to use as map keys since the hash is computed up front.
+ */
+public abstract class MemberRef {
+
+    static final String CLASS_SEPARATOR = "->";
+
+    /*
+     * Interned references by class name and then the part of the descriptor after the class. Looking up a member by
+     * class and signature doesn't need to build the descriptor unless the member has never been seen before.
+     */
+    static <T extends MemberRef> T intern(ConcurrentMap<String, ConcurrentMap<String, T>> classNameToMembers,
+                    String className, String member, T newRef) {
+        ConcurrentMap<String, T> members = classNameToMembers.get(className);
+        if (members == null) {
+            ConcurrentMap<String, T> newMembers = new ConcurrentHashMap<String, T>();
+            members = classNameToMembers.putIfAbsent(className, newMembers);
+            if (members == null) {
+                members = newMembers;
+            }
+        }
+
+        T ref = members.putIfAbsent(member, newRef);
+
+        return ref != null ? ref : newRef;
+    }
+
+    /**
+     * @param typeDescriptor
+     *            class name, or method or field descriptor
+     * @return class part of the descriptor
+     */
+    public static String getClassName(String typeDescriptor) {
+        int separator = typeDescriptor.indexOf(CLASS_SEPARATOR);
+        if (separator < 0) {
+            return typeDescriptor;
+        }
+
+        MemberRef ref;
+        if (typeDescriptor.indexOf('(', separator) < 0) {
+            ref = FieldRef.of(typeDescriptor);
+        } else {
+            ref = MethodRef.of(typeDescriptor);
+        }
+
+        return ref.getClassName();
+    }
+
+    private final String className;
+    private final String descriptor;
+    private final String name;
+    private final int hashCode;
+
+    MemberRef(String className, String name, String descriptor) {
+        this.className = className;
+        this.name = name;
+        this.descriptor = descriptor;
+        hashCode = descriptor.hashCode();
+    }
+
+    /**
+     * @return defining class, e.g. "Ljava/lang/Object;"
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public TypeRef getDefiningClass() {
+        return TypeRef.of(className);
+    }
+
+    /**
+     * @return full descriptor, e.g. "Ljava/lang/Object;->toString()Ljava/lang/String;"
+     */
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if ((obj == null) || (obj.getClass() != getClass())) {
+            return false;
+        }
+
+        return descriptor.equals(((MemberRef) obj).descriptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return descriptor;
+    }
+
+}
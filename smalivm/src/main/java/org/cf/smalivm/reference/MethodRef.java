@@ -0,0 +1,133 @@
+package org.cf.smalivm.reference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An interned method reference, e.g. "Ljava/lang/String;->valueOf(I)Ljava/lang/String;".
+ */
+public final class MethodRef extends MemberRef {
+
+    private static final ConcurrentMap<String, MethodRef> descriptorToMethod = new ConcurrentHashMap<String, MethodRef>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, MethodRef>> classNameToMethods = new ConcurrentHashMap<String, ConcurrentMap<String, MethodRef>>();
+
+    /**
+     * @param methodDescriptor
+     *            full method descriptor, e.g. "Lsome/Class;->someMethod(I)V"
+     * @return the one method reference for the descriptor
+     */
+    public static MethodRef of(String methodDescriptor) {
+        MethodRef method = descriptorToMethod.get(methodDescriptor);
+        if (method != null) {
+            return method;
+        }
+
+        int separator = methodDescriptor.indexOf(CLASS_SEPARATOR);
+        if ((separator < 0) || (methodDescriptor.indexOf('(', separator) < 0)) {
+            throw new IllegalArgumentException("Not a method descriptor: " + methodDescriptor);
+        }
+        String className = methodDescriptor.substring(0, separator);
+        String signature = methodDescriptor.substring(separator + CLASS_SEPARATOR.length());
+        method = of(className, signature);
+        descriptorToMethod.putIfAbsent(methodDescriptor, method);
+
+        return method;
+    }
+
+    /**
+     * @param className
+     * @param methodSignature
+     *            method name, parameters and return type, e.g. "someMethod(I)V"
+     * @return the one method reference for the class and signature
+     */
+    public static MethodRef of(String className, String methodSignature) {
+        ConcurrentMap<String, MethodRef> methods = classNameToMethods.get(className);
+        if (methods != null) {
+            MethodRef method = methods.get(methodSignature);
+            if (method != null) {
+                return method;
+            }
+        }
+
+        MethodRef method = intern(classNameToMethods, className, methodSignature, new MethodRef(className,
+                        methodSignature));
+        descriptorToMethod.putIfAbsent(method.getDescriptor(), method);
+
+        return method;
+    }
+
+    private static List<String> parseParameterTypes(String methodSignature, int start, int end) {
+        List<String> parameterTypes = new ArrayList<String>();
+        int index = start;
+        while (index < end) {
+            int typeStart = index;
+            while (methodSignature.charAt(index) == '[') {
+                index++;
+            }
+            if (methodSignature.charAt(index) == 'L') {
+                index = methodSignature.indexOf(';', index);
+            }
+            index++;
+            parameterTypes.add(methodSignature.substring(typeStart, index));
+        }
+
+        return Collections.unmodifiableList(parameterTypes);
+    }
+
+    private final String signature;
+    private final List<String> parameterTypes;
+    private final String returnType;
+
+    private MethodRef(String className, String signature) {
+        super(className, signature.substring(0, signature.indexOf('(')), className + CLASS_SEPARATOR + signature);
+        this.signature = signature;
+        int parametersStart = signature.indexOf('(') + 1;
+        int parametersEnd = signature.lastIndexOf(')');
+        parameterTypes = parseParameterTypes(signature, parametersStart, parametersEnd);
+        returnType = signature.substring(parametersEnd + 1);
+    }
+
+    /**
+     * Does not include the instance reference of non-static methods.
+     *
+     * @return declared parameter types
+     */
+    public List<String> getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public String getReturnType() {
+        return returnType;
+    }
+
+    /**
+     * @return method name, parameters and return type, e.g. "someMethod(I)V"
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    public boolean isConstructor() {
+        return "<init>".equals(getName());
+    }
+
+    public boolean isStaticInitializer() {
+        return "<clinit>".equals(getName());
+    }
+
+    public boolean returnsVoid() {
+        return "V".equals(returnType);
+    }
+
+    /**
+     * @param className
+     * @return reference to the method with the same signature in another class
+     */
+    public MethodRef withClassName(String className) {
+        return of(className, signature);
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.cf.smalivm.reference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An interned Smali type, e.g. "[Ljava/lang/String;", with its array dimensions and base type already parsed.
+ */
+public final class TypeRef {
+
+    private static final String PRIMITIVE_TYPES = "ZBSCIJFDV";
+    private static final ConcurrentMap<String, TypeRef> nameToType = new ConcurrentHashMap<String, TypeRef>();
+
+    /**
+     * @param name
+     *            Smali type descriptor
+     * @return the one type reference for the name
+     */
+    public static TypeRef of(String name) {
+        TypeRef type = nameToType.get(name);
+        if (type == null) {
+            TypeRef newType = new TypeRef(name);
+            type = nameToType.putIfAbsent(name, newType);
+            if (type == null) {
+                type = newType;
+            }
+        }
+
+        return type;
+    }
+
+    private final String name;
+    private final String baseType;
+    private final int dimensionCount;
+    private final boolean isPrimitive;
+
+    private TypeRef(String name) {
+        this.name = name;
+        int dimensions = 0;
+        while ((dimensions < name.length()) && (name.charAt(dimensions) == '[')) {
+            dimensions++;
+        }
+        dimensionCount = dimensions;
+        baseType = dimensions == 0 ? name : name.substring(dimensions);
+        isPrimitive = (baseType.length() == 1) && (PRIMITIVE_TYPES.indexOf(baseType.charAt(0)) >= 0);
+    }
+
+    /**
+     * @return type without any array dimensions, e.g. "I" for "[[I"
+     */
+    public String getBaseType() {
+        return baseType;
+    }
+
+    public int getDimensionCount() {
+        return dimensionCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isArray() {
+        return dimensionCount > 0;
+    }
+
+    /**
+     * @return true if the base type is primitive, e.g. "I" or "[I"
+     */
+    public boolean isPrimitive() {
+        return isPrimitive;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (!(obj instanceof TypeRef)) {
+            return false;
+        }
+
+        return name.equals(((TypeRef) obj).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -2,18 +2,32 @@ package org.cf.util;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.TokenSource;
 import org.antlr.runtime.tree.CommonTree;
 import org.antlr.runtime.tree.CommonTreeNodeStream;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MutableMethodImplementation;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
 import org.jf.dexlib2.writer.builder.BuilderClassDef;
+import org.jf.dexlib2.writer.builder.BuilderField;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
 import org.jf.dexlib2.writer.builder.DexBuilder;
 import org.jf.smali.LexerErrorInterface;
 import org.jf.smali.smaliFlexLexer;
@@ -28,6 +42,8 @@ public class Dexifier {
 
     private static final Logger log = LoggerFactory.getLogger(Dexifier.class.getSimpleName());
 
+    private static final String CLASSES_DEX = "classes.dex";
+
     public static BuilderClassDef dexifySmaliFile(File smaliFile, DexBuilder dexBuilder) throws Exception {
         if (log.isInfoEnabled()) {
             log.info("Dexifying: " + smaliFile);
@@ -98,4 +114,75 @@ public class Dexifier {
         return dexifySmaliFiles(new File(path), dexBuilder);
     }
 
+    /**
+     * Build a class from an already compiled dex, without going through Smali. The result is the same as if the class
+     * had been disassembled and then dexified.
+     *
+     * @param classDef
+     * @param dexBuilder
+     * @return class definition interned into dexBuilder
+     */
+    public static BuilderClassDef internClassDef(ClassDef classDef, DexBuilder dexBuilder) {
+        List<BuilderField> fields = new LinkedList<BuilderField>();
+        for (Field field : classDef.getFields()) {
+            fields.add(dexBuilder.internField(field.getDefiningClass(), field.getName(), field.getType(),
+                            field.getAccessFlags(), field.getInitialValue(), field.getAnnotations()));
+        }
+
+        List<BuilderMethod> methods = new LinkedList<BuilderMethod>();
+        for (Method method : classDef.getMethods()) {
+            MethodImplementation implementation = method.getImplementation();
+            if (implementation != null) {
+                // Everything else expects the same kind of implementation smali builds.
+                implementation = new MutableMethodImplementation(new InternedMethodImplementation(implementation,
+                                dexBuilder));
+            }
+            methods.add(dexBuilder.internMethod(method.getDefiningClass(), method.getName(), method.getParameters(),
+                            method.getReturnType(), method.getAccessFlags(), method.getAnnotations(), implementation));
+        }
+
+        return dexBuilder.internClassDef(classDef.getType(), classDef.getAccessFlags(), classDef.getSuperclass(),
+                        classDef.getInterfaces(), classDef.getSourceFile(), classDef.getAnnotations(), fields, methods);
+    }
+
+    /**
+     * Dex files are read into memory in one go. For APKs, and anything else that's a zip, classes.dex is read out of
+     * the archive.
+     *
+     * @param file
+     *            dex or APK
+     * @return dex file whose classes are decoded as they're accessed
+     * @throws IOException
+     */
+    public static DexBackedDexFile loadDexFile(File file) throws IOException {
+        byte[] bytes;
+        if (isZip(file)) {
+            bytes = readZipEntry(file, CLASSES_DEX);
+        } else {
+            bytes = Files.readAllBytes(file.toPath());
+        }
+
+        return new DexBackedDexFile(Opcodes.forApi(DEFAULT_API_LEVEL), bytes);
+    }
+
+    private static boolean isZip(File file) throws IOException {
+        byte[] magic = new byte[2];
+        try (InputStream is = new FileInputStream(file)) {
+            return (IOUtils.read(is, magic) == magic.length) && (magic[0] == 'P') && (magic[1] == 'K');
+        }
+    }
+
+    private static byte[] readZipEntry(File file, String entryName) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            ZipEntry entry = zipFile.getEntry(entryName);
+            if (entry == null) {
+                throw new IOException("No " + entryName + " in " + file);
+            }
+
+            try (InputStream is = zipFile.getInputStream(entry)) {
+                return IOUtils.toByteArray(is);
+            }
+        }
+    }
+
 }
@@ -1,21 +1,47 @@
 package org.cf.util;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.util.ReferenceUtil;
 import org.jf.dexlib2.writer.builder.BuilderClassDef;
 import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.FileDataStore;
 
+/**
+ * With no arguments, prints the framework class list for framework_classes.cfg. With a path, dexifies every framework
+ * class in reflib.zip once and writes them to a dex file there, which the class manager loads instead of parsing
+ * framework Smali. A hash of reflib.zip is written next to the dex so it's rebuilt when reflib.zip changes, along with
+ * the size and modification time of reflib.zip so it only needs to be hashed again when they change.
+ */
 public class FrameworkCacheBuilder {
 
     public static void main(String[] argv) throws Exception {
-        System.out.println(buildFrameworkCache());
+        if (argv.length > 0) {
+            File dexFile = new File(argv[0]);
+            int classCount = buildFrameworkDex(dexFile, getFrameworkVersion(), getFrameworkStamp());
+            System.out.println("Wrote " + classCount + " framework classes to " + dexFile);
+        } else {
+            System.out.println(buildFrameworkCache());
+        }
     }
 
     public static String buildFrameworkCache() throws Exception {
@@ -44,4 +70,145 @@ public class FrameworkCacheBuilder {
         return sb.toString();
     }
 
+    /**
+     * @return hash of reflib.zip, which identifies the framework classes a framework dex is built from
+     * @throws IOException
+     */
+    public static String getFrameworkVersion() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to hash reflib.zip", e);
+        }
+
+        InputStream is = FrameworkCacheBuilder.class.getClassLoader().getResourceAsStream("reflib.zip");
+        if (is == null) {
+            throw new IOException("reflib.zip not found");
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (DigestInputStream dis = new DigestInputStream(is, digest)) {
+            while (dis.read(buffer) != -1) {
+                // Only need the digest
+            }
+        }
+
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    /**
+     * @return size and modification time of reflib.zip, which are much cheaper to check than its hash
+     * @throws IOException
+     */
+    public static String getFrameworkStamp() throws IOException {
+        URL url = FrameworkCacheBuilder.class.getClassLoader().getResource("reflib.zip");
+        if (url == null) {
+            throw new IOException("reflib.zip not found");
+        }
+
+        URLConnection connection = url.openConnection();
+        try {
+            return connection.getContentLengthLong() + " " + connection.getLastModified();
+        } finally {
+            // Getting the metadata may have opened the file
+            connection.getInputStream().close();
+        }
+    }
+
+    /**
+     * @param dexFile
+     * @return file with the framework version the dex was built from, followed by the stamp of reflib.zip when its
+     *         version was last checked
+     */
+    public static File getVersionFile(File dexFile) {
+        return new File(dexFile.getPath() + ".version");
+    }
+
+    /**
+     * Atomically write the version file of a dex, so readers never see it partly written.
+     *
+     * @param dexFile
+     * @param frameworkVersion
+     * @param frameworkStamp
+     * @throws IOException
+     */
+    public static void writeVersionFile(File dexFile, String frameworkVersion, String frameworkStamp)
+                    throws IOException {
+        File tempFile = createTempFile(dexFile);
+        try {
+            FileUtils.writeStringToFile(tempFile, frameworkVersion + '\n' + frameworkStamp + '\n');
+            moveAtomically(tempFile, getVersionFile(dexFile));
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /*
+     * Temporary files are in the same directory as the dex so they can be moved into place atomically.
+     */
+    private static File createTempFile(File dexFile) throws IOException {
+        File parent = dexFile.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tempFile = File.createTempFile(dexFile.getName(), ".tmp", parent);
+        // In case the JVM exits before it's moved
+        tempFile.deleteOnExit();
+
+        return tempFile;
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Dexify all classes in framework_classes.cfg and write them to a single dex file, along with the framework version
+     * they were built from. Several processes may build the same dex at once, so each builds a temporary file and
+     * atomically moves it into place.
+     *
+     * @param dexFile
+     * @param frameworkVersion
+     *            from {@link #getFrameworkVersion()}
+     * @param frameworkStamp
+     *            from {@link #getFrameworkStamp()}
+     * @return number of classes written
+     * @throws Exception
+     */
+    public static int buildFrameworkDex(File dexFile, String frameworkVersion, String frameworkStamp)
+                    throws Exception {
+        Map<String, String> pathToClassName = new HashMap<String, String>();
+        for (String line : ConfigLoader.loadConfig("framework_classes.cfg")) {
+            String[] parts = line.split(":");
+            pathToClassName.put(parts[1], parts[0]);
+        }
+
+        // Read the zip once, in order, rather than searching it for every class.
+        DexBuilder dexBuilder = DexBuilder.makeDexBuilder(Opcodes.forApi(Dexifier.DEFAULT_API_LEVEL));
+        int classCount = 0;
+        InputStream is = FrameworkCacheBuilder.class.getClassLoader().getResourceAsStream("reflib.zip");
+        try (ZipInputStream zis = new ZipInputStream(is)) {
+            for (ZipEntry ze; (ze = zis.getNextEntry()) != null;) {
+                if (!pathToClassName.containsKey(ze.getName())) {
+                    continue;
+                }
+
+                Dexifier.dexifySmaliFile(ze.getName(), zis, dexBuilder);
+                classCount++;
+            }
+        }
+
+        // Write the version last so a dex from another version is never taken as current.
+        File tempFile = createTempFile(dexFile);
+        try {
+            getVersionFile(dexFile).delete();
+            dexBuilder.writeTo(new FileDataStore(tempFile));
+            moveAtomically(tempFile, dexFile);
+        } finally {
+            tempFile.delete();
+        }
+        writeVersionFile(dexFile, frameworkVersion, frameworkStamp);
+
+        return classCount;
+    }
+
 }
@@ -0,0 +1,264 @@
+package org.cf.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jf.dexlib2.DebugItemType;
+import org.jf.dexlib2.base.BaseExceptionHandler;
+import org.jf.dexlib2.base.BaseTryBlock;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction20bc;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction21c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction22c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction31c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction35c;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction3rc;
+import org.jf.dexlib2.iface.ExceptionHandler;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.TryBlock;
+import org.jf.dexlib2.iface.debug.DebugItem;
+import org.jf.dexlib2.iface.debug.SetSourceFile;
+import org.jf.dexlib2.iface.debug.StartLocal;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.formats.Instruction20bc;
+import org.jf.dexlib2.iface.instruction.formats.Instruction21c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction22c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction31c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction35c;
+import org.jf.dexlib2.iface.instruction.formats.Instruction3rc;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.writer.builder.BuilderStringReference;
+import org.jf.dexlib2.writer.builder.BuilderTypeReference;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+
+/**
+ * A method implementation from some other dex with every string, type, field, and method reference interned into a
+ * DexBuilder. DexBuilder can only write references it made itself, so implementations read from a dex must go through
+ * here before being wrapped in a MutableMethodImplementation.
+ */
+class InternedMethodImplementation implements MethodImplementation {
+
+    private final int registerCount;
+    private final List<Instruction> instructions;
+    private final List<TryBlock<? extends ExceptionHandler>> tryBlocks;
+    private final List<DebugItem> debugItems;
+
+    InternedMethodImplementation(MethodImplementation implementation, DexBuilder dexBuilder) {
+        registerCount = implementation.getRegisterCount();
+
+        instructions = new ArrayList<Instruction>();
+        for (Instruction instruction : implementation.getInstructions()) {
+            instructions.add(internInstruction(instruction, dexBuilder));
+        }
+
+        tryBlocks = new ArrayList<TryBlock<? extends ExceptionHandler>>();
+        for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+            tryBlocks.add(internTryBlock(tryBlock, dexBuilder));
+        }
+
+        debugItems = new ArrayList<DebugItem>();
+        for (DebugItem debugItem : implementation.getDebugItems()) {
+            debugItems.add(internDebugItem(debugItem, dexBuilder));
+        }
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    @Override
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    @Override
+    public List<TryBlock<? extends ExceptionHandler>> getTryBlocks() {
+        return tryBlocks;
+    }
+
+    @Override
+    public List<DebugItem> getDebugItems() {
+        return debugItems;
+    }
+
+    private static Instruction internInstruction(Instruction instruction, DexBuilder dexBuilder) {
+        switch (instruction.getOpcode().format) {
+        case Format20bc: {
+            Instruction20bc instr = (Instruction20bc) instruction;
+            Reference reference = dexBuilder.internReference(instr.getReference());
+
+            return new BuilderInstruction20bc(instr.getOpcode(), instr.getVerificationError(), reference);
+        }
+        case Format21c: {
+            Instruction21c instr = (Instruction21c) instruction;
+            Reference reference = dexBuilder.internReference(instr.getReference());
+
+            return new BuilderInstruction21c(instr.getOpcode(), instr.getRegisterA(), reference);
+        }
+        case Format22c: {
+            Instruction22c instr = (Instruction22c) instruction;
+            Reference reference = dexBuilder.internReference(instr.getReference());
+
+            return new BuilderInstruction22c(instr.getOpcode(), instr.getRegisterA(), instr.getRegisterB(), reference);
+        }
+        case Format31c: {
+            Instruction31c instr = (Instruction31c) instruction;
+            Reference reference = dexBuilder.internReference(instr.getReference());
+
+            return new BuilderInstruction31c(instr.getOpcode(), instr.getRegisterA(), reference);
+        }
+        case Format35c: {
+            Instruction35c instr = (Instruction35c) instruction;
+            Reference reference = dexBuilder.internReference(instr.getReference());
+
+            return new BuilderInstruction35c(instr.getOpcode(), instr.getRegisterCount(), instr.getRegisterC(),
+                            instr.getRegisterD(), instr.getRegisterE(), instr.getRegisterF(), instr.getRegisterG(),
+                            reference);
+        }
+        case Format3rc: {
+            Instruction3rc instr = (Instruction3rc) instruction;
+            Reference reference = dexBuilder.internReference(instr.getReference());
+
+            return new BuilderInstruction3rc(instr.getOpcode(), instr.getStartRegister(), instr.getRegisterCount(),
+                            reference);
+        }
+        default:
+            // No references
+            return instruction;
+        }
+    }
+
+    private static TryBlock<? extends ExceptionHandler> internTryBlock(final TryBlock<? extends ExceptionHandler> tryBlock,
+                    DexBuilder dexBuilder) {
+        final List<ExceptionHandler> handlers = new ArrayList<ExceptionHandler>();
+        for (final ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+            final BuilderTypeReference exceptionType = dexBuilder.internNullableTypeReference(handler
+                            .getExceptionType());
+            handlers.add(new BaseExceptionHandler() {
+                @Override
+                public String getExceptionType() {
+                    return handler.getExceptionType();
+                }
+
+                @Override
+                public TypeReference getExceptionTypeReference() {
+                    return exceptionType;
+                }
+
+                @Override
+                public int getHandlerCodeAddress() {
+                    return handler.getHandlerCodeAddress();
+                }
+            });
+        }
+
+        return new BaseTryBlock<ExceptionHandler>() {
+            @Override
+            public int getStartCodeAddress() {
+                return tryBlock.getStartCodeAddress();
+            }
+
+            @Override
+            public int getCodeUnitCount() {
+                return tryBlock.getCodeUnitCount();
+            }
+
+            @Override
+            public List<ExceptionHandler> getExceptionHandlers() {
+                return handlers;
+            }
+        };
+    }
+
+    private static DebugItem internDebugItem(DebugItem debugItem, DexBuilder dexBuilder) {
+        switch (debugItem.getDebugItemType()) {
+        case DebugItemType.START_LOCAL: {
+            final StartLocal startLocal = (StartLocal) debugItem;
+            final BuilderStringReference name = dexBuilder.internNullableStringReference(startLocal.getName());
+            final BuilderTypeReference type = dexBuilder.internNullableTypeReference(startLocal.getType());
+            final BuilderStringReference signature = dexBuilder.internNullableStringReference(startLocal
+                            .getSignature());
+
+            return new StartLocal() {
+                @Override
+                public int getDebugItemType() {
+                    return DebugItemType.START_LOCAL;
+                }
+
+                @Override
+                public int getCodeAddress() {
+                    return startLocal.getCodeAddress();
+                }
+
+                @Override
+                public int getRegister() {
+                    return startLocal.getRegister();
+                }
+
+                @Override
+                public String getName() {
+                    return startLocal.getName();
+                }
+
+                @Override
+                public String getType() {
+                    return startLocal.getType();
+                }
+
+                @Override
+                public String getSignature() {
+                    return startLocal.getSignature();
+                }
+
+                @Override
+                public StringReference getNameReference() {
+                    return name;
+                }
+
+                @Override
+                public TypeReference getTypeReference() {
+                    return type;
+                }
+
+                @Override
+                public StringReference getSignatureReference() {
+                    return signature;
+                }
+            };
+        }
+        case DebugItemType.SET_SOURCE_FILE: {
+            final SetSourceFile setSourceFile = (SetSourceFile) debugItem;
+            final BuilderStringReference sourceFile = dexBuilder.internNullableStringReference(setSourceFile
+                            .getSourceFile());
+
+            return new SetSourceFile() {
+                @Override
+                public int getDebugItemType() {
+                    return DebugItemType.SET_SOURCE_FILE;
+                }
+
+                @Override
+                public int getCodeAddress() {
+                    return setSourceFile.getCodeAddress();
+                }
+
+                @Override
+                public String getSourceFile() {
+                    return setSourceFile.getSourceFile();
+                }
+
+                @Override
+                public StringReference getSourceFileReference() {
+                    return sourceFile;
+                }
+            };
+        }
+        default:
+            // No references
+            return debugItem;
+        }
+    }
+
+}
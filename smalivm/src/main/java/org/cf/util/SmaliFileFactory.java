@@ -2,12 +2,18 @@ package org.cf.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.cf.smalivm.SmaliFile;
@@ -18,10 +24,27 @@ public class SmaliFileFactory {
 
     private static final Logger log = LoggerFactory.getLogger(SmaliFileFactory.class.getSimpleName());
 
+    // Below this, starting threads costs more than it saves
+    private static final int MIN_PARALLEL_FILES = 256;
+    private static final int PARALLEL_BATCH_SIZE = 64;
+
     private static Map<String, SmaliFile> frameworkCache;
 
+    private final int threads;
     private Map<String, SmaliFile> frameworkClassNameToSmaliFile;
 
+    public SmaliFileFactory() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads
+     *            maximum number of threads used to index input Smali files
+     */
+    public SmaliFileFactory(int threads) {
+        this.threads = threads;
+    }
+
     public Set<SmaliFile> getSmaliFiles(String path) throws IOException {
         return getSmaliFiles(new String[] { path });
     }
@@ -83,30 +106,95 @@ public class SmaliFileFactory {
     }
 
     public Set<SmaliFile> getSmaliFiles(File[] files) throws IOException {
+        List<File> matches = new ArrayList<File>();
+        for (File file : files) {
+            matches.addAll(getFilesWithSmaliExtension(file));
+        }
+
         Set<SmaliFile> smaliFiles = new HashSet<SmaliFile>();
+        if ((threads > 1) && (matches.size() >= MIN_PARALLEL_FILES)) {
+            smaliFiles.addAll(indexSmaliFilesInParallel(matches));
+        } else {
+            smaliFiles.addAll(indexSmaliFiles(matches));
+        }
+
         Set<String> inputClasses = new HashSet<String>();
-        for (File file : files) {
-            List<File> matches = getFilesWithSmaliExtension(file);
-            for (File match : matches) {
-                SmaliFile smaliFile = new SmaliFile(match);
-                smaliFiles.add(smaliFile);
-                inputClasses.add(smaliFile.getClassName());
-            }
+        for (SmaliFile smaliFile : smaliFiles) {
+            inputClasses.add(smaliFile.getClassName());
         }
+        smaliFiles.addAll(getFrameworkSmaliFiles(inputClasses));
 
+        return smaliFiles;
+    }
+
+    /**
+     * Input classes which aren't Smali files still need to hide framework classes of the same name.
+     *
+     * @param inputClasses
+     *            names of all input classes
+     * @return framework Smali files for classes which aren't input classes
+     * @throws IOException
+     */
+    public Set<SmaliFile> getFrameworkSmaliFiles(Set<String> inputClasses) throws IOException {
         cacheFramework();
 
         // Override framework classes with input classes of the same name
         frameworkClassNameToSmaliFile = new HashMap<String, SmaliFile>(frameworkCache);
-        List<Map.Entry<String, SmaliFile>> entriesToRemove = new LinkedList<Map.Entry<String, SmaliFile>>();
-        for (Map.Entry<String, SmaliFile> entry : frameworkClassNameToSmaliFile.entrySet()) {
-            if (inputClasses.contains(entry.getKey())) {
-                entriesToRemove.add(entry);
-            } else {
-                smaliFiles.add(entry.getValue());
+        frameworkClassNameToSmaliFile.keySet().removeAll(inputClasses);
+
+        return new HashSet<SmaliFile>(frameworkClassNameToSmaliFile.values());
+    }
+
+    private static List<SmaliFile> indexSmaliFiles(List<File> files) throws IOException {
+        List<SmaliFile> smaliFiles = new ArrayList<SmaliFile>(files.size());
+        for (File file : files) {
+            smaliFiles.add(new SmaliFile(file));
+        }
+
+        return smaliFiles;
+    }
+
+    /*
+     * Finding the class name means opening and reading each file. With tens of thousands of files from a large app,
+     * this is most of the time spent before anything executes.
+     */
+    private List<SmaliFile> indexSmaliFilesInParallel(List<File> files) throws IOException {
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<SmaliFile>>> futures = new ArrayList<Future<List<SmaliFile>>>();
+        for (int i = 0; i < files.size(); i += PARALLEL_BATCH_SIZE) {
+            final List<File> batch = files.subList(i, Math.min(i + PARALLEL_BATCH_SIZE, files.size()));
+            futures.add(executor.submit(new Callable<List<SmaliFile>>() {
+                @Override
+                public List<SmaliFile> call() throws IOException {
+                    return indexSmaliFiles(batch);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<SmaliFile> smaliFiles = new ArrayList<SmaliFile>(files.size());
+        try {
+            for (Future<List<SmaliFile>> future : futures) {
+                smaliFiles.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing Smali files", e);
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            throw new RuntimeException(cause);
+        }
+
+        if (log.isDebugEnabled()) {
+            long totalTime = System.currentTimeMillis() - startTime;
+            log.debug("Indexed {} Smali files with {} threads in {} ms.", smaliFiles.size(), threads, totalTime);
         }
-        frameworkClassNameToSmaliFile.entrySet().removeAll(entriesToRemove);
 
         return smaliFiles;
     }
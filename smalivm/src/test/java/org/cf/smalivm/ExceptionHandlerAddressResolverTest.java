@@ -3,6 +3,8 @@ package org.cf.smalivm;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
@@ -124,4 +126,39 @@ public class ExceptionHandlerAddressResolverTest {
         assertEquals(handlerCodeAddress2, actual);
     }
 
+    @Test
+    public void testAncestorsAreOnlyWalkedOnceForEachExceptionClass() {
+        int handlerCodeAddress = 20;
+
+        when(vex.getExceptionClass()).thenReturn(EXCEPTION3);
+
+        List<BuilderExceptionHandler> handlers = new LinkedList<BuilderExceptionHandler>();
+        handlers.add(buildHandler(handlerCodeAddress, EXCEPTION1));
+        tryBlocks.add(buildTryBlock(0, 10, handlers));
+
+        ExceptionHandlerAddressResolver exceptionResolver = new ExceptionHandlerAddressResolver(classManager, METHOD);
+        assertEquals(handlerCodeAddress, exceptionResolver.resolve(vex, 1));
+        assertEquals(handlerCodeAddress, exceptionResolver.resolve(vex, 2));
+
+        verify(classManager, times(1)).getClassAncestors(EXCEPTION3);
+    }
+
+    @Test
+    public void testUncaughtExceptionResolvesCatchAllOnlyInsideTryBlock() {
+        int handlerCodeAddress = 20;
+        int catchAllCodeAddress = 30;
+
+        when(vex.getExceptionClass()).thenReturn(EXCEPTION1);
+
+        List<BuilderExceptionHandler> handlers = new LinkedList<BuilderExceptionHandler>();
+        handlers.add(buildHandler(handlerCodeAddress, EXCEPTION3));
+        handlers.add(buildHandler(catchAllCodeAddress, null));
+        tryBlocks.add(buildTryBlock(0, 10, handlers));
+
+        ExceptionHandlerAddressResolver exceptionResolver = new ExceptionHandlerAddressResolver(classManager, METHOD);
+
+        assertEquals(catchAllCodeAddress, exceptionResolver.resolve(vex, 10));
+        assertEquals(-1, exceptionResolver.resolve(vex, 11));
+    }
+
 }
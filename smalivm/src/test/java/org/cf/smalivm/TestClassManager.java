@@ -1,12 +1,17 @@
 package org.cf.smalivm;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.cf.smalivm.exception.UnknownAncestors;
 import org.junit.BeforeClass;
@@ -121,6 +126,41 @@ public class TestClassManager {
         manager.isInstance(CHILD_CLASS, NON_EXISTENT_CLASS);
     }
 
+    @Test
+    public void testRepeatedQueriesHaveSameResult() throws UnknownAncestors {
+        for (int i = 0; i < 2; i++) {
+            assertTrue(manager.isInstance(CHILD_CLASS, GRANDPARENT_CLASS));
+            assertFalse(manager.isInstance(GRANDPARENT_CLASS, CHILD_CLASS));
+        }
+    }
+
+    @Test
+    public void testUnknownChildAlwaysThrowsUnknownAncestors() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                manager.isInstance(NON_EXISTENT_CLASS, PARENT_CLASS);
+                fail("Expected UnknownAncestors");
+            } catch (UnknownAncestors e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownChildIsInstanceOfItself() throws UnknownAncestors {
+        assertTrue(manager.isInstance(NON_EXISTENT_CLASS, NON_EXISTENT_CLASS));
+    }
+
+    @Test
+    public void testClassAncestorsAreCached() {
+        Set<String> ancestors = manager.getClassAncestors(CHILD_CLASS);
+        Set<String> expected = new HashSet<String>(Arrays.asList(CHILD_CLASS, PARENT_CLASS, GRANDPARENT_CLASS,
+                        "Ljava/lang/Object;"));
+
+        assertEquals(expected, ancestors);
+        assertSame(ancestors, manager.getClassAncestors(CHILD_CLASS));
+    }
+
     @Test
     public void testGetFieldsAndTypesReturnsFieldsFromSuperClasses() {
         List<String> fieldNameAndTypes = manager.getFieldNameAndTypes("Lchild_class;");
@@ -132,4 +172,12 @@ public class TestClassManager {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testDexifyNonFrameworkClassesLoadsAllInputClasses() throws IOException {
+        ClassManager eagerManager = new ClassManagerFactory().build(TEST_DIRECTORY);
+        eagerManager.dexifyNonFrameworkClasses(4);
+
+        assertEquals(eagerManager.getNonFrameworkClassNames(), eagerManager.getLoadedClassNames());
+    }
+
 }
@@ -0,0 +1,114 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.util.Dexifier;
+import org.jf.dexlib2.builder.BuilderInstruction;
+import org.jf.dexlib2.builder.MutableMethodImplementation;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestClassManagerFactory {
+
+    private static final String TEST_DIRECTORY = "resources/test";
+
+    private static File dexFile;
+    private static ClassManager dexManager;
+    private static ClassManager smaliManager;
+
+    @BeforeClass
+    public static void getClassManagers() throws Exception {
+        DexBuilder dexBuilder = VMTester.getDexBuilder();
+        Dexifier.dexifySmaliFiles(TEST_DIRECTORY, dexBuilder);
+        dexFile = File.createTempFile("input", ".dex");
+        dexBuilder.writeTo(new FileDataStore(dexFile));
+
+        dexManager = new ClassManagerFactory().build(dexFile, VMTester.getDexBuilder());
+        smaliManager = new ClassManagerFactory().build(TEST_DIRECTORY);
+    }
+
+    @AfterClass
+    public static void deleteDexFile() {
+        dexFile.delete();
+    }
+
+    private static List<String> getOpcodeNames(BuilderMethod method) {
+        List<String> names = new ArrayList<String>();
+        MutableMethodImplementation implementation = (MutableMethodImplementation) method.getImplementation();
+        if (implementation != null) {
+            for (BuilderInstruction instruction : implementation.getInstructions()) {
+                names.add(instruction.getOpcode().name);
+            }
+        }
+
+        return names;
+    }
+
+    private static int getTryBlockCount(BuilderMethod method) {
+        MutableMethodImplementation implementation = (MutableMethodImplementation) method.getImplementation();
+
+        return implementation == null ? 0 : implementation.getTryBlocks().size();
+    }
+
+    @Test
+    public void dexInputHasSameClassesAsSmali() {
+        assertEquals(smaliManager.getNonFrameworkClassNames(), dexManager.getNonFrameworkClassNames());
+    }
+
+    @Test
+    public void dexInputHasSameMethodsAsSmali() {
+        for (String className : smaliManager.getNonFrameworkClassNames()) {
+            assertEquals(smaliManager.getMethodDescriptors(className), dexManager.getMethodDescriptors(className));
+            for (String methodDescriptor : smaliManager.getMethodDescriptors(className)) {
+                BuilderMethod expected = smaliManager.getMethod(methodDescriptor);
+                BuilderMethod actual = dexManager.getMethod(methodDescriptor);
+
+                assertEquals(methodDescriptor, getOpcodeNames(expected), getOpcodeNames(actual));
+                assertEquals(methodDescriptor, getTryBlockCount(expected), getTryBlockCount(actual));
+            }
+        }
+    }
+
+    @Test
+    public void dexInputCanBeWrittenOut() throws Exception {
+        for (String className : dexManager.getNonFrameworkClassNames()) {
+            dexManager.getClass(className);
+        }
+        File outFile = File.createTempFile("output", ".dex");
+        try {
+            dexManager.getDexBuilder().writeTo(new FileDataStore(outFile));
+            ClassManager manager = new ClassManagerFactory().build(outFile, VMTester.getDexBuilder());
+
+            assertEquals(dexManager.getNonFrameworkClassNames(), manager.getNonFrameworkClassNames());
+        } finally {
+            outFile.delete();
+        }
+    }
+
+    @Test
+    public void dexInputArrayDataIsFilled() {
+        VirtualMachine vm = new VirtualMachineFactory().build(dexManager);
+        Map<String, Map<String, HeapItem>> classNameToFieldItem = new HashMap<String, Map<String, HeapItem>>(0);
+        ExecutionGraph graph = VMTester.execute(vm, "Lfill_array_data_test;", "TestFillArrayDataByte()V",
+                        VMTester.buildRegisterState(0, new byte[4], "[B"), classNameToFieldItem);
+
+        assertNotNull(graph);
+        byte[] expected = new byte[] { 0xa, 0xb, 0xc, 0xd };
+        assertArrayEquals(expected, (byte[]) graph.getTerminatingRegisterConsensus(0).getValue());
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.cf.smalivm.context.ClassState;
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.exception.VirtualMachineException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCollapseMultiverse {
+
+    private static final String CLASS_NAME = "Lnested_calls_test;";
+    private static final String CALLEE_DESCRIPTOR = CLASS_NAME + "->setCounterThroughNestedCall()V";
+    private static final String UNTOUCHED_CLASS_NAME = "Lsget_test;";
+
+    private VirtualMachine vm;
+    private ExecutionContext callerContext;
+
+    private ClassState initializeClass(String className, String fieldNameAndType, Object value) {
+        ClassState cState = callerContext.peekClassState(className);
+        cState.pokeField(fieldNameAndType, value);
+        callerContext.initializeClass(className, cState, SideEffect.Level.NONE);
+
+        return cState;
+    }
+
+    private ExecutionGraph executeCallee() throws VirtualMachineException {
+        ExecutionContext calleeContext = vm.spawnExecutionContext(CALLEE_DESCRIPTOR, callerContext, 0);
+
+        return vm.execute(CALLEE_DESCRIPTOR, calleeContext, callerContext, new int[0]);
+    }
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+        callerContext = vm.spawnExecutionContext(CALLEE_DESCRIPTOR);
+    }
+
+    @Test
+    public void testStaticFieldChangedByNestedCalleeIsMergedIntoCaller() throws VirtualMachineException {
+        ClassState cState = initializeClass(CLASS_NAME, "counter:I", 0);
+        executeCallee();
+
+        assertSame(cState, callerContext.peekClassState(CLASS_NAME));
+        assertEquals(3, cState.peekField("counter:I").getValue());
+    }
+
+    @Test
+    public void testUntouchedClassIsNotMergedIntoCaller() throws VirtualMachineException {
+        initializeClass(CLASS_NAME, "counter:I", 0);
+        ClassState untouchedClassState = initializeClass(UNTOUCHED_CLASS_NAME, "myInt:I", 1);
+        ExecutionGraph graph = executeCallee();
+
+        assertEquals(Collections.singleton(CLASS_NAME), graph.getTouchedClassNames());
+        assertSame(untouchedClassState, callerContext.findClassState(UNTOUCHED_CLASS_NAME));
+        assertEquals(1, untouchedClassState.peekField("myInt:I").getValue());
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.cf.smalivm.DispatchCache.Dispatch;
+import org.cf.smalivm.DispatchCache.Strategy;
+import org.cf.smalivm.emulate.org_cf_simplify_Utils_breakpoint;
+import org.cf.smalivm.reference.MethodRef;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDispatchCache {
+
+    private static final String CLASS_NAME = "Lsome/Class;";
+    private static final MethodRef METHOD = MethodRef.of(CLASS_NAME, "someMethod()V");
+
+    private VirtualMachine vm;
+    private DispatchCache dispatchCache;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+        dispatchCache = vm.getDispatchCache();
+    }
+
+    @Test
+    public void testDispatchIsCachedByReceiverType() {
+        Dispatch dispatch = new Dispatch(METHOD, Strategy.LOCAL, dispatchCache.getGeneration());
+        dispatchCache.put(CLASS_NAME, METHOD, dispatch);
+
+        assertSame(dispatch, dispatchCache.get(CLASS_NAME, METHOD));
+        assertNull(dispatchCache.get(null, METHOD));
+    }
+
+    @Test
+    public void testDispatchDecidedBeforeEmulatedMethodsChangedIsNotCached() {
+        int generation = dispatchCache.getGeneration();
+        vm.getMethodEmulator().addMethod(CLASS_NAME + "->someMethod()V", new org_cf_simplify_Utils_breakpoint());
+        // Another thread sees the change and clears the cache
+        assertNull(dispatchCache.get(null, METHOD));
+
+        dispatchCache.put(null, METHOD, new Dispatch(METHOD, Strategy.LOCAL, generation));
+
+        assertNull(dispatchCache.get(null, METHOD));
+    }
+
+}
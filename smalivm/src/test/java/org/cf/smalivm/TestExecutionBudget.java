@@ -0,0 +1,82 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.exception.ExecutionBudgetExceeded;
+import org.cf.smalivm.exception.MaxExecutionTimeExceeded;
+import org.cf.smalivm.exception.VirtualMachineException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestExecutionBudget {
+
+    // const, const, 3 x (if, add, goto), if, return
+    private static final String METHOD_DESCRIPTOR = "Lstate_merging_test;->countToThree()I";
+    private static final int NODE_COUNT = 13;
+
+    private VirtualMachine vm;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+    }
+
+    @Test
+    public void testUnlimitedBudgetCountsNodes() throws VirtualMachineException {
+        ExecutionBudget budget = ExecutionBudget.unlimited();
+        ExecutionGraph graph = vm.execute(METHOD_DESCRIPTOR, budget);
+
+        assertNotNull(graph);
+        assertEquals(NODE_COUNT, budget.getNodeCount());
+    }
+
+    @Test
+    public void testBudgetIsSharedBetweenExecutions() throws VirtualMachineException {
+        ExecutionBudget budget = new ExecutionBudget(2 * NODE_COUNT, 1, TimeUnit.MINUTES, ExecutionBudget.UNLIMITED);
+        vm.execute(METHOD_DESCRIPTOR, budget);
+        vm.execute(METHOD_DESCRIPTOR, budget);
+
+        assertEquals(2 * NODE_COUNT, budget.getNodeCount());
+    }
+
+    @Test(expected = ExecutionBudgetExceeded.class)
+    public void testExceedingNodeBudgetThrowsException() throws VirtualMachineException {
+        ExecutionBudget budget = new ExecutionBudget(NODE_COUNT - 1, ExecutionBudget.UNLIMITED, TimeUnit.SECONDS,
+                        ExecutionBudget.UNLIMITED);
+        vm.execute(METHOD_DESCRIPTOR, budget);
+    }
+
+    @Test(expected = MaxExecutionTimeExceeded.class)
+    public void testExceedingTimeBudgetThrowsException() throws VirtualMachineException {
+        ExecutionBudget budget = new ExecutionBudget(ExecutionBudget.UNLIMITED, 1, TimeUnit.NANOSECONDS,
+                        ExecutionBudget.UNLIMITED);
+        vm.execute(METHOD_DESCRIPTOR, budget);
+    }
+
+    @Test
+    public void testCancelledBudgetStopsExecution() throws Exception {
+        final ExecutionBudget budget = ExecutionBudget.unlimited();
+        Thread canceller = new Thread() {
+            @Override
+            public void run() {
+                budget.cancel();
+            }
+        };
+        canceller.start();
+        canceller.join();
+
+        assertTrue(budget.isCancelled());
+        try {
+            vm.execute(METHOD_DESCRIPTOR, budget);
+        } catch (ExecutionBudgetExceeded e) {
+            return;
+        }
+        throw new AssertionError("Execution wasn't cancelled");
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.cf.util.Dexifier;
+import org.cf.util.FrameworkCacheBuilder;
+import org.jf.dexlib2.builder.BuilderInstruction;
+import org.jf.dexlib2.builder.MutableMethodImplementation;
+import org.jf.dexlib2.util.ReferenceUtil;
+import org.jf.dexlib2.writer.builder.BuilderClassDef;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.jf.dexlib2.writer.builder.DexBuilder;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestFrameworkDex {
+
+    private static final String TEST_DIRECTORY = "resources/test/smalivm";
+    private static final String CLASS_NAME = "Lchild_class;";
+
+    private static File dexFile;
+    private static FrameworkDex frameworkDex;
+
+    @BeforeClass
+    public static void buildFrameworkDex() throws Exception {
+        DexBuilder dexBuilder = DexBuilder.makeDexBuilder();
+        for (File smaliFile : new File(TEST_DIRECTORY).listFiles()) {
+            if (smaliFile.getName().endsWith(".smali")) {
+                Dexifier.dexifySmaliFile(smaliFile, dexBuilder);
+            }
+        }
+        dexFile = File.createTempFile("framework", ".dex");
+        dexBuilder.writeTo(new FileDataStore(dexFile));
+
+        frameworkDex = FrameworkDex.load(dexFile);
+    }
+
+    @AfterClass
+    public static void deleteFrameworkDex() {
+        dexFile.delete();
+        FrameworkCacheBuilder.getVersionFile(dexFile).delete();
+    }
+
+    private static List<String> getOpcodeNames(BuilderMethod method) {
+        List<String> names = new ArrayList<String>();
+        MutableMethodImplementation implementation = (MutableMethodImplementation) method.getImplementation();
+        if (implementation != null) {
+            for (BuilderInstruction instruction : implementation.getInstructions()) {
+                names.add(instruction.getOpcode().name);
+            }
+        }
+
+        return names;
+    }
+
+    @Test
+    public void missingFileIsNotLoaded() {
+        assertNull(FrameworkDex.load(new File("this_certainly_wont_exist.dex")));
+    }
+
+    @Test
+    public void dexIsOnlyCurrentForVersionItWasBuiltFrom() throws IOException {
+        File versionFile = FrameworkCacheBuilder.getVersionFile(dexFile);
+        versionFile.delete();
+        assertFalse(FrameworkDex.isCurrent(dexFile, "1234"));
+
+        FileUtils.writeStringToFile(versionFile, "1234\n");
+        assertTrue(FrameworkDex.isCurrent(dexFile, "1234"));
+        assertFalse(FrameworkDex.isCurrent(dexFile, "5678"));
+    }
+
+    @Test
+    public void stampIsOnlyCurrentForStampVersionWasWrittenWith() throws IOException {
+        FrameworkCacheBuilder.writeVersionFile(dexFile, "1234", "100 200");
+
+        assertTrue(FrameworkDex.isCurrent(dexFile, "1234"));
+        assertTrue(FrameworkDex.isStampCurrent(dexFile, "100 200"));
+        assertFalse(FrameworkDex.isStampCurrent(dexFile, "100 300"));
+    }
+
+    @Test
+    public void unknownClassIsNotInterned() {
+        assertNull(frameworkDex.internClass("Lthis_certainly_wont_exist;", DexBuilder.makeDexBuilder()));
+    }
+
+    @Test
+    public void internedClassMatchesDexifiedSmali() throws Exception {
+        BuilderClassDef expected = Dexifier.dexifySmaliFile(new File(TEST_DIRECTORY, "child_class.smali"),
+                        DexBuilder.makeDexBuilder());
+        BuilderClassDef actual = frameworkDex.internClass(CLASS_NAME, DexBuilder.makeDexBuilder());
+
+        assertNotNull(actual);
+        assertEquals(expected.getSuperclass(), actual.getSuperclass());
+        assertEquals(expected.getInterfaces(), actual.getInterfaces());
+        assertEquals(expected.getFields().size(), actual.getFields().size());
+        assertEquals(expected.getMethods().size(), actual.getMethods().size());
+        for (BuilderMethod expectedMethod : expected.getMethods()) {
+            String methodDescriptor = ReferenceUtil.getMethodDescriptor(expectedMethod);
+            BuilderMethod actualMethod = null;
+            for (BuilderMethod method : actual.getMethods()) {
+                if (methodDescriptor.equals(ReferenceUtil.getMethodDescriptor(method))) {
+                    actualMethod = method;
+                }
+            }
+
+            assertNotNull(methodDescriptor, actualMethod);
+            assertEquals(getOpcodeNames(expectedMethod), getOpcodeNames(actualMethod));
+        }
+    }
+
+    @Test
+    public void classManagerLoadsFrameworkClassesFromDex() throws IOException {
+        ClassManager manager = new ClassManager(new File(TEST_DIRECTORY, "simple_loop.smali"),
+                        DexBuilder.makeDexBuilder(), frameworkDex);
+
+        assertTrue(manager.isLocalClass("Lsimple_loop;"));
+        assertNotNull(manager.getMethod("Lsimple_loop;->simpleLoop()V"));
+    }
+
+}
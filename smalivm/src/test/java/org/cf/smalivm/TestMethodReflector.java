@@ -54,4 +54,23 @@ public class TestMethodReflector {
         VMTester.testMethodState(CLASS_NAME, "ByteValueOfByte()V", initial, expected);
     }
 
+    @Test
+    public void testStringCharAtIsReflectedEachTime() {
+        for (int i = 0; i < 2; i++) {
+            TIntObjectMap<HeapItem> initial = VMTester.buildRegisterState(0, "abc", "Ljava/lang/String;", 1, i, "I");
+            TIntObjectMap<HeapItem> expected = VMTester.buildRegisterState(0, "abc".charAt(i), "C");
+
+            VMTester.testMethodState(CLASS_NAME, "StringCharAt()V", initial, expected);
+        }
+    }
+
+    @Test
+    public void testStringValueOfObjectWithInteger() {
+        Integer value = 5;
+        TIntObjectMap<HeapItem> initial = VMTester.buildRegisterState(0, value, "Ljava/lang/Integer;");
+        TIntObjectMap<HeapItem> expected = VMTester.buildRegisterState(0, String.valueOf(value), "Ljava/lang/String;");
+
+        VMTester.testMethodState(CLASS_NAME, "StringValueOfObject()V", initial, expected);
+    }
+
 }
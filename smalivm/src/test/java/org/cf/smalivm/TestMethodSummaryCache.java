@@ -0,0 +1,168 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMethodSummaryCache {
+
+    private static final String CLASS_NAME = "Linvoke_static_test;";
+    private static final String CALLER_SIGNATURE = "InvokeSet0thElementOfFirstParameterTo0IfSecondParameterIs0()V";
+    private static final String CALLEE_DESCRIPTOR = CLASS_NAME
+                    + "->Set0thElementOfFirstParameterTo0IfSecondParameterIs0([II)V";
+
+    private VirtualMachine vm;
+    private MethodSummaryCache cache;
+
+    private int[] executeCaller(int element, int condition) {
+        Map<String, Map<String, HeapItem>> classNameToFieldItem = new HashMap<String, Map<String, HeapItem>>(0);
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, CALLER_SIGNATURE,
+                        VMTester.buildRegisterState(0, new int[] { element }, "[I", 1, condition, "I"),
+                        classNameToFieldItem);
+
+        return (int[]) graph.getTerminatingRegisterConsensus(0).getValue();
+    }
+
+    private String executeReturnField(String className, String fieldNameAndType, Object value) {
+        Map<String, Map<String, HeapItem>> classNameToFieldItem = VMTester.buildClassNameToFieldItem(className,
+                        fieldNameAndType, value);
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "InvokeReturnUninitializedField()V",
+                        VMTester.buildRegisterState(), classNameToFieldItem);
+
+        return (String) graph.getTerminatingRegisterConsensus(MethodState.ResultRegister).getValue();
+    }
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+        cache = vm.getMethodSummaryCache();
+    }
+
+    @Test
+    public void testRepeatedCallIsReplayedWithSameResult() {
+        int[] first = executeCaller(5, 0);
+        int[] second = executeCaller(5, 0);
+
+        assertArrayEquals(new int[] { 0 }, first);
+        assertArrayEquals(new int[] { 0 }, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testCallWithDifferentArgumentsIsExecuted() {
+        assertArrayEquals(new int[] { 0 }, executeCaller(5, 0));
+        assertArrayEquals(new int[] { 5 }, executeCaller(5, 1));
+        assertArrayEquals(new int[] { 7 }, executeCaller(7, 1));
+
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.getHits());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSummaryIsEvicted() {
+        cache.setMaxSize(2);
+        executeCaller(5, 0);
+        executeCaller(5, 1);
+        executeCaller(5, 0);
+        executeCaller(7, 1);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        // (5, 0) was used more recently than (5, 1)
+        executeCaller(5, 0);
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testUpdatingInstructionGraphInvalidatesSummaries() {
+        executeCaller(5, 0);
+        assertEquals(1, cache.size());
+
+        vm.updateInstructionGraph(CALLEE_DESCRIPTOR);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCallWhichChangesClassStateIsNotCached() {
+        Map<String, Map<String, HeapItem>> classNameToFieldItem = VMTester.buildClassNameToFieldItem(CLASS_NAME,
+                        "mutable:[I", new int[] { 5 });
+        VMTester.execute(vm, CLASS_NAME, "InvokeMutateStaticClassField()V", VMTester.buildRegisterState(),
+                        classNameToFieldItem);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testZeroMaxSizeDisablesSummaries() {
+        cache.setMaxSize(0);
+        executeCaller(5, 0);
+        executeCaller(5, 0);
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testCallIsReplayedWhenClassItDoesNotLookUpDiffers() {
+        executeCaller(5, 0);
+        Map<String, Map<String, HeapItem>> classNameToFieldItem = VMTester.buildClassNameToFieldItem("Lsget_test;",
+                        "myInt:I", 7);
+        ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, CALLER_SIGNATURE,
+                        VMTester.buildRegisterState(0, new int[] { 5 }, "[I", 1, 0, "I"), classNameToFieldItem);
+
+        assertArrayEquals(new int[] { 0 }, (int[]) graph.getTerminatingRegisterConsensus(0).getValue());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testCallIsExecutedWhenFieldItLooksUpDiffers() {
+        String fieldNameAndType = "not_initialized:Ljava/lang/String;";
+        assertEquals("first", executeReturnField(CLASS_NAME, fieldNameAndType, "first"));
+        assertEquals("second", executeReturnField(CLASS_NAME, fieldNameAndType, "second"));
+        assertEquals(0, cache.getHits());
+
+        assertEquals("second", executeReturnField(CLASS_NAME, fieldNameAndType, "second"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testReplaysDoNotShareMutableValues() {
+        int[] returned = new int[] { 3 };
+        int[] consensus = new int[] { 0 };
+        MethodSummary summary = new MethodSummary(new HeapItem(returned, "[I"), -1, new HeapItem[] {
+                        new HeapItem(consensus, "[I"), null }, new boolean[] { false, false }, SideEffect.Level.NONE);
+
+        HeapItem firstReturn = summary.getReturnItem(null, null);
+        HeapItem secondReturn = summary.getReturnItem(null, null);
+        assertNotSame(firstReturn.getValue(), secondReturn.getValue());
+        assertNotSame(returned, firstReturn.getValue());
+        assertArrayEquals(returned, (int[]) firstReturn.getValue());
+
+        int[] parameterRegisters = new int[] { 0, 1 };
+        ExecutionContext firstContext = vm.spawnExecutionContext(CALLEE_DESCRIPTOR);
+        ExecutionContext secondContext = vm.spawnExecutionContext(CALLEE_DESCRIPTOR);
+        summary.apply(firstContext, Arrays.asList("[I", "I"), parameterRegisters);
+        summary.apply(secondContext, Arrays.asList("[I", "I"), parameterRegisters);
+        Object firstValue = firstContext.getMethodState().peekRegister(0).getValue();
+        Object secondValue = secondContext.getMethodState().peekRegister(0).getValue();
+        assertNotSame(firstValue, secondValue);
+        assertNotSame(consensus, firstValue);
+        assertArrayEquals(consensus, (int[]) secondValue);
+    }
+
+}
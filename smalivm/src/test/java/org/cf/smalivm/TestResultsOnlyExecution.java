@@ -0,0 +1,91 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.ExecutionNode;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.exception.VirtualMachineException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestResultsOnlyExecution {
+
+    private static final String CLASS_NAME = "Lnested_calls_test;";
+    private static final String METHOD_DESCRIPTOR = CLASS_NAME + "->sumCounterThroughNestedCalls()I";
+    private static final int LOOP_ADDRESS = 3;
+    private static final int RETURN_ADDRESS = 14;
+
+    private VirtualMachine vm;
+    private ExecutionContext callerContext;
+
+    private ExecutionGraph executeAsCallee() throws VirtualMachineException {
+        ExecutionContext calleeContext = vm.spawnExecutionContext(METHOD_DESCRIPTOR, callerContext, 0);
+
+        return vm.execute(METHOD_DESCRIPTOR, calleeContext, callerContext, new int[0]);
+    }
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+        callerContext = vm.spawnExecutionContext(CLASS_NAME + "->setCounterThroughNestedCall()V");
+    }
+
+    @Test
+    public void testCalleeGraphKeepsEveryNodeByDefault() throws VirtualMachineException {
+        ExecutionGraph graph = executeAsCallee();
+
+        assertFalse(graph.isResultsOnly());
+        assertEquals(4, graph.getNodePile(LOOP_ADDRESS).size());
+    }
+
+    @Test
+    public void testCalleeGraphOnlyKeepsResults() throws VirtualMachineException {
+        vm.setRetainingOnlyResults(true);
+        ExecutionGraph graph = executeAsCallee();
+
+        assertTrue(graph.isResultsOnly());
+        assertEquals(1, graph.getNodePile(LOOP_ADDRESS).size());
+        assertEquals(1, graph.getNodePile(RETURN_ADDRESS).size());
+        assertTrue(graph.wasAddressReached(LOOP_ADDRESS));
+        assertEquals(9, graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister).getValue());
+        // Setting a static field
+        assertEquals(SideEffect.Level.WEAK, graph.getHighestSideEffectLevel());
+    }
+
+    @Test
+    public void testKeptNodesDoNotHoldReleasedContexts() throws VirtualMachineException {
+        vm.setRetainingOnlyResults(true);
+        ExecutionGraph graph = executeAsCallee();
+
+        for (int address : graph.getAddresses()) {
+            if (address == 0) {
+                // The root context is where execution started
+                continue;
+            }
+            for (ExecutionNode node : graph.getNodePile(address)) {
+                assertNull(node.getContext().getParent());
+            }
+        }
+
+        // Detached contexts still have the class state the nested calls changed
+        assertEquals(Collections.singleton(CLASS_NAME), graph.getTouchedClassNames());
+        assertEquals(3, callerContext.findClassState(CLASS_NAME).peekField("counter:I").getValue());
+    }
+
+    @Test
+    public void testRootGraphKeepsEveryNode() throws VirtualMachineException {
+        vm.setRetainingOnlyResults(true);
+        ExecutionGraph graph = vm.execute(METHOD_DESCRIPTOR);
+
+        assertFalse(graph.isResultsOnly());
+        assertEquals(4, graph.getNodePile(LOOP_ADDRESS).size());
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.ExecutionNode;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStateMerging {
+
+    private static final String CLASS_NAME = "Lstate_merging_test;";
+
+    private VirtualMachine vm;
+
+    private ExecutionGraph execute(String methodSignature) {
+        Map<String, Map<String, HeapItem>> classNameToFieldItem = new HashMap<String, Map<String, HeapItem>>(0);
+
+        return VMTester.execute(vm, CLASS_NAME, methodSignature, new TIntObjectHashMap<HeapItem>(),
+                        classNameToFieldItem);
+    }
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+    }
+
+    @Test
+    public void testLoopWithUnknownConditionExceedsVisitsWithoutMerging() {
+        ExecutionGraph graph = execute("countUntilUnknownIsZero(I)I");
+
+        assertNull(graph);
+    }
+
+    @Test
+    public void testLoopWithUnknownConditionConvergesWithMerging() {
+        vm.setStateMerging(true, 5);
+        ExecutionGraph graph = execute("countUntilUnknownIsZero(I)I");
+
+        assertNotNull(graph);
+        HeapItem consensus = graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister);
+        assertTrue(consensus.isUnknown());
+        assertEquals("I", consensus.getType());
+    }
+
+    @Test
+    public void testPathsJoiningInSameStateAreMerged() {
+        vm.setStateMerging(true, 5);
+        ExecutionGraph graph = execute("assignSameValueOnBothBranches(I)I");
+
+        int joinAddress = 5;
+        List<ExecutionNode> pile = graph.getNodePile(joinAddress);
+        assertEquals(2, pile.size());
+        assertFalse(pile.get(0).isMerged());
+        assertTrue(pile.get(1).isMerged());
+        assertEquals(1, graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister).getValue());
+    }
+
+    @Test
+    public void testPathsJoiningWithSameStaticFieldsAreMerged() {
+        vm.setStateMerging(true, 5);
+        ExecutionGraph graph = execute("putSameValueOnBothBranches(I)I");
+
+        int joinAddress = 8;
+        List<ExecutionNode> pile = graph.getNodePile(joinAddress);
+        assertEquals(2, pile.size());
+        assertTrue(pile.get(1).isMerged());
+    }
+
+    @Test
+    public void testPathsJoiningWithDifferentStaticFieldsAreNotMerged() {
+        vm.setStateMerging(true, 5);
+        ExecutionGraph graph = execute("putDifferentValueOnEachBranch(I)I");
+
+        int joinAddress = 11;
+        List<ExecutionNode> pile = graph.getNodePile(joinAddress);
+        assertEquals(2, pile.size());
+        assertFalse(pile.get(0).isMerged());
+        assertFalse(pile.get(1).isMerged());
+    }
+
+    @Test
+    public void testLoopWithKnownConditionIsNotWidenedBeforeThreshold() {
+        vm.setStateMerging(true, 5);
+        ExecutionGraph graph = execute("countToThree()I");
+
+        assertEquals(3, graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister).getValue());
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.exception.VirtualMachineException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStaticInitializerCache {
+
+    private static final String METHOD_DESCRIPTOR = "Lside_effects_test;->NewInstanceOfClassWithStaticInitializerWithWeakSideEffects()V";
+    private static final String FIELD_DESCRIPTOR = "Lweak_side_effect;->stringAccessedByThread:Ljava/lang/String;";
+
+    private VirtualMachine vm;
+    private StaticInitializerCache cache;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+        cache = vm.getStaticInitializerCache();
+    }
+
+    @Test
+    public void testInitializationIsReusedByLaterExecutions() throws VirtualMachineException {
+        ExecutionGraph first = vm.execute(METHOD_DESCRIPTOR);
+        ExecutionGraph second = vm.execute(METHOD_DESCRIPTOR);
+
+        assertEquals(1, cache.getHits());
+        for (ExecutionGraph graph : new ExecutionGraph[] { first, second }) {
+            assertEquals("nothing to see here", graph.getTerminatingFieldConsensus(FIELD_DESCRIPTOR).getValue());
+            assertEquals(SideEffect.Level.WEAK, graph.getHighestSideEffectLevel());
+        }
+    }
+
+    @Test
+    public void testUpdatingInstructionGraphInvalidatesInitialization() throws VirtualMachineException {
+        vm.execute(METHOD_DESCRIPTOR);
+        assertEquals(1, cache.size());
+
+        vm.updateInstructionGraph("Lweak_side_effect;-><clinit>()V");
+        assertEquals(0, cache.size());
+    }
+
+}
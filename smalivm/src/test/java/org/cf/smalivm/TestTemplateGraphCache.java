@@ -0,0 +1,93 @@
+package org.cf.smalivm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.cf.smalivm.context.ExecutionGraph;
+import org.cf.smalivm.context.HeapItem;
+import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.exception.VirtualMachineException;
+import org.jf.dexlib2.writer.builder.BuilderMethod;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTemplateGraphCache {
+
+    private static final String CLASS_NAME = "Lstate_merging_test;";
+    private static final String COUNT_DESCRIPTOR = CLASS_NAME + "->countToThree()I";
+    private static final String ASSIGN_DESCRIPTOR = CLASS_NAME + "->assignSameValueOnBothBranches(I)I";
+
+    private VirtualMachine vm;
+    private TemplateGraphCache cache;
+    private BuilderMethod countMethod;
+    private BuilderMethod assignMethod;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+        cache = vm.getTemplateGraphCache();
+        countMethod = vm.getClassManager().getMethod(COUNT_DESCRIPTOR);
+        assignMethod = vm.getClassManager().getMethod(ASSIGN_DESCRIPTOR);
+    }
+
+    @Test
+    public void testTemplateIsBuiltOnceAndReused() {
+        ExecutionGraph template = cache.get(countMethod);
+
+        assertSame(template, cache.get(countMethod));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+        assertEquals(template.getLocations().size(), cache.getWeight());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTemplateIsEvictedAndRebuilt() throws VirtualMachineException {
+        ExecutionGraph countTemplate = cache.get(countMethod);
+        cache.setMaxWeight(cache.getWeight());
+        cache.get(assignMethod);
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        ExecutionGraph rebuiltTemplate = cache.get(countMethod);
+        assertNotSame(countTemplate, rebuiltTemplate);
+        assertEquals(3, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+
+        ExecutionGraph graph = vm.execute(COUNT_DESCRIPTOR);
+        HeapItem item = graph.getTerminatingRegisterConsensus(MethodState.ReturnRegister);
+        assertEquals(3, item.getValue());
+    }
+
+    @Test
+    public void testTemplateIsKeptEvenIfHeavierThanMaximum() {
+        cache.setMaxWeight(0);
+        ExecutionGraph template = cache.get(countMethod);
+
+        assertEquals(1, cache.size());
+        assertSame(template, cache.get(countMethod));
+    }
+
+    @Test
+    public void testUpdatingInstructionGraphReplacesTemplate() {
+        ExecutionGraph template = cache.get(countMethod);
+        int weight = cache.getWeight();
+        vm.updateInstructionGraph(COUNT_DESCRIPTOR);
+
+        assertNotSame(template, cache.get(countMethod));
+        assertEquals(1, cache.size());
+        assertEquals(weight, cache.getWeight());
+    }
+
+    @Test
+    public void testSoftTemplateIsReused() {
+        cache.setSoft(true);
+        ExecutionGraph template = cache.get(countMethod);
+
+        assertSame(template, cache.get(countMethod));
+        assertEquals(1, cache.getHits());
+    }
+
+}
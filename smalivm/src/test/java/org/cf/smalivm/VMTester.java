@@ -336,6 +336,7 @@ public class VMTester {
     public static void addHeapItem(MethodState mState, int register, Object value, String type) {
         HeapItem item = mock(HeapItem.class);
         when(item.getValue()).thenReturn(value);
+        when(item.getMutableValue()).thenReturn(value);
         if ("I".equals(type) && value instanceof Number) {
             when(item.getIntegerValue()).thenReturn((Integer) value);
         } else if (value instanceof UnknownValue) {
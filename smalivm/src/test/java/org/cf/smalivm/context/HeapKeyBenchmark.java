@@ -0,0 +1,86 @@
+package org.cf.smalivm.context;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.perfidix.annotation.BeforeBenchClass;
+import org.perfidix.annotation.Bench;
+import org.perfidix.annotation.BenchClass;
+
+/**
+ * Compares the old heap keys ("method:3" strings in a HashMap) with {@link Heap}. Each run simulates the register
+ * traffic of executing many small nodes: each node gets its own heap, writes a few registers, reads them back and reads
+ * a class field inherited from the method's root heap.
+ */
+@BenchClass(runs = 100)
+public class HeapKeyBenchmark {
+
+    private static final String METHOD_HEAP = "method";
+    private static final String FIELD_HEAP = "Lsome/Class;->someField:I";
+    private static final int METHOD_HEAP_ID = Heap.getHeapId(METHOD_HEAP);
+    private static final int FIELD_HEAP_ID = Heap.getFieldHeapId("Lsome/Class;", "someField:I");
+    private static final int NODES = 100 * 1000;
+    private static final int REGISTERS = 8;
+
+    private static HeapItem[] items = new HeapItem[REGISTERS];
+
+    @BeforeBenchClass
+    @BeforeClass
+    public static void beforeClass() {
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new HeapItem(i, "I");
+        }
+    }
+
+    private static String buildKey(String heapId, int register) {
+        StringBuilder sb = new StringBuilder(heapId);
+        sb.append(':').append(register);
+
+        return sb.toString();
+    }
+
+    @Bench
+    public void timeStringKeys() {
+        Map<String, HeapItem> root = new HashMap<String, HeapItem>();
+        root.put(buildKey(FIELD_HEAP, 0), items[0]);
+        HeapItem item = null;
+        for (int node = 0; node < NODES; node++) {
+            Map<String, HeapItem> heap = new HashMap<String, HeapItem>();
+            for (int register = 0; register < REGISTERS; register++) {
+                heap.put(buildKey(METHOD_HEAP, register), items[register]);
+            }
+            for (int register = 0; register < REGISTERS; register++) {
+                item = heap.get(buildKey(METHOD_HEAP, register));
+            }
+            // Old heaps looked in the parent on a miss
+            item = heap.get(buildKey(FIELD_HEAP, 0));
+            if (item == null) {
+                item = root.get(buildKey(FIELD_HEAP, 0));
+            }
+        }
+
+        item.toString();
+    }
+
+    @Bench
+    public void timeHeap() {
+        Heap root = new Heap();
+        root.set(FIELD_HEAP_ID, 0, items[0]);
+        HeapItem item = null;
+        for (int node = 0; node < NODES; node++) {
+            Heap heap = new Heap();
+            heap.setParent(root);
+            for (int register = 0; register < REGISTERS; register++) {
+                heap.set(METHOD_HEAP_ID, register, items[register]);
+            }
+            for (int register = 0; register < REGISTERS; register++) {
+                item = heap.get(METHOD_HEAP_ID, register);
+            }
+            item = heap.get(FIELD_HEAP_ID, 0);
+        }
+
+        item.toString();
+    }
+
+}
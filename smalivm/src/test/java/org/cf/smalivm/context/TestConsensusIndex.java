@@ -0,0 +1,63 @@
+package org.cf.smalivm.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.exception.VirtualMachineException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestConsensusIndex {
+
+    private static final String CLASS_NAME = "Lstate_merging_test;";
+
+    private VirtualMachine vm;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+    }
+
+    @Test
+    public void testSameValueOnEveryPathIsConsensus() throws VirtualMachineException {
+        ExecutionGraph graph = vm.execute(CLASS_NAME + "->assignSameValueOnBothBranches(I)I");
+        int returnAddress = 5;
+        assertEquals(2, graph.getNodePile(returnAddress).size());
+
+        HeapItem item = graph.getRegisterConsensus(returnAddress, 0);
+        assertEquals(1, item.getValue());
+        assertSame(item, graph.getRegisterConsensus(returnAddress, 0));
+    }
+
+    @Test
+    public void testDifferentValuesAreUnknown() throws VirtualMachineException {
+        ExecutionGraph graph = vm.execute(CLASS_NAME + "->countToThree()I");
+        int loopAddress = 2;
+
+        HeapItem item = graph.getRegisterConsensus(loopAddress, 0);
+        assertTrue(item.isUnknown());
+        assertEquals("I", item.getType());
+        // Unknowns aren't shared, otherwise they'd look like the same value
+        assertNotSame(item, graph.getRegisterConsensus(loopAddress, 0));
+
+        assertEquals(3, graph.getRegisterConsensus(loopAddress, 1).getValue());
+    }
+
+    @Test
+    public void testItemsAreComparedByIdentityThenEquality() {
+        HeapItem item = new HeapItem(new String("value"), "Ljava/lang/String;");
+
+        assertTrue(ConsensusIndex.isSame(item, item));
+        assertTrue(ConsensusIndex.isSame(item, new HeapItem(item.getValue(), "Ljava/lang/String;")));
+        assertTrue(ConsensusIndex.isSame(item, new HeapItem(new String("value"), "Ljava/lang/String;")));
+        assertFalse(ConsensusIndex.isSame(item, new HeapItem(item.getValue(), "Ljava/lang/Object;")));
+        assertFalse(ConsensusIndex.isSame(HeapItem.newUnknown("I"), HeapItem.newUnknown("I")));
+        assertFalse(ConsensusIndex.isSame(item, null));
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.cf.smalivm.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.VirtualMachine;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestExecutionContext {
+
+    private static final String CLASS_NAME = "Lstate_merging_test;";
+
+    private VirtualMachine vm;
+    private ExecutionContext ectx;
+
+    @Before
+    public void setUp() {
+        vm = VMTester.getTestVM();
+        ectx = vm.spawnExecutionContext(CLASS_NAME + "->countToThree()I");
+    }
+
+    @Test
+    public void testChildHasNoLocalClassesUntilStateIsUsed() {
+        assertEquals(Collections.singleton(CLASS_NAME), ectx.getLocalClassNames());
+
+        ExecutionContext child = ectx.spawnChild();
+        assertTrue(child.getLocalClassNames().isEmpty());
+
+        child.peekClassState(CLASS_NAME);
+        assertEquals(Collections.singleton(CLASS_NAME), child.getLocalClassNames());
+    }
+
+    @Test
+    public void testInitializingClassMakesItLocal() {
+        ExecutionContext child = ectx.spawnChild();
+        String className = "Ljava/lang/Object;";
+        child.initializeClass(className, new ClassState(child, className, 0), null);
+
+        assertEquals(Collections.singleton(className), child.getLocalClassNames());
+        assertEquals(Collections.singleton(CLASS_NAME), ectx.getLocalClassNames());
+    }
+
+    @Test
+    public void testInheritedClassStateIsCopiedOnFirstUse() {
+        String className = "Ljava/lang/Object;";
+        ectx.initializeClass(className, new ClassState(ectx, className, 0), SideEffect.Level.WEAK);
+        ExecutionContext calleeContext = vm.spawnExecutionContext(CLASS_NAME + "->countToThree()I");
+        calleeContext.inheritClassStates(ectx);
+        ExecutionContext child = calleeContext.spawnChild();
+
+        assertTrue(child.isClassInitialized(className));
+        assertEquals(SideEffect.Level.WEAK, child.getClassSideEffectLevel(className));
+        assertFalse(calleeContext.getLocalClassNames().contains(className));
+
+        ClassState cState = child.peekClassState(className);
+        assertNotSame(ectx.peekClassState(className), cState);
+        assertTrue(calleeContext.getLocalClassNames().contains(className));
+        assertEquals(Collections.singleton(className), child.getLocalClassNames());
+    }
+
+    @Test
+    public void testFindingClassStateDoesNotCopyIt() {
+        String className = "Ljava/lang/Object;";
+        ClassState cState = new ClassState(ectx, className, 0);
+        ectx.initializeClass(className, cState, SideEffect.Level.WEAK);
+        ExecutionContext calleeContext = vm.spawnExecutionContext(CLASS_NAME + "->countToThree()I");
+        calleeContext.inheritClassStates(ectx);
+        ExecutionContext child = calleeContext.spawnChild().spawnChild();
+
+        assertSame(cState, child.findClassState(className));
+        assertSame(cState, ectx.spawnChild().findClassState(className));
+        assertNull(child.findClassState("Ljava/lang/String;"));
+        assertTrue(child.getLocalClassNames().isEmpty());
+        assertFalse(calleeContext.getLocalClassNames().contains(className));
+    }
+
+    @Test
+    public void testMovedContextDoesNotSeeClassesOfOldAncestors() {
+        String className = "Ljava/lang/Object;";
+        ExecutionContext initializingChild = ectx.spawnChild();
+        initializingChild.initializeClass(className, new ClassState(initializingChild, className, 0), null);
+        ExecutionContext otherChild = ectx.spawnChild();
+        ExecutionContext movedChild = initializingChild.spawnChild();
+        ExecutionContext grandChild = movedChild.spawnChild();
+        assertTrue(grandChild.isClassInitialized(className));
+
+        movedChild.setShallowParent(otherChild);
+        assertFalse(grandChild.isClassInitialized(className));
+        assertFalse(movedChild.isClassInitialized(className));
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.cf.smalivm.context;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestHeap {
+
+    private static final int HEAP_ID = Heap.getHeapId("method");
+
+    private static Heap spawnChild(Heap parent) {
+        Heap child = new Heap();
+        child.setParent(parent);
+
+        return child;
+    }
+
+    @Test
+    public void readsValueFromDistantAncestor() {
+        Heap root = new Heap();
+        root.set(HEAP_ID, 0, 42, "I");
+        Heap heap = root;
+        for (int i = 0; i < 100000; i++) {
+            heap = spawnChild(heap);
+        }
+
+        assertEquals(42, heap.get(HEAP_ID, 0).getValue());
+        assertTrue(heap.hasRegister(HEAP_ID, 0));
+        assertNull(heap.get(HEAP_ID, 1));
+    }
+
+    @Test
+    public void readingInheritedMutableValueSharesItUntilMutated() {
+        int[] array = new int[] { 1, 2, 3 };
+        Heap parent = new Heap();
+        parent.set(HEAP_ID, 0, array, "[I");
+        parent.set(HEAP_ID, 1, array, "[I");
+        parent.set(HEAP_ID, 2, new int[] { 1, 2, 3 }, "[I");
+        Heap child = spawnChild(parent);
+
+        HeapItem item0 = child.get(HEAP_ID, 0);
+        assertSame(array, item0.getValue());
+
+        int[] mutableArray = (int[]) item0.getMutableValue();
+        mutableArray[0] = 10;
+        HeapItem item1 = child.get(HEAP_ID, 1);
+        HeapItem item2 = child.get(HEAP_ID, 2);
+
+        assertNotSame(array, mutableArray);
+        assertArrayEquals(new int[] { 10, 2, 3 }, (int[]) item0.getValue());
+        assertSame(item0.getValue(), item1.getValue());
+        assertNotSame(item0.getValue(), item2.getValue());
+        assertArrayEquals(new int[] { 1, 2, 3 }, array);
+        assertSame(array, parent.get(HEAP_ID, 0).getValue());
+        assertSame(array, parent.get(HEAP_ID, 1).getValue());
+    }
+
+    @Test
+    public void mutatingAncestorValueAfterChildReadDoesNotChangeChild() {
+        int[] array = new int[] { 1, 2, 3 };
+        Heap parent = new Heap();
+        parent.set(HEAP_ID, 0, array, "[I");
+        Heap child = spawnChild(parent);
+        HeapItem childItem = child.get(HEAP_ID, 0);
+
+        int[] parentArray = (int[]) parent.get(HEAP_ID, 0).getMutableValue();
+        parentArray[0] = 10;
+
+        assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) childItem.getValue());
+    }
+
+    @Test
+    public void reassignedRegisterIsNotPulledDownAsAlias() {
+        int[] array = new int[] { 1, 2, 3 };
+        Heap parent = new Heap();
+        parent.set(HEAP_ID, 0, array, "[I");
+        parent.set(HEAP_ID, 1, array, "[I");
+        Heap child = spawnChild(parent);
+        child.set(HEAP_ID, 1, 5, "I");
+
+        child.get(HEAP_ID, 0);
+
+        assertEquals(5, child.get(HEAP_ID, 1).getValue());
+    }
+
+    @Test
+    public void writeToAncestorAfterChildReadIsVisible() {
+        Heap parent = new Heap();
+        parent.set(HEAP_ID, 0, 1, "I");
+        Heap child = spawnChild(parent);
+        Heap grandChild = spawnChild(child);
+        assertEquals(1, grandChild.get(HEAP_ID, 0).getValue());
+
+        parent.set(HEAP_ID, 1, 2, "I");
+
+        assertEquals(2, grandChild.get(HEAP_ID, 1).getValue());
+    }
+
+    @Test
+    public void reparentedHeapSeesNewAncestors() {
+        Heap parent1 = new Heap();
+        parent1.set(HEAP_ID, 0, 1, "I");
+        Heap parent2 = new Heap();
+        parent2.set(HEAP_ID, 0, 2, "I");
+        Heap child = spawnChild(parent1);
+        Heap grandChild = spawnChild(child);
+        assertFalse(grandChild.hasRegister(HEAP_ID, 0));
+        assertEquals(1, spawnChild(grandChild).get(HEAP_ID, 0).getValue());
+
+        child.setParent(parent2);
+
+        assertEquals(2, spawnChild(grandChild).get(HEAP_ID, 0).getValue());
+    }
+
+    @Test
+    public void writeToUnrelatedHeapKeepsSnapshot() {
+        Heap parent = new Heap();
+        parent.set(HEAP_ID, 0, 1, "I");
+        Heap child = spawnChild(parent);
+        Heap grandChild = spawnChild(child);
+        assertEquals(1, grandChild.get(HEAP_ID, 0).getValue());
+
+        Heap otherParent = new Heap();
+        Heap otherChild = spawnChild(otherParent);
+        otherChild.get(HEAP_ID, 0);
+        otherParent.set(HEAP_ID, 0, 2, "I");
+
+        assertTrue(grandChild.hasCurrentSnapshot());
+        assertFalse(otherChild.hasCurrentSnapshot());
+        assertEquals(2, spawnChild(otherChild).get(HEAP_ID, 0).getValue());
+    }
+
+    @Test
+    public void heapsUnderReparentedHeapSeeNewAncestorWrites() {
+        Heap parent1 = new Heap();
+        parent1.set(HEAP_ID, 0, 1, "I");
+        Heap parent2 = new Heap();
+        Heap child = spawnChild(parent1);
+        Heap grandChild = spawnChild(child);
+        assertEquals(1, spawnChild(grandChild).get(HEAP_ID, 0).getValue());
+        assertNull(spawnChild(parent2).get(HEAP_ID, 0));
+
+        child.setParent(parent2);
+        parent2.set(HEAP_ID, 0, 3, "I");
+
+        assertEquals(3, spawnChild(grandChild).get(HEAP_ID, 0).getValue());
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.cf.smalivm.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.List;
+
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.opcode.OpCreator;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.builder.BuilderInstruction;
+import org.jf.dexlib2.builder.MethodLocation;
+import org.jf.dexlib2.builder.MutableMethodImplementation;
+import org.jf.dexlib2.builder.instruction.BuilderInstruction10x;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNodePiles {
+
+    private MutableMethodImplementation implementation;
+    private OpCreator opCreator;
+    private NodePiles nodePiles;
+
+    @Before
+    public void setUp() {
+        implementation = new MutableMethodImplementation(1);
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.NOP));
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.NOP));
+        implementation.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+
+        TIntObjectMap<MethodLocation> addressToLocation = new TIntObjectHashMap<MethodLocation>();
+        for (BuilderInstruction instruction : implementation.getInstructions()) {
+            MethodLocation location = instruction.getLocation();
+            addressToLocation.put(location.getCodeAddress(), location);
+        }
+        opCreator = new OpCreator(VMTester.getTestVM(), addressToLocation);
+
+        nodePiles = new NodePiles(implementation.getInstructions().size());
+        for (BuilderInstruction instruction : implementation.getInstructions()) {
+            MethodLocation location = instruction.getLocation();
+            nodePiles.add(location, new ExecutionNode(opCreator.create(location)));
+        }
+        nodePiles.reindex();
+    }
+
+    @Test
+    public void testPilesAreFoundByAddressAndLocation() {
+        MethodLocation location = getLocation(1);
+        List<ExecutionNode> nodePile = nodePiles.get(1);
+
+        assertEquals(3, nodePiles.size());
+        assertSame(nodePile, nodePiles.get(location));
+        assertSame(location, nodePile.get(0).getOp().getLocation());
+        assertTrue(nodePiles.getExecuted(1).isEmpty());
+        assertNull(nodePiles.get(3));
+        assertNull(nodePiles.get(-1));
+    }
+
+    @Test
+    public void testExecutedNodesExcludeTemplate() {
+        List<ExecutionNode> nodePile = nodePiles.get(2);
+        ExecutionNode node = new ExecutionNode(nodePile.get(0));
+        nodePile.add(node);
+
+        List<ExecutionNode> executed = nodePiles.getExecuted(2);
+        assertEquals(1, executed.size());
+        assertSame(node, executed.get(0));
+    }
+
+    @Test
+    public void testInsertedPileIsFoundByAddressAfterReindex() {
+        MethodLocation nextLocation = getLocation(1);
+        implementation.addInstruction(1, new BuilderInstruction10x(Opcode.NOP));
+        MethodLocation location = getLocation(1);
+
+        List<ExecutionNode> nodePile = nodePiles.insert(location, nextLocation);
+        assertSame(nodePile, nodePiles.get(location));
+
+        nodePiles.reindex();
+        assertEquals(4, nodePiles.size());
+        assertSame(nodePile, nodePiles.get(1));
+        assertSame(nextLocation, nodePiles.get(2).get(0).getOp().getLocation());
+        assertSame(nodePiles.get(nextLocation), nodePiles.get(2));
+    }
+
+    @Test
+    public void testRemovedPileIsNotFoundAfterReindex() {
+        MethodLocation location = getLocation(1);
+        MethodLocation lastLocation = getLocation(2);
+        implementation.removeInstruction(1);
+
+        List<ExecutionNode> nodePile = nodePiles.remove(location);
+        assertSame(location, nodePile.get(0).getOp().getLocation());
+        assertNull(nodePiles.get(location));
+
+        nodePiles.reindex();
+        assertEquals(2, nodePiles.size());
+        assertSame(lastLocation, nodePiles.get(1).get(0).getOp().getLocation());
+        assertNull(nodePiles.get(2));
+    }
+
+    @Test
+    public void testPilesAreFoundWhileSeveralEditsArePending() {
+        MethodLocation nextLocation = getLocation(1);
+        MethodLocation lastLocation = getLocation(2);
+        for (int i = 0; i < 3; i++) {
+            int index = nextLocation.getIndex();
+            implementation.addInstruction(index, new BuilderInstruction10x(Opcode.NOP));
+            nodePiles.insert(getLocation(index), nextLocation);
+        }
+        MethodLocation firstLocation = getLocation(0);
+        implementation.removeInstruction(0);
+        nodePiles.remove(firstLocation);
+
+        assertSame(nextLocation, nodePiles.get(nextLocation).get(0).getOp().getLocation());
+        assertSame(lastLocation, nodePiles.get(lastLocation).get(0).getOp().getLocation());
+
+        nodePiles.reindex();
+        assertEquals(5, nodePiles.size());
+        assertSame(nodePiles.get(nextLocation), nodePiles.get(3));
+        assertSame(nodePiles.get(lastLocation), nodePiles.get(4));
+    }
+
+    private MethodLocation getLocation(int index) {
+        return implementation.getInstructions().get(index).getLocation();
+    }
+
+}
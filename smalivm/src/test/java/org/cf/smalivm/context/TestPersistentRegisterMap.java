@@ -0,0 +1,76 @@
+package org.cf.smalivm.context;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPersistentRegisterMap {
+
+    private static final long SEED = 0xCAFEBABEL;
+
+    @Test
+    public void emptyMapHasNoKeys() {
+        PersistentRegisterMap map = PersistentRegisterMap.EMPTY;
+
+        assertEquals(0, map.size());
+        assertNull(map.get(0));
+    }
+
+    @Test
+    public void updatesDoNotChangeOriginal() {
+        HeapItem item1 = new HeapItem(1, "I");
+        HeapItem item2 = new HeapItem(2, "I");
+        PersistentRegisterMap map1 = PersistentRegisterMap.EMPTY.put(3, item1);
+        PersistentRegisterMap map2 = map1.put(3, item2);
+        PersistentRegisterMap map3 = map2.remove(3);
+
+        assertSame(item1, map1.get(3));
+        assertSame(item2, map2.get(3));
+        assertNull(map3.get(3));
+        assertEquals(1, map1.size());
+        assertEquals(1, map2.size());
+        assertEquals(0, map3.size());
+    }
+
+    @Test
+    public void behavesLikeHashMapForRandomOperations() {
+        Random random = new Random(SEED);
+        Map<Long, HeapItem> expected = new HashMap<Long, HeapItem>();
+        PersistentRegisterMap map = PersistentRegisterMap.EMPTY;
+        for (int i = 0; i < 20000; i++) {
+            // Small key space so there are plenty of replacements and removals
+            long key = ((long) random.nextInt(64) << 32) | random.nextInt(64);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                HeapItem item = new HeapItem(i, "I");
+                expected.put(key, item);
+                map = map.put(key, item);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, HeapItem> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), map.get(entry.getKey()));
+        }
+
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        long[] expectedKeys = new long[expected.size()];
+        int i = 0;
+        for (long key : expected.keySet()) {
+            expectedKeys[i++] = key;
+        }
+        Arrays.sort(expectedKeys);
+        assertEquals(Arrays.toString(expectedKeys), Arrays.toString(keys));
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.cf.smalivm.emulate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cf.smalivm.SideEffect;
+import org.cf.smalivm.VMTester;
+import org.cf.smalivm.VirtualException;
+import org.cf.smalivm.VirtualMachine;
+import org.cf.smalivm.context.ExecutionContext;
+import org.cf.smalivm.context.MethodState;
+import org.junit.Test;
+
+public class TestMethodEmulator {
+
+    private static final String METHOD_DESCRIPTOR = "Lsome/Class;->emulateMe()V";
+
+    private static class CountingMethod implements MethodStateMethod {
+
+        private final AtomicInteger callCount = new AtomicInteger();
+
+        @Override
+        public void execute(VirtualMachine vm, MethodState mState, EmulationResult result) {
+            if (callCount.incrementAndGet() > 1) {
+                result.setSideEffectLevel(SideEffect.Level.WEAK);
+                result.addException(new VirtualException(IllegalStateException.class, "called again"));
+            }
+        }
+
+        @Override
+        public SideEffect.Level getSideEffectLevel() {
+            return SideEffect.Level.NONE;
+        }
+
+    }
+
+    @Test
+    public void testAddedMethodIsOnlyEmulatedByItsVirtualMachine() {
+        VirtualMachine vm = VMTester.getTestVM();
+        VirtualMachine otherVM = VMTester.getTestVM();
+        vm.getMethodEmulator().addMethod(METHOD_DESCRIPTOR, new CountingMethod());
+
+        assertTrue(vm.getMethodEmulator().canEmulate(METHOD_DESCRIPTOR));
+        assertFalse(otherVM.getMethodEmulator().canEmulate(METHOD_DESCRIPTOR));
+    }
+
+    @Test
+    public void testMethodInstanceIsSharedAndStateIsPerCall() {
+        VirtualMachine vm = VMTester.getTestVM();
+        CountingMethod method = new CountingMethod();
+        MethodEmulator emulator = vm.getMethodEmulator();
+        emulator.addMethod(METHOD_DESCRIPTOR, method);
+        ExecutionContext ectx = new ExecutionContext(vm, METHOD_DESCRIPTOR);
+        ectx.setMethodState(new MethodState(ectx, 0));
+
+        EmulationResult firstResult = emulator.emulate(ectx, METHOD_DESCRIPTOR);
+        EmulationResult secondResult = emulator.emulate(ectx, METHOD_DESCRIPTOR);
+
+        assertEquals(2, method.callCount.get());
+        assertEquals(SideEffect.Level.NONE, firstResult.getSideEffectLevel());
+        assertEquals(0, firstResult.getExceptions().size());
+        assertEquals(SideEffect.Level.WEAK, secondResult.getSideEffectLevel());
+        assertEquals(1, secondResult.getExceptions().size());
+    }
+
+}
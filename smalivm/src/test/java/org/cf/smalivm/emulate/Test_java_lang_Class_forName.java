@@ -28,6 +28,7 @@ public class Test_java_lang_Class_forName {
     private VirtualMachine vm;
     private ClassManager classManager;
     private ExecutionContextMethod method;
+    private EmulationResult result;
     private MethodState mState;
     private ExecutionContext ectx;
 
@@ -66,38 +67,39 @@ public class Test_java_lang_Class_forName {
                         SideEffect.Level.STRONG);
 
         method = new java_lang_Class_forName();
+        result = new EmulationResult(method.getSideEffectLevel());
     }
 
     @Test
     public void testSafeClassNameThatExistsReturnsActualClassAndHasNoSideEffects() throws Exception {
         HeapItem item = new HeapItem(SAFE_CLASS_NAME, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
-        method.execute(vm, ectx);
+        method.execute(vm, ectx, result);
 
         verify(mState, times(1)).assignReturnRegister(eq(SAFE_CLASS), eq(CLASS_TYPE));
-        assertEquals(SideEffect.Level.NONE, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.NONE, result.getSideEffectLevel());
     }
 
     @Test
     public void testLocalClassNameReturnsLocalClassAndStaticallyInitializesClassAndHasNoSideEffects() throws Exception {
         HeapItem item = new HeapItem(LOCAL_CLASS_NAME_JAVA, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
-        method.execute(vm, ectx);
+        method.execute(vm, ectx, result);
 
         verify(mState, times(1)).assignReturnRegister(eq(LOCAL_CLASS), eq(CLASS_TYPE));
         verify(ectx, times(1)).staticallyInitializeClassIfNecessary(LOCAL_CLASS_NAME_SMALI);
-        assertEquals(SideEffect.Level.NONE, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.NONE, result.getSideEffectLevel());
     }
 
     @Test
     public void testLocalStrongSideEffectsClassNameReturnsLocalClassAndHasStrongSideEffects() throws Exception {
         HeapItem item = new HeapItem(LOCAL_CLASS_WITH_STRONG_SIDE_EFFECTS_NAME_JAVA, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
-        method.execute(vm, ectx);
+        method.execute(vm, ectx, result);
 
         verify(mState, times(1)).assignReturnRegister(eq(LOCAL_CLASS_WITH_STRONG_SIDE_EFFECTS), eq(CLASS_TYPE));
         verify(ectx, times(1)).staticallyInitializeClassIfNecessary(LOCAL_CLASS_WITH_STRONG_SIDE_EFFECTS_NAME_SMALI);
-        assertEquals(SideEffect.Level.STRONG, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.STRONG, result.getSideEffectLevel());
     }
 
     @Test
@@ -105,13 +107,13 @@ public class Test_java_lang_Class_forName {
         HeapItem item = new HeapItem(UNKNOWN_CLASS_NAME_JAVA, PARAMETER_TYPE);
         when(mState.peekParameter(CLASS_NAME_REGISTER)).thenReturn(item);
 
-        method.execute(vm, ectx);
+        method.execute(vm, ectx, result);
 
         Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
         expectedExceptions.add(new VirtualException(ClassNotFoundException.class, UNKNOWN_CLASS_NAME_SMALI));
-        assertEquals(expectedExceptions, method.getExceptions());
+        assertEquals(expectedExceptions, result.getExceptions());
         verify(mState, times(0)).assignReturnRegister(any(UnknownValue.class), eq(CLASS_TYPE));
-        assertEquals(SideEffect.Level.NONE, method.getSideEffectLevel());
+        assertEquals(SideEffect.Level.NONE, result.getSideEffectLevel());
     }
 
 }
@@ -44,6 +44,7 @@ public class Test_java_lang_Class_getField {
 
     private VirtualMachine vm;
     private MethodStateMethod method;
+    private EmulationResult result;
     private ClassManager classManager;
     private MethodState mState;
     private HeapItem classItem;
@@ -70,6 +71,7 @@ public class Test_java_lang_Class_getField {
         when(mState.peekParameter(FIELD_NAME_REGISTER)).thenReturn(fieldNameItem);
 
         method = new java_lang_Class_getField();
+        result = new EmulationResult(method.getSideEffectLevel());
     }
 
     @Test
@@ -80,7 +82,7 @@ public class Test_java_lang_Class_getField {
         when(classItem.getValue()).thenReturn(klazz);
         when(fieldNameItem.getValue()).thenReturn(fieldName);
 
-        method.execute(vm, mState);
+        method.execute(vm, mState, result);
 
         verify(mState, times(1)).peekParameter(eq(CLASS_INSTANCE_REGISTER));
         verify(mState, times(1)).peekParameter(eq(FIELD_NAME_REGISTER));
@@ -93,11 +95,11 @@ public class Test_java_lang_Class_getField {
         when(classItem.getValue()).thenReturn(klazz);
         when(fieldNameItem.getValue()).thenReturn(NON_EXISTENT_FIELD_NAME);
 
-        method.execute(vm, mState);
+        method.execute(vm, mState, result);
 
         Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
         expectedExceptions.add(new VirtualException(NoSuchFieldException.class, NON_EXISTENT_FIELD_NAME));
-        assertEquals(expectedExceptions, method.getExceptions());
+        assertEquals(expectedExceptions, result.getExceptions());
         verify(mState, times(1)).peekParameter(eq(CLASS_INSTANCE_REGISTER));
         verify(mState, times(1)).peekParameter(eq(FIELD_NAME_REGISTER));
         verify(mState, times(0)).assignReturnRegister(any(HeapItem.class));
@@ -109,7 +111,7 @@ public class Test_java_lang_Class_getField {
         when(classItem.getValue()).thenReturn(LOCAL_CLASS);
         when(fieldNameItem.getValue()).thenReturn(EXISTENT_FIELD_NAME);
 
-        method.execute(vm, mState);
+        method.execute(vm, mState, result);
 
         verify(mState, times(1)).peekParameter(eq(CLASS_INSTANCE_REGISTER));
         verify(mState, times(1)).peekParameter(eq(FIELD_NAME_REGISTER));
@@ -121,11 +123,11 @@ public class Test_java_lang_Class_getField {
         when(classItem.getValue()).thenReturn(LOCAL_CLASS);
         when(fieldNameItem.getValue()).thenReturn(NON_EXISTENT_FIELD_NAME);
 
-        method.execute(vm, mState);
+        method.execute(vm, mState, result);
 
         Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
         expectedExceptions.add(new VirtualException(NoSuchFieldException.class, NON_EXISTENT_FIELD_NAME));
-        assertEquals(expectedExceptions, method.getExceptions());
+        assertEquals(expectedExceptions, result.getExceptions());
 
         verify(mState, times(1)).peekParameter(eq(CLASS_INSTANCE_REGISTER));
         verify(mState, times(1)).peekParameter(eq(FIELD_NAME_REGISTER));
@@ -138,7 +140,7 @@ public class Test_java_lang_Class_getField {
         when(classItem.getValue()).thenReturn(LOCAL_CLASS_WITH_STRONG_SIDE_EFFECTS);
         when(fieldNameItem.getValue()).thenReturn(EXISTENT_FIELD_NAME);
 
-        method.execute(vm, mState);
+        method.execute(vm, mState, result);
 
         verify(mState, times(1)).peekParameter(eq(CLASS_INSTANCE_REGISTER));
         verify(mState, times(1)).peekParameter(eq(FIELD_NAME_REGISTER));
@@ -44,17 +44,19 @@ public class Test_java_lang_Class_getMethod {
 
         private VirtualMachine vm;
         private MethodStateMethod emulatedMethod;
+        private EmulationResult result;
 
         @Before
         public void setUp() {
             vm = VMTester.getTestVM();
             emulatedMethod = new java_lang_Class_getMethod();
+            result = new EmulationResult(emulatedMethod.getSideEffectLevel());
         }
 
         @Test
         public void testGetExistentMethodWithNoParameterTypesReturnsExpectedLocalMethod() throws Exception {
             MethodState mState = getMethodState(vm, CLASS, "someString", null);
-            emulatedMethod.execute(vm, mState);
+            emulatedMethod.execute(vm, mState, result);
 
             LocalMethod expectedValue = new LocalMethod(CLASS_NAME + "->someString()Ljava/lang/String;");
             HeapItem expected = new HeapItem(expectedValue, METHOD_TYPE);
@@ -65,7 +67,7 @@ public class Test_java_lang_Class_getMethod {
         @Test
         public void testGetExistentMethodWithOneParameterTypesReturnsExpectedLocalMethod() throws Exception {
             MethodState mState = getMethodState(vm, CLASS, "takesParameter", new Class<?>[] { int.class });
-            emulatedMethod.execute(vm, mState);
+            emulatedMethod.execute(vm, mState, result);
 
             LocalMethod expectedValue = new LocalMethod(CLASS_NAME + "->takesParameter(I)V");
             HeapItem expected = new HeapItem(expectedValue, METHOD_TYPE);
@@ -78,11 +80,11 @@ public class Test_java_lang_Class_getMethod {
             String methodName = "yoDawgThisMethodWillNeverExist";
             String fullMethodName = CLASS_NAME_JAVA + "." + methodName + "()";
             MethodState mState = getMethodState(vm, CLASS, methodName, null);
-            emulatedMethod.execute(vm, mState);
+            emulatedMethod.execute(vm, mState, result);
 
             Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
             expectedExceptions.add(new VirtualException(NoSuchMethodException.class, fullMethodName));
-            assertEquals(expectedExceptions, emulatedMethod.getExceptions());
+            assertEquals(expectedExceptions, result.getExceptions());
 
             HeapItem actual = mState.readRegister(MethodState.ReturnRegister);
             assertEquals(null, actual);
@@ -95,17 +97,19 @@ public class Test_java_lang_Class_getMethod {
 
         private VirtualMachine vm;
         private MethodStateMethod emulatedMethod;
+        private EmulationResult result;
 
         @Before
         public void setUp() {
             vm = VMTester.getTestVM();
             emulatedMethod = new java_lang_Class_getMethod();
+            result = new EmulationResult(emulatedMethod.getSideEffectLevel());
         }
 
         @Test
         public void testGetExistentMethodWithNoParameterTypesReturnsExpectedMethod() throws Exception {
             MethodState mState = getMethodState(vm, CLASS, "gc", null);
-            emulatedMethod.execute(vm, mState);
+            emulatedMethod.execute(vm, mState, result);
 
             HeapItem expected = new HeapItem(System.class.getMethod("gc"), METHOD_TYPE);
             HeapItem actual = mState.readRegister(MethodState.ReturnRegister);
@@ -115,7 +119,7 @@ public class Test_java_lang_Class_getMethod {
         @Test
         public void testGetExistentMethodWithOneParameterTypesReturnsExpectedLocalMethod() throws Exception {
             MethodState mState = getMethodState(vm, CLASS, "getProperty", new Class<?>[] { String.class });
-            emulatedMethod.execute(vm, mState);
+            emulatedMethod.execute(vm, mState, result);
 
             Method expectedValue = System.class.getMethod("getProperty", new Class<?>[] { String.class });
             HeapItem expected = new HeapItem(expectedValue, METHOD_TYPE);
@@ -128,11 +132,11 @@ public class Test_java_lang_Class_getMethod {
             String methodName = "yoDawgThisMethodWillNeverExist";
             String fullMethodName = CLASS.getName() + "." + methodName + "()";
             MethodState mState = getMethodState(vm, CLASS, methodName, null);
-            emulatedMethod.execute(vm, mState);
+            emulatedMethod.execute(vm, mState, result);
 
             Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
             expectedExceptions.add(new VirtualException(NoSuchMethodException.class, fullMethodName));
-            assertEquals(expectedExceptions, emulatedMethod.getExceptions());
+            assertEquals(expectedExceptions, result.getExceptions());
 
             HeapItem actual = mState.readRegister(MethodState.ReturnRegister);
             assertEquals(null, actual);
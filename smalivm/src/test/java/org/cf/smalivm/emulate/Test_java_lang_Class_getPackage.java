@@ -17,11 +17,13 @@ public class Test_java_lang_Class_getPackage {
 
     private VirtualMachine vm;
     private MethodStateMethod emulatedMethod;
+    private EmulationResult result;
 
     @Before
     public void setUp() {
         vm = VMTester.getTestVM();
         emulatedMethod = new java_lang_Class_getPackage();
+        result = new EmulationResult(emulatedMethod.getSideEffectLevel());
     }
 
     private static MethodState getMethodState(VirtualMachine vm, Object register0, String type) {
@@ -38,7 +40,7 @@ public class Test_java_lang_Class_getPackage {
         String type = "Lsome/local/package/TestClass;";
         MethodState mState = getMethodState(vm, new LocalClass(type), type);
 
-        emulatedMethod.execute(vm, mState);
+        emulatedMethod.execute(vm, mState, result);
 
         EmulatedType emulatedPackage = new EmulatedType("Ljava/lang/Package;");
         emulatedPackage.setExtra("some.local.package");
@@ -52,7 +54,7 @@ public class Test_java_lang_Class_getPackage {
     public void testNonLocalClassReturnsPackage() throws Exception {
         MethodState mState = getMethodState(vm, String.class, "Ljava/lang/String;");
 
-        emulatedMethod.execute(vm, mState);
+        emulatedMethod.execute(vm, mState, result);
 
         HeapItem expected = new HeapItem(String.class.getPackage(), "Ljava/lang/Package;");
         HeapItem actual = mState.readRegister(MethodState.ReturnRegister);
@@ -64,7 +66,7 @@ public class Test_java_lang_Class_getPackage {
     public void testUnknownValueReturnsUnknownValueOfExpectedType() throws Exception {
         MethodState mState = getMethodState(vm, new UnknownValue(), "Ljava/lang/Class;");
 
-        emulatedMethod.execute(vm, mState);
+        emulatedMethod.execute(vm, mState, result);
 
         HeapItem expected = HeapItem.newUnknown("Ljava/lang/Package;");
         HeapItem actual = mState.readRegister(MethodState.ReturnRegister);
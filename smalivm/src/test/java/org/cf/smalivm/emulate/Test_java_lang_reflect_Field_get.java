@@ -36,6 +36,7 @@ public class Test_java_lang_reflect_Field_get {
 
     private VirtualMachine vm;
     private ExecutionContextMethod method;
+    private EmulationResult result;
     private ClassManager classManager;
     private ExecutionContext ectx;
     private ExecutionContext callerContext;
@@ -92,6 +93,7 @@ public class Test_java_lang_reflect_Field_get {
         when(callerContext.getMethodDescriptor()).thenReturn(MOCKED_METHOD_DESCRIPTOR);
         when(ectx.getCallerContext()).thenReturn(callerContext);
         method = new java_lang_reflect_Field_get();
+        result = new EmulationResult(method.getSideEffectLevel());
     }
 
     private void setupFields(VirtualMachine vm, ExecutionContext ectx) {
@@ -273,7 +275,7 @@ public class Test_java_lang_reflect_Field_get {
         when(fieldItem.getValue()).thenReturn(field);
         when(instanceItem.getValue()).thenReturn(instance);
 
-        method.execute(vm, ectx);
+        method.execute(vm, ectx, result);
 
         verify(mState, times(1)).peekParameter(eq(FIELD_REGISTER));
         verify(mState, times(1)).peekParameter(eq(INSTANCE_REGISTER));
@@ -292,11 +294,11 @@ public class Test_java_lang_reflect_Field_get {
         when(fieldItem.getValue()).thenReturn(field);
         when(instanceItem.getValue()).thenReturn(instance);
 
-        method.execute(vm, ectx);
+        method.execute(vm, ectx, result);
 
         Set<VirtualException> expectedExceptions = new HashSet<VirtualException>();
         expectedExceptions.add(new VirtualException(exceptionClass, message));
-        assertEquals(expectedExceptions, method.getExceptions());
+        assertEquals(expectedExceptions, result.getExceptions());
 
         verify(mState, times(1)).peekParameter(eq(FIELD_REGISTER));
         verify(mState, times(1)).peekParameter(eq(INSTANCE_REGISTER));
@@ -2,6 +2,7 @@ package org.cf.smalivm.opcode;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -17,6 +18,9 @@ import java.util.List;
 import java.util.Map;
 
 import org.cf.smalivm.ClassManager;
+import org.cf.smalivm.DispatchCache;
+import org.cf.smalivm.DispatchCache.Dispatch;
+import org.cf.smalivm.DispatchCache.Strategy;
 import org.cf.smalivm.VMTester;
 import org.cf.smalivm.VirtualMachine;
 import org.cf.smalivm.context.ExecutionContext;
@@ -24,6 +28,8 @@ import org.cf.smalivm.context.ExecutionGraph;
 import org.cf.smalivm.context.ExecutionNode;
 import org.cf.smalivm.context.HeapItem;
 import org.cf.smalivm.context.MethodState;
+import org.cf.smalivm.emulate.MethodEmulator;
+import org.cf.smalivm.reference.MethodRef;
 import org.cf.smalivm.type.LocalInstance;
 import org.cf.smalivm.type.UninitializedInstance;
 import org.cf.smalivm.type.UnknownValue;
@@ -81,6 +87,8 @@ public class TestInvokeOp {
 
             classManager = mock(ClassManager.class);
             when(vm.getClassManager()).thenReturn(classManager);
+            when(vm.getDispatchCache()).thenReturn(mock(DispatchCache.class));
+            when(vm.getMethodEmulator()).thenReturn(mock(MethodEmulator.class));
             when(classManager.isLocalClass(METHOD_CLASS)).thenReturn(true);
             when(classManager.isFramework(METHOD_DESCRIPTOR)).thenReturn(false);
             when(classManager.isSafeFramework(METHOD_DESCRIPTOR)).thenReturn(false);
@@ -320,6 +328,35 @@ public class TestInvokeOp {
             VMTester.testMethodState(CLASS_NAME, "InvokeReturnInt()V", initial, expected);
         }
 
+        @Test
+        public void testVirtualDispatchIsCachedByReceiverType() {
+            VirtualMachine vm = VMTester.getTestVM();
+            Map<String, Map<String, HeapItem>> classNameToFieldItem = new HashMap<String, Map<String, HeapItem>>(0);
+            TIntObjectMap<HeapItem> initial = VMTester.buildRegisterState(0, new LocalInstance(CLASS_NAME), CLASS_NAME);
+            VMTester.execute(vm, CLASS_NAME, "InvokeReturnInt()V", initial, classNameToFieldItem);
+            ExecutionGraph graph = VMTester.execute(vm, CLASS_NAME, "InvokeReturnInt()V", initial,
+                            classNameToFieldItem);
+
+            MethodRef method = MethodRef.of(CLASS_NAME, "ReturnInt()I");
+            Dispatch dispatch = vm.getDispatchCache().get(CLASS_NAME, method);
+            assertEquals(Strategy.LOCAL, dispatch.getStrategy());
+            assertSame(method, dispatch.getTarget());
+            assertNull(vm.getDispatchCache().get("Ljava/lang/Object;", method));
+            assertEquals(0x7, graph.getTerminatingRegisterConsensus(MethodState.ResultRegister).getValue());
+        }
+
+        @Test
+        public void testReflectedVirtualDispatchIsCached() {
+            VirtualMachine vm = VMTester.getTestVM();
+            Map<String, Map<String, HeapItem>> classNameToFieldItem = new HashMap<String, Map<String, HeapItem>>(0);
+            TIntObjectMap<HeapItem> initial = VMTester.buildRegisterState(0, new int[0], "[I");
+            VMTester.execute(vm, CLASS_NAME, "InvokeGetComponentType()V", initial, classNameToFieldItem);
+
+            MethodRef method = MethodRef.of("Ljava/lang/Class;", "getComponentType()Ljava/lang/Class;");
+            Dispatch dispatch = vm.getDispatchCache().get("Ljava/lang/Class;", method);
+            assertEquals(Strategy.REFLECT, dispatch.getStrategy());
+        }
+
         @Test
         public void testInvokeReturnParameterReturnsParameter() {
             TIntObjectMap<HeapItem> initial = VMTester.buildRegisterState(0, new LocalInstance(CLASS_NAME), CLASS_NAME,
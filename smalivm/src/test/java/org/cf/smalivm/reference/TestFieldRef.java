@@ -0,0 +1,49 @@
+package org.cf.smalivm.reference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestFieldRef {
+
+    private static final String CLASS_NAME = "Lsome/Class;";
+    private static final String NAME_AND_TYPE = "someField:[Ljava/lang/String;";
+    private static final String DESCRIPTOR = CLASS_NAME + "->" + NAME_AND_TYPE;
+
+    @Test
+    public void testDescriptorIsParsed() {
+        FieldRef field = FieldRef.of(DESCRIPTOR);
+
+        assertEquals(CLASS_NAME, field.getClassName());
+        assertEquals("someField", field.getName());
+        assertEquals("[Ljava/lang/String;", field.getType());
+        assertEquals(NAME_AND_TYPE, field.getNameAndType());
+        assertEquals(DESCRIPTOR, field.getDescriptor());
+    }
+
+    @Test
+    public void testReferencesAreInterned() {
+        FieldRef field = FieldRef.of(DESCRIPTOR);
+
+        assertSame(field, FieldRef.of(new String(DESCRIPTOR)));
+        assertSame(field, FieldRef.of(CLASS_NAME, NAME_AND_TYPE));
+    }
+
+    @Test
+    public void testTypeIsParsed() {
+        TypeRef type = TypeRef.of(FieldRef.of(DESCRIPTOR).getType());
+
+        assertSame(type, TypeRef.of("[Ljava/lang/String;"));
+        assertEquals(1, type.getDimensionCount());
+        assertEquals("Ljava/lang/String;", type.getBaseType());
+        assertEquals(false, type.isPrimitive());
+        assertEquals(true, TypeRef.of("[[I").isPrimitive());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMethodDescriptorIsNotAField() {
+        FieldRef.of(CLASS_NAME + "->someMethod()V");
+    }
+
+}
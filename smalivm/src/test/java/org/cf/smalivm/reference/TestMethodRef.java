@@ -0,0 +1,62 @@
+package org.cf.smalivm.reference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestMethodRef {
+
+    private static final String CLASS_NAME = "Lsome/Class;";
+    private static final String SIGNATURE = "someMethod(I[JLjava/lang/String;[[Lsome/Other;Z)[Ljava/lang/Object;";
+    private static final String DESCRIPTOR = CLASS_NAME + "->" + SIGNATURE;
+
+    @Test
+    public void testDescriptorIsParsed() {
+        MethodRef method = MethodRef.of(DESCRIPTOR);
+
+        assertEquals(CLASS_NAME, method.getClassName());
+        assertEquals("someMethod", method.getName());
+        assertEquals(SIGNATURE, method.getSignature());
+        assertEquals(DESCRIPTOR, method.getDescriptor());
+        assertEquals(Arrays.asList("I", "[J", "Ljava/lang/String;", "[[Lsome/Other;", "Z"), method.getParameterTypes());
+        assertEquals("[Ljava/lang/Object;", method.getReturnType());
+        assertFalse(method.returnsVoid());
+        assertFalse(method.isConstructor());
+    }
+
+    @Test
+    public void testReferencesAreInterned() {
+        MethodRef method = MethodRef.of(DESCRIPTOR);
+
+        assertSame(method, MethodRef.of(new String(DESCRIPTOR)));
+        assertSame(method, MethodRef.of(CLASS_NAME, SIGNATURE));
+        assertSame(method, MethodRef.of("Lsome/Other;", SIGNATURE).withClassName(CLASS_NAME));
+    }
+
+    @Test
+    public void testConstructorWithoutParameters() {
+        MethodRef method = MethodRef.of(CLASS_NAME, "<init>()V");
+
+        assertTrue(method.isConstructor());
+        assertTrue(method.returnsVoid());
+        assertTrue(method.getParameterTypes().isEmpty());
+    }
+
+    @Test
+    public void testClassNameOfAnyDescriptor() {
+        assertEquals(CLASS_NAME, MemberRef.getClassName(CLASS_NAME));
+        assertEquals(CLASS_NAME, MemberRef.getClassName(DESCRIPTOR));
+        assertEquals(CLASS_NAME, MemberRef.getClassName(CLASS_NAME + "->someField:I"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFieldDescriptorIsNotAMethod() {
+        MethodRef.of(CLASS_NAME + "->someField:I");
+    }
+
+}
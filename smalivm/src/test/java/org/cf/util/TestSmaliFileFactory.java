@@ -0,0 +1,57 @@
+package org.cf.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.cf.smalivm.SmaliFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSmaliFileFactory {
+
+    private static final int FILE_COUNT = 500;
+
+    private File smaliDir;
+
+    @Before
+    public void writeSmaliFiles() throws IOException {
+        smaliDir = Files.createTempDirectory("smali").toFile();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            String smali = ".class public Lgenerated/Class" + i + ";\n.super Ljava/lang/Object;\n";
+            FileUtils.writeStringToFile(new File(smaliDir, "Class" + i + ".smali"), smali, "UTF-8");
+        }
+    }
+
+    @After
+    public void deleteSmaliFiles() throws IOException {
+        FileUtils.deleteDirectory(smaliDir);
+    }
+
+    private static Map<String, String> getClassNameToPath(Set<SmaliFile> smaliFiles) {
+        Map<String, String> classNameToPath = new HashMap<String, String>();
+        for (SmaliFile smaliFile : smaliFiles) {
+            classNameToPath.put(smaliFile.getClassName(), smaliFile.getPath());
+        }
+
+        return classNameToPath;
+    }
+
+    @Test
+    public void parallelIndexingFindsSameClassesAsSerial() throws IOException {
+        Set<SmaliFile> serial = new SmaliFileFactory(1).getSmaliFiles(smaliDir);
+        Set<SmaliFile> parallel = new SmaliFileFactory(4).getSmaliFiles(smaliDir);
+
+        assertEquals(getClassNameToPath(serial), getClassNameToPath(parallel));
+        assertEquals(new File(smaliDir, "Class7.smali").getAbsolutePath(),
+                        getClassNameToPath(parallel).get("Lgenerated/Class7;"));
+    }
+
+}